@@ -0,0 +1,72 @@
+package com.rag.how_to_cook;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对比两次 JMH 运行的 JSON 结果（-rf json），按基准名 + 参数逐项输出变化
+ * mvn -Pjmh test-compile exec:exec -Djmh.main=com.rag.how_to_cook.BenchmarkCompare -Djmh.args="base.json head.json 5"
+ * 第三个参数为回退阈值（百分比，默认 5），有超过阈值的回退时以退出码 1 结束
+ */
+public class BenchmarkCompare {
+
+    record Result(double score, double error, String unit, boolean higherIsBetter) {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("用法: BenchmarkCompare <base.json> <head.json> [阈值%]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 5.0;
+        Map<String, Result> base = load(new File(args[0]));
+        Map<String, Result> head = load(new File(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : head.entrySet()) {
+            Result after = entry.getValue();
+            Result before = base.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-70s %14.3f %s (新增)%n", entry.getKey(), after.score(), after.unit());
+                continue;
+            }
+            double change = (after.score() - before.score()) / before.score() * 100;
+            // 吞吐量下降或耗时上升，且超出两次误差之和才算回退
+            double worse = after.higherIsBetter() ? -change : change;
+            boolean beyondError = Math.abs(after.score() - before.score()) > before.error() + after.error();
+            String mark = "";
+            if (worse > threshold && beyondError) {
+                mark = "  <-- 回退";
+                regressions++;
+            } else if (-worse > threshold && beyondError) {
+                mark = "  提升";
+            }
+            System.out.printf("%-70s %14.3f -> %14.3f %s (%+.1f%%)%s%n",
+                    entry.getKey(), before.score(), after.score(), after.unit(), change, mark);
+        }
+        System.out.printf("%n共 %d 项，%d 项回退超过 %.1f%%%n", head.size(), regressions, threshold);
+        if (regressions > 0) System.exit(1);
+    }
+
+    private static Map<String, Result> load(File file) throws Exception {
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.get("benchmark").asText());
+            JsonNode params = run.get("params");
+            if (params != null) {
+                params.properties().forEach(p -> key.append(' ').append(p.getKey()).append('=').append(p.getValue().asText()));
+            }
+            JsonNode metric = run.get("primaryMetric");
+            String mode = run.get("mode").asText();
+            results.put(key.toString(), new Result(
+                    metric.get("score").asDouble(),
+                    metric.get("scoreError").isNumber() ? metric.get("scoreError").asDouble() : 0,
+                    metric.get("scoreUnit").asText(),
+                    "thrpt".equals(mode)));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,108 @@
+package com.rag.how_to_cook.config;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 高并发阻塞调用：boundedElastic 与虚拟线程 scheduler 的对比
+ * 每次操作同时发出 concurrency 个请求，每个请求阻塞 blockMillis（模拟一次 JDBC / MinIO 往返），全部完成算一次操作
+ * - 操作耗时即一批请求中最慢的那个，吞吐 = concurrency / 平均耗时
+ * - 单个请求（从发出到完成）的 p50 / p99 在测量结束时打印
+ * work=sleep-in-synchronized 在 synchronized 块内阻塞：JDK 21 上会固定载体线程，可配合 VirtualThreadPinningMonitor 观察；
+ * JDK 24 起（JEP 491）不再固定
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class BlockingSchedulerBenchmark {
+
+    @Param({"bounded-elastic", "virtual"})
+    String scheduler;
+
+    @Param({"200", "2000"})
+    int concurrency;
+
+    @Param({"20"})
+    int blockMillis;
+
+    @Param({"sleep", "sleep-in-synchronized"})
+    String work;
+
+    private Scheduler blocking;
+    private final long[] latencies = new long[1 << 22];
+    private final AtomicInteger recorded = new AtomicInteger();
+    private volatile boolean measuring;
+
+    @Setup
+    public void setup() {
+        blocking = SchedulerConfig.create(scheduler);
+    }
+
+    @Setup(Level.Iteration)
+    public void iteration(IterationParams params) {
+        measuring = params.getType() == IterationType.MEASUREMENT;
+    }
+
+    @TearDown
+    public void tearDown() {
+        blocking.dispose();
+        int n = Math.min(recorded.get(), latencies.length);
+        if (n == 0) return;
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.printf("%n[%s concurrency=%d work=%s] 单个请求 p50=%.1f ms p99=%.1f ms max=%.1f ms（%d 个请求）%n",
+                scheduler, concurrency, work,
+                sorted[n / 2] / 1e6, sorted[Math.min(n - 1, (int) Math.ceil(n * 0.99) - 1)] / 1e6, sorted[n - 1] / 1e6, n);
+    }
+
+    @Benchmark
+    public void burst() {
+        Flux.range(0, concurrency)
+                .flatMap(i -> request(), concurrency)
+                .then()
+                .block();
+    }
+
+    private Mono<Void> request() {
+        return Mono.defer(() -> {
+            // 从发出时算起，包括在 scheduler 中排队的时间
+            long submittedAt = System.nanoTime();
+            return Mono.fromRunnable(this::block)
+                    .subscribeOn(blocking)
+                    .doOnTerminate(() -> record(submittedAt))
+                    .then();
+        });
+    }
+
+    private void block() {
+        try {
+            if (work.equals("sleep")) {
+                Thread.sleep(blockMillis);
+            } else {
+                Object monitor = new Object();
+                synchronized (monitor) {
+                    Thread.sleep(blockMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record(long submittedAt) {
+        if (!measuring) return;
+        int slot = recorded.getAndIncrement();
+        if (slot < latencies.length) latencies[slot] = System.nanoTime() - submittedAt;
+    }
+}
@@ -0,0 +1,105 @@
+package com.rag.how_to_cook.loadtest;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Statement;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+
+/**
+ * 给内存 H2 加上每条语句一次的网络往返延迟（loadtest.db-latency），模拟独立部署的 Postgres
+ * - JDBC：执行语句的线程在持有连接时休眠，与真实的阻塞驱动一样占住线程
+ * - R2DBC：延迟订阅语句结果，不占线程
+ */
+class DatabaseLatency implements BeanPostProcessor {
+    private final Duration latency;
+
+    DatabaseLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (latency.isZero()) return bean;
+        if (bean instanceof DataSource dataSource) {
+            return proxy(DataSource.class, dataSource, (target, method, args) -> {
+                Object result = invoke(target, method, args);
+                return result instanceof java.sql.Connection connection ? jdbcConnection(connection) : result;
+            });
+        }
+        if (bean instanceof ConnectionFactory connectionFactory) {
+            return proxy(ConnectionFactory.class, connectionFactory, (target, method, args) -> {
+                Object result = invoke(target, method, args);
+                return method.getName().equals("create")
+                        ? Mono.from((Publisher<?>) result).cast(Connection.class).map(this::r2dbcConnection)
+                        : result;
+            });
+        }
+        return bean;
+    }
+
+    private java.sql.Connection jdbcConnection(java.sql.Connection connection) {
+        return proxy(java.sql.Connection.class, connection, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (result instanceof java.sql.CallableStatement statement) return jdbcStatement(java.sql.CallableStatement.class, statement);
+            if (result instanceof java.sql.PreparedStatement statement) return jdbcStatement(java.sql.PreparedStatement.class, statement);
+            if (result instanceof java.sql.Statement statement) return jdbcStatement(java.sql.Statement.class, statement);
+            return result;
+        });
+    }
+
+    private <S extends java.sql.Statement> S jdbcStatement(Class<S> type, S statement) {
+        return proxy(type, statement, (target, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                Thread.sleep(latency);
+            }
+            return invoke(target, method, args);
+        });
+    }
+
+    private Connection r2dbcConnection(Connection connection) {
+        return proxy(Connection.class, connection, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            return result instanceof Statement statement ? r2dbcStatement(statement) : result;
+        });
+    }
+
+    private Statement r2dbcStatement(Statement statement) {
+        Statement[] self = new Statement[1];
+        self[0] = proxy(Statement.class, statement, (target, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (method.getName().equals("execute")) {
+                return Flux.from((Publisher<?>) result).delaySubscription(latency);
+            }
+            // bind / add 等链式调用返回代理本身
+            return result == target ? self[0] : result;
+        });
+        return self[0];
+    }
+
+    private interface Handler<T> {
+        Object handle(T target, Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, T target, Handler<T> handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> handler.handle(target, method, args);
+        return type.cast(Proxy.newProxyInstance(DatabaseLatency.class.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.rag.how_to_cook.loadtest;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 确定性的哈希向量（Ollama bge-small-zh 的替身）：把相邻两个字符组成的二元组哈希到固定维度并归一化，
+ * 相同文本得到相同向量，字面相近的文本余弦相似度也较高，足以让检索结果有意义
+ */
+class HashEmbeddingModel implements EmbeddingModel {
+    private final int dimensions;
+
+    HashEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>(request.getInstructions().size());
+        for (int i = 0; i < request.getInstructions().size(); i++) {
+            embeddings.add(new Embedding(embed(request.getInstructions().get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        if (text == null || text.isEmpty()) {
+            vector[0] = 1;
+            return vector;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            int hash = text.charAt(i) * 31 + (i + 1 < text.length() ? text.charAt(i + 1) : 0);
+            hash ^= hash >>> 16;
+            hash *= 0x45d9f3b;
+            hash ^= hash >>> 16;
+            vector[Math.floorMod(hash, dimensions)] += (hash & 0x40000000) == 0 ? 1 : -1;
+        }
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        if (norm == 0) {
+            vector[0] = 1;
+            return vector;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) vector[i] *= scale;
+        return vector;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+}
@@ -0,0 +1,414 @@
+package com.rag.how_to_cook.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rag.how_to_cook.HowToCookApplication;
+import com.rag.how_to_cook.service.RecipeCorpus;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端压测：不依赖 DeepSeek / Ollama / Elasticsearch / MinIO / Postgres，在本进程内启动
+ * OpenAI 兼容流式桩（OpenAiStub）、哈希向量模型（HashEmbeddingModel）、HNSW 向量库、S3 兼容对象存储（ObjectStoreStub）与 H2，
+ * 再用 WebClient 模拟多个用户混合调用 /chat、/chats 与 /api/minio/upload，输出吞吐、首 token 延迟分位数与错误率
+ * mvn -Pjmh test-compile exec:exec -Djmh.main=com.rag.how_to_cook.loadtest.LoadTest -Djmh.args="-Dloadtest.users=50"
+ * （参数以 -D 形式写在 jmh.args 里时会被当作程序参数，这里一并解析）
+ * 可选参数（默认值）：
+ * - loadtest.users=20 并发用户数；loadtest.duration=60s 压测时长；loadtest.seed-recipes=200 预先上传的菜谱数
+ * - loadtest.mix=chat:70,chats:20,upload:10 各操作占比
+ * - loadtest.call-latency=150ms 非流式 LLM 调用耗时；loadtest.first-token-latency=300ms；loadtest.token-latency=20ms；loadtest.answer-tokens=200
+ * - loadtest.db-latency=0ms 每条数据库语句额外的网络往返（内存 H2 没有网络开销，设为几毫秒更接近独立部署的 Postgres）
+ * 另外统计压测期间的平台线程峰值，以及阻塞 scheduler（rag-blocking / boundedElastic）上的任务数与同时执行的峰值：
+ * 后者即改用平台线程池时需要的线程数
+ */
+public class LoadTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE = new ParameterizedTypeReference<>() {};
+    private static final String[] QUESTIONS = {"推荐几个简单的%s", "%s怎么做", "%s需要什么食材", "%s有什么营养价值"};
+
+    public static void main(String[] args) throws Exception {
+        Properties settings = new Properties();
+        settings.putAll(System.getProperties());
+        for (String arg : args) {
+            if (arg.startsWith("-D") && arg.contains("=")) {
+                settings.setProperty(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        int users = Integer.parseInt(settings.getProperty("loadtest.users", "20"));
+        Duration duration = Duration.parse("PT" + settings.getProperty("loadtest.duration", "60s"));
+        int seedRecipes = Integer.parseInt(settings.getProperty("loadtest.seed-recipes", "200"));
+        Map<String, Integer> mix = parseMix(settings.getProperty("loadtest.mix", "chat:70,chats:20,upload:10"));
+
+        try (OpenAiStub llm = new OpenAiStub(
+                Duration.parse("PT" + settings.getProperty("loadtest.call-latency", "0.15s")),
+                Duration.parse("PT" + settings.getProperty("loadtest.first-token-latency", "0.3s")),
+                Duration.parse("PT" + settings.getProperty("loadtest.token-latency", "0.02s")),
+                Integer.parseInt(settings.getProperty("loadtest.answer-tokens", "200")));
+             ObjectStoreStub objectStore = new ObjectStoreStub("rag-docs")) {
+
+            BlockingProbe.install();
+            Path dataDir = Files.createTempDirectory("how-to-cook-loadtest");
+            ConfigurableApplicationContext app = new SpringApplicationBuilder(HowToCookApplication.class, LoadTestConfig.class)
+                    .run(applicationArgs(llm, objectStore, dataDir, settings.getProperty("loadtest.db-latency", "0ms")));
+            try {
+                String port = app.getEnvironment().getProperty("local.server.port");
+                WebClient client = WebClient.builder()
+                        .baseUrl("http://127.0.0.1:" + port)
+                        .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                        .build();
+                new LoadTest(client, users, mix).run(duration, seedRecipes, llm, objectStore);
+            } finally {
+                app.close();
+            }
+        }
+    }
+
+    /**
+     * 以命令行参数形式传入，优先级高于 application.properties
+     */
+    private static String[] applicationArgs(OpenAiStub llm, ObjectStoreStub objectStore, Path dataDir, String dbLatency) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.ai.openai.base-url", llm.baseUrl());
+        properties.put("spring.ai.openai.api-key", "stub");
+        properties.put("spring.ai.model.embedding", "none");
+        properties.put("spring.ai.vectorstore.type", "hnsw");
+        properties.put("rag.vectorstore.hnsw.directory", dataDir.resolve("hnsw").toString());
+        properties.put("rag.trace.directory", dataDir.resolve("traces").toString());
+        properties.put("minio.endpoint", objectStore.endpoint());
+        // 桩不支持 bucket 通知
+        properties.put("rag.ingest.notifications.enabled", "false");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:loadtest;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        // 与上面是同一个内存库（同一进程、同名）
+        properties.put("spring.r2dbc.url", "r2dbc:h2:mem:///loadtest?options=MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        properties.put("spring.r2dbc.username", "sa");
+        properties.put("spring.r2dbc.password", "");
+        // r2dbc-h2 在调用线程上同步完成，与 r2dbc-pool 一起使用时压测开始那批并发的获取连接会一直挂起到负载结束；
+        // 内存库建连接很便宜，压测时不用连接池（Postgres 驱动是异步的，不受影响）
+        properties.put("spring.r2dbc.pool.enabled", "false");
+        properties.put("loadtest.db-latency", dbLatency);
+        properties.put("spring.jpa.properties.hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.hibernate.ddl-auto", "create");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("management.health.elasticsearch.enabled", "false");
+        // 压测用户不停顿地连续发请求，放宽按用户的令牌桶，只保留本节点的并发准入
+        properties.put("rag.ratelimit.chat.capacity", "1000000");
+        properties.put("rag.ratelimit.upload.capacity", "1000000");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.org.springframework.web.reactive.function.server", "WARN");
+        return properties.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split(":");
+            weights.put(kv[0], Integer.parseInt(kv[1]));
+        }
+        return weights;
+    }
+
+    private final WebClient client;
+    private final int users;
+    private final Map<String, Integer> mix;
+    private final Map<String, Stats> stats = new LinkedHashMap<>();
+    private final List<RecipeCorpus.Recipe> corpus = RecipeCorpus.generate(5000, 11);
+    private final AtomicInteger nextRecipe = new AtomicInteger();
+
+    LoadTest(WebClient client, int users, Map<String, Integer> mix) {
+        this.client = client;
+        this.users = users;
+        this.mix = mix;
+        for (String operation : List.of("sign-up", "seed-upload", "chat", "chats", "upload")) {
+            stats.put(operation, new Stats());
+        }
+    }
+
+    void run(Duration duration, int seedRecipes, OpenAiStub llm, ObjectStoreStub objectStore) {
+        List<VirtualUser> virtualUsers = Flux.range(0, users)
+                .flatMap(this::signUp, users)
+                .collectList()
+                .block();
+        System.out.printf("已注册 %d 个用户%n", virtualUsers.size());
+
+        // 预先上传菜谱，保证检索有内容（单独统计）
+        Flux.range(0, seedRecipes)
+                .flatMap(i -> upload(virtualUsers.get(i % virtualUsers.size()), stats.get("seed-upload")), users)
+                .blockLast();
+        System.out.printf("已上传 %d 篇菜谱，对象存储中共 %d 个对象%n", seedRecipes, objectStore.objectCount());
+
+        resetMeasurements();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        Flux.fromIterable(virtualUsers)
+                .flatMap(user -> Mono.defer(() -> nextOperation(user))
+                        .repeat(() -> System.nanoTime() < deadline)
+                        .then(), virtualUsers.size())
+                .blockLast();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        report(seconds, llm);
+    }
+
+    private void resetMeasurements() {
+        for (String operation : List.of("chat", "chats", "upload")) stats.put(operation, new Stats());
+        BlockingProbe.reset();
+    }
+
+    private Mono<Void> nextOperation(VirtualUser user) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) {
+                return switch (entry.getKey()) {
+                    case "chat" -> chat(user);
+                    case "chats" -> listChats(user);
+                    case "upload" -> upload(user, stats.get("upload"));
+                    default -> throw new IllegalArgumentException("未知操作: " + entry.getKey());
+                };
+            }
+        }
+        return Mono.empty();
+    }
+
+    private Mono<VirtualUser> signUp(int index) {
+        String username = "load-" + index + "-" + UUID.randomUUID().toString().substring(0, 8);
+        Stats stat = stats.get("sign-up");
+        long start = System.nanoTime();
+        return client.post().uri("/sign-up")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Map.of("username", username, "password", "password"))
+                .retrieve()
+                .bodyToMono(JsonNode.class)
+                .map(body -> {
+                    stat.success(System.nanoTime() - start);
+                    return new VirtualUser(username, body.get("token").asText());
+                })
+                .doOnError(e -> stat.error(e));
+    }
+
+    /**
+     * 一半概率在已有对话中继续提问，其余新建对话（会额外触发一次生成标题的 LLM 调用）
+     */
+    private Mono<Void> chat(VirtualUser user) {
+        Stats stat = stats.get("chat");
+        RecipeCorpus.Recipe recipe = corpus.get(ThreadLocalRandom.current().nextInt(corpus.size()));
+        String dish = dishName(recipe);
+        String question = String.format(QUESTIONS[ThreadLocalRandom.current().nextInt(QUESTIONS.length)], dish);
+        Map<String, Object> body = new HashMap<>();
+        body.put("prompt", question);
+        if (user.chatId != null && ThreadLocalRandom.current().nextBoolean()) body.put("chatId", user.chatId);
+
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            long[] firstToken = {0};
+            return client.post().uri("/chat")
+                    .headers(headers -> headers.setBearerAuth(user.token))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(body)
+                    .retrieve()
+                    .bodyToFlux(SSE)
+                    .doOnNext(event -> {
+                        if (firstToken[0] == 0) {
+                            firstToken[0] = System.nanoTime();
+                            user.chatId = chatIdOf(event.data(), user.chatId);
+                        }
+                    })
+                    .then()
+                    .doOnSuccess(v -> {
+                        if (firstToken[0] == 0) {
+                            stat.error(new IllegalStateException("回答为空"));
+                        } else {
+                            stat.success(System.nanoTime() - start);
+                            stat.ttft(firstToken[0] - start);
+                        }
+                    })
+                    .doOnError(stat::error)
+                    .onErrorResume(e -> Mono.empty());
+        });
+    }
+
+    private Mono<Void> listChats(VirtualUser user) {
+        Stats stat = stats.get("chats");
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return client.get().uri("/chats")
+                    .headers(headers -> headers.setBearerAuth(user.token))
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .doOnSuccess(v -> stat.success(System.nanoTime() - start))
+                    .doOnError(stat::error)
+                    .onErrorResume(e -> Mono.empty())
+                    .then();
+        });
+    }
+
+    private Mono<Void> upload(VirtualUser user, Stats stat) {
+        RecipeCorpus.Recipe recipe = corpus.get(nextRecipe.getAndIncrement() % corpus.size());
+        // 去掉生成语料里的用户前缀，上传后对象名为 {username}/dishes/{category}/{dish}.md
+        String fileName = recipe.objectName().substring(recipe.objectName().indexOf('/') + 1);
+        MultipartBodyBuilder multipart = new MultipartBodyBuilder();
+        multipart.part("file", recipe.content().getBytes(StandardCharsets.UTF_8))
+                .filename(fileName)
+                .contentType(MediaType.TEXT_MARKDOWN);
+
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return client.post().uri("/api/minio/upload")
+                    .headers(headers -> headers.setBearerAuth(user.token))
+                    .contentType(MediaType.MULTIPART_FORM_DATA)
+                    .body(BodyInserters.fromMultipartData(multipart.build()))
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .doOnSuccess(v -> stat.success(System.nanoTime() - start))
+                    .doOnError(stat::error)
+                    .onErrorResume(e -> Mono.empty())
+                    .then();
+        });
+    }
+
+    private static String dishName(RecipeCorpus.Recipe recipe) {
+        String name = recipe.objectName().substring(recipe.objectName().lastIndexOf('/') + 1);
+        return name.substring(0, name.length() - ".md".length());
+    }
+
+    private static String chatIdOf(String data, String fallback) {
+        try {
+            JsonNode frame = OBJECT_MAPPER.readTree(data);
+            return frame.hasNonNull("chatId") ? frame.get("chatId").asText() : fallback;
+        } catch (Exception e) {
+            return fallback;
+        }
+    }
+
+    private void report(double seconds, OpenAiStub llm) {
+        System.out.printf("%n压测 %.1f 秒，%d 个并发用户，LLM 桩：%d 次同步调用，%d 次流式调用%n",
+                seconds, users, llm.calls.get(), llm.streams.get());
+        System.out.printf("%-12s %8s %8s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "ok", "errors", "err%", "req/s", "p50(ms)", "p99(ms)", "ttft50", "ttft99");
+        stats.forEach((operation, stat) -> {
+            long ok = stat.ok.get();
+            long errors = stat.errors.get();
+            if (ok + errors == 0) return;
+            boolean measured = !operation.equals("sign-up") && !operation.equals("seed-upload");
+            System.out.printf("%-12s %8d %8d %7.2f%% %10s %10.1f %10.1f %10s %10s%n",
+                    operation, ok, errors, 100.0 * errors / (ok + errors),
+                    measured ? String.format("%.1f", ok / seconds) : "-",
+                    stat.latency(0.5), stat.latency(0.99),
+                    stat.ttfts.isEmpty() ? "-" : String.format("%.1f", stat.ttft(0.5)),
+                    stat.ttfts.isEmpty() ? "-" : String.format("%.1f", stat.ttft(0.99)));
+            stat.errorSamples.stream().limit(3).forEach(message -> System.out.println("    " + message));
+        });
+        System.out.printf("平台线程：峰值 %d，结束时 %d；阻塞 scheduler：%d 个任务（%.1f/s），同时执行峰值 %d%n",
+                BlockingProbe.THREADS.getPeakThreadCount(), BlockingProbe.THREADS.getThreadCount(),
+                BlockingProbe.tasks.get(), BlockingProbe.tasks.get() / seconds, BlockingProbe.peak.get());
+    }
+
+    /**
+     * 通过 Reactor 的调度钩子统计在阻塞 scheduler 线程上执行的任务（按线程名判断，虚拟线程也能统计到）
+     */
+    private static final class BlockingProbe {
+        static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+        static final AtomicLong tasks = new AtomicLong();
+        static final AtomicInteger active = new AtomicInteger();
+        static final AtomicInteger peak = new AtomicInteger();
+
+        static void install() {
+            Schedulers.onScheduleHook("loadtest-blocking-probe", task -> () -> {
+                String thread = Thread.currentThread().getName();
+                if (!thread.startsWith("rag-blocking-") && !thread.startsWith("boundedElastic-")) {
+                    task.run();
+                    return;
+                }
+                tasks.incrementAndGet();
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                }
+            });
+        }
+
+        static void reset() {
+            tasks.set(0);
+            peak.set(active.get());
+            THREADS.resetPeakThreadCount();
+        }
+    }
+
+    private static final class VirtualUser {
+        final String username;
+        final String token;
+        volatile String chatId;
+
+        VirtualUser(String username, String token) {
+            this.username = username;
+            this.token = token;
+        }
+    }
+
+    private static final class Stats {
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Long> ttfts = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<String> errorSamples = new ConcurrentLinkedQueue<>();
+
+        void success(long nanos) {
+            ok.incrementAndGet();
+            latencies.add(nanos);
+        }
+
+        void ttft(long nanos) {
+            ttfts.add(nanos);
+        }
+
+        void error(Throwable e) {
+            errors.incrementAndGet();
+            if (errorSamples.size() < 10) errorSamples.add(e.toString());
+        }
+
+        double latency(double quantile) {
+            return quantile(latencies, quantile);
+        }
+
+        double ttft(double quantile) {
+            return quantile(ttfts, quantile);
+        }
+
+        private static double quantile(Collection<Long> values, double quantile) {
+            if (values.isEmpty()) return 0;
+            long[] sorted = values.stream().mapToLong(Long::longValue).sorted().toArray();
+            int index = Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1);
+            return sorted[Math.max(0, index)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+}
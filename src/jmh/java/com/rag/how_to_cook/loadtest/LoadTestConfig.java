@@ -0,0 +1,24 @@
+package com.rag.how_to_cook.loadtest;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+
+import java.time.Duration;
+
+/**
+ * 压测时额外注册的 Bean（由 LoadTest 作为配置源传入，不参与组件扫描）
+ * spring.ai.model.embedding=none 关闭 Ollama 自动配置后，由哈希向量模型代替；loadtest.db-latency 给数据库语句加上模拟的网络往返
+ */
+class LoadTestConfig {
+
+    @Bean
+    EmbeddingModel hashEmbeddingModel(@Value("${rag.vectorstore.hnsw.dimensions:512}") int dimensions) {
+        return new HashEmbeddingModel(dimensions);
+    }
+
+    @Bean
+    static DatabaseLatency databaseLatency(@Value("${loadtest.db-latency:0ms}") Duration latency) {
+        return new DatabaseLatency(latency);
+    }
+}
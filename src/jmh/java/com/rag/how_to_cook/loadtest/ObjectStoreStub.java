@@ -0,0 +1,196 @@
+package com.rag.how_to_cook.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+
+/**
+ * 进程内的 S3 兼容对象存储（MinIO 的替身），只实现项目用到的接口：
+ * bucket 存在检查 / 区域查询、ListObjectsV2、PUT / GET（含 Range）/ DELETE 对象；不校验签名，数据只保存在内存中
+ */
+class ObjectStoreStub implements AutoCloseable {
+    private static final String S3_NS = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+    private final HttpServer server;
+    private final Map<String, ConcurrentSkipListMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+
+    private record StoredObject(byte[] data, Instant lastModified, String etag) {}
+
+    ObjectStoreStub(String... bucketNames) throws IOException {
+        for (String bucket : bucketNames) buckets.put(bucket, new ConcurrentSkipListMap<>());
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // 与 OpenAiStub 相同，不与应用共用虚拟线程的载体线程
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    int objectCount() {
+        return buckets.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            String[] parts = path.substring(1).split("/", 2);
+            String bucketName = parts[0];
+            String key = parts.length > 1 ? parts[1] : "";
+            Map<String, String> query = queryParams(exchange.getRequestURI().getRawQuery());
+            ConcurrentSkipListMap<String, StoredObject> bucket = buckets.get(bucketName);
+
+            if (bucket == null) {
+                error(exchange, 404, "NoSuchBucket", bucketName);
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            if (key.isEmpty()) {
+                if (method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else if (query.containsKey("location")) {
+                    xml(exchange, 200, "<LocationConstraint xmlns=\"" + S3_NS + "\"></LocationConstraint>");
+                } else if (method.equals("GET")) {
+                    list(exchange, bucketName, bucket, query);
+                } else {
+                    error(exchange, 405, "MethodNotAllowed", bucketName);
+                }
+                return;
+            }
+
+            switch (method) {
+                case "PUT" -> {
+                    byte[] data = exchange.getRequestBody().readAllBytes();
+                    String etag = "\"" + Integer.toHexString(Arrays.hashCode(data)) + "\"";
+                    bucket.put(key, new StoredObject(data, Instant.now(), etag));
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                case "GET", "HEAD" -> {
+                    StoredObject object = bucket.get(key);
+                    if (object == null) {
+                        error(exchange, 404, "NoSuchKey", key);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("ETag", object.etag());
+                    exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                    exchange.getResponseHeaders().set("Last-Modified",
+                            DateTimeFormatter.RFC_1123_DATE_TIME.format(object.lastModified().atZone(ZoneOffset.UTC)));
+                    if (method.equals("HEAD")) {
+                        exchange.getResponseHeaders().set("Content-Length", String.valueOf(object.data().length));
+                        exchange.sendResponseHeaders(200, -1);
+                    } else {
+                        // 章节补全按字节区间读取：Range: bytes=a-b
+                        String range = exchange.getRequestHeaders().getFirst("Range");
+                        byte[] data = object.data();
+                        if (range != null && range.startsWith("bytes=")) {
+                            String[] bounds = range.substring(6).split("-", 2);
+                            int from = Math.min(Integer.parseInt(bounds[0]), data.length);
+                            int to = bounds[1].isEmpty() ? data.length - 1
+                                    : Math.min(Integer.parseInt(bounds[1]), data.length - 1);
+                            exchange.getResponseHeaders().set("Content-Range",
+                                    "bytes " + from + "-" + to + "/" + data.length);
+                            exchange.sendResponseHeaders(206, Math.max(0, to - from + 1));
+                            exchange.getResponseBody().write(data, from, Math.max(0, to - from + 1));
+                        } else {
+                            exchange.sendResponseHeaders(200, data.length);
+                            exchange.getResponseBody().write(data);
+                        }
+                    }
+                }
+                case "DELETE" -> {
+                    bucket.remove(key);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> error(exchange, 405, "MethodNotAllowed", key);
+            }
+        }
+    }
+
+    /**
+     * ListObjectsV2，不返回 EncodingType，客户端不会再做 URL 解码；对象数量在压测规模下不需要分页
+     */
+    private void list(HttpExchange exchange, String bucketName, ConcurrentSkipListMap<String, StoredObject> bucket,
+                      Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.getOrDefault("delimiter", "");
+        StringBuilder contents = new StringBuilder();
+        Set<String> commonPrefixes = new TreeSet<>();
+        int count = 0;
+        for (Map.Entry<String, StoredObject> entry : bucket.tailMap(prefix).entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) break;
+            if (!delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    commonPrefixes.add(key.substring(0, index + delimiter.length()));
+                    continue;
+                }
+            }
+            StoredObject object = entry.getValue();
+            contents.append("<Contents><Key>").append(escape(key)).append("</Key>")
+                    .append("<LastModified>").append(object.lastModified()).append("</LastModified>")
+                    .append("<ETag>").append(escape(object.etag())).append("</ETag>")
+                    .append("<Size>").append(object.data().length).append("</Size>")
+                    .append("<StorageClass>STANDARD</StorageClass></Contents>");
+            count++;
+        }
+        for (String common : commonPrefixes) {
+            contents.append("<CommonPrefixes><Prefix>").append(escape(common)).append("</Prefix></CommonPrefixes>");
+        }
+        xml(exchange, 200, "<ListBucketResult xmlns=\"" + S3_NS + "\">"
+                + "<Name>" + escape(bucketName) + "</Name><Prefix>" + escape(prefix) + "</Prefix>"
+                + "<KeyCount>" + count + "</KeyCount><MaxKeys>1000</MaxKeys><IsTruncated>false</IsTruncated>"
+                + contents + "</ListBucketResult>");
+    }
+
+    private static void error(HttpExchange exchange, int status, String code, String resource) throws IOException {
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        xml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + code + "</Message><Resource>"
+                + escape(resource) + "</Resource><RequestId>stub</RequestId><HostId>stub</HostId></Error>");
+    }
+
+    private static void xml(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, String> queryParams(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(name, value);
+        }
+        return params;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
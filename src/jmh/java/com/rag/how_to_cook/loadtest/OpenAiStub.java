@@ -0,0 +1,169 @@
+package com.rag.how_to_cook.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OpenAI 兼容的 /v1/chat/completions 桩（DeepSeek 的替身），同步调用与流式调用都按配置的延迟返回
+ * 按 GenerationIntegration 中各提示词的内容给出合理的结果：路由按关键词分类、改写返回原查询、
+ * 难度 / 类别返回全部取值（过滤条件不排除任何文档），流式回答输出固定数量的 token
+ */
+class OpenAiStub implements AutoCloseable {
+    // 各提示词模板中用户输入所在的行
+    private static final Pattern QUERY = Pattern.compile("(?:用户问题|原始查询|用户输入的第一句话|用户输入)[:：]\\s*\"?([^\"\\n]+)");
+    private static final String TOKEN = "好";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final Duration callLatency;
+    private final Duration firstTokenLatency;
+    private final Duration tokenLatency;
+    private final int answerTokens;
+
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong streams = new AtomicLong();
+
+    OpenAiStub(Duration callLatency, Duration firstTokenLatency, Duration tokenLatency, int answerTokens) throws IOException {
+        this.callLatency = callLatency;
+        this.firstTokenLatency = firstTokenLatency;
+        this.tokenLatency = tokenLatency;
+        this.answerTokens = answerTokens;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // 桩模拟的是远端服务，用独立的平台线程：应用的阻塞调用也跑在虚拟线程上，
+        // 共用载体线程时应用的 CPU 工作会推迟桩的响应，测出的延迟偏高
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/chat/completions", this::handle);
+        server.start();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String prompt = lastUserMessage(request);
+            if (request.path("stream").asBoolean(false)) {
+                streams.incrementAndGet();
+                stream(exchange, request.path("model").asText("stub"));
+            } else {
+                calls.incrementAndGet();
+                sleep(callLatency);
+                byte[] body = objectMapper.writeValueAsBytes(completion(request.path("model").asText("stub"), answer(prompt)));
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        } catch (Exception e) {
+            // 客户端取消等情况，忽略
+        }
+    }
+
+    private void stream(HttpExchange exchange, String model) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        String id = "chatcmpl-" + UUID.randomUUID();
+        sleep(firstTokenLatency);
+        for (int i = 0; i < answerTokens; i++) {
+            if (i > 0) sleep(tokenLatency);
+            writeEvent(out, chunk(id, model, TOKEN, null));
+        }
+        writeEvent(out, chunk(id, model, null, "stop"));
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void writeEvent(OutputStream out, ObjectNode event) throws IOException {
+        out.write(("data: " + objectMapper.writeValueAsString(event) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * 按提示词识别是哪一次调用
+     */
+    static String answer(String prompt) {
+        Matcher matcher = QUERY.matcher(prompt);
+        String query = matcher.find() ? matcher.group(1).trim() : prompt;
+        if (prompt.contains("分类为以下三种类型")) {
+            if (query.contains("推荐") || query.contains("有什么") || query.contains("几个")) return "list";
+            if (query.contains("怎么做") || query.contains("步骤") || query.contains("食材") || query.contains("做法")) return "detail";
+            return "general";
+        }
+        if (prompt.contains("智能菜谱难度分类助手")) return "very easy, easy, medium, difficult, very difficult";
+        if (prompt.contains("可用类别")) {
+            return "meat_dish, vegetable_dish, soup, dessert, breakfast, staple, aquatic, condiment, drink";
+        }
+        if (prompt.contains("生成一个简洁的标题")) return query.length() > 10 ? query.substring(0, 10) : query;
+        // 改写与其它调用直接返回原查询
+        return query;
+    }
+
+    private String lastUserMessage(JsonNode request) {
+        String content = "";
+        for (JsonNode message : request.path("messages")) {
+            if ("user".equals(message.path("role").asText())) {
+                JsonNode value = message.path("content");
+                content = value.isTextual() ? value.asText() : value.toString();
+            }
+        }
+        return content;
+    }
+
+    private ObjectNode completion(String model, String content) {
+        ObjectNode response = objectMapper.createObjectNode()
+                .put("id", "chatcmpl-" + UUID.randomUUID())
+                .put("object", "chat.completion")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+        ObjectNode choice = response.putArray("choices").addObject().put("index", 0).put("finish_reason", "stop");
+        choice.putObject("message").put("role", "assistant").put("content", content);
+        response.putObject("usage").put("prompt_tokens", 0).put("completion_tokens", 0).put("total_tokens", 0);
+        return response;
+    }
+
+    private ObjectNode chunk(String id, String model, String content, String finishReason) {
+        ObjectNode event = objectMapper.createObjectNode()
+                .put("id", id)
+                .put("object", "chat.completion.chunk")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model);
+        ArrayNode choices = event.putArray("choices");
+        ObjectNode choice = choices.addObject().put("index", 0);
+        ObjectNode delta = choice.putObject("delta");
+        if (content != null) delta.put("content", content);
+        if (finishReason != null) choice.put("finish_reason", finishReason);
+        else choice.putNull("finish_reason");
+        return event;
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) return;
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,53 @@
+package com.rag.how_to_cook.security;
+
+import io.jsonwebtoken.io.Encoders;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtAuthenticationFilter 每个请求都会解析并校验一次 token（extractUsername + isTokenValid）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    private JwtService jwtService;
+    private UserDetails user;
+    private String token;
+
+    @Setup
+    public void setup() {
+        byte[] key = new byte[32];
+        new Random(1).nextBytes(key);
+        jwtService = new JwtService(Encoders.BASE64.encode(key));
+        user = User.withUsername("bench-user").password("unused").build();
+        token = jwtService.generateToken(user);
+    }
+
+    @Benchmark
+    public String generate() {
+        return jwtService.generateToken(user);
+    }
+
+    @Benchmark
+    public String parse() {
+        return jwtService.extractUsername(token);
+    }
+
+    /**
+     * 与过滤器中的调用顺序一致：先取用户名，再校验（会再解析一次）
+     */
+    @Benchmark
+    public boolean filterPath() {
+        String username = jwtService.extractUsername(token);
+        return username != null && jwtService.isTokenValid(token, user);
+    }
+}
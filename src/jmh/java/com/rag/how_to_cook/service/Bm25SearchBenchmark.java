@@ -0,0 +1,62 @@
+package com.rag.how_to_cook.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BM25 稀疏通路的单次查询延迟（目标：亚毫秒）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Bm25SearchBenchmark {
+
+    private static final String[] DISHES = {"红烧肉", "宫保鸡丁", "麻婆豆腐", "番茄炒蛋", "酸辣土豆丝", "可乐鸡翅", "清蒸鲈鱼", "蛋炒饭"};
+    private static final String[] WORDS = {"五花肉", "生抽", "老抽", "冰糖", "料酒", "葱姜", "小火", "慢炖", "焯水", "翻炒",
+            "盐", "鸡蛋", "番茄", "土豆", "花椒", "辣椒", "豆瓣酱", "淀粉", "分钟", "出锅", "装盘", "热油"};
+
+    @Param({"20000"})
+    int chunks;
+
+    private Bm25Index index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(7);
+        index = new Bm25Index(1.2f, 0.75f);
+        List<Document> batch = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            StringBuilder text = new StringBuilder(DISHES[random.nextInt(DISHES.length)]).append("的做法：");
+            for (int w = 0; w < 80; w++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(w % 7 == 0 ? "。" : "，");
+            }
+            String chunkId = UUID.randomUUID().toString();
+            batch.add(Document.builder()
+                    .id(chunkId)
+                    .text(text.toString())
+                    .metadata(Map.of("chunkId", chunkId, "userId", "user" + (i % 20)))
+                    .build());
+        }
+        index.add(batch);
+    }
+
+    @Benchmark
+    public List<Document> dishNameQuery() {
+        return index.search("宫保鸡丁怎么做", "user3", 15);
+    }
+
+    @Benchmark
+    public List<Document> ingredientQuery() {
+        return index.search("用豆瓣酱和花椒的菜", "user3", 15);
+    }
+}
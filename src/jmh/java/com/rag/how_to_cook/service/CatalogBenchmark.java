@@ -0,0 +1,51 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.repo.RecipeCatalogRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 菜谱目录回答列表问题的开销：本地解析问题 + 按条件筛选排序，语料为 RecipeCorpus 生成的菜谱（20 个用户）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Param({"2000"})
+    int recipes;
+
+    @Param({"给我3个简单的素菜", "推荐几个有鸡蛋的早餐", "宫保鸡丁怎么做"})
+    String query;
+
+    private RecipeCatalog catalog;
+
+    @Setup
+    public void setup() {
+        // 只需要 save 返回入参，其余方法不会被调用
+        RecipeCatalogRepository repository = (RecipeCatalogRepository) Proxy.newProxyInstance(
+                RecipeCatalogRepository.class.getClassLoader(), new Class<?>[]{RecipeCatalogRepository.class},
+                (proxy, method, args) -> method.getName().equals("save") ? args[0] : null);
+        catalog = new RecipeCatalog(repository, true);
+
+        DataPreparation dataPreparation = new DataPreparation(null, "bench", null, null, null, null, null, null);
+        for (RecipeCorpus.Recipe recipe : RecipeCorpus.generate(recipes, 42)) {
+            Document parent = RecipeCorpus.parentDocument(recipe);
+            dataPreparation.enhanceMetadata(parent, recipe.objectName());
+            catalog.upsert(parent);
+        }
+    }
+
+    @Benchmark
+    public List<RecipeCatalog.Recipe> resolveAndFind() {
+        ListQueryParser.CatalogQuery parsed = catalog.resolve("user0", query);
+        return parsed != null && parsed.resolved() ? catalog.find("user0", parsed) : List.of();
+    }
+}
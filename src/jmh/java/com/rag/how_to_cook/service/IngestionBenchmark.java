@@ -0,0 +1,95 @@
+package com.rag.how_to_cook.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入库热路径：TokenTextSplitter（旧切分方式，作为对照）/ splitDocument（按 Markdown 章节切分）、enhanceMetadata、calculateHash，
+ * 以及 getParentDocument 中按命中 chunk 数排序父文档，每次操作处理语料中的一篇菜谱（轮流取）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestionBenchmark {
+
+    @Param({"500"})
+    int recipes;
+
+    private DataPreparation dataPreparation;
+    private List<RecipeCorpus.Recipe> corpus;
+    private List<Document> parents;
+    private int next;
+
+    // 排序基准：一次检索的候选 chunk 与对应父文档
+    private List<Document> retrievedChunks;
+    private List<Document> retrievedParents;
+
+    @Setup
+    public void setup() {
+        dataPreparation = new DataPreparation(null, "bench", null, null,
+                new PipelineMetrics(new SimpleMeterRegistry()), new MarkdownSectionSplitter(400, 80),
+                new RecipeCatalog(null, false), new RecipeFacets());
+        corpus = RecipeCorpus.generate(recipes, 42);
+        parents = corpus.stream().map(RecipeCorpus::parentDocument).toList();
+
+        Random random = new Random(7);
+        retrievedChunks = new ArrayList<>();
+        retrievedParents = new ArrayList<>();
+        for (int p = 0; p < 10; p++) {
+            String parentId = UUID.randomUUID().toString();
+            retrievedParents.add(Document.builder().text("父文档").metadata(Map.of("parentId", parentId)).build());
+            for (int c = 1 + random.nextInt(5); c > 0; c--) {
+                retrievedChunks.add(Document.builder().text("chunk").metadata(Map.of("parentId", parentId)).build());
+            }
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next + 1) % recipes;
+        return index;
+    }
+
+    @Benchmark
+    public List<Document> tokenTextSplitter() {
+        TokenTextSplitter splitter = new TokenTextSplitter(400, 100, 5, 10000, true);
+        return splitter.apply(List.of(parents.get(nextIndex())));
+    }
+
+    @Benchmark
+    public List<Document> splitDocument() {
+        return dataPreparation.splitDocument(parents.get(nextIndex()));
+    }
+
+    @Benchmark
+    public Document enhanceMetadata() {
+        int index = nextIndex();
+        Document doc = new Document(corpus.get(index).content());
+        dataPreparation.enhanceMetadata(doc, corpus.get(index).objectName());
+        return doc;
+    }
+
+    @Benchmark
+    public String calculateHash() {
+        return dataPreparation.calculateHash(corpus.get(nextIndex()).content());
+    }
+
+    @Benchmark
+    public List<Document> sortParents() {
+        List<Document> docs = new ArrayList<>(retrievedParents);
+        DataPreparation.sortByChunkFrequency(docs, retrievedChunks);
+        return docs;
+    }
+}
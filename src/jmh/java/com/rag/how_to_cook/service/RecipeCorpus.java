@@ -0,0 +1,84 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 按 HowToCook 菜谱的 Markdown 结构生成固定种子的语料，供各基准共用
+ * 每篇包含标题、难度星级、原料与工具、计算、操作步骤和附加内容，长度与真实菜谱相近（约 1~4 KB）
+ */
+public final class RecipeCorpus {
+    public static final String[] CATEGORIES = {"meat_dish", "vegetable_dish", "soup", "dessert", "breakfast",
+            "staple", "aquatic", "condiment", "drink"};
+    private static final String[] DISHES = {"红烧肉", "宫保鸡丁", "麻婆豆腐", "番茄炒蛋", "酸辣土豆丝", "可乐鸡翅",
+            "清蒸鲈鱼", "蛋炒饭", "西红柿牛腩", "糖醋排骨", "鱼香肉丝", "紫菜蛋花汤", "蒜蓉西兰花", "皮蛋瘦肉粥"};
+    private static final String[] INGREDIENTS = {"五花肉", "鸡胸肉", "豆腐", "鸡蛋", "番茄", "土豆", "鲈鱼", "米饭",
+            "牛腩", "排骨", "西兰花", "紫菜", "大米", "皮蛋", "生抽", "老抽", "冰糖", "料酒", "葱", "姜", "蒜",
+            "花椒", "干辣椒", "豆瓣酱", "淀粉", "食用油", "盐", "白糖", "香醋"};
+    private static final String[] ACTIONS = {"切成小块", "冷水下锅焯水", "沥干水分", "热锅冷油", "小火煸炒",
+            "加入调料翻炒均匀", "盖上锅盖焖煮", "大火收汁", "撒上葱花", "装盘", "搅拌均匀", "腌制 15 分钟"};
+
+    private RecipeCorpus() {
+    }
+
+    public record Recipe(String objectName, String content) {}
+
+    public static List<Recipe> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<Recipe> recipes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String dish = DISHES[random.nextInt(DISHES.length)] + (i / DISHES.length == 0 ? "" : String.valueOf(i));
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            recipes.add(new Recipe("user" + (i % 20) + "/dishes/" + category + "/" + dish + ".md",
+                    markdown(dish, random)));
+        }
+        return recipes;
+    }
+
+    /**
+     * 与 DataPreparation.createAndSaveDocument 产出的父文档一致（带 parentId / userId）
+     */
+    public static Document parentDocument(Recipe recipe) {
+        Document doc = new Document(recipe.content());
+        doc.getMetadata().put("parentId", UUID.nameUUIDFromBytes(recipe.objectName().getBytes()).toString());
+        doc.getMetadata().put("userId", recipe.objectName().substring(0, recipe.objectName().indexOf('/')));
+        return doc;
+    }
+
+    private static String markdown(String dish, Random random) {
+        StringBuilder md = new StringBuilder();
+        md.append("# ").append(dish).append("的做法\n\n");
+        md.append(dish).append("是一道家常菜，做法简单，适合新手。\n\n");
+        md.append("预估烹饪难度：").append("★".repeat(1 + random.nextInt(5))).append("\n\n");
+
+        md.append("## 必备原料和工具\n\n");
+        int ingredients = 5 + random.nextInt(8);
+        for (int i = 0; i < ingredients; i++) {
+            md.append("- ").append(INGREDIENTS[random.nextInt(INGREDIENTS.length)]).append('\n');
+        }
+
+        md.append("\n## 计算\n\n每份：\n\n");
+        for (int i = 0; i < ingredients; i++) {
+            md.append("- ").append(INGREDIENTS[random.nextInt(INGREDIENTS.length)])
+                    .append(' ').append(5 + random.nextInt(300)).append(" g\n");
+        }
+
+        md.append("\n## 操作\n\n");
+        int steps = 6 + random.nextInt(15);
+        for (int i = 0; i < steps; i++) {
+            md.append("- ").append(INGREDIENTS[random.nextInt(INGREDIENTS.length)])
+                    .append(ACTIONS[random.nextInt(ACTIONS.length)]).append("，")
+                    .append(ACTIONS[random.nextInt(ACTIONS.length)]).append("，约 ")
+                    .append(1 + random.nextInt(30)).append(" 分钟\n");
+        }
+
+        md.append("\n## 附加内容\n\n");
+        md.append("- 可根据个人口味调整").append(INGREDIENTS[random.nextInt(INGREDIENTS.length)]).append("的用量\n");
+        md.append("\n如果您遵循本指南的制作流程而发现有问题或可以改进的流程，请提出 Issue 或 Pull request 。\n");
+        return md.toString();
+    }
+}
@@ -0,0 +1,260 @@
+package com.rag.how_to_cook.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rag.how_to_cook.config.SchedulerConfig;
+import com.rag.how_to_cook.domain.ChatRequest;
+import com.rag.how_to_cook.domain.MetadataFilterExpression;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢请求回放：读取 SlowRequestLog 写出的轨迹，把 LLM、向量检索和 MinIO 换成本地桩，
+ * 按记录下的各阶段耗时重新执行 RecipeRAGService.processChatStream，用于离线复现延迟问题并配合 JFR / async-profiler 分析
+ * mvn -Pjmh test-compile exec:exec -Djmh.main=com.rag.how_to_cook.service.TraceReplay -Djmh.args="data/traces/trace-0.jsonl 20"
+ * 参数：轨迹文件 [每条轨迹重复次数，默认 10] [只回放 query 包含该子串的轨迹]
+ * -Dreplay.scale=0.5 按比例缩放记录的延迟，0 表示不模拟外部延迟、只测本地开销
+ */
+public class TraceReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("用法: TraceReplay <trace.jsonl> [repeat] [query 子串]");
+            System.exit(1);
+        }
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String queryFilter = args.length > 2 ? args[2] : null;
+        double scale = Double.parseDouble(System.getProperty("replay.scale", "1.0"));
+
+        ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        for (String line : Files.readAllLines(Path.of(args[0]))) {
+            if (line.isBlank()) continue;
+            RequestTrace.Captured trace = objectMapper.readValue(line, RequestTrace.Captured.class);
+            if (queryFilter != null && !trace.query().contains(queryFilter)) continue;
+            replay(trace, repeat, scale);
+        }
+    }
+
+    private static void replay(RequestTrace.Captured trace, int repeat, double scale) throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipelineMetrics metrics = new PipelineMetrics(registry);
+        CorpusVersions corpusVersions = new CorpusVersions();
+        Delays delays = new Delays(trace, scale);
+
+        DataPreparation dataPreparation = new ReplayDataPreparation(trace, delays, metrics);
+        // 与线上默认一致，阻塞调用跑在虚拟线程上
+        Scheduler scheduler = SchedulerConfig.create("virtual");
+        RetrievalOptimization retrieval = new ReplayRetrieval(trace, delays, metrics, scheduler);
+        GenerationIntegration generation = new GenerationIntegration(
+                ChatClient.builder(new ReplayChatModel(trace, delays)),
+                MessageWindowChatMemory.builder().build(),
+                dataPreparation,
+                // 回放时放宽限流与截止时间、实际上不对冲，各阶段耗时与记录保持一致
+                new LlmGateway(registry, scheduler, 64, 2, 64, 0.8, Duration.ofSeconds(30), Duration.ofSeconds(30),
+                        Duration.ofSeconds(60), Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofMillis(100)));
+        // 回放时关闭推测检索，检索耗时全部由 ReplayRetrieval 模拟
+        SpeculativeRetrieval speculation = new SpeculativeRetrieval(retrieval, dataPreparation, registry, metrics, scheduler, false, 3, false);
+        AnswerCache answerCache = new AnswerCache(corpusVersions, 100, 1 << 20, Duration.ofMinutes(1));
+        SlowRequestLog slowRequestLog = new SlowRequestLog(Files.createTempDirectory("replay-traces"),
+                Duration.ofDays(1), 0.0, 1, 1024);
+        RecipeRAGService service = new RecipeRAGService(dataPreparation, generation, retrieval, answerCache,
+                speculation, metrics, slowRequestLog, new RecipeCatalog(null, false),
+                new ChatCoalescer(registry, false), scheduler, "metadata", "parent", "section");
+
+        System.out.printf("%n== %s  route=%s  记录: ttft=%d ms total=%d ms stages=%s%n",
+                trace.query(), trace.route(), trace.ttftMillis(), trace.totalMillis(), trace.stageMillis());
+
+        long[] ttft = new long[repeat];
+        long[] total = new long[repeat];
+        for (int i = 0; i < repeat; i++) {
+            // 每轮递增语料版本，避免命中回答缓存
+            corpusVersions.bump(trace.userId());
+            long start = System.nanoTime();
+            long[] first = {0};
+            service.processChatStream(new ChatRequest(Optional.empty(), trace.query()), trace.userId())
+                    .doOnNext(token -> {
+                        if (first[0] == 0) first[0] = System.nanoTime();
+                    })
+                    .blockLast();
+            long end = System.nanoTime();
+            ttft[i] = TimeUnit.NANOSECONDS.toMillis((first[0] == 0 ? end : first[0]) - start);
+            total[i] = TimeUnit.NANOSECONDS.toMillis(end - start);
+        }
+        slowRequestLog.close();
+        scheduler.dispose();
+
+        Arrays.sort(ttft);
+        Arrays.sort(total);
+        System.out.printf("回放 %d 次: ttft p50=%d ms max=%d ms, total p50=%d ms max=%d ms%n",
+                repeat, ttft[repeat / 2], ttft[repeat - 1], total[repeat / 2], total[repeat - 1]);
+        for (Timer timer : registry.find("rag.pipeline.stage").timers()) {
+            System.out.printf("  %-18s mean=%.1f ms max=%.1f ms%n", timer.getId().getTag("stage"),
+                    timer.mean(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * 从记录的阶段耗时推算各桩需要模拟的延迟
+     */
+    record Delays(Duration router, Duration rewrite, Duration filterCall, Duration search, Duration hydration,
+                  Duration firstToken, Duration perToken) {
+        Delays(RequestTrace.Captured trace, double scale) {
+            this(scaled(stage(trace, "router"), scale),
+                    scaled(stage(trace, "rewrite"), scale),
+                    // 过滤条件提取包含难度、类别两次调用
+                    scaled(stage(trace, "filter_extraction") / 2, scale),
+                    scaled(Math.max(0, stage(trace, "retrieval") - stage(trace, "hydration")), scale),
+                    scaled(stage(trace, "hydration"), scale),
+                    scaled(Math.max(0, trace.ttftMillis() - stage(trace, "router") - stage(trace, "rewrite")
+                            - stage(trace, "filter_extraction") - stage(trace, "retrieval")), scale),
+                    scaled(trace.outputTokens() > 1 ? trace.generationMillis() / (trace.outputTokens() - 1) : 0, scale));
+        }
+
+        private static long stage(RequestTrace.Captured trace, String stage) {
+            return trace.stageMillis() == null ? 0 : trace.stageMillis().getOrDefault(stage, 0L);
+        }
+
+        private static Duration scaled(long millis, double scale) {
+            return Duration.ofNanos((long) (TimeUnit.MILLISECONDS.toNanos(millis) * scale));
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero()) return;
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 按提示词识别是哪一次 LLM 调用，返回记录下的路由 / 改写 / 过滤条件，流式回答按记录的 token 数与速度输出
+     */
+    static class ReplayChatModel implements ChatModel {
+        private final RequestTrace.Captured trace;
+        private final Delays delays;
+
+        ReplayChatModel(RequestTrace.Captured trace, Delays delays) {
+            this.trace = trace;
+            this.delays = delays;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            String text = prompt.getUserMessage().getText();
+            String content;
+            if (text.contains("分类为以下三种类型")) {
+                sleep(delays.router());
+                content = trace.route();
+            } else if (text.contains("智能查询分析助手")) {
+                sleep(delays.rewrite());
+                content = trace.rewrite();
+            } else if (text.contains("智能菜谱难度分类助手")) {
+                sleep(delays.filterCall());
+                content = trace.difficulties() == null ? "" : String.join(", ", trace.difficulties());
+            } else if (text.contains("可用类别")) {
+                sleep(delays.filterCall());
+                content = trace.categories() == null ? "" : String.join(", ", trace.categories());
+            } else {
+                content = "";
+            }
+            return response(content == null ? "" : content);
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            long tokens = Math.max(1, trace.outputTokens());
+            return Flux.range(0, (int) tokens)
+                    .concatMap(i -> Mono.just(response("字"))
+                            .delayElement(i == 0 ? delays.firstToken() : delays.perToken()));
+        }
+
+        private static ChatResponse response(String text) {
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+    }
+
+    /**
+     * 按记录的 chunk 构造检索结果
+     */
+    static class ReplayRetrieval extends RetrievalOptimization {
+        private final List<Document> chunks;
+        private final Delays delays;
+
+        ReplayRetrieval(RequestTrace.Captured trace, Delays delays, PipelineMetrics metrics, Scheduler scheduler) {
+            super(null, null, null, null, metrics, scheduler, 3, false, 2);
+            this.delays = delays;
+            this.chunks = new ArrayList<>();
+            for (RequestTrace.ChunkRef ref : trace.chunks()) {
+                Map<String, Object> metadata = new HashMap<>();
+                metadata.put("chunkId", ref.chunkId());
+                if (ref.parentId() != null) metadata.put("parentId", ref.parentId());
+                if (ref.dishName() != null) metadata.put("dishName", ref.dishName());
+                metadata.put("userId", trace.userId());
+                chunks.add(Document.builder()
+                        .id(ref.chunkId())
+                        .text("字".repeat(ref.chars()))
+                        .metadata(metadata)
+                        .score(ref.score())
+                        .build());
+            }
+        }
+
+        @Override
+        public Mono<List<Document>> multiQuerySearch(String original, String rewrite, String userId,
+                                                     MetadataFilterExpression filterExpression, int k) {
+            return Mono.delay(delays.search()).map(tick -> chunks);
+        }
+    }
+
+    /**
+     * 按记录的父文档长度构造补全结果，不访问 MinIO
+     */
+    static class ReplayDataPreparation extends DataPreparation {
+        private final List<Document> parents;
+        private final Delays delays;
+
+        ReplayDataPreparation(RequestTrace.Captured trace, Delays delays, PipelineMetrics metrics) {
+            super(null, "replay", null, null, metrics, new MarkdownSectionSplitter(400, 80),
+                    new RecipeCatalog(null, false), new RecipeFacets());
+            this.delays = delays;
+            this.parents = new ArrayList<>();
+            for (RequestTrace.ParentRef ref : trace.parents()) {
+                Map<String, Object> metadata = new HashMap<>();
+                if (ref.parentId() != null) metadata.put("parentId", ref.parentId());
+                metadata.put("dishName", ref.dishName() == null ? "未知菜品" : ref.dishName());
+                parents.add(Document.builder()
+                        .text("字".repeat(ref.chars()))
+                        .metadata(metadata)
+                        .build());
+            }
+        }
+
+        @Override
+        public List<Document> hydrate(List<Document> childChunks, HydrationLevel level) {
+            sleep(delays.hydration());
+            return parents;
+        }
+    }
+}
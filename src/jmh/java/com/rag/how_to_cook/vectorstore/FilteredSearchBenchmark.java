@@ -0,0 +1,128 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 带 userId + category 过滤的检索：逐条判断 metadata（图遍历中过滤）与倒排位图预筛后精确打分的对比
+ * 20 个用户、9 个类别，过滤后约剩 1/180 的 chunk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class FilteredSearchBenchmark {
+
+    private static final int DIM = 512;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+    private static final String[] CATEGORIES = {"meat_dish", "vegetable_dish", "soup", "dessert", "breakfast",
+            "staple", "aquatic", "condiment", "drink"};
+
+    @Param({"20000"})
+    int chunks;
+
+    private Path directory;
+    private HnswVectorStore store;
+    private float[][] queries;
+    private Predicate<Map<String, Object>> predicate;
+    private Map<String, List<String>> conditions;
+    private int cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(11);
+        float[][] centroids = new float[64][];
+        for (int c = 0; c < centroids.length; c++) centroids[c] = randomVector(random, null, 1f);
+
+        List<Document> docs = new ArrayList<>(chunks);
+        Map<String, float[]> vectors = new HashMap<>();
+        for (int i = 0; i < chunks; i++) {
+            String text = "chunk-" + i;
+            vectors.put(text, randomVector(random, centroids[random.nextInt(centroids.length)], 0.35f));
+            docs.add(Document.builder().id(UUID.randomUUID().toString()).text(text).metadata(Map.of(
+                    "userId", "user" + random.nextInt(20),
+                    "category", CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    "difficulty", "easy")).build());
+        }
+
+        directory = Files.createTempDirectory("filtered-bench");
+        store = new HnswVectorStore(new LookupEmbeddingModel(vectors), directory, DIM, 16, 100, 64);
+        for (int from = 0; from < docs.size(); from += 1000) {
+            store.add(docs.subList(from, Math.min(docs.size(), from + 1000)));
+        }
+
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = randomVector(random, centroids[random.nextInt(centroids.length)], 0.35f);
+        }
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        Filter.Expression expression = b.and(b.eq("userId.keyword", "user3"),
+                b.in("category.keyword", "soup")).build();
+        predicate = MetadataFilter.compile(expression);
+        conditions = MetadataFilter.toFacetConditions(expression, Set.of("userId", "category", "difficulty", "dishName"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Document> predicateFilter() {
+        return store.search(nextQuery(), K, -1, predicate);
+    }
+
+    @Benchmark
+    public List<Document> facetPrefilter() {
+        return store.search(nextQuery(), K, -1, conditions);
+    }
+
+    private float[] nextQuery() {
+        cursor = (cursor + 1) % QUERIES;
+        return queries[cursor];
+    }
+
+    private static float[] randomVector(Random random, float[] center, float noise) {
+        float[] v = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            v[i] = (center == null ? 0f : center[i]) + (float) random.nextGaussian() * noise / (float) Math.sqrt(DIM);
+        }
+        return HnswVectorStore.normalize(v);
+    }
+
+    /**
+     * 按文本查表返回预先生成的向量
+     */
+    private record LookupEmbeddingModel(Map<String, float[]> vectors) implements EmbeddingModel {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) embeddings.add(new Embedding(vectors.get(text), embeddings.size()));
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vectors.get(document.getText());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HNSW 与暴力扫描的检索延迟对比，recall@k 在 Setup 阶段计算并打印
+ * 数据为 512 维、带聚类结构的归一化随机向量，近似 bge-small-zh 的嵌入分布
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class HnswSearchBenchmark {
+
+    private static final int DIM = 512;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    @Param({"10000"})
+    int vectors;
+
+    @Param({"64"})
+    int efSearch;
+
+    private Path directory;
+    private MappedVectorFile file;
+    private HnswGraph graph;
+    private float[][] queries;
+    private int cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(11);
+        directory = Files.createTempDirectory("hnsw-bench");
+        file = MappedVectorFile.open(directory.resolve("vectors.bin"), DIM);
+        graph = new HnswGraph(new HnswVectorStore.FloatScorer(file), 16, 100);
+
+        float[][] centroids = new float[64][];
+        for (int c = 0; c < centroids.length; c++) centroids[c] = randomVector(random, null, 1f);
+        for (int i = 0; i < vectors; i++) {
+            float[] v = randomVector(random, centroids[random.nextInt(centroids.length)], 0.35f);
+            graph.insert(file.append(v), v);
+        }
+
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = randomVector(random, centroids[random.nextInt(centroids.length)], 0.35f);
+        }
+
+        int hits = 0;
+        for (float[] query : queries) {
+            int[] exact = bruteForce(query);
+            int[] approx = graph.search(query, K, efSearch, null);
+            for (int a : approx) {
+                for (int e : exact) {
+                    if (a == e) { hits++; break; }
+                }
+            }
+        }
+        System.out.printf("%nrecall@%d (ef=%d, n=%d): %.4f%n", K, efSearch, vectors, hits / (double) (QUERIES * K));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        file.close();
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int[] hnsw() {
+        return graph.search(nextQuery(), K, efSearch, null);
+    }
+
+    @Benchmark
+    public int[] bruteForce() {
+        return bruteForce(nextQuery());
+    }
+
+    private int[] bruteForce(float[] query) {
+        HnswGraph.LongHeap heap = new HnswGraph.LongHeap(K + 1, false);
+        for (int ord = 0; ord < file.size(); ord++) {
+            heap.push(HnswGraph.LongHeap.pack(file.dot(query, ord), ord));
+            if (heap.size() > K) heap.poll();
+        }
+        return heap.ordsDescending();
+    }
+
+    private float[] nextQuery() {
+        cursor = (cursor + 1) % QUERIES;
+        return queries[cursor];
+    }
+
+    private static float[] randomVector(Random random, float[] center, float noise) {
+        float[] v = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            v[i] = (center == null ? 0f : center[i]) + (float) random.nextGaussian() * noise / (float) Math.sqrt(DIM);
+        }
+        return HnswVectorStore.normalize(v);
+    }
+}
@@ -0,0 +1,155 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * float32 暴力扫描 / int8 HNSW + 精排 / binary 扫描 + 精排 的吞吐对比
+ * 每个向量的内存占用与 recall@5 在 Setup 阶段打印；simd=false 时强制使用标量实现作对照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g", jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class QuantizedSearchBenchmark {
+
+    private static final int DIM = 512;
+    private static final int QUERIES = 200;
+    private static final int K = 5;
+    private static final IntPredicate ALL = ord -> true;
+
+    @Param({"10000"})
+    int vectors;
+
+    @Param({"50"})
+    int rerankCandidates;
+
+    @Param({"true", "false"})
+    boolean simd;
+
+    private Path directory;
+    private MappedVectorFile file;
+    private QuantizedVectors int8;
+    private QuantizedVectors binary;
+    private HnswGraph int8Graph;
+    private float[][] queries;
+    private int cursor;
+
+    @Setup
+    public void setup() throws IOException {
+        VectorOps ops = simd ? VectorOps.create() : new VectorOps.ScalarVectorOps();
+        Random random = new Random(11);
+        directory = Files.createTempDirectory("quantized-bench");
+        file = MappedVectorFile.open(directory.resolve("vectors.bin"), DIM);
+        int8 = new QuantizedVectors(QuantizedVectors.Encoding.INT8, DIM, ops);
+        binary = new QuantizedVectors(QuantizedVectors.Encoding.BINARY, DIM, ops);
+        int8Graph = new HnswGraph(new QuantizedVectors.Int8Scorer(int8), 16, 100);
+
+        float[][] centroids = new float[64][];
+        for (int c = 0; c < centroids.length; c++) centroids[c] = randomVector(random, null, 1f);
+        for (int i = 0; i < vectors; i++) {
+            float[] v = randomVector(random, centroids[random.nextInt(centroids.length)], 0.35f);
+            int ord = file.append(v);
+            int8.add(v);
+            binary.add(v);
+            int8Graph.insert(ord, v);
+        }
+
+        queries = new float[QUERIES][];
+        for (int q = 0; q < QUERIES; q++) {
+            queries[q] = randomVector(random, centroids[random.nextInt(centroids.length)], 0.35f);
+        }
+
+        int int8Hits = 0;
+        int binaryHits = 0;
+        for (float[] query : queries) {
+            int[] exact = exact(query);
+            int8Hits += overlap(exact, int8Search(query));
+            binaryHits += overlap(exact, binarySearch(query));
+        }
+        System.out.printf("%nbytes/vector: float32=%d int8=%d binary=%d%n",
+                DIM * Float.BYTES, int8.bytesPerVector(), binary.bytesPerVector());
+        System.out.printf("recall@%d (rerank=%d): int8=%.4f binary=%.4f%n", K, rerankCandidates,
+                int8Hits / (double) (QUERIES * K), binaryHits / (double) (QUERIES * K));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        file.close();
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(java.util.Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int[] float32BruteForce() {
+        return exact(nextQuery());
+    }
+
+    @Benchmark
+    public int[] int8HnswRerank() {
+        return int8Search(nextQuery());
+    }
+
+    @Benchmark
+    public int[] binaryScanRerank() {
+        return binarySearch(nextQuery());
+    }
+
+    private int[] int8Search(float[] query) {
+        return rerank(query, int8Graph.search(query, rerankCandidates, Math.max(64, rerankCandidates), null));
+    }
+
+    private int[] binarySearch(float[] query) {
+        return rerank(query, binary.topByHamming(binary.encodeQuery(query), rerankCandidates, ALL));
+    }
+
+    private int[] rerank(float[] query, int[] candidates) {
+        HnswGraph.LongHeap heap = new HnswGraph.LongHeap(K + 1, false);
+        for (int ord : candidates) {
+            heap.push(HnswGraph.LongHeap.pack(file.dot(query, ord), ord));
+            if (heap.size() > K) heap.poll();
+        }
+        return heap.ordsDescending();
+    }
+
+    private int[] exact(float[] query) {
+        HnswGraph.LongHeap heap = new HnswGraph.LongHeap(K + 1, false);
+        for (int ord = 0; ord < file.size(); ord++) {
+            heap.push(HnswGraph.LongHeap.pack(file.dot(query, ord), ord));
+            if (heap.size() > K) heap.poll();
+        }
+        return heap.ordsDescending();
+    }
+
+    private static int overlap(int[] exact, int[] approx) {
+        int hits = 0;
+        for (int a : approx) {
+            for (int e : exact) {
+                if (a == e) { hits++; break; }
+            }
+        }
+        return hits;
+    }
+
+    private float[] nextQuery() {
+        cursor = (cursor + 1) % QUERIES;
+        return queries[cursor];
+    }
+
+    private static float[] randomVector(Random random, float[] center, float noise) {
+        float[] v = new float[DIM];
+        for (int i = 0; i < DIM; i++) {
+            v[i] = (center == null ? 0f : center[i]) + (float) random.nextGaussian() * noise / (float) Math.sqrt(DIM);
+        }
+        return HnswVectorStore.normalize(v);
+    }
+}
@@ -0,0 +1,107 @@
+package com.rag.how_to_cook.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比 handleChat 原来的「每个 token 一个 Map + ObjectMapper」编码方式与 SseFrameEncoder。
+ * 配合 -prof gc 查看每次操作的分配量（gc.alloc.rate.norm）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseEncodingBenchmark {
+
+    private static final String[] VOCAB = {
+            "红烧", "肉", "先", "把", "五花肉", "切成", "2", "厘米", "的", "小块", "，", "冷水", "下锅", "焯水",
+            "。", "\n", "- ", "生抽", "老抽", "冰糖", "小火", "慢炖", "40", "分钟", "\"", "收汁", "即可"
+    };
+
+    @Param({"400"})
+    int tokensPerAnswer;
+
+    private List<String> tokens;
+    private String chatId;
+    private ObjectMapper objectMapper;
+    private DataBufferFactory bufferFactory;
+    private SseFrameEncoder perTokenEncoder;
+    private SseFrameEncoder coalescingEncoder;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        tokens = new ArrayList<>(tokensPerAnswer);
+        for (int i = 0; i < tokensPerAnswer; i++) {
+            tokens.add(VOCAB[random.nextInt(VOCAB.length)]);
+        }
+        chatId = UUID.randomUUID().toString();
+        objectMapper = new ObjectMapper();
+        bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+        perTokenEncoder = new SseFrameEncoder(Duration.ZERO, 0, 1);
+        coalescingEncoder = new SseFrameEncoder(Duration.ZERO, 256, 64);
+    }
+
+    @Benchmark
+    public void objectMapperPerToken(Blackhole bh) {
+        Flux.fromIterable(tokens)
+                .map(chunk -> {
+                    Map<String, Object> data = Map.of("content", chunk, "chatId", chatId);
+                    try {
+                        return objectMapper.writeValueAsString(data);
+                    } catch (JsonProcessingException e) {
+                        return "{\"content\":\"\"}";
+                    }
+                })
+                // 等价于 ServerSentEventHttpMessageWriter 对 String 的处理
+                .map(json -> {
+                    byte[] bytes = ("data:" + json + "\n\n").getBytes(StandardCharsets.UTF_8);
+                    DataBuffer buffer = bufferFactory.allocateBuffer(bytes.length);
+                    buffer.write(bytes);
+                    return buffer;
+                })
+                .doOnNext(buffer -> {
+                    bh.consume(buffer.readableByteCount());
+                    DataBufferUtils.release(buffer);
+                })
+                .blockLast();
+    }
+
+    @Benchmark
+    public void encoderPerToken(Blackhole bh) {
+        consume(perTokenEncoder, bh);
+    }
+
+    @Benchmark
+    public void encoderCoalesced(Blackhole bh) {
+        consume(coalescingEncoder, bh);
+    }
+
+    private void consume(SseFrameEncoder encoder, Blackhole bh) {
+        encoder.encode(Flux.fromIterable(tokens), chatId, bufferFactory)
+                .doOnNext(buffer -> {
+                    bh.consume(buffer.readableByteCount());
+                    DataBufferUtils.release(buffer);
+                })
+                .blockLast();
+    }
+}
@@ -1,6 +1,10 @@
 package com.rag.how_to_cook.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpMetricsEventListener;
 import io.minio.MinioClient;
+import io.minio.http.HttpUtils;
+import okhttp3.OkHttpClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -18,10 +22,19 @@ public class MinioConfig {
     private String secretKey;
 
     @Bean
-    public MinioClient minioClient() {
+    public MinioClient minioClient(MeterRegistry meterRegistry) {
+        // 与 MinIO 默认客户端相同的超时（5 分钟），额外记录每个请求的耗时（rag.minio.requests，按 method / status / bucket）
+        long timeout = 5 * 60 * 1000L;
+        OkHttpClient httpClient = HttpUtils.newDefaultHttpClient(timeout, timeout, timeout).newBuilder()
+                .eventListener(OkHttpMetricsEventListener.builder(meterRegistry, "rag.minio.requests")
+                        // 只保留 bucket，避免对象名导致标签基数过高
+                        .uriMapper(request -> request.url().pathSize() > 0 ? "/" + request.url().pathSegments().getFirst() : "/")
+                        .build())
+                .build();
         return MinioClient.builder()
                 .endpoint(endpoint)
                 .credentials(accessKey, secretKey)
+                .httpClient(httpClient)
                 .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.rag.how_to_cook.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+/**
+ * JPA 与 R2DBC 并存
+ * - 用户 / 对话 / 消息的查询与写入走 R2DBC（spring.r2dbc.*），请求处理中不占用线程
+ * - 文档元数据（DocumentInfo / DocumentVersion / 菜谱目录）、MessageWriter 的批量写入和限流表仍走 JDBC（spring.datasource.*）；
+ *   所有表结构仍由 JPA 实体建表
+ * 存在 R2DBC ConnectionFactory 时 Spring Boot 不再自动配置 DataSource，这里按 spring.datasource.* 显式创建；
+ * 同时有 JPA 与 R2DBC 两个事务管理器，@Transactional 默认使用 JPA 的
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class PersistenceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+}
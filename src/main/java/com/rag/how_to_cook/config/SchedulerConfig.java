@@ -0,0 +1,36 @@
+package com.rag.how_to_cook.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * 阻塞调用（JPA 仓库、MinIO、同步 LLM 调用、Elasticsearch 检索）统一使用的 Reactor Scheduler
+ * - virtual（默认）：每个任务一个虚拟线程，不受 boundedElastic 线程数上限（10 × CPU 核数）限制，高并发时不排队；
+ *   实际并发由下游资源决定：Hikari 连接池、MinIO 连接池、LlmGateway 的并发上限
+ * - bounded-elastic：Reactor 自带的有界弹性线程池
+ * 虚拟线程被固定在载体线程上的情况由 VirtualThreadPinningMonitor 记录
+ */
+@Configuration
+public class SchedulerConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public Scheduler blockingScheduler(@Value("${rag.scheduler.blocking:virtual}") String type) {
+        return create(type);
+    }
+
+    public static Scheduler create(String type) {
+        return switch (type) {
+            case "virtual" -> Schedulers.fromExecutorService(
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-blocking-", 0).factory()),
+                    "rag-blocking");
+            // 共享实例，dispose 不会真正关闭
+            case "bounded-elastic" -> Schedulers.boundedElastic();
+            default -> throw new IllegalArgumentException("不支持的 scheduler 类型: " + type);
+        };
+    }
+}
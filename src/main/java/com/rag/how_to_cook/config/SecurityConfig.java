@@ -1,5 +1,6 @@
 package com.rag.how_to_cook.config;
 
+import com.rag.how_to_cook.domain.UserRow;
 import com.rag.how_to_cook.repo.UserRepository;
 import com.rag.how_to_cook.security.JwtAuthenticationFilter;
 import lombok.RequiredArgsConstructor;
@@ -18,12 +19,13 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.savedrequest.NoOpServerRequestCache;
 import org.springframework.stereotype.Component;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.reactive.CorsConfigurationSource;
 import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
 import java.util.Arrays;
 import java.util.List;
@@ -34,11 +36,12 @@ import java.util.List;
 public class SecurityConfig {
     private final UserRepository userRepository;
 
+    // 每个带 JWT 的请求都会查一次用户，走 R2DBC，不占用线程
     @Bean
     ReactiveUserDetailsService reactiveUserDetailsService() {
-        return username -> Mono.fromCallable(() -> userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("Username not found")))
-                .subscribeOn(Schedulers.boundedElastic())
+        return username -> userRepository.findByUsername(username)
+                .map(UserRow::toUserDetails)
+                .switchIfEmpty(Mono.error(new UsernameNotFoundException("Username not found")))
                 .cast(UserDetails.class);
     }
 
@@ -61,6 +64,9 @@ public class SecurityConfig {
                 .csrf(ServerHttpSecurity.CsrfSpec::disable) // 禁用 CSRF
                 .httpBasic(ServerHttpSecurity.HttpBasicSpec::disable) // 禁用 Basic Auth
                 .formLogin(ServerHttpSecurity.FormLoginSpec::disable) // 禁用表单登录
+                // 无状态 JWT：安全上下文与请求缓存都不读写 WebSession，避免每个请求创建内存会话（会切到 boundedElastic 线程）
+                .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+                .requestCache(cache -> cache.requestCache(NoOpServerRequestCache.getInstance()))
                 .exceptionHandling(handling -> handling
                         // 当认证失败（401）时
                         .authenticationEntryPoint((exchange, e) -> {
@@ -85,6 +91,8 @@ public class SecurityConfig {
                         // 放行登录和注册接口
                         .pathMatchers("/sign-in").permitAll()
                         .pathMatchers("/sign-up").permitAll()
+                        // 健康检查；Prometheus 等其余 actuator 端点需认证
+                        .pathMatchers("/actuator/health").permitAll()
                         .pathMatchers(HttpMethod.OPTIONS).permitAll() // 允许跨域预检
                         // 其他接口需认证
                         .anyExchange().authenticated()
@@ -0,0 +1,34 @@
+package com.rag.how_to_cook.config;
+
+import com.rag.how_to_cook.vectorstore.HnswVectorStore;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * spring.ai.vectorstore.type=hnsw 时使用进程内 HNSW 向量库，
+ * 此时 Spring AI 的 Elasticsearch 向量库自动配置不会生效（默认仍为 elasticsearch）
+ */
+@Configuration
+public class VectorStoreConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "spring.ai.vectorstore.type", havingValue = "hnsw")
+    public HnswVectorStore hnswVectorStore(
+            EmbeddingModel embeddingModel,
+            @Value("${rag.vectorstore.hnsw.directory:./data/hnsw}") Path directory,
+            @Value("${rag.vectorstore.hnsw.dimensions:512}") int dimensions,
+            @Value("${rag.vectorstore.hnsw.m:16}") int m,
+            @Value("${rag.vectorstore.hnsw.ef-construction:200}") int efConstruction,
+            @Value("${rag.vectorstore.hnsw.ef-search:64}") int efSearch,
+            @Value("${rag.vectorstore.hnsw.quantization:none}") String quantization,
+            @Value("${rag.vectorstore.hnsw.rerank-candidates:100}") int rerankCandidates) throws IOException {
+        return new HnswVectorStore(embeddingModel, directory, dimensions, m, efConstruction, efSearch,
+                quantization, rerankCandidates);
+    }
+}
@@ -0,0 +1,90 @@
+package com.rag.how_to_cook.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 用进程内 JFR 事件流捕获 jdk.VirtualThreadPinned：虚拟线程阻塞时无法卸载、占住载体线程超过阈值即记录一次
+ * - 指标 rag.vthread.pinned（site = 栈中第一个本项目的帧，没有则为 other）
+ * - 每个位置第一次出现时打印 WARN 日志与调用栈，之后只计数
+ * 只在 rag.scheduler.blocking=virtual 时启动
+ */
+@Component
+public class VirtualThreadPinningMonitor {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final String APP_PACKAGE = "com.rag.how_to_cook.";
+    private static final int LOGGED_FRAMES = 12;
+
+    private final boolean enabled;
+    private final Duration threshold;
+    private final MeterRegistry registry;
+    private final Set<String> loggedSites = ConcurrentHashMap.newKeySet();
+    private RecordingStream stream;
+
+    VirtualThreadPinningMonitor(
+            MeterRegistry registry,
+            @Value("${rag.scheduler.blocking:virtual}") String schedulerType,
+            @Value("${rag.scheduler.pinning.enabled:true}") boolean enabled,
+            @Value("${rag.scheduler.pinning.threshold:20ms}") Duration threshold) {
+        this.registry = registry;
+        this.enabled = enabled && schedulerType.equals("virtual");
+        this.threshold = threshold;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        stream = new RecordingStream();
+        stream.enable(EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("已开始记录虚拟线程固定事件，阈值 {} ms", threshold.toMillis());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        List<RecordedFrame> frames = event.getStackTrace() == null ? List.of() : event.getStackTrace().getFrames();
+        String site = frames.stream()
+                .map(VirtualThreadPinningMonitor::describe)
+                .filter(frame -> frame.startsWith(APP_PACKAGE))
+                .findFirst()
+                .orElse("other");
+
+        Timer.builder("rag.vthread.pinned")
+                .description("虚拟线程被固定在载体线程上的时长")
+                .tag("site", site)
+                .register(registry)
+                .record(event.getDuration());
+
+        if (loggedSites.add(site)) {
+            String stack = frames.stream().limit(LOGGED_FRAMES)
+                    .map(frame -> "\n\tat " + describe(frame))
+                    .collect(Collectors.joining());
+            log.warn("虚拟线程被固定 {} ms（{}），同一位置之后只计数:{}", event.getDuration().toMillis(), site, stack);
+        }
+    }
+
+    private static String describe(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,12 @@
+package com.rag.how_to_cook.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+
+/**
+ * chat 表的 R2DBC 映射，不带 user / messages 关联（表结构仍由 JPA 实体 Chat 维护）
+ */
+@Table("chat")
+public record ChatRow(@Id String id, String title, String userId, LocalDateTime createdAt) {}
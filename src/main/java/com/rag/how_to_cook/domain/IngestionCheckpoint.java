@@ -0,0 +1,26 @@
+package com.rag.how_to_cook.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * MinIO bucket 的入库检查点，每个 bucket 一行
+ * 启动时只处理 watermark 之后修改过的对象；距上次全量扫描超过 rag.ingest.full-scan-interval 时才全量对账
+ */
+@Data
+@Entity
+@Table(name = "ingestion_checkpoint")
+public class IngestionCheckpoint {
+
+    @Id
+    private String bucket;
+
+    // 此时间之前发生的对象新增 / 删除都已写入索引
+    @Column(nullable = false)
+    private Instant watermark;
+
+    @Column(nullable = false)
+    private Instant lastFullScan;
+}
@@ -0,0 +1,12 @@
+package com.rag.how_to_cook.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.LocalDateTime;
+
+/**
+ * message 表的 R2DBC 映射（表结构仍由 JPA 实体 Message 维护，写入走 MessageWriter 的 JDBC 批量）
+ */
+@Table("message")
+public record MessageRow(@Id String id, String chatId, MessageRole role, String content, LocalDateTime createdAt) {}
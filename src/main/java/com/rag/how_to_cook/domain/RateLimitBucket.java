@@ -0,0 +1,22 @@
+package com.rag.how_to_cook.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * 多节点共享的限流令牌桶（rag.ratelimit.store=postgres 时使用），由 RateLimiter 用原生 SQL 读写，
+ * 这里只用于建表
+ */
+@Data
+@Entity
+@Table(name = "rate_limit_bucket")
+public class RateLimitBucket {
+
+    // 预算:用户名，如 chat:alice
+    @Id
+    private String bucketKey;
+
+    // 理论到达时间，数据库时钟的 epoch 微秒
+    @Column(nullable = false)
+    private long tatMicros;
+}
@@ -0,0 +1,42 @@
+package com.rag.how_to_cook.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * 入库时从菜谱 Markdown 中解析出的结构化信息，主键与 DocumentInfo 的 id（即 parentId）一致
+ */
+@Data
+@Entity
+@Table(name = "recipe_catalog", indexes = @Index(name = "idx_recipe_catalog_user", columnList = "userId"))
+public class RecipeCatalogEntry {
+
+    @Id
+    private String id;
+
+    @Column(nullable = false)
+    private String userId;
+
+    private String dishName;
+
+    private String category;
+
+    private String difficulty;
+
+    // JSON 数组，与 DocumentVersion.chunkIds 的存法一致
+    @Column(columnDefinition = "TEXT")
+    private String ingredients;
+
+    @Column(columnDefinition = "TEXT")
+    private String tools;
+
+    private int stepCount;
+
+    private Integer estimatedMinutes;
+
+    private String sourceUrl;
+
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,35 @@
+package com.rag.how_to_cook.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+/**
+ * users 表的只读映射，供 R2DBC 仓库使用（表结构仍由 JPA 实体 User 维护）
+ */
+@Table("users")
+public record UserRow(
+        @Id String id,
+        String username,
+        String password,
+        String role,
+        boolean enabled,
+        boolean accountLocked,
+        boolean accountExpired,
+        boolean credentialsExpired) {
+
+    /**
+     * 转成 Spring Security 使用的 UserDetails（复用 User 中的判断逻辑，不经过 JPA）
+     */
+    public User toUserDetails() {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setPassword(password);
+        user.setRole(role);
+        user.setEnabled(enabled);
+        user.setAccountLocked(accountLocked);
+        user.setAccountExpired(accountExpired);
+        user.setCredentialsExpired(credentialsExpired);
+        return user;
+    }
+}
@@ -1,10 +1,23 @@
 package com.rag.how_to_cook.repo;
 
-import com.rag.how_to_cook.domain.Chat;
-import org.springframework.data.jpa.repository.JpaRepository;
+import com.rag.how_to_cook.domain.ChatRow;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.List;
+import java.time.LocalDateTime;
 
-public interface ChatRepository extends JpaRepository<Chat, String> {
-    List<Chat> findByUser_UsernameOrderByCreatedAtDesc(String userId);
+public interface ChatRepository extends R2dbcRepository<ChatRow, String> {
+
+    @Query("SELECT c.id, c.title, c.user_id, c.created_at FROM chat c JOIN users u ON u.id = c.user_id "
+            + "WHERE u.username = :username ORDER BY c.created_at DESC")
+    Flux<ChatRow> findByUsernameOrderByCreatedAtDesc(String username);
+
+    // 按用户名插入，省去先查 users 的一次往返；用户不存在时影响 0 行
+    @Modifying
+    @Query("INSERT INTO chat (id, title, user_id, created_at) "
+            + "SELECT :id, :title, u.id, :createdAt FROM users u WHERE u.username = :username")
+    Mono<Integer> insertForUsername(String id, String title, String username, LocalDateTime createdAt);
 }
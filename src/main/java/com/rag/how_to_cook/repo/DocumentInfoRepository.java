@@ -2,9 +2,14 @@ package com.rag.how_to_cook.repo;
 
 import com.rag.how_to_cook.domain.DocumentInfo;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface DocumentInfoRepository extends JpaRepository<DocumentInfo, String> {
     Optional<DocumentInfo> findBySourceUrl(String sourceUrl);
+
+    @Query("select d.sourceUrl from DocumentInfo d")
+    List<String> findAllSourceUrls();
 }
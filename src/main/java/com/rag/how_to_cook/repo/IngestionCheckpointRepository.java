@@ -0,0 +1,7 @@
+package com.rag.how_to_cook.repo;
+
+import com.rag.how_to_cook.domain.IngestionCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface IngestionCheckpointRepository extends JpaRepository<IngestionCheckpoint, String> {
+}
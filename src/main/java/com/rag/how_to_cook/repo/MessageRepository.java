@@ -1,10 +1,9 @@
 package com.rag.how_to_cook.repo;
 
-import com.rag.how_to_cook.domain.Message;
-import org.springframework.data.jpa.repository.JpaRepository;
+import com.rag.how_to_cook.domain.MessageRow;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Flux;
 
-import java.util.List;
-
-public interface MessageRepository extends JpaRepository<Message, String> {
-    List<Message> findByChatId_IdOrderByCreatedAtAsc(String chatId);
+public interface MessageRepository extends R2dbcRepository<MessageRow, String> {
+    Flux<MessageRow> findByChatIdOrderByCreatedAtAsc(String chatId);
 }
@@ -1,11 +1,18 @@
 package com.rag.how_to_cook.repo;
 
-import com.rag.how_to_cook.domain.User;
-import org.springframework.data.jpa.repository.JpaRepository;
+import com.rag.how_to_cook.domain.UserRow;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Mono;
 
-import java.util.List;
-import java.util.Optional;
+public interface UserRepository extends R2dbcRepository<UserRow, String> {
 
-public interface UserRepository extends JpaRepository<User, String> {
-    Optional<User> findByUsername(String username);
+    Mono<UserRow> findByUsername(String username);
+
+    // id 由调用方生成，save() 遇到非空 id 会执行 UPDATE，这里显式 INSERT
+    @Modifying
+    @Query("INSERT INTO users (id, username, password, role, enabled, account_locked, account_expired, credentials_expired) "
+            + "VALUES (:id, :username, :password, :role, TRUE, FALSE, FALSE, FALSE)")
+    Mono<Integer> insert(String id, String username, String password, String role);
 }
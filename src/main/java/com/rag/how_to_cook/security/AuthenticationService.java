@@ -9,7 +9,9 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
@@ -18,19 +20,18 @@ public class AuthenticationService {
     private final PasswordEncoder passwordEncoder;
     private final JwtService jwtService;
     private final ReactiveAuthenticationManager authenticationManager;
+    private final Scheduler blockingScheduler;
 
     public Mono<AuthenticationResponse> registry(RegisterRequest request) {
-        return Mono.fromCallable(() -> {
-            var user = new User();
-            user.setUsername(request.username());
-            user.setPassword(passwordEncoder.encode(request.password()));
-            user.setRole("ROLE_USER");
-
-            repository.save(user);
-            return user;
-        })
-                .subscribeOn(Schedulers.boundedElastic())
-                .cast(UserDetails.class)
+        // BCrypt 是耗时的 CPU 计算，不放在事件循环线程上；写库走 R2DBC，不占线程
+        return Mono.fromCallable(() -> passwordEncoder.encode(request.password()))
+                .subscribeOn(blockingScheduler)
+                .flatMap(encodedPassword -> {
+                    var user = new UserRow(UUID.randomUUID().toString(), request.username(), encodedPassword,
+                            "ROLE_USER", true, false, false, false);
+                    return repository.insert(user.id(), user.username(), user.password(), user.role())
+                            .thenReturn(user.toUserDetails());
+                })
                 .map(userDetails -> {
                     String token = jwtService.generateToken(userDetails);
                     return new AuthenticationResponse(token);
@@ -3,6 +3,7 @@ package com.rag.how_to_cook.security;
 import lombok.RequiredArgsConstructor;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.userdetails.ReactiveUserDetailsService;
 import org.springframework.stereotype.Component;
@@ -11,6 +12,8 @@ import org.springframework.web.server.WebFilter;
 import org.springframework.web.server.WebFilterChain;
 import reactor.core.publisher.Mono;
 
+import java.util.Optional;
+
 @Component
 @RequiredArgsConstructor
 public class JwtAuthenticationFilter implements WebFilter {
@@ -47,7 +50,7 @@ public class JwtAuthenticationFilter implements WebFilter {
             String finalUsername = username;
 
             return reactiveUserDetailsService.findByUsername(username)
-                    .flatMap(userDetails -> {
+                    .map(userDetails -> {
                         boolean isTokenValid = false;
                         try {
                             // 再次验证完整性（防止 extractUsername 成功但其他校验失败）
@@ -57,21 +60,24 @@ public class JwtAuthenticationFilter implements WebFilter {
                         }
 
                         if (isTokenValid) {
-                            UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
+                            return Optional.<Authentication>of(new UsernamePasswordAuthenticationToken(
                                     userDetails,
                                     null,
                                     userDetails.getAuthorities()
-                            );
-                            // 认证成功：将 Authentication 写入 Reactor 上下文
-                            return chain.filter(exchange)
-                                    .contextWrite(ReactiveSecurityContextHolder.withAuthentication(auth));
+                            ));
                         }
 
                         // Token 无效但用户名存在：以匿名身份继续
-                        return chain.filter(exchange);
+                        return Optional.<Authentication>empty();
                     })
                     // 如果找不到用户，也以匿名身份继续
-                    .switchIfEmpty(chain.filter(exchange));
+                    // 注意不能对 chain.filter 的结果用 switchIfEmpty：它总是空的 Mono<Void>，会导致过滤链被执行两次
+                    .defaultIfEmpty(Optional.empty())
+                    .flatMap(auth -> auth
+                            // 认证成功：将 Authentication 写入 Reactor 上下文
+                            .map(value -> chain.filter(exchange)
+                                    .contextWrite(ReactiveSecurityContextHolder.withAuthentication(value)))
+                            .orElseGet(() -> chain.filter(exchange)));
         }
 
         return chain.filter(exchange);
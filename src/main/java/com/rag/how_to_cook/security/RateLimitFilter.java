@@ -0,0 +1,111 @@
+package com.rag.how_to_cook.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * /chat 与上传接口的准入控制，排在 Spring Security 过滤链之后（此时已能取到登录用户）
+ * - 按用户的令牌桶（RateLimiter）：额度用完返回 429，Retry-After 为距下一个令牌的秒数
+ * - 本节点同时进行的 /chat 流式回答超过 max-inflight 时返回 503，避免排队拖慢所有人的首 token
+ * 未登录的请求已被安全配置拦截，这里不处理
+ */
+@Component
+@Order(0)
+public class RateLimitFilter implements WebFilter {
+
+    private final RateLimiter rateLimiter;
+    private final boolean enabled;
+    private final int maxInflightChats;
+    private final AtomicInteger inflightChats = new AtomicInteger();
+    private final Counter overloadedCounter;
+
+    RateLimitFilter(
+            RateLimiter rateLimiter,
+            MeterRegistry registry,
+            @Value("${rag.ratelimit.enabled:true}") boolean enabled,
+            @Value("${rag.ratelimit.chat.max-inflight:64}") int maxInflightChats) {
+        this.rateLimiter = rateLimiter;
+        this.enabled = enabled;
+        this.maxInflightChats = maxInflightChats;
+        this.overloadedCounter = Counter.builder("rag.ratelimit")
+                .description("限流判定次数")
+                .tag("budget", "chat")
+                .tag("result", "overloaded")
+                .register(registry);
+        Gauge.builder("rag.ratelimit.chat.inflight", inflightChats, AtomicInteger::get)
+                .description("本节点正在进行的 /chat 请求数")
+                .register(registry);
+    }
+
+    @NotNull
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, @NotNull WebFilterChain chain) {
+        RateLimiter.Budget budget = enabled ? budgetOf(exchange) : null;
+        if (budget == null) {
+            return chain.filter(exchange);
+        }
+        return exchange.getPrincipal()
+                .map(Principal::getName)
+                .flatMap(userId -> rateLimiter.acquire(userId, budget))
+                .map(decision -> decision.allowed()
+                        ? admit(exchange, chain, budget)
+                        : reject(exchange.getResponse(), HttpStatus.TOO_MANY_REQUESTS, decision.retryAfter(), "请求过于频繁，请稍后再试"))
+                .defaultIfEmpty(Mono.defer(() -> chain.filter(exchange)))
+                .flatMap(next -> next);
+    }
+
+    private Mono<Void> admit(ServerWebExchange exchange, WebFilterChain chain, RateLimiter.Budget budget) {
+        if (budget != RateLimiter.Budget.CHAT) {
+            return chain.filter(exchange);
+        }
+        if (inflightChats.incrementAndGet() > maxInflightChats) {
+            inflightChats.decrementAndGet();
+            overloadedCounter.increment();
+            return reject(exchange.getResponse(), HttpStatus.SERVICE_UNAVAILABLE, Duration.ofSeconds(1), "服务繁忙，请稍后再试");
+        }
+        // 流式响应写完（或客户端断开）时才结束
+        return chain.filter(exchange).doFinally(signal -> inflightChats.decrementAndGet());
+    }
+
+    private static RateLimiter.Budget budgetOf(ServerWebExchange exchange) {
+        if (exchange.getRequest().getMethod() != HttpMethod.POST) return null;
+        return switch (exchange.getRequest().getPath().pathWithinApplication().value()) {
+            case "/chat" -> RateLimiter.Budget.CHAT;
+            case "/api/minio/upload" -> RateLimiter.Budget.UPLOAD;
+            default -> null;
+        };
+    }
+
+    private static Mono<Void> reject(ServerHttpResponse response, HttpStatus status, Duration retryAfter, String message) {
+        if (response.isCommitted()) {
+            return Mono.empty();
+        }
+        // Retry-After 只支持整秒，向上取整
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        response.setStatusCode(status);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(seconds));
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        byte[] body = ("{\"error\":\"" + message + "\",\"retryAfterSeconds\":" + seconds + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+}
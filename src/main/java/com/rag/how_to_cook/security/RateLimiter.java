@@ -0,0 +1,165 @@
+package com.rag.how_to_cook.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按用户的令牌桶限流，chat 与 upload 各自一套预算
+ * 令牌桶用 GCRA 表示：每个桶只保存一个"理论到达时间"（TAT），每次请求把 TAT 推后一个补充间隔，
+ * TAT 超前当前时间超过 (容量 - 1) 个间隔即拒绝；单机时每个桶是一个 AtomicLong，CAS 更新，不加锁
+ * - store=local：只在本节点内生效（默认）
+ * - store=postgres：TAT 保存在 rate_limit_bucket 表中，用一条 upsert 原子地判断并更新，时间取数据库时钟，
+ *   多个节点共享同一份额度；数据库不可用时退回本节点的桶
+ * 指标：rag.ratelimit（budget / result = allowed / rejected）
+ */
+@Component
+public class RateLimiter {
+    private static final Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+    // 空闲桶（TAT 已经落后于当前时间，等同于满桶）每隔这么多次请求清理一次
+    private static final int SWEEP_INTERVAL = 4096;
+
+    // 首次请求插入 now + interval；已有行时只在未超出容忍量时推后 TAT，超出则不更新、不返回行
+    private static final String ACQUIRE_SQL = """
+            INSERT INTO rate_limit_bucket AS b (bucket_key, tat_micros)
+            VALUES (?, (extract(epoch FROM clock_timestamp()) * 1000000)::bigint + ?)
+            ON CONFLICT (bucket_key) DO UPDATE
+                SET tat_micros = GREATEST(b.tat_micros, EXCLUDED.tat_micros - ?) + ?
+                WHERE GREATEST(b.tat_micros, EXCLUDED.tat_micros - ?) - (EXCLUDED.tat_micros - ?) <= ?
+            RETURNING tat_micros""";
+
+    private static final String WAIT_SQL = """
+            SELECT tat_micros - (extract(epoch FROM clock_timestamp()) * 1000000)::bigint
+            FROM rate_limit_bucket WHERE bucket_key = ?""";
+
+    public enum Budget { CHAT, UPLOAD }
+
+    /**
+     * @param retryAfter 被拒绝时距离下一个令牌的时间，允许时为 ZERO
+     */
+    public record Decision(boolean allowed, Duration retryAfter) {
+        static final Decision ALLOWED = new Decision(true, Duration.ZERO);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean shared;
+    private final Map<Budget, Buckets> buckets;
+    private final MeterRegistry registry;
+    private final Scheduler blockingScheduler;
+
+    RateLimiter(
+            JdbcTemplate jdbcTemplate,
+            MeterRegistry registry,
+            Scheduler blockingScheduler,
+            @Value("${rag.ratelimit.store:local}") String store,
+            @Value("${rag.ratelimit.chat.capacity:10}") int chatCapacity,
+            @Value("${rag.ratelimit.chat.refill-period:6s}") Duration chatRefillPeriod,
+            @Value("${rag.ratelimit.upload.capacity:30}") int uploadCapacity,
+            @Value("${rag.ratelimit.upload.refill-period:2s}") Duration uploadRefillPeriod) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.registry = registry;
+        this.blockingScheduler = blockingScheduler;
+        this.shared = switch (store) {
+            case "local" -> false;
+            case "postgres" -> true;
+            default -> throw new IllegalArgumentException("不支持的限流存储: " + store);
+        };
+        this.buckets = Map.of(
+                Budget.CHAT, new Buckets(chatCapacity, chatRefillPeriod),
+                Budget.UPLOAD, new Buckets(uploadCapacity, uploadRefillPeriod));
+    }
+
+    /**
+     * 取一个令牌；本节点模式不阻塞，共享模式的数据库访问在弹性线程上执行
+     */
+    public Mono<Decision> acquire(String userId, Budget budget) {
+        Buckets local = buckets.get(budget);
+        Mono<Decision> decision = shared
+                ? Mono.fromCallable(() -> acquireShared(userId, budget, local))
+                .subscribeOn(blockingScheduler)
+                .onErrorResume(e -> {
+                    log.warn("共享限流不可用，使用本节点令牌桶: {}", e.toString());
+                    return Mono.fromSupplier(() -> local.acquire(userId));
+                })
+                : Mono.fromSupplier(() -> local.acquire(userId));
+        return decision.doOnNext(d -> counter(budget, d.allowed() ? "allowed" : "rejected").increment());
+    }
+
+    private Decision acquireShared(String userId, Budget budget, Buckets local) {
+        String key = budget.name().toLowerCase() + ":" + userId;
+        long interval = local.intervalNanos / 1000;
+        long tolerance = local.toleranceNanos / 1000;
+        List<Long> updated = jdbcTemplate.queryForList(ACQUIRE_SQL, Long.class,
+                key, interval, interval, interval, interval, interval, tolerance);
+        if (!updated.isEmpty()) return Decision.ALLOWED;
+
+        List<Long> ahead = jdbcTemplate.queryForList(WAIT_SQL, Long.class, key);
+        long waitMicros = ahead.isEmpty() ? interval : Math.max(0, ahead.getFirst() - tolerance);
+        return new Decision(false, Duration.ofNanos(waitMicros * 1000));
+    }
+
+    private Counter counter(Budget budget, String result) {
+        return Counter.builder("rag.ratelimit")
+                .description("限流判定次数")
+                .tag("budget", budget.name().toLowerCase())
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * 一种预算下所有用户的本节点令牌桶
+     */
+    static final class Buckets {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final Map<String, AtomicLong> tats = new ConcurrentHashMap<>();
+        private final AtomicInteger sinceSweep = new AtomicInteger();
+
+        Buckets(int capacity, Duration refillPeriod) {
+            if (capacity < 1) throw new IllegalArgumentException("令牌桶容量至少为 1");
+            this.intervalNanos = refillPeriod.toNanos();
+            this.toleranceNanos = (capacity - 1) * intervalNanos;
+        }
+
+        Decision acquire(String userId) {
+            if (sinceSweep.incrementAndGet() >= SWEEP_INTERVAL) {
+                sinceSweep.set(0);
+                sweep();
+            }
+            AtomicLong tat = tats.computeIfAbsent(userId, k -> new AtomicLong(System.nanoTime()));
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                // TAT 落后于当前时间说明桶已满，从当前时间算起
+                long base = current - now < 0 ? now : current;
+                long ahead = base - now;
+                if (ahead > toleranceNanos) {
+                    return new Decision(false, Duration.ofNanos(ahead - toleranceNanos));
+                }
+                if (tat.compareAndSet(current, base + intervalNanos)) return Decision.ALLOWED;
+            }
+        }
+
+        /**
+         * 移除已经补满的桶；与并发的 acquire 竞争时最多多放行一个请求
+         */
+        private void sweep() {
+            long now = System.nanoTime();
+            tats.values().removeIf(tat -> tat.get() - now <= 0);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 整条 RAG 回答的缓存
+ * key = (用户, 归一化后的问题, 用户语料版本)，语料变化后旧条目自然失效，并按 LRU 淘汰
+ * 条目数与总字节数都有上限
+ */
+@Component
+public class AnswerCache {
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final CorpusVersions corpusVersions;
+
+    // access-order 的 LinkedHashMap 即 LRU，读写都在 synchronized 内完成
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes = 0;
+
+    public AnswerCache(
+            CorpusVersions corpusVersions,
+            @Value("${rag.answer-cache.max-entries:2000}") int maxEntries,
+            @Value("${rag.answer-cache.max-bytes:33554432}") long maxBytes,
+            @Value("${rag.answer-cache.ttl:6h}") Duration ttl) {
+        this.corpusVersions = corpusVersions;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public Key keyFor(String userId, String query) {
+        return new Key(userId, normalize(query), corpusVersions.current(userId));
+    }
+
+    public synchronized List<String> get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.createdAt() > ttlNanos) {
+            remove(key);
+            return null;
+        }
+        return entry.chunks();
+    }
+
+    /**
+     * 只有在生成期间语料版本没有变化时才写入，避免把基于旧语料的回答缓存到新版本下
+     */
+    public void put(Key key, List<String> chunks) {
+        if (chunks.isEmpty() || corpusVersions.current(key.userId()) != key.corpusVersion()) {
+            return;
+        }
+        long size = estimateBytes(key, chunks);
+        if (size > maxBytes) return;
+
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry(List.copyOf(chunks), size, System.nanoTime()));
+            totalBytes += size;
+
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+                totalBytes -= it.next().getValue().bytes();
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(Key key) {
+        Entry old = entries.remove(key);
+        if (old != null) totalBytes -= old.bytes();
+    }
+
+    private static long estimateBytes(Key key, List<String> chunks) {
+        // String 按 UTF-16 估算，加上每个对象的固定开销
+        long bytes = 64L + 2L * (key.userId().length() + key.query().length());
+        for (String chunk : chunks) {
+            bytes += 48L + 2L * chunk.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * 全角转半角、转小写、去掉空白和末尾标点，让"红烧肉怎么做？"与"红烧肉 怎么做"命中同一条
+     */
+    static String normalize(String query) {
+        String s = Normalizer.normalize(query, Normalizer.Form.NFKC).toLowerCase();
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (!Character.isWhitespace(c)) sb.append(c);
+        }
+        int end = sb.length();
+        while (end > 0 && "?!.。~…".indexOf(sb.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    public record Key(String userId, String query, long corpusVersion) {}
+
+    record Entry(List<String> chunks, long bytes, long createdAt) {}
+}
@@ -0,0 +1,348 @@
+package com.rag.how_to_cook.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 BM25 稀疏索引（倒排表），作为 hybridSearch 的稀疏检索通路
+ * - 每个 chunk 分配一个 int 序号，倒排表用原生 int 数组存 (序号, 词频)
+ * - 删除只打墓碑，墓碑比例过高时整体压缩重建；IDF 用只统计存活 chunk 的文档频率
+ * - 打分只累加倒排表命中的序号（稀疏累加器），不按全部 chunk 分配数组
+ * - 读多写少，使用读写锁
+ */
+@Component
+public class Bm25Index {
+    private static final Logger log = LoggerFactory.getLogger(Bm25Index.class);
+
+    private final float k1;
+    private final float b;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<String, Integer> ordByChunkId = new HashMap<>();
+    private final List<Document> docs = new ArrayList<>();
+    // 序号 -> 该 chunk 出现过的词项，删除时据此递减各词项的存活文档频率
+    private final List<Postings[]> termsByOrd = new ArrayList<>();
+    // 用户 -> 整数编号，打分时直接比较 int，避免字符串比较
+    private final Map<String, Integer> ownerIds = new HashMap<>();
+    private int[] owners = new int[1024];
+    private int[] docLengths = new int[1024];
+    private final BitSet deleted = new BitSet();
+
+    private long liveTokenCount = 0;
+    private int liveDocCount = 0;
+
+    public Bm25Index(
+            @Value("${rag.bm25.k1:1.2}") float k1,
+            @Value("${rag.bm25.b:0.75}") float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    public void add(List<Document> chunks) {
+        lock.writeLock().lock();
+        try {
+            for (Document chunk : chunks) {
+                String chunkId = chunkIdOf(chunk);
+                Integer existing = ordByChunkId.get(chunkId);
+                if (existing != null) {
+                    markDeleted(existing);
+                }
+                indexOne(chunkId, chunk);
+            }
+            // 重复写入同一 chunk 同样产生墓碑
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(Collection<String> chunkIds) {
+        lock.writeLock().lock();
+        try {
+            for (String chunkId : chunkIds) {
+                Integer ord = ordByChunkId.remove(chunkId);
+                if (ord != null) markDeleted(ord);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 来自同一源对象（metadata.source）的存活 chunk；线性扫描，只用于单个对象的本地同步
+     */
+    public List<Document> chunksOfSource(String source) {
+        lock.readLock().lock();
+        try {
+            List<Document> result = new ArrayList<>();
+            for (int ord = deleted.nextClearBit(0); ord < docs.size(); ord = deleted.nextClearBit(ord + 1)) {
+                Document doc = docs.get(ord);
+                if (source.equals(doc.getMetadata().get("source"))) result.add(doc);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 尚未被压缩回收的墓碑数
+     */
+    int tombstones() {
+        lock.readLock().lock();
+        try {
+            return deleted.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索，只返回属于 userId 的 chunk；结果按分数降序，score 写入 Document
+     */
+    public List<Document> search(String query, String userId, int k) {
+        Set<String> terms = new LinkedHashSet<>();
+        RecipeTokenizer.tokenize(query, terms::add);
+        if (terms.isEmpty() || k <= 0) return Collections.emptyList();
+
+        lock.readLock().lock();
+        try {
+            if (liveDocCount == 0) return Collections.emptyList();
+            int owner = -1;
+            if (userId != null) {
+                Integer id = ownerIds.get(userId);
+                if (id == null) return Collections.emptyList();
+                owner = id;
+            }
+
+            List<Postings> matched = new ArrayList<>(terms.size());
+            long touched = 0;
+            for (String term : terms) {
+                Postings p = postings.get(term);
+                if (p == null || p.liveDf == 0) continue;
+                matched.add(p);
+                touched += p.size;
+            }
+            if (matched.isEmpty()) return Collections.emptyList();
+
+            ScoreAccumulator scores = new ScoreAccumulator((int) Math.min(touched, docs.size()));
+            float avgLength = (float) liveTokenCount / liveDocCount;
+            float lengthWeight = k1 * b / avgLength;
+            float lengthBase = k1 * (1 - b);
+
+            for (Postings p : matched) {
+                float idf = (float) Math.log(1 + (liveDocCount - p.liveDf + 0.5) / (p.liveDf + 0.5)) * (k1 + 1);
+                int[] pDocs = p.docs;
+                int[] pFreqs = p.freqs;
+                for (int i = 0, n = p.size; i < n; i++) {
+                    int ord = pDocs[i];
+                    if (owner >= 0 && owners[ord] != owner) continue;
+                    if (deleted.get(ord)) continue;
+                    int tf = pFreqs[i];
+                    scores.add(ord, idf * tf / (tf + lengthBase + lengthWeight * docLengths[ord]));
+                }
+            }
+
+            // 用 (分数, 序号) 打包成 long 的小顶堆取 top k，分数为正数时 float 位序与数值序一致
+            long[] heap = new long[k];
+            int heapSize = 0;
+            for (int slot = 0; slot < scores.capacity(); slot++) {
+                int ord = scores.ordAt(slot);
+                if (ord < 0) continue;
+                float score = scores.scoreAt(slot);
+                if (score <= 0) continue;
+                long packed = ((long) Float.floatToIntBits(score) << 32) | ord;
+                if (heapSize < k) {
+                    heap[heapSize++] = packed;
+                    siftUp(heap, heapSize - 1);
+                } else if (packed > heap[0]) {
+                    heap[0] = packed;
+                    siftDown(heap, heapSize);
+                }
+            }
+
+            Arrays.sort(heap, 0, heapSize);
+            List<Document> result = new ArrayList<>(heapSize);
+            for (int i = heapSize - 1; i >= 0; i--) {
+                int ord = (int) heap[i];
+                float score = Float.intBitsToFloat((int) (heap[i] >>> 32));
+                result.add(docs.get(ord).mutate().score((double) score).build());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==========================================
+    // 内部实现（调用方持有写锁）
+    // ==========================================
+
+    private void indexOne(String chunkId, Document chunk) {
+        int ord = docs.size();
+        Map<String, int[]> termFreqs = new HashMap<>();
+        int[] length = {0};
+        RecipeTokenizer.tokenize(chunk.getText() == null ? "" : chunk.getText(), term -> {
+            termFreqs.computeIfAbsent(term, t -> new int[1])[0]++;
+            length[0]++;
+        });
+
+        Postings[] docTerms = new Postings[termFreqs.size()];
+        int t = 0;
+        for (Map.Entry<String, int[]> e : termFreqs.entrySet()) {
+            Postings p = postings.computeIfAbsent(e.getKey(), key -> new Postings());
+            p.add(ord, e.getValue()[0]);
+            p.liveDf++;
+            docTerms[t++] = p;
+        }
+
+        docs.add(chunk);
+        termsByOrd.add(docTerms);
+        if (ord >= docLengths.length) {
+            docLengths = Arrays.copyOf(docLengths, docLengths.length * 2);
+            owners = Arrays.copyOf(owners, owners.length * 2);
+        }
+        Object owner = chunk.getMetadata().get("userId");
+        owners[ord] = owner == null ? -1 : ownerIds.computeIfAbsent(owner.toString(), u -> ownerIds.size());
+        docLengths[ord] = length[0];
+        ordByChunkId.put(chunkId, ord);
+
+        liveTokenCount += length[0];
+        liveDocCount++;
+    }
+
+    private void markDeleted(int ord) {
+        if (deleted.get(ord)) return;
+        deleted.set(ord);
+        for (Postings p : termsByOrd.get(ord)) p.liveDf--;
+        liveTokenCount -= docLengths[ord];
+        liveDocCount--;
+    }
+
+    private void compactIfNeeded() {
+        if (deleted.cardinality() > 1024 && deleted.cardinality() > docs.size() / 3) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        List<Document> live = new ArrayList<>(liveDocCount);
+        for (int ord = 0; ord < docs.size(); ord++) {
+            if (!deleted.get(ord)) live.add(docs.get(ord));
+        }
+        postings.clear();
+        ordByChunkId.clear();
+        docs.clear();
+        termsByOrd.clear();
+        deleted.clear();
+        liveTokenCount = 0;
+        liveDocCount = 0;
+        for (Document doc : live) {
+            indexOne(chunkIdOf(doc), doc);
+        }
+        log.info("BM25 索引压缩完成，剩余 {} 个 chunk", liveDocCount);
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= heap[i]) break;
+            long tmp = heap[parent]; heap[parent] = heap[i]; heap[i] = tmp;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) break;
+            int smallest = left + 1 < size && heap[left + 1] < heap[left] ? left + 1 : left;
+            if (heap[i] <= heap[smallest]) break;
+            long tmp = heap[i]; heap[i] = heap[smallest]; heap[smallest] = tmp;
+            i = smallest;
+        }
+    }
+
+    static String chunkIdOf(Document doc) {
+        Object chunkId = doc.getMetadata().get("chunkId");
+        return chunkId != null ? chunkId.toString() : doc.getId();
+    }
+
+    /**
+     * 单个词项的倒排表：两条平行的 int 数组，按需倍增
+     * size 包含已打墓碑的条目，liveDf 只统计存活的 chunk
+     */
+    private static final class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size = 0;
+        int liveDf = 0;
+
+        void add(int ord, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = ord;
+            freqs[size] = freq;
+            size++;
+        }
+    }
+
+    /**
+     * 稀疏分数累加器：按序号开放寻址（线性探测），容量按本次查询命中的倒排条目数分配
+     * 槽位里存 ord + 1，0 表示空槽，无需初始化填充
+     */
+    private static final class ScoreAccumulator {
+        private final int[] keys;
+        private final float[] values;
+        private final int mask;
+
+        ScoreAccumulator(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            keys = new int[capacity];
+            values = new float[capacity];
+            mask = capacity - 1;
+        }
+
+        void add(int ord, float score) {
+            int slot = (ord * 0x9E3779B9) >>> 1 & mask;
+            while (keys[slot] != 0 && keys[slot] != ord + 1) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = ord + 1;
+            values[slot] += score;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        int ordAt(int slot) {
+            return keys[slot] - 1;
+        }
+
+        float scoreAt(int slot) {
+            return values[slot];
+        }
+    }
+}
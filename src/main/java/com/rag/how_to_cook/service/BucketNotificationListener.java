@@ -0,0 +1,385 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.ProcessResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.minio.CloseableIterator;
+import io.minio.ListenBucketNotificationArgs;
+import io.minio.MinioClient;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Event;
+import io.minio.messages.NotificationRecords;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 监听 MinIO bucket 通知（对象新增 / 删除），把 .md 对象的变化增量写入索引；
+ * 直接写入 bucket 的对象（同步任务、mc cp）不需要重启或全量扫描即可入库
+ * - 同一对象在 debounce 内的多个事件合并为一次处理；处理时按对象当前是否存在决定入库还是删除，重复、乱序的事件结果相同
+ * - 处理失败按指数退避重试，超过 max-attempts 放弃（留给全量对账）；等待中的对象不推进检查点
+ * - 每次（重新）连接后先按检查点补扫，断线期间的变更不会丢失：至少处理一次
+ * - 检查点为等待处理的最早事件时间，没有等待中的对象时为最近一次事件时间
+ * - 上传接口写入的对象带 APP_UPLOAD_METADATA 标记并已由接口入库，监听节点忽略；同一对象与上传接口按 ObjectLocks 串行处理
+ * - 多节点部署时每个节点都订阅通知，只有持有 Postgres advisory lock 的节点（监听节点）写共享存储（数据库、向量库、检查点），
+ *   其他节点每隔 leader-retry 尝试接替；非监听节点等监听节点入库后按数据库中的当前版本只更新本地内存状态
+ *   （BM25 索引、菜谱目录、facet 索引、语料版本），包括其他节点上传接口写入的对象
+ * - 多节点依赖共享的 Elasticsearch 向量库；进程内的 HNSW 向量库只在单节点部署下使用
+ */
+@Component
+public class BucketNotificationListener {
+    private static final Logger log = LoggerFactory.getLogger(BucketNotificationListener.class);
+    private static final String[] EVENTS = {"s3:ObjectCreated:*", "s3:ObjectRemoved:*"};
+    private static final long MAX_RECONNECT_MILLIS = 30_000;
+    private static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(5);
+    private static final long LEADER_CHECK_MILLIS = Duration.ofSeconds(10).toMillis();
+    private static final String UPLOADED_BY = "uploaded-by";
+    private static final String USER_METADATA_PREFIX = "x-amz-meta-";
+
+    /** 上传接口写入对象时附带的用户元数据 */
+    public static final Map<String, String> APP_UPLOAD_METADATA = Map.of(UPLOADED_BY, "rag-upload");
+
+    private final MinioClient minioClient;
+    private final String bucketName;
+    private final DataPreparation dataPreparation;
+    private final IndexConstruction indexConstruction;
+    private final IngestionCheckpoints checkpoints;
+    private final ObjectLocks objectLocks;
+    private final DataSource dataSource;
+    private final boolean enabled;
+    private final Duration debounce;
+    private final int maxAttempts;
+    private final Duration leaderRetry;
+
+    private final Counter processedCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+
+    // objectName -> 等待处理的变化
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private volatile Instant latestEvent;
+    private volatile CloseableIterator<Result<NotificationRecords>> connection;
+    // 持有监听权的数据库会话，未持有时为 null
+    private volatile Connection leaderSession;
+    private volatile boolean running = true;
+    private Thread leader;
+    private Thread listener;
+    private Thread processor;
+
+    /**
+     * @param uploadedByApp 合并的事件都来自上传接口，监听节点无需处理
+     */
+    private record Pending(Instant eventTime, long readyAtNanos, int attempts, boolean uploadedByApp) {}
+
+    BucketNotificationListener(
+            MinioClient minioClient,
+            @Value("${minio.bucket}") String bucketName,
+            DataPreparation dataPreparation,
+            IndexConstruction indexConstruction,
+            IngestionCheckpoints checkpoints,
+            ObjectLocks objectLocks,
+            DataSource dataSource,
+            MeterRegistry meterRegistry,
+            @Value("${rag.ingest.notifications.enabled:true}") boolean enabled,
+            @Value("${rag.ingest.notifications.debounce:2s}") Duration debounce,
+            @Value("${rag.ingest.notifications.max-attempts:8}") int maxAttempts,
+            @Value("${rag.ingest.notifications.leader-retry:30s}") Duration leaderRetry) {
+        this.minioClient = minioClient;
+        this.bucketName = bucketName;
+        this.dataPreparation = dataPreparation;
+        this.indexConstruction = indexConstruction;
+        this.checkpoints = checkpoints;
+        this.objectLocks = objectLocks;
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+        this.debounce = debounce;
+        this.maxAttempts = maxAttempts;
+        this.leaderRetry = leaderRetry;
+
+        Gauge.builder("rag.ingest.pending", pending, Map::size)
+                .description("等待处理的对象变化数量")
+                .register(meterRegistry);
+        this.processedCounter = Counter.builder("rag.ingest.events").tag("result", "processed").register(meterRegistry);
+        this.failedCounter = Counter.builder("rag.ingest.events").tag("result", "failed").register(meterRegistry);
+        this.droppedCounter = Counter.builder("rag.ingest.events").tag("result", "dropped").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        leader = Thread.ofPlatform().name("minio-notifications-leader").daemon(true).start(this::leaderLoop);
+        listener = Thread.ofPlatform().name("minio-notifications").daemon(true).start(this::listenLoop);
+        processor = Thread.ofPlatform().name("minio-ingest").daemon(true).start(this::processLoop);
+    }
+
+    /**
+     * 按 bucket 竞争 advisory lock，拿到后在该会话存活期间作为监听节点；会话断开后锁由数据库释放，其他节点接替
+     */
+    private void leaderLoop() {
+        while (running) {
+            try (Connection session = dataSource.getConnection()) {
+                if (advisoryLock(session, "pg_try_advisory_lock")) {
+                    leaderSession = session;
+                    log.info("获得 bucket {} 的通知监听权", bucketName);
+                    try {
+                        // 前一个监听节点可能留下未处理的变更
+                        catchUp();
+                        holdLeadership(session);
+                    } finally {
+                        leaderSession = null;
+                        // 连接归还连接池后会话仍然存在，需显式释放
+                        if (session.isValid(1)) advisoryLock(session, "pg_advisory_unlock");
+                        log.info("释放 bucket {} 的通知监听权", bucketName);
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) return;
+                log.warn("竞争 MinIO 通知监听权失败: {}", e.getMessage());
+            }
+            try {
+                Thread.sleep(leaderRetry.toMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private boolean advisoryLock(Connection session, String function) throws Exception {
+        try (PreparedStatement statement = session.prepareStatement(
+                "select " + function + "(hashtext(?))")) {
+            statement.setString(1, "rag.ingest.notifications:" + bucketName);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * 每隔 10 秒检查持有锁的会话，失效（锁已被释放）时退出，重新竞争
+     */
+    private void holdLeadership(Connection session) throws InterruptedException {
+        while (running) {
+            Thread.sleep(LEADER_CHECK_MILLIS);
+            boolean valid;
+            try {
+                valid = session.isValid(5);
+            } catch (Exception e) {
+                valid = false;
+            }
+            if (!valid) {
+                log.warn("持有通知监听权的数据库会话已失效");
+                return;
+            }
+        }
+    }
+
+    boolean isLeader() {
+        return leaderSession != null;
+    }
+
+    private void listenLoop() {
+        long reconnectMillis = 1000;
+        while (running) {
+            try (CloseableIterator<Result<NotificationRecords>> events = minioClient.listenBucketNotification(
+                    ListenBucketNotificationArgs.builder().bucket(bucketName).prefix("").suffix("").events(EVENTS).build())) {
+                connection = events;
+                // 连接建立后再补扫，补扫期间到达的事件在连接中排队，两者之间没有空档
+                catchUp();
+                reconnectMillis = 1000;
+                while (running && events.hasNext()) {
+                    NotificationRecords records = events.next().get();
+                    if (records.events() == null) continue;
+                    for (Event event : records.events()) {
+                        String objectName = URLDecoder.decode(event.objectName(), StandardCharsets.UTF_8);
+                        if (!objectName.toLowerCase().endsWith(".md")) continue;
+                        Instant eventTime = event.eventTime() != null ? event.eventTime().toInstant() : Instant.now();
+                        enqueue(objectName, eventTime, uploadedByApp(event.userMetadata()));
+                        if (latestEvent == null || eventTime.isAfter(latestEvent)) latestEvent = eventTime;
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) return;
+                log.warn("MinIO 通知连接中断，{} ms 后重连: {}", reconnectMillis, e.getMessage());
+            }
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            reconnectMillis = Math.min(reconnectMillis * 2, MAX_RECONNECT_MILLIS);
+        }
+    }
+
+    /**
+     * 检查点之后修改过的对象与 bucket 中已不存在的对象全部加入等待队列
+     */
+    private void catchUp() throws Exception {
+        Optional<Instant> since = checkpoints.since();
+        if (since.isEmpty()) return;
+        DataPreparation.ObjectChanges changes = dataPreparation.changedSince(since.get());
+        changes.modified().forEach(objectName -> enqueue(objectName, since.get(), false));
+        changes.removed().forEach(objectName -> enqueue(objectName, since.get(), false));
+        if (!changes.modified().isEmpty() || !changes.removed().isEmpty()) {
+            log.info("MinIO 通知连接后补扫：{} 个对象有修改，{} 个已删除", changes.modified().size(), changes.removed().size());
+        }
+    }
+
+    /**
+     * 上传接口写入的对象由接口自己入库；MinIO 事件中的用户元数据键可能带 X-Amz-Meta- 前缀，大小写不定
+     */
+    static boolean uploadedByApp(Map<String, String> userMetadata) {
+        if (userMetadata == null) return false;
+        return userMetadata.entrySet().stream().anyMatch(entry -> {
+            String key = entry.getKey().toLowerCase(Locale.ROOT);
+            if (key.startsWith(USER_METADATA_PREFIX)) key = key.substring(USER_METADATA_PREFIX.length());
+            return UPLOADED_BY.equals(key) && APP_UPLOAD_METADATA.get(UPLOADED_BY).equals(entry.getValue());
+        });
+    }
+
+    /**
+     * 同一对象的事件合并：保留最早的事件时间（检查点不越过它），从最近一次事件起重新计算 debounce
+     */
+    private void enqueue(String objectName, Instant eventTime, boolean uploadedByApp) {
+        Pending event = new Pending(eventTime, System.nanoTime() + debounce.toNanos(), 0, uploadedByApp);
+        pending.merge(objectName, event, (previous, next) -> new Pending(
+                previous.eventTime().isBefore(next.eventTime()) ? previous.eventTime() : next.eventTime(),
+                next.readyAtNanos(),
+                previous.attempts(),
+                previous.uploadedByApp() && next.uploadedByApp()));
+    }
+
+    private void processLoop() {
+        long pollMillis = Math.max(50, Math.min(debounce.toMillis() / 2, 1000));
+        while (running) {
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            pending.forEach((objectName, entry) -> {
+                if (running && now - entry.readyAtNanos() >= 0) process(objectName, entry);
+            });
+            advanceCheckpoint();
+        }
+    }
+
+    private void process(String objectName, Pending entry) {
+        try {
+            // 处理时才判断角色，等待中的对象在角色切换后按新角色处理
+            if (isLeader()) {
+                if (!entry.uploadedByApp()) apply(objectName);
+            } else {
+                applyLocally(objectName);
+            }
+            // 处理期间又有新事件时保留，之后再处理一次
+            pending.remove(objectName, entry);
+            processedCounter.increment();
+        } catch (Exception e) {
+            int attempts = entry.attempts() + 1;
+            if (attempts >= maxAttempts) {
+                pending.remove(objectName, entry);
+                droppedCounter.increment();
+                log.error("对象 {} 处理 {} 次仍失败，放弃，等待下次全量对账", objectName, attempts, e);
+                return;
+            }
+            failedCounter.increment();
+            Duration delay = debounce.multipliedBy(1L << Math.min(attempts, 16));
+            if (delay.compareTo(MAX_RETRY_DELAY) > 0) delay = MAX_RETRY_DELAY;
+            pending.replace(objectName, entry,
+                    new Pending(entry.eventTime(), System.nanoTime() + delay.toNanos(), attempts, entry.uploadedByApp()));
+            log.warn("对象 {} 处理失败（第 {} 次），{} ms 后重试: {}", objectName, attempts, delay.toMillis(), e.getMessage());
+        }
+    }
+
+    /**
+     * 按对象当前状态处理：存在则入库（内容未变时 processSingleFile 直接跳过），不存在则删除
+     * 持有对象锁，与上传 / 删除接口不会同时处理同一对象
+     */
+    private void apply(String objectName) throws Exception {
+        String userId = dataPreparation.extractUserIdFromPath(objectName);
+        objectLocks.withLock(objectName, () -> {
+            if (exists(objectName)) {
+                ProcessResult result = dataPreparation.processSingleFile(objectName, userId);
+                indexConstruction.addChunks(result.newChunks());
+                indexConstruction.deleteChunks(result.idsToDelete(), userId);
+            } else {
+                indexConstruction.deleteChunks(dataPreparation.explicitDelete(objectName, userId), userId);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 非监听节点：不写数据库与向量库，只把本地内存状态对齐到监听节点已入库的版本；
+     * 监听节点尚未处理完时抛出异常，按失败重试
+     */
+    private void applyLocally(String objectName) throws Exception {
+        String userId = dataPreparation.extractUserIdFromPath(objectName);
+        String sourceUrl = dataPreparation.sourceUrl(objectName);
+        objectLocks.withLock(objectName, () -> {
+            if (exists(objectName)) {
+                indexConstruction.syncLocally(sourceUrl, dataPreparation.syncLocally(objectName, userId), userId);
+            } else {
+                dataPreparation.forgetLocally(indexConstruction.removeLocally(sourceUrl, userId));
+            }
+            return null;
+        });
+    }
+
+    private boolean exists(String objectName) throws Exception {
+        try {
+            minioClient.statObject(StatObjectArgs.builder().bucket(bucketName).object(objectName).build());
+            return true;
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) return false;
+            throw e;
+        }
+    }
+
+    private void advanceCheckpoint() {
+        // 检查点在共享数据库中，只由监听节点推进
+        if (!isLeader()) return;
+        Instant watermark = pending.values().stream()
+                .map(Pending::eventTime)
+                .min(Comparator.naturalOrder())
+                .orElse(latestEvent);
+        if (watermark == null) return;
+        try {
+            checkpoints.advance(watermark);
+        } catch (Exception e) {
+            log.warn("更新入库检查点失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws Exception {
+        running = false;
+        CloseableIterator<Result<NotificationRecords>> current = connection;
+        if (current != null) current.close();
+        if (listener != null) listener.interrupt();
+        if (leader != null) leader.interrupt();
+        // 正在处理的对象处理完再退出；没处理完的由下次启动按检查点补上
+        if (processor != null) processor.join(Duration.ofSeconds(30));
+    }
+}
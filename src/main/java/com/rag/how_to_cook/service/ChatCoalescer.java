@@ -0,0 +1,66 @@
+package com.rag.how_to_cook.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 相同问题的合并执行（single-flight）
+ * key 与回答缓存相同 = (用户, 归一化后的问题, 用户语料版本)：同一 key 的请求在前一个还没结束时到达，
+ * 直接订阅正在进行的那条流水线，已经输出的片段会先回放，不再重复路由、检索与生成
+ * - 共享流按订阅者计数：最先发起的请求断开时，只要还有其他订阅者，流水线继续执行；全部断开才取消上游
+ * - 流水线结束（完成、失败或被取消）后移除条目，之后的相同问题由回答缓存命中或重新执行
+ * 指标：rag.chat.coalesce（role = leader / follower）、rag.chat.coalesce.inflight
+ */
+@Component
+public class ChatCoalescer {
+    private final boolean enabled;
+    private final Map<AnswerCache.Key, Flux<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter leaderCounter;
+    private final Counter followerCounter;
+
+    ChatCoalescer(MeterRegistry meterRegistry, @Value("${rag.coalesce.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        this.leaderCounter = Counter.builder("rag.chat.coalesce").tag("role", "leader")
+                .description("实际执行流水线的请求数").register(meterRegistry);
+        this.followerCounter = Counter.builder("rag.chat.coalesce").tag("role", "follower")
+                .description("合并到进行中流水线的请求数").register(meterRegistry);
+        Gauge.builder("rag.chat.coalesce.inflight", inFlight, Map::size)
+                .description("正在执行、可被合并的流水线数").register(meterRegistry);
+    }
+
+    /**
+     * @param pipeline 没有进行中的相同请求时才调用，订阅时才开始执行
+     */
+    public Flux<String> join(AnswerCache.Key key, Supplier<Flux<String>> pipeline) {
+        if (!enabled) return Flux.defer(pipeline);
+        return Flux.defer(() -> {
+            boolean[] leader = {false};
+            Flux<String> shared = inFlight.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                return share(k, pipeline);
+            });
+            (leader[0] ? leaderCounter : followerCounter).increment();
+            return shared;
+        });
+    }
+
+    private Flux<String> share(AnswerCache.Key key, Supplier<Flux<String>> pipeline) {
+        @SuppressWarnings("unchecked")
+        Flux<String>[] self = new Flux[1];
+        // replay 让后到的订阅者先收到已经输出的片段；refCount(1) 在最后一个订阅者断开时才取消上游
+        self[0] = Flux.defer(pipeline)
+                // 只移除自己，避免误删结束后新建的同 key 流水线
+                .doFinally(signal -> inFlight.remove(key, self[0]))
+                .replay()
+                .refCount(1);
+        return self[0];
+    }
+}
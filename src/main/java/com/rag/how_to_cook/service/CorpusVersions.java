@@ -0,0 +1,24 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个用户知识库的版本号
+ * 文件新增 / 更新 / 删除时递增，用于让依赖语料的缓存自动失效
+ */
+@Component
+public class CorpusVersions {
+    private final ConcurrentHashMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public long current(String userId) {
+        AtomicLong version = versions.get(userId);
+        return version == null ? 0L : version.get();
+    }
+
+    public long bump(String userId) {
+        return versions.computeIfAbsent(userId, k -> new AtomicLong()).incrementAndGet();
+    }
+}
@@ -14,10 +14,7 @@ import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.TextReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -26,6 +23,7 @@ import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -40,6 +38,10 @@ public class DataPreparation {
     private final DocumentInfoRepository docInfoRepo;
     private final DocumentVersionRepository docVersionRepo;
     private final ObjectMapper objectMapper;
+    private final PipelineMetrics metrics;
+    private final MarkdownSectionSplitter splitter;
+    private final RecipeCatalog catalog;
+    private final RecipeFacets facets;
 
     private static final Set<String> CATEGORY_SET;
     private static final Map<String, String> DIFFICULTY_MAPPING;
@@ -64,11 +66,19 @@ public class DataPreparation {
             MinioClient minioClient,
             @Value("${minio.bucket}") String bucketName,
             DocumentInfoRepository docInfoRepo,
-            DocumentVersionRepository docVersionRepo) {
+            DocumentVersionRepository docVersionRepo,
+            PipelineMetrics metrics,
+            MarkdownSectionSplitter splitter,
+            RecipeCatalog catalog,
+            RecipeFacets facets) {
         this.minioClient = minioClient;
         this.bucketName = bucketName;
         this.docInfoRepo = docInfoRepo;
         this.docVersionRepo = docVersionRepo;
+        this.metrics = metrics;
+        this.splitter = splitter;
+        this.catalog = catalog;
+        this.facets = facets;
         this.objectMapper = new ObjectMapper();
     }
 
@@ -118,6 +128,58 @@ public class DataPreparation {
         return new ProcessResult(chunksToAdd, idsToDelete);
     }
 
+    /**
+     * bucket 中自 since 起修改过的 .md 对象，以及已入库但 bucket 中已不存在的对象
+     */
+    public record ObjectChanges(List<String> modified, List<String> removed) {}
+
+    /**
+     * 增量扫描：只列出对象、不读取内容，由调用方对变化的对象调用 processSingleFile / explicitDelete
+     */
+    public ObjectChanges changedSince(Instant since) throws Exception {
+        Set<String> present = new HashSet<>();
+        List<String> modified = new ArrayList<>();
+        Iterable<Result<Item>> results = minioClient.listObjects(
+                ListObjectsArgs.builder().bucket(bucketName).recursive(true).build()
+        );
+        for (Result<Item> result : results) {
+            Item item = result.get();
+            if (item.isDir() || !item.objectName().toLowerCase().endsWith(".md")) {
+                continue;
+            }
+            present.add(item.objectName());
+            if (item.lastModified() == null || !item.lastModified().toInstant().isBefore(since)) {
+                modified.add(item.objectName());
+            }
+        }
+
+        String prefix = "minio://" + bucketName + "/";
+        List<String> removed = docInfoRepo.findAllSourceUrls().stream()
+                .filter(sourceUrl -> sourceUrl.startsWith(prefix))
+                .map(sourceUrl -> sourceUrl.substring(prefix.length()))
+                .filter(objectName -> !present.contains(objectName))
+                .toList();
+        return new ObjectChanges(modified, removed);
+    }
+
+    /**
+     * 不做全量扫描时，内存中的 facet 索引从菜谱目录恢复；目录未开启时返回 false，需要全量扫描
+     */
+    public boolean restoreFacets() {
+        if (!catalog.isEnabled()) return false;
+        List<RecipeCatalog.Recipe> recipes = catalog.all();
+        for (RecipeCatalog.Recipe recipe : recipes) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("userId", recipe.userId());
+            values.put("category", recipe.category());
+            values.put("difficulty", recipe.difficulty());
+            values.put("dishName", recipe.dishName());
+            facets.add(recipe.parentId(), values);
+        }
+        log.info("已从菜谱目录恢复 {} 篇菜谱的 facet 索引", recipes.size());
+        return true;
+    }
+
     @Transactional // 1. 加上事务，确保原子性
     public List<String> explicitDelete(String objectName, String userId) {
 
@@ -165,6 +227,8 @@ public class DataPreparation {
 
         // 4. 级联删除 (JPA 会自动删除 versions 表里的对应记录)
         docInfoRepo.delete(documentInfo);
+        catalog.remove(documentInfo.getId());
+        facets.remove(documentInfo.getId());
 
         log.info("已级联删除文档及 {} 个历史版本，准备清理 {} 个向量索引",
                 allVersions != null ? allVersions.size() : 0,
@@ -184,13 +248,13 @@ public class DataPreparation {
 
         try {
             // A. 读取 MinIO 内容
-            String content = readContentFromMinio(objectName);
+            String content = metrics.ingestion("minio_read", () -> readContentFromMinio(objectName));
             if (content.isEmpty()) return new ProcessResult(Collections.emptyList(), Collections.emptyList());
 
             String contentHash = calculateHash(content);
 
             // B. 版本检查
-            Optional<DocumentInfo> docInfoOpt = docInfoRepo.findBySourceUrl(sourceUrl);
+            Optional<DocumentInfo> docInfoOpt = metrics.ingestion("version_check", () -> docInfoRepo.findBySourceUrl(sourceUrl));
             DocumentInfo docInfo;
             DocumentVersion latestVersion = null;
 
@@ -207,6 +271,12 @@ public class DataPreparation {
                     // 哈希一致，说明文件没变
                     if (vOpt.get().getContentHash().equals(contentHash)) {
                         //log.info("文件未改变，跳过: {}", objectName);
+                        // 目录上线前已入库的文件没有目录条目、重启后内存中的 facet 索引为空，借这次读取补上
+                        if (!catalog.contains(docInfo.getId()) || !facets.contains(docInfo.getId())) {
+                            Document derived = derivedParentDocument(content, docInfo, objectName, userId);
+                            if (!catalog.contains(docInfo.getId())) catalog.upsert(derived);
+                            facets.add(derived);
+                        }
                         return new ProcessResult(Collections.emptyList(), Collections.emptyList());
                     }
                     // 哈希不一致，标记旧版本失效
@@ -221,13 +291,26 @@ public class DataPreparation {
             }
 
             // C. 创建并保存父文档在两个数据库中的信息
-            Document parentDoc = createAndSaveDocument(content, contentHash, docInfo, latestVersion, objectName, userId);
-
-            // D. 切分文档 (Chunking)
-            List<Document> newChunks = splitDocument(parentDoc);
-
-            // E. 更新数据库中的 ChunkIDs
-            updateVersionWithChunkIds(parentDoc.getMetadata().get("dbVersionId").toString(), newChunks);
+            DocumentInfo finalDocInfo = docInfo;
+            DocumentVersion finalLatestVersion = latestVersion;
+            Document parentDoc = metrics.ingestion("save_metadata",
+                    () -> createAndSaveDocument(content, contentHash, finalDocInfo, finalLatestVersion, objectName, userId));
+
+            // D. 解析结构化信息写入菜谱目录，更新 facet 索引
+            metrics.ingestion("catalog", () -> {
+                catalog.upsert(parentDoc);
+                facets.add(parentDoc);
+                return null;
+            });
+
+            // E. 切分文档 (Chunking)
+            List<Document> newChunks = metrics.ingestion("split", () -> splitDocument(parentDoc));
+
+            // F. 更新数据库中的 ChunkIDs
+            metrics.ingestion("save_chunk_ids", () -> {
+                updateVersionWithChunkIds(parentDoc.getMetadata().get("dbVersionId").toString(), newChunks);
+                return null;
+            });
 
             log.info("文件处理完成，生成 {} 个切片。", newChunks.size());
             return new ProcessResult(newChunks, chunksToDelete);
@@ -238,21 +321,67 @@ public class DataPreparation {
         }
     }
 
+    /**
+     * 非监听节点同步单个对象：不写数据库与目录表，按监听节点已入库的当前版本在本地重新切分，
+     * chunkId 沿用该版本记录的 id，同时更新内存中的菜谱目录与 facet 索引
+     * 数据库中还没有与对象内容一致的版本（监听节点尚未处理完）时抛出异常，由调用方稍后重试
+     */
+    public List<Document> syncLocally(String objectName, String userId) throws Exception {
+        String sourceUrl = sourceUrl(objectName);
+        String content = readContentFromMinio(objectName);
+        if (content.isEmpty()) return Collections.emptyList();
+
+        DocumentInfo docInfo = docInfoRepo.findBySourceUrl(sourceUrl)
+                .orElseThrow(() -> new IllegalStateException("监听节点尚未入库: " + objectName));
+        DocumentVersion version = docVersionRepo.findFirstByDocumentInfoIdAndActiveTrueOrderByVersionNumberDesc(docInfo.getId())
+                .filter(v -> v.getContentHash().equals(calculateHash(content)) && v.getChunkIds() != null)
+                .orElseThrow(() -> new IllegalStateException("监听节点尚未处理最新内容: " + objectName));
+
+        Document parentDoc = derivedParentDocument(content, docInfo, objectName, userId);
+        parentDoc.getMetadata().put("dbVersionId", version.getId());
+        parentDoc.getMetadata().put("docType", "parent");
+        List<String> chunkIds = objectMapper.readValue(version.getChunkIds(), new TypeReference<>() {
+        });
+        List<Document> chunks = splitDocument(parentDoc, chunkIds);
+
+        catalog.refresh(parentDoc);
+        facets.add(parentDoc);
+        return chunks;
+    }
+
+    /**
+     * 非监听节点同步已删除的对象：只清理内存中的菜谱目录与 facet 索引
+     */
+    public void forgetLocally(Collection<String> parentIds) {
+        for (String parentId : parentIds) {
+            catalog.evict(parentId);
+            facets.remove(parentId);
+        }
+    }
+
+    public String sourceUrl(String objectName) {
+        return "minio://" + bucketName + "/" + objectName;
+    }
+
     // ==========================================
     // 3. 辅助方法 (私有)
     // ==========================================
 
     private String readContentFromMinio(String objectName) throws Exception {
+        // 直接按 UTF-8 解码原始字节，切分得到的章节字节区间与对象内容一一对应
         try (InputStream stream = minioClient.getObject(
                 GetObjectArgs.builder().bucket(bucketName).object(objectName).build())) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
 
-            TextReader textReader = new TextReader(new InputStreamResource(stream));
-            textReader.setCharset(StandardCharsets.UTF_8);
-
-            return textReader.get().stream()
-                    .map(Document::getFormattedContent)
-                    .findFirst()
-                    .orElse("");
+    /**
+     * 按字节区间读取对象的一部分（Range 请求）
+     */
+    private String readRangeFromMinio(String objectName, long offset, long length) throws Exception {
+        try (InputStream stream = minioClient.getObject(
+                GetObjectArgs.builder().bucket(bucketName).object(objectName).offset(offset).length(length).build())) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
         }
     }
 
@@ -313,23 +442,45 @@ public class DataPreparation {
         return finalDoc;
     }
 
-    private List<Document> splitDocument(Document parentDoc) {
-        TokenTextSplitter splitter = new TokenTextSplitter(400, 100, 5, 10000, true);
-        // 只切分当前这一个文档
-        List<Document> chunks = splitter.apply(List.of(parentDoc));
+    private Document derivedParentDocument(String content, DocumentInfo docInfo, String objectName, String userId) {
+        Document doc = new Document(content);
+        enhanceMetadata(doc, objectName);
+        doc.getMetadata().put("source", docInfo.getSourceUrl());
+        doc.getMetadata().put("parentId", docInfo.getId());
+        doc.getMetadata().put("userId", userId);
+        return doc;
+    }
+
+    List<Document> splitDocument(Document parentDoc) {
+        return splitDocument(parentDoc, null);
+    }
+
+    /**
+     * @param chunkIds 按 chunkIndex 使用的 chunkId；为 null 时生成新的 id
+     */
+    private List<Document> splitDocument(Document parentDoc, List<String> chunkIds) {
+        // 按章节切分，子块不跨越「必备原料和工具」「操作」等章节
+        List<Document> chunks = splitter.split(parentDoc);
+        if (chunkIds != null && chunkIds.size() != chunks.size()) {
+            throw new IllegalStateException("切分结果与已记录的 chunkId 数量不一致: " + chunks.size() + " != " + chunkIds.size());
+        }
 
         String parentId = parentDoc.getMetadata().get("parentId").toString();
 
+        List<Document> result = new ArrayList<>(chunks.size());
         for (int i = 0; i < chunks.size(); i++) {
             Document chunk = chunks.get(i);
-            chunk.getMetadata().put("chunkId", UUID.randomUUID().toString());
+            String chunkId = chunkIds != null ? chunkIds.get(i) : UUID.randomUUID().toString();
+            chunk.getMetadata().put("chunkId", chunkId);
             chunk.getMetadata().put("parentId", parentId);
             chunk.getMetadata().put("docType", "child");
             chunk.getMetadata().put("chunkIndex", i);
+            // 文档 id 与 chunkId 保持一致，按版本记录的 chunkId 删除时才能命中向量库中的文档
+            result.add(chunk.mutate().id(chunkId).build());
         }
 
-        log.info("分割成: {} 小块", chunks.size());
-        return chunks;
+        log.info("分割成: {} 小块", result.size());
+        return result;
     }
 
     private void updateVersionWithChunkIds(String versionId, List<Document> chunks) {
@@ -347,7 +498,7 @@ public class DataPreparation {
         });
     }
 
-    private void enhanceMetadata(Document doc, String objectName) {
+    void enhanceMetadata(Document doc, String objectName) {
         doc.getMetadata().put("category", "other");
 
         // 路径包含分类映射
@@ -379,7 +530,7 @@ public class DataPreparation {
         log.info("{}", doc.getMetadata());
     }
 
-    private String calculateHash(String content) {
+    String calculateHash(String content) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
             byte[] hashBytes = md.digest(content.getBytes(StandardCharsets.UTF_8));
@@ -393,6 +544,125 @@ public class DataPreparation {
     // 4. 检索阶段使用的辅助方法
     // ==========================================
 
+    /**
+     * 按需补全检索结果，只有 PARENT 级别才会访问 MinIO
+     */
+    public List<Document> hydrate(List<Document> childChunks, HydrationLevel level) {
+        if (childChunks == null || childChunks.isEmpty()) return Collections.emptyList();
+        return switch (level) {
+            case METADATA -> getParentMetadata(childChunks);
+            case CHUNK -> childChunks;
+            case SECTION -> getParentSections(childChunks);
+            case PARENT -> getParentDocument(childChunks);
+        };
+    }
+
+    /**
+     * 只读取命中的章节：每个父文档按字节区间读取被命中的章节（按原文顺序拼接），而不是整篇菜谱
+     * 旧切分方式产生的 chunk 没有章节信息，对应的父文档退回读取全文
+     */
+    public List<Document> getParentSections(List<Document> childChunks) {
+        if (childChunks == null || childChunks.isEmpty()) return Collections.emptyList();
+
+        // parentId -> 章节字节区间（按偏移排序去重）
+        Map<String, TreeMap<Long, Long>> sectionsByParent = new LinkedHashMap<>();
+        Map<String, Document> firstChunkByParent = new HashMap<>();
+        List<Document> withoutSections = new ArrayList<>();
+        for (Document chunk : childChunks) {
+            Object parentId = chunk.getMetadata().get("parentId");
+            if (parentId == null) continue;
+            Object offset = chunk.getMetadata().get("sectionByteOffset");
+            Object length = chunk.getMetadata().get("sectionByteLength");
+            if (!(offset instanceof Number) || !(length instanceof Number)) {
+                withoutSections.add(chunk);
+                continue;
+            }
+            firstChunkByParent.putIfAbsent(parentId.toString(), chunk);
+            sectionsByParent.computeIfAbsent(parentId.toString(), k -> new TreeMap<>())
+                    .put(((Number) offset).longValue(), ((Number) length).longValue());
+        }
+
+        List<Document> parentDocs = new ArrayList<>(getParentDocument(withoutSections));
+        if (!sectionsByParent.isEmpty()) {
+            for (DocumentInfo docInfo : docInfoRepo.findAllById(sectionsByParent.keySet())) {
+                try {
+                    String prefix = "minio://" + bucketName + "/";
+                    if (!docInfo.getSourceUrl().startsWith(prefix)) continue;
+                    String objectName = docInfo.getSourceUrl().substring(prefix.length());
+
+                    StringBuilder content = new StringBuilder();
+                    for (Map.Entry<Long, Long> section : sectionsByParent.get(docInfo.getId()).entrySet()) {
+                        if (!content.isEmpty()) content.append("\n\n");
+                        content.append(readRangeFromMinio(objectName, section.getKey(), section.getValue()).strip());
+                    }
+                    if (content.isEmpty()) continue;
+
+                    Document parentDoc = new Document(content.toString());
+                    Map<String, Object> chunkMetadata = firstChunkByParent.get(docInfo.getId()).getMetadata();
+                    for (String key : List.of("category", "difficulty", "userId")) {
+                        Object value = chunkMetadata.get(key);
+                        if (value != null) parentDoc.getMetadata().put(key, value);
+                    }
+                    parentDoc.getMetadata().put("source", docInfo.getSourceUrl());
+                    parentDoc.getMetadata().put("dishName", docInfo.getDishName());
+                    parentDoc.getMetadata().put("parentId", docInfo.getId());
+                    parentDocs.add(parentDoc);
+                } catch (Exception e) {
+                    log.error("无法读取父文档章节: {}", docInfo.getSourceUrl(), e);
+                }
+            }
+        }
+
+        sortByChunkFrequency(parentDocs, childChunks);
+        return parentDocs;
+    }
+
+    /**
+     * 只用 chunk 的 metadata 与 DocumentInfo 组装父文档摘要（文本为菜名），排序规则与 getParentDocument 一致
+     */
+    public List<Document> getParentMetadata(List<Document> childChunks) {
+        if (childChunks == null || childChunks.isEmpty()) return Collections.emptyList();
+
+        // 每个父文档取第一个命中的 chunk 作为元数据来源
+        Map<String, Document> firstChunkByParent = new LinkedHashMap<>();
+        Map<String, Long> parentFrequencies = new HashMap<>();
+        for (Document chunk : childChunks) {
+            Object parentId = chunk.getMetadata().get("parentId");
+            if (parentId == null) continue;
+            firstChunkByParent.putIfAbsent(parentId.toString(), chunk);
+            parentFrequencies.merge(parentId.toString(), 1L, Long::sum);
+        }
+        if (firstChunkByParent.isEmpty()) return Collections.emptyList();
+
+        Map<String, DocumentInfo> infos = docInfoRepo.findAllById(firstChunkByParent.keySet()).stream()
+                .collect(Collectors.toMap(DocumentInfo::getId, info -> info));
+
+        List<Document> parentDocs = new ArrayList<>();
+        firstChunkByParent.forEach((parentId, chunk) -> {
+            DocumentInfo docInfo = infos.get(parentId);
+            if (docInfo == null) return; // 父文档已删除
+
+            Map<String, Object> metadata = new HashMap<>();
+            for (String key : List.of("category", "difficulty", "userId")) {
+                Object value = chunk.getMetadata().get(key);
+                if (value != null) metadata.put(key, value);
+            }
+            String dishName = docInfo.getDishName() != null
+                    ? docInfo.getDishName()
+                    : chunk.getMetadata().getOrDefault("dishName", "未知菜品").toString();
+            metadata.put("source", docInfo.getSourceUrl());
+            metadata.put("dishName", dishName);
+            metadata.put("parentId", parentId);
+            parentDocs.add(Document.builder().id(parentId).text(dishName).metadata(metadata).build());
+        });
+
+        parentDocs.sort(Comparator.comparing(
+                (Document doc) -> parentFrequencies.getOrDefault(doc.getMetadata().get("parentId").toString(), 0L)
+        ).reversed());
+
+        return parentDocs;
+    }
+
     public List<Document> getParentDocument(List<Document> childChunks) {
         if (childChunks == null || childChunks.isEmpty()) return Collections.emptyList();
 
@@ -429,14 +699,19 @@ public class DataPreparation {
             }
         }
 
-        // 简单排序
+        sortByChunkFrequency(parentDocs, childChunks);
+        return parentDocs;
+    }
+
+    /**
+     * 按命中的 chunk 数从多到少排序父文档
+     */
+    static void sortByChunkFrequency(List<Document> parentDocs, List<Document> childChunks) {
         Map<String, Long> parentFrequencies = childChunks.stream()
                 .collect(Collectors.groupingBy(chunk -> chunk.getMetadata().get("parentId").toString(), Collectors.counting()));
         parentDocs.sort(Comparator.comparing(
                 (Document doc) -> parentFrequencies.getOrDefault(doc.getMetadata().get("parentId").toString(), 0L)
         ).reversed());
-
-        return parentDocs;
     }
 
     // Getters
@@ -444,7 +719,17 @@ public class DataPreparation {
     //public Set<String> getChunkIdsToDelete() { return this.chunkIdsToDelete; }
     public Map<String, String> getDifficultyMapping() { return DIFFICULTY_MAPPING; }
 
-    private String extractUserIdFromPath(String objectName) {
+    /**
+     * enhanceMetadata 可能写入的全部分类（不含兜底的 other）
+     */
+    static Set<String> categories() { return CATEGORY_SET; }
+
+    /**
+     * enhanceMetadata 可能写入的全部难度；正文没有星级的菜谱没有 difficulty 字段
+     */
+    static Collection<String> difficulties() { return DIFFICULTY_MAPPING.values(); }
+
+    String extractUserIdFromPath(String objectName) {
         int slashIndex = objectName.indexOf('/');
         if (slashIndex > 0) {
             return objectName.substring(0, slashIndex);
@@ -0,0 +1,256 @@
+package com.rag.how_to_cook.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.rag.how_to_cook.domain.MetadataFilterExpression;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * 带 category / difficulty / userId 过滤的 kNN 检索
+ * Spring AI 的过滤表达式转换不支持数组，这里直接用 Elasticsearch 客户端发 knn + terms filter，
+ * 过滤在 HNSW 遍历阶段生效，而不是先取 topK 再筛。非 Elasticsearch 向量库退回 Spring AI 过滤表达式。
+ * 过滤按"排除未选中的取值"表达：缺少该字段的文档（正文没写星级的菜谱没有 difficulty）不会被过滤掉；
+ * 某个维度包含 other 或覆盖了全部取值时等于没有限制，不加过滤。
+ * 查询只发往该用户所在的分区（见 TenantIndexRouter）。
+ */
+@Component
+public class FilteredKnnSearch {
+    private static final Logger log = LoggerFactory.getLogger(FilteredKnnSearch.class);
+    private static final String OTHER = "other";
+    // 文档上可能出现的全部取值，分类未命中时为 other
+    private static final List<String> CATEGORY_VALUES = new ArrayList<>(new TreeSet<>(DataPreparation.categories()));
+    private static final List<String> DIFFICULTY_VALUES = List.copyOf(DataPreparation.difficulties());
+
+    static {
+        CATEGORY_VALUES.add(OTHER);
+    }
+
+    private final VectorStore vectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final TenantIndexRouter tenantIndexRouter;
+    private final PipelineMetrics metrics;
+    private final Scheduler blockingScheduler;
+    private final int numCandidatesFactor;
+    private final int minNumCandidates;
+    private final boolean shadowCompare;
+
+    private final Timer filteredTimer;
+    private final Timer unfilteredTimer;
+    private final DistributionSummary unfilteredPrecision;
+    private final DistributionSummary overlap;
+
+    FilteredKnnSearch(
+            VectorStore vectorStore,
+            EmbeddingModel embeddingModel,
+            MeterRegistry meterRegistry,
+            TenantIndexRouter tenantIndexRouter,
+            PipelineMetrics metrics,
+            Scheduler blockingScheduler,
+            @Value("${rag.knn.num-candidates-factor:10}") int numCandidatesFactor,
+            @Value("${rag.knn.min-num-candidates:100}") int minNumCandidates,
+            @Value("${rag.knn.shadow-compare:false}") boolean shadowCompare) {
+        this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.tenantIndexRouter = tenantIndexRouter;
+        this.metrics = metrics;
+        this.blockingScheduler = blockingScheduler;
+        this.numCandidatesFactor = numCandidatesFactor;
+        this.minNumCandidates = minNumCandidates;
+        this.shadowCompare = shadowCompare;
+
+        this.filteredTimer = Timer.builder("rag.retrieval.knn")
+                .description("元数据过滤检索耗时")
+                .tag("mode", "filtered")
+                .register(meterRegistry);
+        this.unfilteredTimer = Timer.builder("rag.retrieval.knn")
+                .description("元数据过滤检索耗时")
+                .tag("mode", "unfiltered")
+                .register(meterRegistry);
+        this.unfilteredPrecision = DistributionSummary.builder("rag.retrieval.knn.shadow.precision")
+                .description("旧查询（只按 userId 过滤）结果中满足 category / difficulty 条件的比例")
+                .register(meterRegistry);
+        this.overlap = DistributionSummary.builder("rag.retrieval.knn.shadow.overlap")
+                .description("新旧查询 top k 的重合比例")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 只按 userId 隔离的稠密检索
+     */
+    public List<Document> search(String query, String userId, int k) {
+        return search(query, userId, new MetadataFilterExpression(List.of(), List.of()), k);
+    }
+
+    public List<Document> search(String query, String userId, MetadataFilterExpression filters, int k) {
+        List<Document> docs = filteredTimer.record(() -> vectorStore.getNativeClient()
+                .map(client -> nativeSearch((ElasticsearchClient) client, query, userId, filters, k))
+                .orElseGet(() -> vectorStore.similaritySearch(SearchRequest.builder()
+                        .query(query)
+                        .topK(k)
+                        .filterExpression(toFilterExpression(userId, filters))
+                        .build())));
+
+        if (shadowCompare && hasFilters(filters)) {
+            // 影子查询不阻塞本次请求，只用于对比延迟和结果质量
+            blockingScheduler.schedule(() -> compareWithUnfiltered(query, userId, filters, k, docs));
+        }
+        return docs;
+    }
+
+    // ==========================================
+    // 内部实现
+    // ==========================================
+
+    private List<Document> nativeSearch(ElasticsearchClient client, String query, String userId,
+                                        MetadataFilterExpression filters, int k) {
+        float[] embedding = metrics.stage("embedding", () -> embeddingModel.embed(query));
+        List<Float> vector = new ArrayList<>(embedding.length);
+        for (float v : embedding) vector.add(v);
+
+        List<Query> filterQueries = new ArrayList<>();
+        filterQueries.add(Query.of(q -> q.term(t -> t.field("metadata.userId.keyword").value(userId))));
+        addExclusion(filterQueries, "metadata.category.keyword", excludedCategories(filters));
+        addExclusion(filterQueries, "metadata.difficulty.keyword", excludedDifficulties(filters));
+
+        int numCandidates = Math.max(minNumCandidates, k * numCandidatesFactor);
+        try {
+            @SuppressWarnings("rawtypes")
+            SearchResponse<Map> response = client.search(s -> s
+                            .index(tenantIndexRouter.indexFor(userId))
+                            .routing(tenantIndexRouter.routingFor(userId))
+                            .size(k)
+                            .knn(kn -> kn
+                                    .field("embedding")
+                                    .queryVector(vector)
+                                    .k(k)
+                                    .numCandidates(numCandidates)
+                                    .filter(filterQueries))
+                            .source(src -> src.filter(f -> f.excludes("embedding"))),
+                    Map.class);
+            return toDocuments(response);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Elasticsearch kNN 检索失败", e);
+        }
+    }
+
+    private static boolean hasFilters(MetadataFilterExpression filters) {
+        return !excludedCategories(filters).isEmpty() || !excludedDifficulties(filters).isEmpty();
+    }
+
+    static List<String> excludedCategories(MetadataFilterExpression filters) {
+        return excluded(filters.categories(), CATEGORY_VALUES);
+    }
+
+    static List<String> excludedDifficulties(MetadataFilterExpression filters) {
+        return excluded(filters.difficulties(), DIFFICULTY_VALUES);
+    }
+
+    /**
+     * 选中值之外需要排除的取值；未提及该维度、包含 other、没有一个已知取值或覆盖全部取值时返回空列表（不过滤）
+     */
+    private static List<String> excluded(List<String> selected, List<String> values) {
+        if (selected == null) return List.of();
+        Set<String> chosen = new HashSet<>();
+        selected.forEach(value -> chosen.add(value.trim()));
+        if (chosen.contains(OTHER)) return List.of();
+
+        List<String> excluded = values.stream().filter(value -> !chosen.contains(value)).toList();
+        boolean noneKnown = excluded.size() == values.size();
+        boolean allChosen = excluded.stream().allMatch(OTHER::equals);
+        return noneKnown || allChosen ? List.of() : excluded;
+    }
+
+    private static void addExclusion(List<Query> filterQueries, String field, List<String> excluded) {
+        if (excluded.isEmpty()) return;
+        List<FieldValue> terms = excluded.stream().map(FieldValue::of).toList();
+        filterQueries.add(Query.of(q -> q.bool(b -> b.mustNot(n -> n.terms(t -> t.field(field).terms(tv -> tv.value(terms)))))));
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static List<Document> toDocuments(SearchResponse<Map> response) {
+        List<Document> docs = new ArrayList<>();
+        for (Hit<Map> hit : response.hits().hits()) {
+            Map source = hit.source();
+            if (source == null || source.get("content") == null) continue;
+            Map<String, Object> metadata = new HashMap<>(source.get("metadata") instanceof Map m ? m : Map.of());
+            // 与 Spring AI 对 cosine 分数的换算保持一致：ES 返回 (1 + cos) / 2
+            double score = hit.score() == null ? 0 : 2 * hit.score() - 1;
+            metadata.put("distance", 1 - score);
+            docs.add(Document.builder()
+                    .id(hit.id())
+                    .text(source.get("content").toString())
+                    .metadata(metadata)
+                    .score(score)
+                    .build());
+        }
+        return docs;
+    }
+
+    static Filter.Expression toFilterExpression(String userId, MetadataFilterExpression filters) {
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        FilterExpressionBuilder.Op op = b.eq("userId.keyword", userId);
+        List<String> categories = excludedCategories(filters);
+        if (!categories.isEmpty()) {
+            op = b.and(op, b.nin("category.keyword", new ArrayList<Object>(categories)));
+        }
+        List<String> difficulties = excludedDifficulties(filters);
+        if (!difficulties.isEmpty()) {
+            op = b.and(op, b.nin("difficulty.keyword", new ArrayList<Object>(difficulties)));
+        }
+        return op.build();
+    }
+
+    private void compareWithUnfiltered(String query, String userId, MetadataFilterExpression filters,
+                                       int k, List<Document> filtered) {
+        try {
+            List<Document> unfiltered = unfilteredTimer.record(() -> vectorStore.similaritySearch(SearchRequest.builder()
+                    .query(query)
+                    .topK(k)
+                    .filterExpression(new FilterExpressionBuilder().eq("userId.keyword", userId).build())
+                    .build()));
+
+            long matching = unfiltered.stream().filter(doc -> matches(doc, filters)).count();
+            Set<String> filteredIds = new HashSet<>();
+            filtered.forEach(doc -> filteredIds.add(doc.getId()));
+            long shared = unfiltered.stream().filter(doc -> filteredIds.contains(doc.getId())).count();
+
+            double precision = unfiltered.isEmpty() ? 1 : matching / (double) unfiltered.size();
+            double overlapRatio = k == 0 ? 1 : shared / (double) k;
+            unfilteredPrecision.record(precision);
+            overlap.record(overlapRatio);
+            log.info("kNN 影子对比：旧查询满足过滤条件 {}/{}，与新查询重合 {}/{}",
+                    matching, unfiltered.size(), shared, k);
+        } catch (Exception e) {
+            log.warn("kNN 影子对比失败", e);
+        }
+    }
+
+    static boolean matches(Document doc, MetadataFilterExpression filters) {
+        return !excludes(excludedCategories(filters), doc.getMetadata().get("category"))
+                && !excludes(excludedDifficulties(filters), doc.getMetadata().get("difficulty"));
+    }
+
+    private static boolean excludes(List<String> excluded, Object actual) {
+        return actual != null && excluded.contains(actual.toString());
+    }
+}
@@ -23,19 +23,25 @@ import java.util.stream.IntStream;
 @Component
 public class GenerationIntegration {
     public final ChatClient chatClient;
+    // 路由、改写、扩展、过滤条件与标题等辅助调用不写入对话记忆（对冲请求也不会重复写入）
+    private final ChatClient utilityClient;
     private static final Logger log = LoggerFactory.getLogger(GenerationIntegration.class);
     private final DataPreparation dataPreparation;
+    private final LlmGateway llmGateway;
 
     GenerationIntegration(
             ChatClient.Builder builder,
             ChatMemory chatMemory,
-            DataPreparation dataPreparation) {
+            DataPreparation dataPreparation,
+            LlmGateway llmGateway) {
+        this.utilityClient = builder.clone().build();
         this.chatClient = builder
                 .defaultAdvisors(
                         MessageChatMemoryAdvisor.builder(chatMemory).build()
                 )
                 .build();
         this.dataPreparation = dataPreparation;
+        this.llmGateway = llmGateway;
     }
 
     public String summariseTitle(String query) {
@@ -49,7 +55,9 @@ public class GenerationIntegration {
         Map<String, Object> vars = Map.of("query", query);
         Message message = pt.createMessage(vars);
 
-        return chatClient.prompt().messages(message).call().content();
+        // 降级：直接截取用户输入
+        return llmGateway.call("title", () -> utilityClient.prompt().messages(message).call().content(),
+                () -> query.length() <= 10 ? query : query.substring(0, 10));
     }
 
     public String queryRouter(String query) {
@@ -75,7 +83,8 @@ public class GenerationIntegration {
         Map<String, Object> vars = Map.of("query", query);
         Message message = promptTemplate.createMessage(vars);
 
-        return chatClient.prompt().messages(message).call().content();
+        return llmGateway.classify("router", () -> utilityClient.prompt().messages(message).call().content(),
+                () -> localRoute(query));
     }
 
     public String queryRewrite(String query) {
@@ -114,10 +123,43 @@ public class GenerationIntegration {
         Map<String, Object> vars = Map.of("query", query);
         Message message = promptTemplate.createMessage(vars);
 
-        return chatClient.prompt().messages(message).call().content();
+        // 降级：不改写
+        return llmGateway.call("rewrite", () -> utilityClient.prompt().messages(message).call().content(), () -> query);
+    }
+
+    /**
+     * 生成若干个与原查询意图相同、表述不同的检索查询，用于多路召回
+     */
+    public List<String> queryExpansion(String query, int count) {
+        ListOutputConverter outputConverter = new ListOutputConverter();
+        PromptTemplate promptTemplate = new PromptTemplate("""
+                你是一个食谱搜索助手。请把用户的查询改写成 {count} 个不同的搜索查询，用于从菜谱库中检索。
+                
+                要求：
+                - 保持原意不变，可以换用同义词、菜名别称、主要食材或烹饪方式
+                - 每个查询简洁，不超过 20 个字
+                - 不要重复原查询
+                
+                原始查询: {query}
+                格式： "{format}"
+                """);
+        Map<String, Object> vars = Map.of("query", query, "count", count, "format", outputConverter.getFormat());
+        Message message = promptTemplate.createMessage(vars);
+
+        List<String> expansions = llmGateway.call("expansion",
+                () -> outputConverter.convert(utilityClient.prompt().messages(message).call().content()),
+                List::of);
+        return expansions == null ? List.of() : expansions;
     }
 
     Flux<String> generateListAnswer(String query, List<Document> contextDocs) {
+        return generateListAnswer(query, contextDocs, 3);
+    }
+
+    /**
+     * 列出前 shown 道菜，其余只给出数量；目录回答时 shown 为用户要求的数量
+     */
+    Flux<String> generateListAnswer(String query, List<Document> contextDocs, int shown) {
         if (contextDocs == null || contextDocs.isEmpty()) {
             log.info("未找到相关菜品");
             return Flux.just("抱歉，没有找到相关的菜品信息。");
@@ -141,7 +183,7 @@ public class GenerationIntegration {
         if (dishNames.size() == 1) {
             return Flux.just(String.format("为您推荐：%s", dishNames.getFirst()));
         }
-        else if (dishNames.size() <= 3) {
+        else if (dishNames.size() <= shown) {
             String formattedDishes = IntStream.range(0, dishNames.size())
                     .mapToObj(i -> String.format("%d. %s", i + 1, dishNames.get(i)))
                     .collect(Collectors.joining("\n"));
@@ -151,11 +193,11 @@ public class GenerationIntegration {
         }
         else {
             // 使用 stream().limit(3) 来模拟 dish_names[:3]
-            String formattedDishes = IntStream.range(0, 3)
+            String formattedDishes = IntStream.range(0, shown)
                     .mapToObj(i -> String.format("%d. %s", i + 1, dishNames.get(i)))
                     .collect(Collectors.joining("\n"));
 
-            String suffix = String.format("\n\n还有其他 %d 道菜品可供选择。", dishNames.size() - 3);
+            String suffix = String.format("\n\n还有其他 %d 道菜品可供选择。", dishNames.size() - shown);
 
             return Flux.just("为您推荐以下菜品：\n" + formattedDishes + suffix);
         }
@@ -176,7 +218,8 @@ public class GenerationIntegration {
                 """);
         Map<String, Object> vars = Map.of("question", query, "context", contextDocs);
         Message message = pt.createMessage(vars);
-        return chatClient.prompt().messages(message).stream().content();
+        return llmGateway.stream("answer_basic", () -> chatClient.prompt().messages(message).stream().content(),
+                () -> degradedAnswer(contextDocs));
     }
 
     Flux<String> generateStepByStepAnswer(String query, List<Document> contextDocs) {
@@ -212,11 +255,14 @@ public class GenerationIntegration {
                 """);
         Map<String, Object> vars = Map.of("question", query, "context", contextDocs);
         Message message = pt.createMessage(vars);
-        return chatClient.prompt().messages(message).stream().content();
+        return llmGateway.stream("answer_steps", () -> chatClient.prompt().messages(message).stream().content(),
+                () -> degradedAnswer(contextDocs));
     }
 
     MetadataFilterExpression extractFiltersFromQuery(String query) {
         ListOutputConverter outputConverter = new ListOutputConverter();
+        // 降级时用本地词表解析，未识别的维度为空列表（不过滤）
+        ListQueryParser.CatalogQuery local = ListQueryParser.parse(query, List.of());
 
         PromptTemplate pt1 = new PromptTemplate("""
                 # Role
@@ -246,9 +292,9 @@ public class GenerationIntegration {
 
         Map<String, Object> var1 = Map.of("userInput", query, "format", outputConverter.getFormat());
         Message message1 = pt1.createMessage(var1);
-        String difficultiesResponse = chatClient.prompt().messages(message1).call().content();
-
-        List<String> difficulties = outputConverter.convert(difficultiesResponse);
+        List<String> difficulties = llmGateway.classify("filter_difficulty",
+                () -> outputConverter.convert(utilityClient.prompt().messages(message1).call().content()),
+                () -> List.copyOf(local.difficulties()));
 
         PromptTemplate pt2 = new PromptTemplate("""
                   # 可用类别
@@ -279,9 +325,9 @@ public class GenerationIntegration {
         Map<String, Object> var2 = Map.of("userInput", query, "format", outputConverter.getFormat());
         Message message2 = pt2.createMessage(var2);
 
-        String categoriesResponse = chatClient.prompt().messages(message2).call().content();
-
-        List<String> categories = outputConverter.convert(categoriesResponse);
+        List<String> categories = llmGateway.classify("filter_category",
+                () -> outputConverter.convert(utilityClient.prompt().messages(message2).call().content()),
+                () -> List.copyOf(local.categories()));
 
 
 
@@ -291,4 +337,30 @@ public class GenerationIntegration {
 
         return null;
     }
+
+    /**
+     * 路由被限流或超时时的本地判断：有列表意图为 list，询问做法 / 食材为 detail，其余为 general
+     */
+    static String localRoute(String query) {
+        if (ListQueryParser.parse(query, List.of()).listIntent()) return "list";
+        for (String cue : List.of("怎么做", "做法", "步骤", "食材", "需要什么", "如何做", "怎么烧", "怎么炒")) {
+            if (query.contains(cue)) return "detail";
+        }
+        return "general";
+    }
+
+    /**
+     * LLM 不可用时的降级回答：直接给出检索到的菜谱内容
+     */
+    private static Flux<String> degradedAnswer(List<Document> contextDocs) {
+        if (contextDocs == null || contextDocs.isEmpty()) {
+            return Flux.just("当前请求较多，AI 回答暂时不可用，请稍后再试。");
+        }
+        StringBuilder answer = new StringBuilder("当前请求较多，AI 回答暂时不可用，以下是检索到的菜谱内容：");
+        for (Document doc : contextDocs) {
+            answer.append("\n\n## ").append(doc.getMetadata().getOrDefault("dishName", "未知菜品"))
+                    .append("\n\n").append(doc.getText());
+        }
+        return Flux.just(answer.toString());
+    }
 }
@@ -0,0 +1,18 @@
+package com.rag.how_to_cook.service;
+
+import java.util.Locale;
+
+/**
+ * 生成回答前需要把检索到的 chunk 补全到什么程度
+ * - METADATA：只要菜名等元数据（chunk metadata + DocumentInfo），不读对象存储
+ * - CHUNK：直接使用命中的 chunk 文本
+ * - SECTION：从 MinIO 按字节区间只读取命中的章节（见 MarkdownSectionSplitter）
+ * - PARENT：从 MinIO 读取完整的父文档
+ */
+public enum HydrationLevel {
+    METADATA, CHUNK, SECTION, PARENT;
+
+    static HydrationLevel parse(String value) {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -1,29 +1,72 @@
 package com.rag.how_to_cook.service;
 
 
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.ScrollResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
 import com.rag.how_to_cook.domain.ProcessResult;
+import com.rag.how_to_cook.vectorstore.HnswVectorStore;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class IndexConstruction {
     private final VectorStore vectorStore;
     private final DataPreparation dataPreparation;
+    private final Bm25Index bm25Index;
+    private final TenantIndexRouter tenantIndexRouter;
+    private final TenantIndexWriter tenantIndexWriter;
+    private final IngestionCheckpoints checkpoints;
+    private final CorpusVersions corpusVersions;
+    private final PipelineMetrics metrics;
+    private final Scheduler blockingScheduler;
+    private final int writeConcurrency;
 
     private static final Logger log = LoggerFactory.getLogger(IndexConstruction.class);
 
     IndexConstruction(
             VectorStore vectorStore,
-            DataPreparation dataPreparation
+            DataPreparation dataPreparation,
+            Bm25Index bm25Index,
+            TenantIndexRouter tenantIndexRouter,
+            TenantIndexWriter tenantIndexWriter,
+            IngestionCheckpoints checkpoints,
+            CorpusVersions corpusVersions,
+            PipelineMetrics metrics,
+            Scheduler blockingScheduler,
+            @Value("${rag.index.write-concurrency:4}") int writeConcurrency
     ) {
         this.vectorStore = vectorStore;
         this.dataPreparation = dataPreparation;
+        this.bm25Index = bm25Index;
+        this.tenantIndexRouter = tenantIndexRouter;
+        this.tenantIndexWriter = tenantIndexWriter;
+        this.checkpoints = checkpoints;
+        this.corpusVersions = corpusVersions;
+        this.metrics = metrics;
+        this.blockingScheduler = blockingScheduler;
+        this.writeConcurrency = writeConcurrency;
     }
 
     @PostConstruct
@@ -35,18 +78,150 @@ public class IndexConstruction {
         return this.vectorStore;
     }
 
+    public Bm25Index getBm25Index() {
+        return this.bm25Index;
+    }
+
+    /**
+     * 写入新 chunk：向量库与 BM25 稀疏索引同步更新
+     * 开启租户分区时，按 userId 分组写入各自的分区
+     * 写入完成后才递增相关用户的语料版本，避免并发查询把旧索引的结果缓存到新版本下
+     */
+    public void addChunks(List<Document> chunks) {
+        if (chunks.isEmpty()) return;
+        metrics.ingestion("index_write", () -> {
+            writeChunks(chunks);
+            return null;
+        });
+        bm25Index.add(chunks);
+        chunks.stream()
+                .map(chunk -> chunk.getMetadata().get("userId"))
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .distinct()
+                .forEach(corpusVersions::bump);
+    }
+
+    /**
+     * 删除该用户的 chunk（文件更新或删除后调用），删除完成后递增语料版本；chunkIds 为空时也递增（目录条目可能已变化）
+     */
+    public void deleteChunks(List<String> chunkIds, String userId) {
+        deleteChunks(chunkIds);
+        corpusVersions.bump(userId);
+    }
+
+    public void deleteChunks(List<String> chunkIds) {
+        if (chunkIds.isEmpty()) return;
+        metrics.ingestion("index_delete", () -> {
+            if (tenantIndexWriter.isActive()) {
+                tenantIndexWriter.delete(chunkIds);
+            } else {
+                vectorStore.delete(chunkIds);
+            }
+            return null;
+        });
+        bm25Index.delete(chunkIds);
+    }
+
+    /**
+     * 非监听节点同步一个对象：向量库已由监听节点写入，这里只把本地 BM25 索引对齐到 chunks，
+     * 已存在的 chunk（chunkId 随版本变化）不重复写入；有变化时递增语料版本
+     */
+    public void syncLocally(String sourceUrl, List<Document> chunks, String userId) {
+        Set<String> indexed = bm25Index.chunksOfSource(sourceUrl).stream()
+                .map(Bm25Index::chunkIdOf)
+                .collect(Collectors.toSet());
+        Set<String> current = chunks.stream().map(Bm25Index::chunkIdOf).collect(Collectors.toSet());
+        List<String> stale = indexed.stream().filter(id -> !current.contains(id)).toList();
+        List<Document> added = chunks.stream().filter(chunk -> !indexed.contains(Bm25Index.chunkIdOf(chunk))).toList();
+        if (stale.isEmpty() && added.isEmpty()) return;
+        bm25Index.delete(stale);
+        bm25Index.add(added);
+        corpusVersions.bump(userId);
+    }
+
+    /**
+     * 非监听节点同步一个已删除的对象：从本地 BM25 索引移除，返回涉及的 parentId 供清理目录与 facet
+     */
+    public Set<String> removeLocally(String sourceUrl, String userId) {
+        List<Document> stale = bm25Index.chunksOfSource(sourceUrl);
+        bm25Index.delete(stale.stream().map(Bm25Index::chunkIdOf).toList());
+        corpusVersions.bump(userId);
+        return stale.stream()
+                .map(chunk -> chunk.getMetadata().get("parentId"))
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+    }
+
+    private void writeChunks(List<Document> chunks) {
+        if (tenantIndexWriter.isActive()) {
+            Map<String, List<Document>> byUser = new LinkedHashMap<>();
+            List<Document> shared = new ArrayList<>();
+            for (Document chunk : chunks) {
+                Object userId = chunk.getMetadata().get("userId");
+                if (userId != null && tenantIndexRouter.isPartitioned(userId.toString())) {
+                    byUser.computeIfAbsent(userId.toString(), u -> new ArrayList<>()).add(chunk);
+                } else {
+                    shared.add(chunk);
+                }
+            }
+            byUser.forEach(tenantIndexWriter::write);
+            if (!shared.isEmpty()) vectorStore.add(shared);
+        } else {
+            vectorStore.add(chunks);
+        }
+    }
+
     public void buildVectorIndex() throws Exception {
         log.info("向量索引构建开始");
 
-        ProcessResult processResult = dataPreparation.loadAllData();
+        // 有检查点时只处理之后修改过的对象，全量扫描只在超过 rag.ingest.full-scan-interval 时作为对账执行
+        Instant startedAt = Instant.now();
+        Optional<Instant> since = checkpoints.incrementalSince();
+        boolean incremental = since.isPresent() && dataPreparation.restoreFacets();
+        ProcessResult processResult = incremental ? loadChanges(since.get()) : dataPreparation.loadAllData();
+
+        // 未变化的文件不会重新切分，稀疏索引需要从已有的向量库恢复
+        loadSparseIndex();
+
+        writeChanges(processResult);
+        checkpoints.scanCompleted(startedAt, !incremental);
+    }
 
+    /**
+     * 增量启动：只读取 since 之后修改过的对象，清理 bucket 中已不存在的对象
+     */
+    private ProcessResult loadChanges(Instant since) throws Exception {
+        DataPreparation.ObjectChanges changes = dataPreparation.changedSince(since);
+        log.info("增量扫描 MinIO（{} 之后）：{} 个对象有修改，{} 个已删除", since, changes.modified().size(), changes.removed().size());
+
+        List<Document> chunksToAdd = new ArrayList<>();
+        List<String> idsToDelete = new ArrayList<>();
+        for (String objectName : changes.modified()) {
+            ProcessResult result = dataPreparation.processSingleFile(objectName, dataPreparation.extractUserIdFromPath(objectName));
+            chunksToAdd.addAll(result.newChunks());
+            idsToDelete.addAll(result.idsToDelete());
+        }
+        for (String objectName : changes.removed()) {
+            try {
+                idsToDelete.addAll(dataPreparation.explicitDelete(objectName, dataPreparation.extractUserIdFromPath(objectName)));
+            } catch (Exception e) {
+                // 删除按数据库与 bucket 的差异判断，不依赖检查点，下次扫描会再次处理
+                log.error("清理已删除的对象失败: {}", objectName, e);
+            }
+        }
+        return new ProcessResult(chunksToAdd, idsToDelete);
+    }
+
+    private void writeChanges(ProcessResult processResult) {
         List<Document> chunksToAdd = processResult.newChunks();
         List<String> chunkIdsToDelete = processResult.idsToDelete();
 
         if (!chunkIdsToDelete.isEmpty()) {
             log.warn("检测到 {} 个旧版本文档块需要删除...", chunkIdsToDelete.size());
 
-            vectorStore.delete(chunkIdsToDelete);
+            deleteChunks(chunkIdsToDelete);
 
             log.info("已成功从向量索引中删除 {} 个旧文档块。", chunkIdsToDelete.size());
         } else {
@@ -65,23 +240,84 @@ public class IndexConstruction {
 
         log.info("准备开始添加 {} 个新的文档块, 分为 {} 个批次。", totalChunks, totalBatches);
 
-        for (int i = 0; i < totalBatches; i++) {
-            int start = i * batchSize;
-            int end = Math.min((i + 1) * batchSize, totalChunks);
+        // 各批次之间互不依赖（embedding 与 bulk 写入都是网络往返），最多 writeConcurrency 个批次同时进行
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger finishedBatches = new AtomicInteger();
+        Flux.range(0, totalBatches)
+                .flatMap(i -> Mono.fromRunnable(() -> {
+                    List<Document> batch = chunksToAdd.subList(i * batchSize, Math.min((i + 1) * batchSize, totalChunks));
+                    addChunks(batch);
+                    log.info(
+                            "批次 {}/{} 添加完毕。累计已添加 {}/{} 个文档块。",
+                            finishedBatches.incrementAndGet(),
+                            totalBatches,
+                            added.addAndGet(batch.size()),
+                            totalChunks
+                    );
+                }).subscribeOn(blockingScheduler), writeConcurrency)
+                .then()
+                .block();
+
+        log.info("向量索引增量更新完成");
+    }
+
+    /**
+     * 从向量库读取全部 chunk 重建 BM25 索引（Elasticsearch 下滚动读取，不取 embedding 字段）
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void loadSparseIndex() throws IOException {
+        if (vectorStore instanceof HnswVectorStore hnswVectorStore) {
+            bm25Index.add(hnswVectorStore.documents());
+            log.info("BM25 索引已从 HNSW 向量库恢复 {} 个 chunk", bm25Index.size());
+            return;
+        }
 
-            List<Document> batch = chunksToAdd.subList(start, end);
+        Optional<ElasticsearchClient> nativeClient = vectorStore.getNativeClient();
+        if (nativeClient.isEmpty()) {
+            log.warn("向量库不是 Elasticsearch，跳过 BM25 索引恢复");
+            return;
+        }
+        ElasticsearchClient client = nativeClient.get();
+        if (!client.indices().exists(e -> e.index(tenantIndexRouter.baseIndex())).value()) {
+            return;
+        }
+
+        // 共享索引与所有租户独立索引
+        SearchResponse<Map> response = client.search(s -> s
+                        .index(tenantIndexRouter.allIndices())
+                        .ignoreUnavailable(true)
+                        .allowNoIndices(true)
+                        .size(500)
+                        .scroll(t -> t.time("2m"))
+                        .source(src -> src.filter(f -> f.excludes("embedding"))),
+                Map.class);
+        String scrollId = response.scrollId();
+        List<Hit<Map>> hits = response.hits().hits();
 
-            vectorStore.add(batch);
+        while (hits != null && !hits.isEmpty()) {
+            List<Document> batch = new ArrayList<>(hits.size());
+            for (Hit<Map> hit : hits) {
+                Map source = hit.source();
+                if (source == null || source.get("content") == null) continue;
+                Map<String, Object> metadata = source.get("metadata") instanceof Map m ? m : Map.of();
+                batch.add(Document.builder()
+                        .id(hit.id())
+                        .text(source.get("content").toString())
+                        .metadata(metadata)
+                        .build());
+            }
+            bm25Index.add(batch);
 
-            log.info(
-                    "批次 {}/{} 添加完毕。累计已添加 {}/{} 个文档块。",
-                    (i + 1),
-                    totalBatches,
-                    end,
-                    totalChunks
-            );
+            String currentScrollId = scrollId;
+            ScrollResponse<Map> next = client.scroll(r -> r.scrollId(currentScrollId).scroll(t -> t.time("2m")), Map.class);
+            scrollId = next.scrollId();
+            hits = next.hits().hits();
         }
 
-        log.info("向量索引增量更新完成");
+        if (scrollId != null) {
+            String finalScrollId = scrollId;
+            client.clearScroll(c -> c.scrollId(finalScrollId));
+        }
+        log.info("BM25 索引已从向量库恢复 {} 个 chunk", bm25Index.size());
     }
 }
@@ -0,0 +1,356 @@
+package com.rag.how_to_cook.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorSimilarity;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.ScrollResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.indices.GetIndexResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 零停机重建向量索引（仅 Elasticsearch 共享索引），rag.index.rebuild=true 时在启动后执行一次：
+ * 1. 新建 {index-name}-v{N}：沿用当前索引的 mapping（向量维度与相似度按当前配置），关闭 refresh、副本数为 0
+ * 2. 滚动读取当前索引，同时保持 concurrency 个 bulk 请求写入新索引；reembed=true 时用当前向量模型重新计算 embedding
+ * 3. 恢复 refresh 与副本数，补齐重建期间的增删；再给当前索引加写入锁补齐最后的变更，校验两边文档数一致
+ * 4. 一次 _aliases 请求把别名 index-name 原子切换到新索引；旧索引保持只读用于回滚，更早的版本按 retained-versions 清理
+ * 查询一直通过别名访问旧索引，不受批量写入影响；只有第 3 步加锁到切换完成的短暂时间内上传会失败
+ * 首次执行时 index-name 还是具体索引：加锁后先克隆为 {index-name}-v0 保留，切换时删除原索引并以同名别名代替
+ * 独立租户索引（{index-name}-tenant-*）不在重建范围内
+ */
+@Component
+@ConditionalOnProperty(name = "rag.index.rebuild", havingValue = "true")
+public class IndexRebuild implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(IndexRebuild.class);
+    private static final String EMBEDDING_FIELD = "embedding";
+
+    private final TenantIndexRouter router;
+    private final TenantIndexWriter writer;
+    private final EmbeddingModel embeddingModel;
+    private final Scheduler blockingScheduler;
+    private final PipelineMetrics metrics;
+    private final int bulkSize;
+    private final int concurrency;
+    private final boolean reembed;
+    private final int retainedVersions;
+    private final int dimensions;
+    private final String similarity;
+
+    IndexRebuild(
+            TenantIndexRouter router,
+            TenantIndexWriter writer,
+            EmbeddingModel embeddingModel,
+            Scheduler blockingScheduler,
+            PipelineMetrics metrics,
+            @Value("${rag.index.rebuild.bulk-size:500}") int bulkSize,
+            @Value("${rag.index.rebuild.concurrency:4}") int concurrency,
+            @Value("${rag.index.rebuild.reembed:false}") boolean reembed,
+            @Value("${rag.index.rebuild.retained-versions:1}") int retainedVersions,
+            @Value("${spring.ai.vectorstore.elasticsearch.dimensions:1536}") int dimensions,
+            @Value("${spring.ai.vectorstore.elasticsearch.similarity:cosine}") String similarity) {
+        this.router = router;
+        this.writer = writer;
+        this.embeddingModel = embeddingModel;
+        this.blockingScheduler = blockingScheduler;
+        this.metrics = metrics;
+        this.bulkSize = bulkSize;
+        this.concurrency = concurrency;
+        this.reembed = reembed;
+        this.retainedVersions = retainedVersions;
+        this.dimensions = dimensions;
+        this.similarity = similarity;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        metrics.ingestion("index_rebuild", () -> {
+            rebuild();
+            return null;
+        });
+    }
+
+    public void rebuild() throws IOException {
+        ElasticsearchClient client = writer.client()
+                .orElseThrow(() -> new IllegalStateException("索引重建只支持 Elasticsearch 向量库"));
+        String alias = router.baseIndex();
+
+        GetIndexResponse current = client.indices().get(g -> g.index(alias).ignoreUnavailable(true));
+        if (current.result().isEmpty()) {
+            log.warn("索引 {} 不存在，无需重建", alias);
+            return;
+        }
+        if (current.result().size() > 1) {
+            throw new IllegalStateException("别名 " + alias + " 指向多个索引，无法确定重建来源: " + current.result().keySet());
+        }
+        String source = current.result().keySet().iterator().next();
+        IndexState sourceState = current.result().get(source);
+        // index-name 仍是具体索引（尚未使用别名）
+        boolean legacy = source.equals(alias);
+
+        String target = alias + "-v" + nextVersion(client, alias, legacy);
+        IndexSettings sourceSettings = flatten(sourceState.settings());
+        String replicas = Optional.ofNullable(sourceSettings.numberOfReplicas()).orElse("1");
+        Time refreshInterval = Optional.ofNullable(sourceSettings.refreshInterval()).orElse(Time.of(t -> t.time("1s")));
+
+        client.indices().create(c -> c
+                .index(target)
+                .mappings(targetMapping(sourceState.mappings()))
+                .settings(s -> s
+                        .numberOfShards(sourceSettings.numberOfShards())
+                        .numberOfReplicas("0")
+                        .refreshInterval(t -> t.time("-1"))));
+        log.info("开始重建：{} -> {}（bulk {} 条，并发 {}，{}）", source, target, bulkSize, concurrency,
+                reembed ? "重新计算 embedding" : "复制 embedding");
+
+        long copied = copy(client, source, target, Query.of(q -> q.matchAll(m -> m)));
+        log.info("已写入 {} 个 chunk 到 {}", copied, target);
+
+        client.indices().putSettings(p -> p
+                .index(target)
+                .settings(s -> s.numberOfReplicas(replicas).refreshInterval(refreshInterval)));
+
+        // 先在不加锁的情况下补齐大部分变更，缩短下面加写入锁的时间
+        catchUp(client, source, target);
+        // 从这里到切换完成，旧索引拒绝写入，保证两边一致
+        client.indices().putSettings(p -> p.index(source).settings(s -> s.blocks(b -> b.write(true))));
+        String rollback = source;
+        try {
+            catchUp(client, source, target);
+            client.indices().refresh(r -> r.index(List.of(source, target)));
+            long expected = client.count(c -> c.index(source)).count();
+            long actual = client.count(c -> c.index(target)).count();
+            if (expected != actual) {
+                throw new IllegalStateException("文档数不一致：" + source + "=" + expected + "，" + target + "=" + actual);
+            }
+
+            if (legacy) {
+                rollback = alias + "-v0";
+                String legacyCopy = rollback;
+                client.indices().clone(c -> c.index(source).target(legacyCopy));
+            }
+            String previous = rollback;
+            client.indices().updateAliases(u -> u
+                    .actions(a -> a.add(add -> add.index(target).alias(alias).isWriteIndex(true)))
+                    .actions(a -> legacy
+                            ? a.removeIndex(r -> r.index(source))
+                            : a.remove(r -> r.index(previous).alias(alias))));
+        } catch (RuntimeException | IOException e) {
+            // 切换前失败：解除旧索引的写入锁，继续使用旧索引，新索引留作排查
+            client.indices().putSettings(p -> p.index(source).settings(s -> s.blocks(b -> b.write(false))));
+            throw e;
+        }
+        log.info("别名 {} 已切换到 {}（{} 个 chunk）。回滚：把别名移回 {} 并解除其 index.blocks.write",
+                alias, target, copied, rollback);
+
+        deleteOldVersions(client, alias, target, rollback);
+    }
+
+    /**
+     * 按查询滚动读取 source，分批并发写入 target，返回写入的文档数
+     */
+    @SuppressWarnings("rawtypes")
+    private long copy(ElasticsearchClient client, String source, String target, Query query) throws IOException {
+        AtomicLong written = new AtomicLong();
+        Scroll first = openScroll(client, source, query);
+        // 读取一页后立即预取下一页，写入端同时保持 concurrency 个 bulk 请求
+        Flux.<List<Hit<Map>>, Scroll>generate(() -> first, (scroll, sink) -> {
+                    try {
+                        if (scroll.hits().isEmpty()) {
+                            scroll.close(client);
+                            sink.complete();
+                            return scroll;
+                        }
+                        sink.next(scroll.hits());
+                        return scroll.next(client);
+                    } catch (IOException e) {
+                        sink.error(new UncheckedIOException("读取 " + source + " 失败", e));
+                        return scroll;
+                    }
+                })
+                .subscribeOn(blockingScheduler)
+                .flatMap(hits -> Mono.fromCallable(() -> {
+                            bulkIndex(client, target, hits);
+                            return written.addAndGet(hits.size());
+                        })
+                        .subscribeOn(blockingScheduler), concurrency)
+                .blockLast();
+        return written.get();
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void bulkIndex(ElasticsearchClient client, String target, List<Hit<Map>> hits) throws IOException {
+        List<float[]> embeddings = reembed
+                ? embeddingModel.embed(hits.stream().map(hit -> String.valueOf(hit.source().get("content"))).toList())
+                : null;
+        BulkRequest.Builder bulk = new BulkRequest.Builder();
+        for (int i = 0; i < hits.size(); i++) {
+            Hit<Map> hit = hits.get(i);
+            Map<String, Object> document = new LinkedHashMap<>(hit.source());
+            if (embeddings != null) document.put(EMBEDDING_FIELD, embeddings.get(i));
+            bulk.operations(op -> op.index(idx -> idx
+                    .index(target)
+                    .id(hit.id())
+                    .routing(hit.routing())
+                    .document(document)));
+        }
+        TenantIndexWriter.checkErrors(client.bulk(bulk.build()));
+    }
+
+    /**
+     * 补齐重建期间写入旧索引的变更：新增的 chunk 复制过去，已删除的从新索引删掉
+     */
+    private void catchUp(ElasticsearchClient client, String source, String target) throws IOException {
+        client.indices().refresh(r -> r.index(List.of(source, target)));
+        Set<String> sourceIds = ids(client, source);
+        Set<String> targetIds = ids(client, target);
+
+        List<String> missing = sourceIds.stream().filter(id -> !targetIds.contains(id)).toList();
+        for (int start = 0; start < missing.size(); start += bulkSize) {
+            List<String> page = missing.subList(start, Math.min(start + bulkSize, missing.size()));
+            copy(client, source, target, Query.of(q -> q.ids(i -> i.values(page))));
+        }
+        List<String> removed = targetIds.stream().filter(id -> !sourceIds.contains(id)).toList();
+        for (int start = 0; start < removed.size(); start += bulkSize) {
+            List<String> page = removed.subList(start, Math.min(start + bulkSize, removed.size()));
+            BulkRequest.Builder bulk = new BulkRequest.Builder();
+            page.forEach(id -> bulk.operations(op -> op.delete(d -> d.index(target).id(id))));
+            TenantIndexWriter.checkErrors(client.bulk(bulk.build()));
+        }
+        if (!missing.isEmpty() || !removed.isEmpty()) {
+            log.info("重建期间的变更已补齐：新增 {} 个，删除 {} 个", missing.size(), removed.size());
+        }
+    }
+
+    private Set<String> ids(ElasticsearchClient client, String index) throws IOException {
+        Set<String> ids = new HashSet<>();
+        SearchResponse<Void> response = client.search(s -> s
+                .index(index)
+                .size(bulkSize)
+                .scroll(t -> t.time("2m"))
+                .source(src -> src.fetch(false)), Void.class);
+        String scrollId = response.scrollId();
+        List<Hit<Void>> hits = response.hits().hits();
+        while (!hits.isEmpty()) {
+            hits.forEach(hit -> ids.add(hit.id()));
+            String currentScrollId = scrollId;
+            ScrollResponse<Void> next = client.scroll(r -> r.scrollId(currentScrollId).scroll(t -> t.time("2m")), Void.class);
+            scrollId = next.scrollId();
+            hits = next.hits().hits();
+        }
+        if (scrollId != null) {
+            String finalScrollId = scrollId;
+            client.clearScroll(c -> c.scrollId(finalScrollId));
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Scroll openScroll(ElasticsearchClient client, String index, Query query) throws IOException {
+        SearchResponse<Map> response = client.search(s -> s
+                .index(index)
+                .query(query)
+                .size(bulkSize)
+                .scroll(t -> t.time("5m"))
+                .source(src -> reembed
+                        ? src.filter(f -> f.excludes(EMBEDDING_FIELD))
+                        : src.fetch(true)), Map.class);
+        return new Scroll(response.scrollId(), response.hits().hits());
+    }
+
+    @SuppressWarnings("rawtypes")
+    private record Scroll(String scrollId, List<Hit<Map>> hits) {
+        Scroll next(ElasticsearchClient client) throws IOException {
+            ScrollResponse<Map> response = client.scroll(r -> r.scrollId(scrollId).scroll(t -> t.time("5m")), Map.class);
+            return new Scroll(response.scrollId(), response.hits().hits());
+        }
+
+        void close(ElasticsearchClient client) throws IOException {
+            if (scrollId != null) client.clearScroll(c -> c.scrollId(scrollId));
+        }
+    }
+
+    /**
+     * 沿用当前 mapping，只把 embedding 字段换成当前配置的维度与相似度（更换向量模型时维度会变）
+     */
+    private TypeMapping targetMapping(TypeMapping current) {
+        Map<String, Property> properties = new LinkedHashMap<>(current.properties());
+        properties.put(EMBEDDING_FIELD, Property.of(p -> p.denseVector(v -> v
+                .dims(dimensions)
+                .index(true)
+                .similarity(similarity(similarity)))));
+        return TypeMapping.of(m -> m
+                .properties(properties)
+                .dynamic(current.dynamic())
+                .dynamicTemplates(current.dynamicTemplates()));
+    }
+
+    private static DenseVectorSimilarity similarity(String name) {
+        return Arrays.stream(DenseVectorSimilarity.values())
+                .filter(value -> value.jsonValue().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("不支持的相似度: " + name));
+    }
+
+    private static IndexSettings flatten(IndexSettings settings) {
+        return settings != null && settings.index() != null ? settings.index() : settings;
+    }
+
+    /**
+     * 已有版本号的最大值加一；从具体索引迁移时 v0 留给原索引的克隆
+     */
+    private int nextVersion(ElasticsearchClient client, String alias, boolean legacy) throws IOException {
+        int max = legacy ? 0 : versions(client, alias).keySet().stream().max(Integer::compare).orElse(0);
+        return max + 1;
+    }
+
+    private static SortedMap<Integer, String> versions(ElasticsearchClient client, String alias) throws IOException {
+        Pattern pattern = Pattern.compile(Pattern.quote(alias) + "-v(\\d+)");
+        SortedMap<Integer, String> versions = new TreeMap<>();
+        GetIndexResponse response = client.indices().get(g -> g.index(alias + "-v*").allowNoIndices(true));
+        for (String index : response.result().keySet()) {
+            Matcher matcher = pattern.matcher(index);
+            if (matcher.matches()) versions.put(Integer.parseInt(matcher.group(1)), index);
+        }
+        return versions;
+    }
+
+    /**
+     * 保留当前版本与最近 retained-versions 个旧版本（含回滚用的上一版本），更早的删除
+     */
+    private void deleteOldVersions(ElasticsearchClient client, String alias, String current, String rollback) throws IOException {
+        List<String> old = new ArrayList<>(versions(client, alias).values());
+        old.remove(current);
+        Collections.reverse(old);
+        List<String> expired = old.stream()
+                .skip(Math.max(retainedVersions, 1))
+                .filter(index -> !index.equals(rollback))
+                .toList();
+        if (expired.isEmpty()) return;
+        client.indices().delete(d -> d.index(expired));
+        log.info("已删除过期的索引版本 {}", expired);
+    }
+}
@@ -0,0 +1,92 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.IngestionCheckpoint;
+import com.rag.how_to_cook.repo.IngestionCheckpointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * 读写 MinIO bucket 的入库检查点（ingestion_checkpoint 表）
+ * 检查点时间来自应用时钟（扫描开始时间）或 MinIO 的事件时间，读取时回退 margin 以容忍两者的时钟偏差
+ */
+@Component
+public class IngestionCheckpoints {
+    private static final Logger log = LoggerFactory.getLogger(IngestionCheckpoints.class);
+
+    private final IngestionCheckpointRepository repository;
+    private final String bucketName;
+    private final Duration fullScanInterval;
+    private final Duration margin;
+    // 最近一次写入的 watermark，避免重复写库
+    private Instant saved;
+
+    IngestionCheckpoints(
+            IngestionCheckpointRepository repository,
+            @Value("${minio.bucket}") String bucketName,
+            @Value("${rag.ingest.full-scan-interval:7d}") Duration fullScanInterval,
+            @Value("${rag.ingest.checkpoint-margin:1m}") Duration margin) {
+        this.repository = repository;
+        this.bucketName = bucketName;
+        this.fullScanInterval = fullScanInterval;
+        this.margin = margin;
+    }
+
+    /**
+     * 增量扫描的起点；没有检查点、距上次全量扫描超过 full-scan-interval 或读取失败时返回空，需要全量扫描
+     */
+    public Optional<Instant> incrementalSince() {
+        try {
+            return repository.findById(bucketName)
+                    .filter(checkpoint -> checkpoint.getLastFullScan().plus(fullScanInterval).isAfter(Instant.now()))
+                    .map(checkpoint -> checkpoint.getWatermark().minus(margin));
+        } catch (Exception e) {
+            log.warn("读取入库检查点失败，执行全量扫描: {}", e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 重新连接 MinIO 通知后补扫的起点
+     */
+    public Optional<Instant> since() {
+        return repository.findById(bucketName).map(checkpoint -> checkpoint.getWatermark().minus(margin));
+    }
+
+    /**
+     * 启动扫描的变更全部写入索引后调用，startedAt 为开始列出对象的时间
+     */
+    public synchronized void scanCompleted(Instant startedAt, boolean fullScan) {
+        IngestionCheckpoint checkpoint = repository.findById(bucketName).orElseGet(() -> {
+            IngestionCheckpoint created = new IngestionCheckpoint();
+            created.setBucket(bucketName);
+            // 没有全量扫描记录：下次启动时全量扫描
+            created.setLastFullScan(Instant.EPOCH);
+            return created;
+        });
+        checkpoint.setWatermark(startedAt);
+        if (fullScan) checkpoint.setLastFullScan(startedAt);
+        repository.save(checkpoint);
+        saved = startedAt;
+    }
+
+    /**
+     * 推进 watermark（只前进不后退）；还没有检查点时不创建，等启动扫描建立
+     */
+    public synchronized void advance(Instant watermark) {
+        if (saved != null && !watermark.isAfter(saved)) return;
+        Optional<IngestionCheckpoint> current = repository.findById(bucketName);
+        if (current.isEmpty()) return;
+        IngestionCheckpoint checkpoint = current.get();
+        if (watermark.isAfter(checkpoint.getWatermark())) {
+            checkpoint.setWatermark(watermark);
+            repository.save(checkpoint);
+        }
+        saved = checkpoint.getWatermark();
+    }
+}
@@ -0,0 +1,168 @@
+package com.rag.how_to_cook.service;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 用词表在本地解析列表类问题中的条件（数量、难度、类别、原料、耗时），不调用 LLM
+ * 识别出的词与常见的口语填充词去掉后，剩下的内容为空才算「完全解析」，否则交给原来的 LLM 流程
+ */
+final class ListQueryParser {
+    private static final Map<String, List<String>> DIFFICULTY_WORDS = new LinkedHashMap<>();
+    private static final Map<String, String> CATEGORY_WORDS = new LinkedHashMap<>();
+    private static final List<String> LIST_CUES = List.of(
+            "推荐", "几个", "几道", "几款", "有什么", "有哪些", "列出", "列举", "来点", "给我");
+    private static final List<String> FILLERS = List.of(
+            "推荐", "给我", "帮我", "我想", "想要", "想吃", "列出", "列举", "来点", "有什么", "有哪些", "有没有",
+            "可以", "一些", "几个", "几道", "几款", "一下", "什么", "哪些", "菜品", "菜谱", "做法", "家常",
+            "来", "做", "的", "个", "道", "款", "种", "样", "份", "菜", "吗", "呢", "吧", "啊", "请", "些", "点",
+            "能", "用", "有", "带", "和", "或", "也", "在", "里", "以", "适合", "一");
+    private static final Pattern COUNT = Pattern.compile("(\\d+|[一两二三四五六七八九十]+)\\s*(?:个|道|款|种|样)");
+    // 要求的数量超过上限时按上限处理，目录结果本身也不会更多
+    static final int MAX_LIMIT = 50;
+    private static final Pattern MINUTES = Pattern.compile(
+            "(\\d+|[一两二三四五六七八九十半]+)\\s*(分钟|小时)(?:以内|之内|以下|内)?");
+
+    static {
+        // 与 GenerationIntegration.extractFiltersFromQuery 的映射规则一致，长词在前
+        DIFFICULTY_WORDS.put("非常简单", List.of("very easy"));
+        DIFFICULTY_WORDS.put("超简单", List.of("very easy"));
+        DIFFICULTY_WORDS.put("最简单", List.of("very easy"));
+        DIFFICULTY_WORDS.put("简单", List.of("easy", "very easy"));
+        DIFFICULTY_WORDS.put("容易", List.of("easy", "very easy"));
+        DIFFICULTY_WORDS.put("新手", List.of("easy", "very easy"));
+        DIFFICULTY_WORDS.put("入门", List.of("easy", "very easy"));
+        DIFFICULTY_WORDS.put("快手", List.of("easy", "very easy"));
+        DIFFICULTY_WORDS.put("中等", List.of("medium"));
+        DIFFICULTY_WORDS.put("地狱", List.of("very difficult"));
+        DIFFICULTY_WORDS.put("最难", List.of("very difficult"));
+        DIFFICULTY_WORDS.put("有难度", List.of("very difficult", "difficult"));
+        DIFFICULTY_WORDS.put("挑战", List.of("very difficult", "difficult"));
+        DIFFICULTY_WORDS.put("复杂", List.of("very difficult", "difficult"));
+        DIFFICULTY_WORDS.put("难", List.of("very difficult", "difficult"));
+
+        CATEGORY_WORDS.put("素菜", "vegetable_dish");
+        CATEGORY_WORDS.put("蔬菜", "vegetable_dish");
+        CATEGORY_WORDS.put("荤菜", "meat_dish");
+        CATEGORY_WORDS.put("肉菜", "meat_dish");
+        CATEGORY_WORDS.put("汤", "soup");
+        CATEGORY_WORDS.put("甜品", "dessert");
+        CATEGORY_WORDS.put("甜点", "dessert");
+        CATEGORY_WORDS.put("早餐", "breakfast");
+        CATEGORY_WORDS.put("早饭", "breakfast");
+        CATEGORY_WORDS.put("主食", "staple");
+        CATEGORY_WORDS.put("水产", "aquatic");
+        CATEGORY_WORDS.put("海鲜", "aquatic");
+        CATEGORY_WORDS.put("调料", "condiment");
+        CATEGORY_WORDS.put("酱料", "condiment");
+        CATEGORY_WORDS.put("蘸料", "condiment");
+        CATEGORY_WORDS.put("饮品", "drink");
+        CATEGORY_WORDS.put("饮料", "drink");
+        CATEGORY_WORDS.put("喝的", "drink");
+    }
+
+    private ListQueryParser() {
+    }
+
+    /**
+     * @param limit      要求的数量，未指定为 null
+     * @param listIntent 问题里有「推荐 / 几个 / 有什么」等列表意图，路由前即可判定为 list
+     * @param resolved   所有内容都被识别，目录查询结果即是完整答案
+     */
+    record CatalogQuery(Integer limit, Set<String> difficulties, Set<String> categories, Set<String> ingredients,
+                        Integer maxMinutes, boolean listIntent, boolean resolved) {}
+
+    /**
+     * @param ingredientVocabulary 目录中出现过的原料名，按长度从长到短排列
+     */
+    static CatalogQuery parse(String query, List<String> ingredientVocabulary) {
+        StringBuilder rest = new StringBuilder(query.strip().toLowerCase(Locale.ROOT));
+        boolean listIntent = LIST_CUES.stream().anyMatch(cue -> rest.indexOf(cue) >= 0);
+
+        Integer limit = null;
+        Matcher count = COUNT.matcher(rest);
+        if (count.find()) {
+            int value = chineseNumber(count.group(1));
+            // 「推荐0道菜」不是有效的数量，保留原文让问题判为未完全解析
+            if (value > 0) {
+                limit = Math.min(value, MAX_LIMIT);
+                blank(rest, count.start(), count.end());
+            }
+            listIntent = true;
+        }
+
+        Integer maxMinutes = null;
+        Matcher minutes = MINUTES.matcher(rest);
+        if (minutes.find()) {
+            int value = minutes.group(1).equals("半") ? 30 : chineseNumber(minutes.group(1));
+            maxMinutes = minutes.group(2).equals("小时") && !minutes.group(1).equals("半")
+                    ? Math.min(value, Integer.MAX_VALUE / 60) * 60 : value;
+            blank(rest, minutes.start(), minutes.end());
+        }
+
+        // 原料先于类别匹配，避免「五花肉」中的字被当作类别词
+        Set<String> ingredients = new LinkedHashSet<>();
+        for (String ingredient : ingredientVocabulary) {
+            if (removeAll(rest, ingredient)) ingredients.add(ingredient);
+        }
+        Set<String> difficulties = new LinkedHashSet<>();
+        DIFFICULTY_WORDS.forEach((word, levels) -> {
+            if (removeAll(rest, word)) difficulties.addAll(levels);
+        });
+        Set<String> categories = new LinkedHashSet<>();
+        CATEGORY_WORDS.forEach((word, category) -> {
+            if (removeAll(rest, word)) categories.add(category);
+        });
+        for (String filler : FILLERS) removeAll(rest, filler);
+
+        boolean resolved = true;
+        for (int i = 0; i < rest.length(); i++) {
+            if (Character.isLetterOrDigit(rest.charAt(i))) {
+                resolved = false;
+                break;
+            }
+        }
+        return new CatalogQuery(limit, difficulties, categories, ingredients, maxMinutes, listIntent, resolved);
+    }
+
+    private static boolean removeAll(StringBuilder text, String word) {
+        boolean found = false;
+        for (int at = text.indexOf(word); at >= 0; at = text.indexOf(word, at + word.length())) {
+            blank(text, at, at + word.length());
+            found = true;
+        }
+        return found;
+    }
+
+    private static void blank(StringBuilder text, int start, int end) {
+        for (int i = start; i < end; i++) text.setCharAt(i, ' ');
+    }
+
+    /**
+     * 阿拉伯数字或中文数字转 int，超出 int 范围时取 Integer.MAX_VALUE
+     */
+    static int chineseNumber(String text) {
+        if (Character.isDigit(text.charAt(0))) {
+            long value = 0;
+            for (int i = 0; i < text.length() && value <= Integer.MAX_VALUE; i++) {
+                value = value * 10 + Character.digit(text.charAt(i), 10);
+            }
+            return (int) Math.min(value, Integer.MAX_VALUE);
+        }
+        String digits = "零一二三四五六七八九";
+        int result = 0;
+        int current = 0;
+        for (char c : text.toCharArray()) {
+            if (c == '十') {
+                result += (current == 0 ? 1 : current) * 10;
+                current = 0;
+            } else if (c == '两') {
+                current = 2;
+            } else {
+                current = Math.max(0, digits.indexOf(c));
+            }
+        }
+        return result + current;
+    }
+}
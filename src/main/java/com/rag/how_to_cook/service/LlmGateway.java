@@ -0,0 +1,324 @@
+package com.rag.how_to_cook.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 出站 LLM 调用的统一入口：自适应并发限制、单次调用截止时间、短分类调用的对冲请求与降级回答
+ * - 并发上限按 AIMD 调整：调用超时、失败或耗时超过截止时间的一半视为拥塞，上限乘以 backoff-ratio；
+ *   其余成功调用在并发较满时每次加 1/limit（约每轮加 1）
+ * - 超过上限的调用不排队，直接返回调用方给出的降级结果，避免 DeepSeek 变慢时阻塞调用堆积
+ * - classify：主请求超过该操作最近 p95 耗时仍未返回时，再发一个相同请求，取先返回的结果
+ * - 同步调用的额度在底层调用真正结束时归还：超时或被对冲请求取消只是不再等待，仍在执行的调用继续占用额度
+ * - 用了降级结果（被限流、超时、失败）时标记本次请求已降级，回答不写入缓存（见 DEGRADED_KEY）
+ * 指标：rag.llm.call（operation / outcome）、rag.llm.hedge（operation / result）、rag.llm.concurrency.limit / inflight
+ */
+@Component
+public class LlmGateway {
+    private static final Logger log = LoggerFactory.getLogger(LlmGateway.class);
+
+    // Reactor Context 中的降级标记（AtomicBoolean），流式调用降级时置为 true
+    static final String DEGRADED_KEY = "rag.llm.degraded";
+    // 同步调用的降级结果在调用线程上返回，由 trackDegradation 在阻塞代码段内绑定标记
+    private static final ThreadLocal<AtomicBoolean> DEGRADED = new ThreadLocal<>();
+
+    private final AdaptiveLimiter limiter;
+    private final MeterRegistry registry;
+    private final Scheduler blockingScheduler;
+    private final Duration classifyDeadline;
+    private final Duration callDeadline;
+    private final Duration firstTokenDeadline;
+    private final Duration tokenIdleDeadline;
+    private final Duration initialHedgeDelay;
+    private final Duration minHedgeDelay;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    LlmGateway(
+            MeterRegistry registry,
+            Scheduler blockingScheduler,
+            @Value("${rag.llm.limiter.initial-limit:16}") int initialLimit,
+            @Value("${rag.llm.limiter.min-limit:2}") int minLimit,
+            @Value("${rag.llm.limiter.max-limit:64}") int maxLimit,
+            @Value("${rag.llm.limiter.backoff-ratio:0.8}") double backoffRatio,
+            @Value("${rag.llm.deadline.classify:4s}") Duration classifyDeadline,
+            @Value("${rag.llm.deadline.call:10s}") Duration callDeadline,
+            @Value("${rag.llm.deadline.first-token:15s}") Duration firstTokenDeadline,
+            @Value("${rag.llm.deadline.token-idle:10s}") Duration tokenIdleDeadline,
+            @Value("${rag.llm.hedge.initial-delay:1500ms}") Duration initialHedgeDelay,
+            @Value("${rag.llm.hedge.min-delay:100ms}") Duration minHedgeDelay) {
+        this.limiter = new AdaptiveLimiter(initialLimit, minLimit, maxLimit, backoffRatio);
+        this.registry = registry;
+        this.blockingScheduler = blockingScheduler;
+        this.classifyDeadline = classifyDeadline;
+        this.callDeadline = callDeadline;
+        this.firstTokenDeadline = firstTokenDeadline;
+        this.tokenIdleDeadline = tokenIdleDeadline;
+        this.initialHedgeDelay = initialHedgeDelay;
+        this.minHedgeDelay = minHedgeDelay;
+
+        Gauge.builder("rag.llm.concurrency.limit", limiter, AdaptiveLimiter::limit)
+                .description("LLM 调用的自适应并发上限")
+                .register(registry);
+        Gauge.builder("rag.llm.concurrency.inflight", limiter, AdaptiveLimiter::inflight)
+                .description("正在进行的 LLM 调用数")
+                .register(registry);
+    }
+
+    /**
+     * 执行阻塞代码段，期间同步调用（classify / call）用到降级结果时把 degraded 置为 true；degraded 为 null 时不记录
+     */
+    static <T> T trackDegradation(AtomicBoolean degraded, Callable<T> body) throws Exception {
+        AtomicBoolean previous = DEGRADED.get();
+        DEGRADED.set(degraded);
+        try {
+            return body.call();
+        } finally {
+            if (previous == null) DEGRADED.remove();
+            else DEGRADED.set(previous);
+        }
+    }
+
+    /**
+     * 短分类调用（路由、难度 / 类别提取）：截止时间较短，并在 p95 延迟后发对冲请求
+     */
+    public <T> T classify(String operation, Callable<T> call, Supplier<T> fallback) {
+        return execute(operation, call, fallback, classifyDeadline, true);
+    }
+
+    /**
+     * 普通的同步调用（改写、扩展、标题），不对冲
+     */
+    public <T> T call(String operation, Callable<T> call, Supplier<T> fallback) {
+        return execute(operation, call, fallback, callDeadline, false);
+    }
+
+    /**
+     * 流式回答：订阅时占用并发额度，结束或取消时释放；首 token 与相邻 token 之间分别有截止时间
+     * 被限流时直接输出降级内容；已经输出过 token 后再超时只结束流，不再拼接降级内容
+     */
+    public Flux<String> stream(String operation, Supplier<Flux<String>> call, Supplier<Flux<String>> fallback) {
+        return Flux.deferContextual(ctx -> {
+            AtomicBoolean degraded = ctx.getOrDefault(DEGRADED_KEY, null);
+            if (!limiter.tryAcquire()) {
+                record(operation, "rejected", 0);
+                markDegraded(degraded);
+                return fallback.get();
+            }
+            long start = System.nanoTime();
+            AtomicBoolean released = new AtomicBoolean();
+            AtomicBoolean emitted = new AtomicBoolean();
+            return call.get()
+                    .timeout(Mono.delay(firstTokenDeadline), token -> Mono.delay(tokenIdleDeadline))
+                    .doOnNext(token -> {
+                        if (emitted.compareAndSet(false, true)) {
+                            // 首 token 延迟作为限流器的延迟信号
+                            long firstToken = System.nanoTime() - start;
+                            release(released, isSlow(firstToken, firstTokenDeadline));
+                        }
+                    })
+                    .doOnComplete(() -> record(operation, "success", System.nanoTime() - start))
+                    .onErrorResume(e -> {
+                        boolean timeout = e instanceof TimeoutException;
+                        record(operation, timeout ? "timeout" : "error", System.nanoTime() - start);
+                        release(released, true);
+                        // 输出了一半的回答同样不能缓存
+                        markDegraded(degraded);
+                        if (emitted.get()) return Flux.empty();
+                        log.warn("LLM 流式调用 {} 失败，返回降级回答: {}", operation, e.toString());
+                        return fallback.get();
+                    })
+                    // 首 token 之前取消（客户端断开）不作为延迟信号
+                    .doFinally(signal -> release(released, null));
+        });
+    }
+
+    private <T> T execute(String operation, Callable<T> call, Supplier<T> fallback, Duration deadline, boolean hedge) {
+        if (!limiter.tryAcquire()) {
+            record(operation, "rejected", 0);
+            markDegraded(DEGRADED.get());
+            return fallback.get();
+        }
+        long start = System.nanoTime();
+        try {
+            Mono<T> primary = holdingPermit(call, deadline);
+            Mono<T> race = hedge ? Mono.firstWithValue(primary, hedged(operation, call)) : primary;
+            T result = race.timeout(deadline).block();
+            long elapsed = System.nanoTime() - start;
+            latencies.computeIfAbsent(operation, k -> new LatencyWindow(200)).add(elapsed);
+            record(operation, "success", elapsed);
+            return result;
+        } catch (Exception e) {
+            Throwable cause = Exceptions.unwrap(e);
+            record(operation, cause instanceof TimeoutException ? "timeout" : "error", System.nanoTime() - start);
+            log.warn("LLM 调用 {} 失败，使用降级结果: {}", operation, cause.toString());
+            markDegraded(DEGRADED.get());
+            return fallback.get();
+        }
+    }
+
+    /**
+     * 在 blockingScheduler 上执行一次已经拿到额度的调用，调用返回或抛出异常时才归还额度
+     * 还没开始执行就被取消（或调度失败）的调用不再执行，直接归还额度
+     * @param deadline 按调用自身耗时判断拥塞；null 表示不参与拥塞判断
+     */
+    private <T> Mono<T> holdingPermit(Callable<T> call, Duration deadline) {
+        AtomicBoolean started = new AtomicBoolean();
+        return Mono.fromCallable(() -> {
+                    if (!started.compareAndSet(false, true)) return null;
+                    long start = System.nanoTime();
+                    Boolean congested = deadline == null ? null : true;
+                    try {
+                        T result = call.call();
+                        if (deadline != null) congested = isSlow(System.nanoTime() - start, deadline);
+                        return result;
+                    } finally {
+                        limiter.release(congested);
+                    }
+                })
+                .subscribeOn(blockingScheduler)
+                .doFinally(signal -> {
+                    if (started.compareAndSet(false, true)) limiter.release(null);
+                });
+    }
+
+    /**
+     * 对冲请求：延迟取该操作最近的 p95（样本不足时用 initial-delay），发出前需要额外的并发额度，拿不到就放弃
+     */
+    private <T> Mono<T> hedged(String operation, Callable<T> call) {
+        LatencyWindow window = latencies.get(operation);
+        long p95 = window == null ? -1 : window.percentile(0.95);
+        Duration delay = p95 < 0 ? initialHedgeDelay : Duration.ofNanos(Math.max(p95, minHedgeDelay.toNanos()));
+        return Mono.delay(delay).then(Mono.defer(() -> {
+            if (!limiter.tryAcquire()) return Mono.<T>empty();
+            hedgeCounter(operation, "sent").increment();
+            // 对冲请求不参与拥塞判断，只归还额度
+            return holdingPermit(call, null)
+                    .doOnNext(result -> hedgeCounter(operation, "won").increment());
+        }));
+    }
+
+    private void release(AtomicBoolean released, Boolean congested) {
+        if (released.compareAndSet(false, true)) limiter.release(congested);
+    }
+
+    private static void markDegraded(AtomicBoolean degraded) {
+        if (degraded != null) degraded.set(true);
+    }
+
+    private static boolean isSlow(long nanos, Duration deadline) {
+        return nanos > deadline.toNanos() / 2;
+    }
+
+    private void record(String operation, String outcome, long nanos) {
+        Timer.builder("rag.llm.call")
+                .description("出站 LLM 调用耗时")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter hedgeCounter(String operation, String result) {
+        return Counter.builder("rag.llm.hedge")
+                .description("对冲请求：sent 为发出的数量，won 为先于主请求返回的数量")
+                .tag("operation", operation)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * AIMD 并发限制
+     */
+    static final class AdaptiveLimiter {
+        private final int minLimit;
+        private final int maxLimit;
+        private final double backoffRatio;
+        private double limit;
+        private int inflight;
+
+        AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio) {
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+            this.limit = initialLimit;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (inflight >= (int) limit) return false;
+            inflight++;
+            return true;
+        }
+
+        /**
+         * @param congested null 表示不调整上限
+         */
+        synchronized void release(Boolean congested) {
+            inflight--;
+            if (congested == null) return;
+            if (congested) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (inflight + 1 >= limit / 2) {
+                // 并发不高时成功不代表还有余量，不增加上限
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        synchronized double limit() {
+            return limit;
+        }
+
+        synchronized int inflight() {
+            return inflight;
+        }
+    }
+
+    /**
+     * 最近 N 次成功调用的耗时，用于计算对冲延迟
+     */
+    static final class LatencyWindow {
+        private static final int MIN_SAMPLES = 20;
+        private final long[] samples;
+        private int size;
+        private int next;
+
+        LatencyWindow(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (size < samples.length) size++;
+        }
+
+        /**
+         * 样本不足时返回 -1
+         */
+        synchronized long percentile(double p) {
+            if (size < MIN_SAMPLES) return -1;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(p * size) - 1)];
+        }
+    }
+}
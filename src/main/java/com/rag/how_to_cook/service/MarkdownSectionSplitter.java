@@ -0,0 +1,193 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按 Markdown 标题结构切分菜谱，一次扫描完成：
+ * - 章节（父）：以 "## " 等二级及以下标题为界，标题之前的部分（菜名、简介、难度）为第 0 节
+ * - 子块：章节正文按句子 / 行边界累积到 max-chunk-chars，过短的结尾并入上一块，不跨章节
+ * 子块 metadata 记录章节标题、章节在原文中的 UTF-8 字节区间（section / sectionByteOffset / sectionByteLength）
+ * 与子块在原文中的字符区间（start / end），补全时可以只按字节区间读取命中的章节
+ * 扫描过程中只记录下标，不生成按行 / 按句拆开的中间字符串，只为最终的子块构造一次文本
+ */
+@Component
+public class MarkdownSectionSplitter {
+    private final int maxChunkChars;
+    private final int minChunkChars;
+
+    MarkdownSectionSplitter(
+            @Value("${rag.splitter.max-chunk-chars:400}") int maxChunkChars,
+            @Value("${rag.splitter.min-chunk-chars:80}") int minChunkChars) {
+        this.maxChunkChars = maxChunkChars;
+        this.minChunkChars = minChunkChars;
+    }
+
+    public List<Document> split(Document parent) {
+        String text = parent.getText() == null ? "" : parent.getText();
+        Scan scan = new Scan(text, parent.getMetadata());
+        int n = text.length();
+        int i = 0;
+        boolean lineStart = true;
+        while (i < n) {
+            if (lineStart) {
+                int level = headingLevel(text, i);
+                if (level > 0) {
+                    int lineEnd = text.indexOf('\n', i);
+                    if (lineEnd < 0) lineEnd = n;
+                    scan.closeSection(i);
+                    scan.openSection(i, level, lineEnd);
+                    scan.bytePos += utf8Length(text, i, Math.min(n, lineEnd + 1));
+                    i = lineEnd + 1;
+                    continue;
+                }
+                lineStart = false;
+            }
+
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                scan.bytePos += 4;
+                if (scan.chunkStart < 0) scan.chunkStart = i;
+                i += 2;
+            } else {
+                scan.bytePos += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                if (scan.chunkStart < 0 && !Character.isWhitespace(c)) scan.chunkStart = i;
+                i++;
+            }
+            if (isBoundary(c)) scan.lastBoundary = i;
+            if (c == '\n') lineStart = true;
+
+            if (scan.chunkStart >= 0 && i - scan.chunkStart >= maxChunkChars) {
+                // 优先在句子边界处切分；一直没有边界时，超过两倍长度强制切分
+                int cut = scan.lastBoundary > scan.chunkStart ? scan.lastBoundary
+                        : i - scan.chunkStart >= 2 * maxChunkChars ? i : -1;
+                if (cut > 0) {
+                    scan.addChunk(cut);
+                    scan.chunkStart = nextNonWhitespace(text, cut, i);
+                }
+            }
+        }
+        scan.closeSection(n);
+        return scan.chunks;
+    }
+
+    /**
+     * 一次扫描的状态：当前章节与当前子块的起点
+     */
+    private final class Scan {
+        final String text;
+        final Map<String, Object> parentMetadata;
+        final List<Document> chunks = new ArrayList<>();
+        // 当前章节已确定的子块区间，章节结束时才生成 Document（便于合并过短的结尾）
+        final List<int[]> pending = new ArrayList<>();
+
+        String title;
+        String heading = "";
+        int sectionIndex = 0;
+        long sectionByteStart = 0;
+        long bytePos = 0;
+        int chunkStart = -1;
+        int lastBoundary = -1;
+
+        Scan(String text, Map<String, Object> parentMetadata) {
+            this.text = text;
+            this.parentMetadata = parentMetadata;
+            Object dishName = parentMetadata.get("dishName");
+            this.title = dishName == null ? null : dishName.toString();
+        }
+
+        void openSection(int start, int level, int lineEnd) {
+            String headingText = text.substring(start + level, lineEnd).strip();
+            if (level == 1 && title == null) title = headingText;
+            // 一级标题（菜名）与其后的简介同属第 0 节
+            if (level == 1 && sectionIndex == 0 && chunks.isEmpty()) {
+                heading = headingText;
+                return;
+            }
+            sectionIndex++;
+            heading = headingText;
+            sectionByteStart = bytePos;
+        }
+
+        void addChunk(int end) {
+            int trimmed = end;
+            while (trimmed > chunkStart && Character.isWhitespace(text.charAt(trimmed - 1))) trimmed--;
+            if (trimmed > chunkStart) pending.add(new int[]{chunkStart, trimmed});
+        }
+
+        void closeSection(int end) {
+            if (chunkStart >= 0) addChunk(end);
+            chunkStart = -1;
+            lastBoundary = -1;
+            if (pending.isEmpty()) return;
+
+            int last = pending.size() - 1;
+            if (last > 0 && pending.get(last)[1] - pending.get(last)[0] < minChunkChars) {
+                pending.get(last - 1)[1] = pending.get(last)[1];
+                pending.remove(last);
+            }
+            // 调用时 bytePos 恰好停在 end（下一个标题的行首或全文末尾）
+            long sectionByteLength = bytePos - sectionByteStart;
+            for (int[] range : pending) {
+                chunks.add(chunk(range[0], range[1], sectionByteLength));
+            }
+            pending.clear();
+        }
+
+        private Document chunk(int start, int end, long sectionByteLength) {
+            // 子块前加上菜名与章节标题，检索时单独的步骤 / 原料片段也能对应到菜品
+            String prefix = title == null || title.equals(heading) ? heading
+                    : heading.isEmpty() ? title : title + " · " + heading;
+            StringBuilder content = new StringBuilder(prefix.length() + 1 + end - start);
+            if (!prefix.isEmpty()) content.append(prefix).append('\n');
+            content.append(text, start, end);
+
+            Map<String, Object> metadata = new HashMap<>(parentMetadata);
+            metadata.put("section", heading);
+            metadata.put("sectionIndex", sectionIndex);
+            metadata.put("sectionByteOffset", sectionByteStart);
+            metadata.put("sectionByteLength", sectionByteLength);
+            metadata.put("start", start);
+            metadata.put("end", end);
+            return Document.builder().text(content.toString()).metadata(metadata).build();
+        }
+    }
+
+    private static int headingLevel(String text, int i) {
+        int level = 0;
+        while (i + level < text.length() && text.charAt(i + level) == '#') level++;
+        if (level == 0 || level > 6) return 0;
+        return i + level < text.length() && text.charAt(i + level) == ' ' ? level : 0;
+    }
+
+    private static boolean isBoundary(char c) {
+        return c == '\n' || c == '。' || c == '！' || c == '？' || c == '；' || c == '!' || c == '?' || c == ';';
+    }
+
+    private static int nextNonWhitespace(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return i;
+        }
+        return -1;
+    }
+
+    static long utf8Length(String text, int from, int to) {
+        long bytes = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
+    }
+}
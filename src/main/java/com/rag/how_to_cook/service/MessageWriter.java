@@ -0,0 +1,224 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.MessageRole;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.sql.BatchUpdateException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天消息的 write-behind 写入器
+ * 消息先进入有界队列，由后台线程按数量或时间攒批，通过 JDBC batch 写入 message 表
+ * 插入按 id 幂等，瞬时错误整批重试；约束冲突时拆批，只丢弃出错的行
+ */
+@Component
+public class MessageWriter {
+    private static final Logger log = LoggerFactory.getLogger(MessageWriter.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO message (id, chat_id, role, content, created_at) VALUES (?, ?, ?, ?, ?) ON CONFLICT (id) DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Scheduler blockingScheduler;
+    private final BlockingQueue<PendingMessage> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration enqueueTimeout;
+    private final int maxRetries;
+
+    private final Timer flushTimer;
+    private final Counter writtenCounter;
+    private final Counter failedCounter;
+
+    private volatile boolean running = true;
+    private Thread flusher;
+
+    public MessageWriter(
+            JdbcTemplate jdbcTemplate,
+            MeterRegistry meterRegistry,
+            Scheduler blockingScheduler,
+            @Value("${rag.message-writer.capacity:10000}") int capacity,
+            @Value("${rag.message-writer.batch-size:200}") int batchSize,
+            @Value("${rag.message-writer.flush-interval:200ms}") Duration flushInterval,
+            @Value("${rag.message-writer.enqueue-timeout:5s}") Duration enqueueTimeout,
+            @Value("${rag.message-writer.max-retries:5}") int maxRetries) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.blockingScheduler = blockingScheduler;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.enqueueTimeout = enqueueTimeout;
+        this.maxRetries = maxRetries;
+
+        Gauge.builder("rag.message.writer.queue.depth", queue, BlockingQueue::size)
+                .description("待写入的消息数量")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("rag.message.writer.flush")
+                .description("单个批次写入耗时")
+                .register(meterRegistry);
+        this.writtenCounter = Counter.builder("rag.message.writer.written").register(meterRegistry);
+        this.failedCounter = Counter.builder("rag.message.writer.failed").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = Thread.ofPlatform()
+                .name("message-writer")
+                .daemon(true)
+                .start(this::runLoop);
+    }
+
+    /**
+     * 入队一条消息。队列满时在弹性线程上等待，超过 enqueueTimeout 则以错误结束，形成背压
+     */
+    public Mono<Void> enqueue(String chatId, MessageRole role, String content) {
+        PendingMessage message = new PendingMessage(
+                UUID.randomUUID().toString(), chatId, role, content, LocalDateTime.now());
+
+        if (queue.offer(message)) {
+            return Mono.empty();
+        }
+        return Mono.fromCallable(() -> queue.offer(message, enqueueTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .subscribeOn(blockingScheduler)
+                .flatMap(accepted -> accepted
+                        ? Mono.<Void>empty()
+                        : Mono.error(new IllegalStateException("消息写入队列已满")));
+    }
+
+    private void runLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // 在一个 flushInterval 内尽量攒满一个批次
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                // 关闭时被中断：不退出，继续把队列里剩下的写完
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一个批次。个别行违反约束（如客户端传入了不存在的 chatId）时二分拆批重写，只丢弃出错的行
+     */
+    private void flush(List<PendingMessage> batch) {
+        try {
+            writeWithRetry(batch);
+            writtenCounter.increment(batch.size());
+        } catch (RuntimeException e) {
+            if (!isRowViolation(e)) {
+                failedCounter.increment(batch.size());
+                log.error("消息批量写入失败，丢弃 {} 条消息", batch.size(), e);
+                return;
+            }
+            if (batch.size() == 1) {
+                failedCounter.increment();
+                log.error("消息违反约束，丢弃 1 条消息 (chatId={}): {}",
+                        batch.getFirst().chatId(), e.getMessage());
+                return;
+            }
+            int middle = batch.size() / 2;
+            flush(batch.subList(0, middle));
+            flush(batch.subList(middle, batch.size()));
+        }
+    }
+
+    /**
+     * 瞬时错误按指数退避重试，超过 maxRetries 后抛出最后一次的异常
+     * 插入带 ON CONFLICT (id) DO NOTHING：提交后连接断开导致的重试不会因主键冲突变成非瞬时错误
+     */
+    private void writeWithRetry(List<PendingMessage> batch) {
+        long backoffMillis = 100;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                flushTimer.record(() -> jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, m) -> {
+                    ps.setString(1, m.id());
+                    ps.setString(2, m.chatId());
+                    ps.setString(3, m.role().name());
+                    ps.setString(4, m.content());
+                    ps.setTimestamp(5, Timestamp.valueOf(m.createdAt()));
+                }));
+                return;
+            } catch (TransientDataAccessException | RecoverableDataAccessException
+                     | CannotGetJdbcConnectionException e) {
+                if (attempt >= maxRetries) {
+                    log.error("消息批量写入重试 {} 次后仍失败", attempt);
+                    throw e;
+                }
+                log.warn("消息批量写入失败（第 {} 次），{} ms 后重试: {}", attempt, backoffMillis, e.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException ie) {
+                    running = false;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, 5000);
+            }
+        }
+    }
+
+    /**
+     * 约束冲突由某几行引起，拆小批次后其余行可以写入；未归类的批量错误同样按行处理
+     * 重试耗尽的瞬时错误和其他非瞬时错误（如表不存在）与行无关，拆批没有意义
+     */
+    private static boolean isRowViolation(RuntimeException e) {
+        if (e instanceof DataIntegrityViolationException) return true;
+        boolean transientError = e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof CannotGetJdbcConnectionException;
+        return !transientError && e instanceof DataAccessException dae && dae.getRootCause() instanceof BatchUpdateException;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (flusher == null) return;
+        flusher.join(Duration.ofSeconds(30));
+        if (!queue.isEmpty()) {
+            log.error("关闭时仍有 {} 条消息未写入", queue.size());
+        }
+    }
+
+    record PendingMessage(String id, String chatId, MessageRole role, String content, LocalDateTime createdAt) {}
+}
@@ -0,0 +1,43 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按对象名串行化同一对象的入库 / 删除（上传接口与 bucket 通知），避免并发处理同一对象时重复创建版本
+ * 没有线程持有或等待的锁立即移除，只为正在处理的对象占用内存
+ */
+@Component
+public class ObjectLocks {
+
+    private static final class Holder {
+        final ReentrantLock lock = new ReentrantLock();
+        // 持有或等待该锁的线程数，只在 compute 中修改
+        int users;
+    }
+
+    private final Map<String, Holder> locks = new ConcurrentHashMap<>();
+
+    public <T> T withLock(String objectName, Callable<T> action) throws Exception {
+        Holder holder = locks.compute(objectName, (key, current) -> {
+            Holder h = current != null ? current : new Holder();
+            h.users++;
+            return h;
+        });
+        holder.lock.lock();
+        try {
+            return action.call();
+        } finally {
+            holder.lock.unlock();
+            locks.computeIfPresent(objectName, (key, h) -> --h.users == 0 ? null : h);
+        }
+    }
+
+    int size() {
+        return locks.size();
+    }
+}
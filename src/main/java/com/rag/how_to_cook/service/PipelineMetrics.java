@@ -0,0 +1,143 @@
+package com.rag.how_to_cook.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RAG 流水线各阶段的 Micrometer 指标，统一打 stage / route / outcome 标签，经 Actuator 以 Prometheus 格式导出
+ * - rag.pipeline.stage：router、rewrite、filter_extraction、retrieval、vector_search（dense_search / sparse_search / embedding）、hydration
+ * - rag.pipeline.ttft / rag.pipeline.stream / rag.pipeline.tokens.per.second：流式输出
+ * - rag.ingestion.stage：minio_read、version_check、save_metadata、split、save_chunk_ids、index_write、index_delete
+ * MinIO 请求见 MinioConfig（rag.minio.requests），Postgres 由 Spring Data 仓库指标与 Hikari 连接池指标覆盖
+ */
+@Component
+public class PipelineMetrics {
+    static final String UNKNOWN_ROUTE = "unknown";
+
+    // 同步执行的嵌套阶段（例如 vector_search 内部的 embedding）沿用外层阶段的 route 标签
+    private static final ThreadLocal<String> CURRENT_ROUTE = new ThreadLocal<>();
+
+    private final MeterRegistry registry;
+
+    PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @FunctionalInterface
+    public interface CheckedSupplier<T, E extends Exception> {
+        T get() throws E;
+    }
+
+    public <T, E extends Exception> T stage(String stage, String route, CheckedSupplier<T, E> work) throws E {
+        String previous = CURRENT_ROUTE.get();
+        CURRENT_ROUTE.set(route);
+        try {
+            return record("rag.pipeline.stage", stage, route, work);
+        } finally {
+            if (previous == null) CURRENT_ROUTE.remove();
+            else CURRENT_ROUTE.set(previous);
+        }
+    }
+
+    /**
+     * 嵌套在其它阶段内的子阶段，route 取自外层阶段
+     */
+    public <T, E extends Exception> T stage(String stage, CheckedSupplier<T, E> work) throws E {
+        String route = CURRENT_ROUTE.get();
+        return stage(stage, route == null ? UNKNOWN_ROUTE : route, work);
+    }
+
+    public <T, E extends Exception> T ingestion(String stage, CheckedSupplier<T, E> work) throws E {
+        return record("rag.ingestion.stage", stage, null, work);
+    }
+
+    /**
+     * 已知耗时的阶段（例如路由结果出来后才知道 route 标签）
+     */
+    public void stage(String stage, String route, long nanos, String outcome) {
+        stageTimer("rag.pipeline.stage", stage, route, outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> Mono<T> stage(String stage, String route, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doFinally(signal -> stage(stage, route, System.nanoTime() - start, outcome(signal)));
+        });
+    }
+
+    /**
+     * 统计首 token 延迟（从 pipelineStart 算起）、整体流式耗时与输出速度；流式片段数近似为 token 数
+     */
+    public Flux<String> stream(String route, long pipelineStart, Flux<String> tokens) {
+        return Flux.defer(() -> {
+            long[] firstToken = {0};
+            long[] count = {0};
+            return tokens
+                    .doOnNext(token -> {
+                        if (count[0]++ == 0) {
+                            firstToken[0] = System.nanoTime();
+                            Timer.builder("rag.pipeline.ttft")
+                                    .description("请求到首个 token 的耗时")
+                                    .tag("route", route)
+                                    .register(registry)
+                                    .record(firstToken[0] - pipelineStart, TimeUnit.NANOSECONDS);
+                        }
+                    })
+                    .doFinally(signal -> {
+                        long end = System.nanoTime();
+                        Timer.builder("rag.pipeline.stream")
+                                .description("请求到流式输出结束的总耗时")
+                                .tag("route", route)
+                                .tag("outcome", outcome(signal))
+                                .register(registry)
+                                .record(end - pipelineStart, TimeUnit.NANOSECONDS);
+                        if (count[0] > 1 && end > firstToken[0]) {
+                            DistributionSummary.builder("rag.pipeline.tokens.per.second")
+                                    .tag("route", route)
+                                    .register(registry)
+                                    .record(count[0] / ((end - firstToken[0]) / 1e9));
+                        }
+                        DistributionSummary.builder("rag.pipeline.tokens")
+                                .tag("route", route)
+                                .register(registry)
+                                .record(count[0]);
+                    });
+        });
+    }
+
+    private <T, E extends Exception> T record(String name, String stage, String route,
+                                              CheckedSupplier<T, E> work) throws E {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = work.get();
+            outcome = "success";
+            return result;
+        } finally {
+            stageTimer(name, stage, route, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer stageTimer(String name, String stage, String route, String outcome) {
+        Timer.Builder builder = Timer.builder(name)
+                .tag("stage", stage)
+                .tag("outcome", outcome);
+        if (route != null) builder.tag("route", route);
+        return builder.register(registry);
+    }
+
+    private static String outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_ERROR -> "error";
+            case CANCEL -> "cancelled";
+            default -> "success";
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.*;
+
+/**
+ * 多路召回结果融合：Reciprocal Rank Fusion
+ * score(d) = Σ 1 / (rrfK + rank_i(d))，只依赖名次，不需要对不同通路的分数做归一化
+ */
+final class RankFusion {
+    static final int DEFAULT_RRF_K = 60;
+
+    private RankFusion() {}
+
+    static List<Document> reciprocalRank(List<List<Document>> rankings, int topK) {
+        return reciprocalRank(rankings, topK, DEFAULT_RRF_K);
+    }
+
+    static List<Document> reciprocalRank(List<List<Document>> rankings, int topK, int rrfK) {
+        Map<String, Document> docsByKey = new LinkedHashMap<>();
+        Map<String, Double> fused = new HashMap<>();
+
+        for (List<Document> ranking : rankings) {
+            if (ranking == null) continue;
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document doc = ranking.get(rank);
+                String key = Bm25Index.chunkIdOf(doc);
+                // 同一个 chunk 以先出现的通路为准（调用方把稠密检索放在第一位）
+                docsByKey.putIfAbsent(key, doc);
+                fused.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+
+        return docsByKey.entrySet().stream()
+                .sorted(Comparator.comparingDouble((Map.Entry<String, Document> e) -> fused.get(e.getKey())).reversed())
+                .limit(topK)
+                .map(e -> e.getValue().mutate().score(fused.get(e.getKey())).build())
+                .toList();
+    }
+
+    /**
+     * 按 parentId 去重：同一父文档最多保留 maxPerParent 个 chunk，避免一道菜的多个片段占满 top k
+     */
+    static List<Document> limitPerParent(List<Document> ranked, int maxPerParent, int topK) {
+        Map<String, Integer> perParent = new HashMap<>();
+        List<Document> result = new ArrayList<>(Math.min(ranked.size(), topK));
+        for (Document doc : ranked) {
+            if (result.size() >= topK) break;
+            Object parentId = doc.getMetadata().get("parentId");
+            if (parentId != null && perParent.merge(parentId.toString(), 1, Integer::sum) > maxPerParent) continue;
+            result.add(doc);
+        }
+        return result;
+    }
+}
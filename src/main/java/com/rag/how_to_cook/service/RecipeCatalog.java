@@ -0,0 +1,236 @@
+package com.rag.how_to_cook.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rag.how_to_cook.domain.RecipeCatalogEntry;
+import com.rag.how_to_cook.repo.RecipeCatalogRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 结构化菜谱目录：入库时解析每篇菜谱（菜名、类别、难度、原料、工具、步骤数、预估耗时）写入 recipe_catalog 表，
+ * 内存中按 userId 保留一份热副本，条件能在本地解析的列表问题直接从这里回答，不走向量检索和 LLM
+ */
+@Component
+public class RecipeCatalog {
+    private static final Logger log = LoggerFactory.getLogger(RecipeCatalog.class);
+    private static final List<String> DIFFICULTY_ORDER = List.of("very easy", "easy", "medium", "difficult", "very difficult");
+
+    private final RecipeCatalogRepository repository;
+    private final boolean enabled;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // userId -> parentId -> 菜谱
+    private final Map<String, Map<String, Recipe>> recipesByUser = new ConcurrentHashMap<>();
+    private final Map<String, String> userByParent = new ConcurrentHashMap<>();
+    // 原料词表按长度从长到短排列，供本地解析问题时最长匹配；目录变化后惰性重建
+    private volatile List<String> ingredientVocabulary = List.of();
+    private volatile boolean vocabularyStale = false;
+
+    RecipeCatalog(RecipeCatalogRepository repository, @Value("${rag.catalog.enabled:true}") boolean enabled) {
+        this.repository = repository;
+        this.enabled = enabled;
+    }
+
+    public record Recipe(String parentId, String userId, String dishName, String category, String difficulty,
+                         List<String> ingredients, List<String> tools, int stepCount, Integer estimatedMinutes,
+                         String source) {}
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) return;
+        try {
+            List<RecipeCatalogEntry> entries = repository.findAll();
+            for (RecipeCatalogEntry entry : entries) put(toRecipe(entry));
+            log.info("菜谱目录加载完成，共 {} 条", entries.size());
+        } catch (Exception e) {
+            // 表不存在或数据库暂不可用时目录为空，列表问题回退到检索流程，入库时再逐步补齐
+            log.warn("菜谱目录加载失败: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean contains(String parentId) {
+        return userByParent.containsKey(parentId);
+    }
+
+    /**
+     * 解析父文档并写入数据库与内存副本，失败只记录日志，不影响向量入库
+     */
+    public void upsert(Document parentDoc) {
+        if (!enabled) return;
+        try {
+            Recipe recipe = toRecipe(parentDoc);
+            repository.save(toEntry(recipe));
+            put(recipe);
+        } catch (Exception e) {
+            log.error("写入菜谱目录失败: {}", parentDoc.getMetadata().get("source"), e);
+        }
+    }
+
+    /**
+     * 只更新内存副本，不写数据库（非监听节点同步其他节点已写入的目录条目）
+     */
+    public void refresh(Document parentDoc) {
+        if (!enabled) return;
+        put(toRecipe(parentDoc));
+    }
+
+    public void remove(String parentId) {
+        if (!enabled) return;
+        evict(parentId);
+        try {
+            repository.deleteById(parentId);
+        } catch (Exception e) {
+            log.error("删除菜谱目录条目失败: {}", parentId, e);
+        }
+    }
+
+    /**
+     * 只从内存副本中移除，不删除数据库中的条目
+     */
+    public void evict(String parentId) {
+        String userId = userByParent.remove(parentId);
+        if (userId != null) {
+            Map<String, Recipe> recipes = recipesByUser.get(userId);
+            if (recipes != null) recipes.remove(parentId);
+            vocabularyStale = true;
+        }
+    }
+
+    public List<Recipe> all() {
+        return recipesByUser.values().stream().flatMap(recipes -> recipes.values().stream()).toList();
+    }
+
+    public List<Recipe> recipes(String userId) {
+        Map<String, Recipe> recipes = recipesByUser.get(userId);
+        return recipes == null ? List.of() : List.copyOf(recipes.values());
+    }
+
+    /**
+     * 本地解析问题；目录关闭或该用户还没有目录数据时返回 null，调用方走原来的流程
+     */
+    ListQueryParser.CatalogQuery resolve(String userId, String query) {
+        if (!enabled || query == null) return null;
+        Map<String, Recipe> recipes = recipesByUser.get(userId);
+        if (recipes == null || recipes.isEmpty()) return null;
+        return ListQueryParser.parse(query, vocabulary());
+    }
+
+    /**
+     * 按条件筛选该用户的菜谱，按难度从易到难、耗时从短到长排序
+     */
+    List<Recipe> find(String userId, ListQueryParser.CatalogQuery query) {
+        Map<String, Recipe> recipes = recipesByUser.get(userId);
+        if (recipes == null) return List.of();
+        List<Recipe> matched = new ArrayList<>();
+        for (Recipe recipe : recipes.values()) {
+            if (!query.difficulties().isEmpty() && !query.difficulties().contains(recipe.difficulty())) continue;
+            if (!query.categories().isEmpty() && !query.categories().contains(recipe.category())) continue;
+            if (!recipe.ingredients().containsAll(query.ingredients())) continue;
+            if (query.maxMinutes() != null
+                    && (recipe.estimatedMinutes() == null || recipe.estimatedMinutes() > query.maxMinutes())) continue;
+            matched.add(recipe);
+        }
+        matched.sort(Comparator
+                .comparingInt((Recipe recipe) -> difficultyRank(recipe.difficulty()))
+                .thenComparing(Recipe::estimatedMinutes, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(Recipe::dishName, Comparator.nullsLast(Comparator.naturalOrder())));
+        return matched;
+    }
+
+    /**
+     * 转成与 DataPreparation.getParentMetadata 相同形状的文档（文本为菜名），供列表回答复用
+     */
+    static Document toDocument(Recipe recipe) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("parentId", recipe.parentId());
+        metadata.put("userId", recipe.userId());
+        metadata.put("dishName", recipe.dishName() == null ? "未知菜品" : recipe.dishName());
+        if (recipe.category() != null) metadata.put("category", recipe.category());
+        if (recipe.difficulty() != null) metadata.put("difficulty", recipe.difficulty());
+        if (recipe.source() != null) metadata.put("source", recipe.source());
+        return Document.builder().id(recipe.parentId()).text(metadata.get("dishName").toString()).metadata(metadata).build();
+    }
+
+    private void put(Recipe recipe) {
+        recipesByUser.computeIfAbsent(recipe.userId(), k -> new ConcurrentHashMap<>()).put(recipe.parentId(), recipe);
+        userByParent.put(recipe.parentId(), recipe.userId());
+        vocabularyStale = true;
+    }
+
+    private List<String> vocabulary() {
+        if (vocabularyStale) {
+            vocabularyStale = false;
+            Set<String> words = new HashSet<>();
+            for (Map<String, Recipe> recipes : recipesByUser.values()) {
+                for (Recipe recipe : recipes.values()) {
+                    // 单字原料（盐、葱）容易误匹配，只用两个字以上的词
+                    for (String ingredient : recipe.ingredients()) {
+                        if (ingredient.length() >= 2) words.add(ingredient);
+                    }
+                }
+            }
+            List<String> sorted = new ArrayList<>(words);
+            sorted.sort(Comparator.comparingInt(String::length).reversed());
+            ingredientVocabulary = sorted;
+        }
+        return ingredientVocabulary;
+    }
+
+    private static int difficultyRank(String difficulty) {
+        int rank = DIFFICULTY_ORDER.indexOf(difficulty);
+        return rank < 0 ? DIFFICULTY_ORDER.size() : rank;
+    }
+
+    private static Recipe toRecipe(Document parentDoc) {
+        Map<String, Object> metadata = parentDoc.getMetadata();
+        RecipeParser.Parsed parsed = RecipeParser.parse(parentDoc.getText());
+        return new Recipe(
+                metadata.get("parentId").toString(),
+                metadata.get("userId").toString(),
+                Objects.toString(metadata.get("dishName"), null),
+                Objects.toString(metadata.get("category"), null),
+                Objects.toString(metadata.get("difficulty"), null),
+                parsed.ingredients(), parsed.tools(), parsed.stepCount(), parsed.estimatedMinutes(),
+                Objects.toString(metadata.get("source"), null));
+    }
+
+    private RecipeCatalogEntry toEntry(Recipe recipe) throws JsonProcessingException {
+        RecipeCatalogEntry entry = new RecipeCatalogEntry();
+        entry.setId(recipe.parentId());
+        entry.setUserId(recipe.userId());
+        entry.setDishName(recipe.dishName());
+        entry.setCategory(recipe.category());
+        entry.setDifficulty(recipe.difficulty());
+        entry.setIngredients(objectMapper.writeValueAsString(recipe.ingredients()));
+        entry.setTools(objectMapper.writeValueAsString(recipe.tools()));
+        entry.setStepCount(recipe.stepCount());
+        entry.setEstimatedMinutes(recipe.estimatedMinutes());
+        entry.setSourceUrl(recipe.source());
+        entry.setUpdatedAt(LocalDateTime.now());
+        return entry;
+    }
+
+    private Recipe toRecipe(RecipeCatalogEntry entry) throws JsonProcessingException {
+        return new Recipe(entry.getId(), entry.getUserId(), entry.getDishName(), entry.getCategory(),
+                entry.getDifficulty(), readList(entry.getIngredients()), readList(entry.getTools()),
+                entry.getStepCount(), entry.getEstimatedMinutes(), entry.getSourceUrl());
+    }
+
+    private List<String> readList(String json) throws JsonProcessingException {
+        if (json == null || json.isEmpty()) return List.of();
+        return objectMapper.readValue(json, new TypeReference<>() {});
+    }
+}
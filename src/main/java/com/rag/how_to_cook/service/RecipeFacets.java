@@ -0,0 +1,107 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.vectorstore.FacetIndex;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 菜谱级别的 facet 索引：enhanceMetadata 写入的 category / difficulty / dishName 以及 userId，
+ * 每个取值对应一个菜谱序号位图，由 processSingleFile / explicitDelete 增量维护，供前端按条件统计数量
+ * 只保存在内存中，启动时由全量扫描 MinIO 重新填充，增量启动时从菜谱目录恢复
+ */
+@Component
+public class RecipeFacets {
+    static final List<String> FIELDS = List.of("userId", "category", "difficulty", "dishName");
+    // 前端筛选面板展示的字段（dishName 每个取值只对应一篇，不做统计）
+    static final List<String> COUNTED_FIELDS = List.of("category", "difficulty");
+
+    private final FacetIndex index = new FacetIndex(FIELDS);
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object ordinalLock = new Object();
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+    private int nextOrdinal = 0;
+
+    private record Entry(int ordinal, Map<String, Object> facets) {}
+
+    public boolean contains(String parentId) {
+        return entries.containsKey(parentId);
+    }
+
+    /**
+     * 新增或更新一篇菜谱（父文档 metadata 中需要有 parentId）
+     */
+    public void add(Document parentDoc) {
+        Map<String, Object> metadata = parentDoc.getMetadata();
+        add(metadata.get("parentId").toString(), metadata);
+    }
+
+    /**
+     * 按字段取值新增或更新一篇菜谱（从菜谱目录恢复时使用）
+     */
+    public void add(String parentId, Map<String, ?> metadata) {
+        Map<String, Object> facets = new HashMap<>();
+        for (String field : FIELDS) {
+            Object value = metadata.get(field);
+            if (value != null) facets.put(field, value.toString());
+        }
+
+        synchronized (ordinalLock) {
+            Entry previous = entries.get(parentId);
+            int ordinal;
+            if (previous != null) {
+                index.remove(previous.ordinal(), previous.facets());
+                ordinal = previous.ordinal();
+            } else {
+                ordinal = freeOrdinals.isEmpty() ? nextOrdinal++ : freeOrdinals.pop();
+            }
+            index.add(ordinal, facets);
+            entries.put(parentId, new Entry(ordinal, facets));
+        }
+    }
+
+    public void remove(String parentId) {
+        synchronized (ordinalLock) {
+            Entry entry = entries.remove(parentId);
+            if (entry == null) return;
+            index.remove(entry.ordinal(), entry.facets());
+            // 序号回收复用，位图保持紧凑
+            freeOrdinals.push(entry.ordinal());
+        }
+    }
+
+    /**
+     * 已分配过的序号数（含回收待复用的），即位图的序号上界
+     */
+    int allocatedOrdinals() {
+        synchronized (ordinalLock) {
+            return nextOrdinal;
+        }
+    }
+
+    public int count(String userId, Map<String, List<String>> filters) {
+        return index.count(conditions(userId, filters));
+    }
+
+    /**
+     * 在该用户满足 filters 的菜谱中，统计各字段取值的数量
+     */
+    public Map<String, Map<String, Integer>> counts(String userId, Map<String, List<String>> filters) {
+        RoaringBitmap matched = index.select(conditions(userId, filters));
+        return index.counts(matched, COUNTED_FIELDS);
+    }
+
+    private Map<String, List<String>> conditions(String userId, Map<String, List<String>> filters) {
+        Map<String, List<String>> conditions = new HashMap<>();
+        filters.forEach((field, values) -> {
+            if (!FIELDS.contains(field)) throw new IllegalArgumentException("不支持的筛选字段: " + field);
+            conditions.put(field, values);
+        });
+        // 用户只能看到自己的菜谱
+        conditions.put("userId", List.of(userId));
+        return conditions;
+    }
+}
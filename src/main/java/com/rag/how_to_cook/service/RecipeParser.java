@@ -0,0 +1,93 @@
+package com.rag.how_to_cook.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按 HowToCook 菜谱的 Markdown 结构提取原料、工具、步骤数与预估耗时
+ * - 「必备原料和工具」章节的列表项：按厨具词表区分工具与原料，去掉用量、括号备注
+ * - 「操作」章节的顶层列表项计为步骤，步骤中出现的时长（分钟 / 小时 / 秒，区间取上限）累加为预估耗时
+ */
+final class RecipeParser {
+    private static final List<String> TOOL_WORDS = List.of(
+            "锅", "刀", "砧板", "菜板", "碗", "盘", "烤箱", "微波炉", "电饭煲", "蒸笼", "铲", "勺", "筷", "盆",
+            "量杯", "秤", "搅拌机", "料理机", "破壁机", "打蛋器", "保鲜膜", "锡纸", "油纸", "模具", "滤网",
+            "擀面杖", "牙签", "厨房纸", "温度计", "榨汁机", "烧烤架", "吸油纸");
+    private static final Pattern DURATION = Pattern.compile(
+            "(\\d+(?:\\.\\d+)?)\\s*(?:[-~～到至]\\s*(\\d+(?:\\.\\d+)?))?\\s*(分钟|min|小时|h|秒)");
+    private static final Pattern LIST_ITEM = Pattern.compile("^(?:[-*+]|\\d+[.、])\\s+(.*)$");
+
+    private RecipeParser() {
+    }
+
+    record Parsed(List<String> ingredients, List<String> tools, int stepCount, Integer estimatedMinutes) {}
+
+    static Parsed parse(String content) {
+        Set<String> ingredients = new LinkedHashSet<>();
+        Set<String> tools = new LinkedHashSet<>();
+        int steps = 0;
+        double minutes = 0;
+        boolean timed = false;
+
+        String section = "";
+        for (String line : content.split("\n")) {
+            if (line.startsWith("## ")) {
+                section = line.substring(3).strip();
+                continue;
+            }
+            // 只统计顶层列表项，缩进的子项是对上一步的补充说明
+            Matcher item = LIST_ITEM.matcher(line);
+            boolean topLevelItem = item.matches();
+
+            if (section.contains("原料") || section.contains("工具")) {
+                if (!topLevelItem) continue;
+                String name = cleanName(item.group(1));
+                if (name.isEmpty()) continue;
+                if (isTool(name)) tools.add(name);
+                else ingredients.add(name);
+            } else if (section.contains("操作") || section.contains("步骤")) {
+                if (topLevelItem) steps++;
+                Matcher duration = DURATION.matcher(line);
+                while (duration.find()) {
+                    double value = Double.parseDouble(duration.group(2) != null ? duration.group(2) : duration.group(1));
+                    minutes += switch (duration.group(3)) {
+                        case "小时", "h" -> value * 60;
+                        case "秒" -> value / 60;
+                        default -> value;
+                    };
+                    timed = true;
+                }
+            }
+        }
+        return new Parsed(new ArrayList<>(ingredients), new ArrayList<>(tools), steps,
+                timed ? (int) Math.ceil(minutes) : null);
+    }
+
+    /**
+     * "生抽 10ml（可选）" -> "生抽"；去掉括号备注、冒号后的说明以及第一个空白 / 数字之后的用量
+     */
+    static String cleanName(String item) {
+        String name = item.replaceAll("[（(][^）)]*[）)]", "").replace("*", "").replace("`", "").strip();
+        int end = name.length();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isWhitespace(c) || Character.isDigit(c) || c == '：' || c == ':' || c == '，' || c == ','
+                    || c == '、' || c == '/' || c == '或') {
+                end = i;
+                break;
+            }
+        }
+        return name.substring(0, end);
+    }
+
+    private static boolean isTool(String name) {
+        for (String word : TOOL_WORDS) {
+            if (word.length() == 1 ? name.endsWith(word) : name.contains(word)) return true;
+        }
+        return false;
+    }
+}
@@ -5,15 +5,18 @@ import com.rag.how_to_cook.domain.MetadataFilterExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.rag.how_to_cook.domain.ChatRequest;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
 import reactor.util.function.Tuples;
 
 @Service
@@ -22,56 +25,207 @@ public class RecipeRAGService {
     private final DataPreparation dataPreparation;
     private final GenerationIntegration generationIntegration;
     private final RetrievalOptimization retrievalOptimization;
+    private final AnswerCache answerCache;
+    private final SpeculativeRetrieval speculativeRetrieval;
+    private final PipelineMetrics metrics;
+    private final SlowRequestLog slowRequestLog;
+    private final RecipeCatalog recipeCatalog;
+    private final ChatCoalescer chatCoalescer;
+    private final Scheduler blockingScheduler;
+    // 每种路由生成回答所需的数据级别，未知路由按 general 处理
+    private final Map<String, HydrationLevel> routeHydration;
 
     RecipeRAGService(
             DataPreparation dataPreparation,
             GenerationIntegration generationIntegration,
-            RetrievalOptimization retrievalOptimization
+            RetrievalOptimization retrievalOptimization,
+            AnswerCache answerCache,
+            SpeculativeRetrieval speculativeRetrieval,
+            PipelineMetrics metrics,
+            SlowRequestLog slowRequestLog,
+            RecipeCatalog recipeCatalog,
+            ChatCoalescer chatCoalescer,
+            Scheduler blockingScheduler,
+            @Value("${rag.hydration.list:metadata}") String listHydration,
+            @Value("${rag.hydration.detail:parent}") String detailHydration,
+            @Value("${rag.hydration.general:section}") String generalHydration
     ) {
         this.dataPreparation = dataPreparation;
         this.generationIntegration = generationIntegration;
         this.retrievalOptimization = retrievalOptimization;
+        this.answerCache = answerCache;
+        this.speculativeRetrieval = speculativeRetrieval;
+        this.metrics = metrics;
+        this.slowRequestLog = slowRequestLog;
+        this.recipeCatalog = recipeCatalog;
+        this.chatCoalescer = chatCoalescer;
+        this.blockingScheduler = blockingScheduler;
+        this.routeHydration = Map.of(
+                "list", HydrationLevel.parse(listHydration),
+                "detail", HydrationLevel.parse(detailHydration),
+                "general", HydrationLevel.parse(generalHydration));
     }
 
     public Flux<String> processChatStream(ChatRequest chatRequest, String userId) {
-        return Mono.fromCallable(() -> {
-            String routeType = generationIntegration.queryRouter(chatRequest.prompt());
+        return Flux.defer(() -> {
+            // 语料未变化时，相同问题直接按原来的分片回放缓存的回答
+            AnswerCache.Key cacheKey = answerCache.keyFor(userId, chatRequest.prompt());
+            List<String> cached = answerCache.get(cacheKey);
+            if (cached != null) {
+                log.info("命中回答缓存: {}", cacheKey.query());
+                return Flux.fromIterable(cached);
+            }
+
+            // 相同问题正在生成时直接订阅同一条流水线，回答只缓存一次
+            // 路由 / 改写 / 过滤条件或回答用了降级结果时不缓存，避免降级回答在 TTL 内一直被回放
+            return chatCoalescer.join(cacheKey, () -> {
+                List<String> answerChunks = new ArrayList<>();
+                AtomicBoolean degraded = new AtomicBoolean();
+                return runPipeline(chatRequest, userId, degraded)
+                        .doOnNext(answerChunks::add)
+                        .doOnComplete(() -> {
+                            if (degraded.get()) log.info("回答使用了降级结果，不写入缓存: {}", cacheKey.query());
+                            else answerCache.put(cacheKey, answerChunks);
+                        })
+                        .contextWrite(ctx -> ctx.put(LlmGateway.DEGRADED_KEY, degraded));
+            });
+        });
+    }
+
+    private Flux<String> runPipeline(ChatRequest chatRequest, String userId, AtomicBoolean degraded) {
+        long pipelineStart = System.nanoTime();
+        // 每个请求都记录轨迹，结束时超过阈值的才写入慢请求日志
+        RequestTrace trace = new RequestTrace(userId, chatRequest.prompt());
+
+        // 有列表意图且条件能在本地完全解析（如「给我3个简单的素菜」）：直接查菜谱目录，不调用 LLM，也不检索
+        ListQueryParser.CatalogQuery localQuery = recipeCatalog.resolve(userId, chatRequest.prompt());
+        if (localQuery != null && localQuery.listIntent() && localQuery.resolved()) {
+            trace.plan("list", chatRequest.prompt(), toFilterExpression(localQuery));
+            List<Document> docs = trace.time("catalog",
+                    () -> metrics.stage("catalog", "list", () -> catalogDocs(userId, localQuery)));
+            trace.hydrated(docs);
+            Flux<String> answer = generationIntegration.generateListAnswer(chatRequest.prompt(), docs, shown(localQuery));
+            return metrics.stream("list", pipelineStart, answer.doOnNext(token -> trace.onToken()))
+                    .doFinally(signal -> {
+                        trace.finish(signal);
+                        slowRequestLog.complete(trace);
+                    });
+        }
+
+        // 不等路由 / 改写完成，先用原问题开始检索；按本地预判的路由决定是否预取父文档
+        HydrationLevel predictedLevel = hydrationOf(GenerationIntegration.localRoute(chatRequest.prompt()));
+        SpeculativeRetrieval.Speculation speculation =
+                speculativeRetrieval.start(chatRequest.prompt(), userId, 5, predictedLevel);
+
+        return Mono.fromCallable(() -> LlmGateway.trackDegradation(degraded, () -> {
+            long routerStart = System.nanoTime();
+            String routeType;
+            try {
+                routeType = trace.time("router", () -> generationIntegration.queryRouter(chatRequest.prompt()));
+            } catch (RuntimeException e) {
+                metrics.stage("router", PipelineMetrics.UNKNOWN_ROUTE, System.nanoTime() - routerStart, "error");
+                throw e;
+            }
+            // 路由结果出来后才知道 route 标签
+            metrics.stage("router", routeType, System.nanoTime() - routerStart, "success");
+
+            // 路由判定为 list 且条件能在本地解析：跳过过滤条件提取，稍后直接查目录
+            if (routeType.equals("list") && localQuery != null && localQuery.resolved()) {
+                MetadataFilterExpression localFilters = toFilterExpression(localQuery);
+                trace.plan(routeType, chatRequest.prompt(), localFilters);
+                return new QueryPlan(routeType, chatRequest.prompt(), localFilters, localQuery);
+            }
 
             String rewriteQuery;
 
             if (routeType.equals("list")) {
                 rewriteQuery = chatRequest.prompt();
             } else {
-                rewriteQuery = generationIntegration.queryRewrite(chatRequest.prompt());
-            }
-            List<Document> relevantChunks;
-            MetadataFilterExpression filterExpression = generationIntegration.extractFiltersFromQuery(rewriteQuery);
-            log.info("元数据为: {}", filterExpression.toString());
-            if (filterExpression != null) {
-                relevantChunks = retrievalOptimization.metaFilteredSearch(rewriteQuery, userId, filterExpression, 5);
-            } else {
-                relevantChunks = retrievalOptimization.hybridSearch(rewriteQuery, userId, 5);
+                rewriteQuery = trace.time("rewrite", () -> metrics.stage("rewrite", routeType,
+                        () -> generationIntegration.queryRewrite(chatRequest.prompt())));
             }
-            return new SearchContext(routeType, relevantChunks);
-        })
-                .subscribeOn(Schedulers.boundedElastic())
+            MetadataFilterExpression filterExpression = trace.time("filter_extraction",
+                    () -> metrics.stage("filter_extraction", routeType,
+                            () -> generationIntegration.extractFiltersFromQuery(rewriteQuery)));
+            log.info("元数据为: {}", filterExpression);
+            trace.plan(routeType, rewriteQuery, filterExpression);
+            return new QueryPlan(routeType, rewriteQuery, filterExpression, null);
+        }))
+                .subscribeOn(blockingScheduler)
+                .flatMap(plan -> {
+                    if (plan.catalogQuery() != null) {
+                        if (speculation != null) speculation.cancel();
+                        List<Document> docs = trace.time("catalog",
+                                () -> metrics.stage("catalog", plan.route(), () -> catalogDocs(userId, plan.catalogQuery())));
+                        trace.hydrated(docs);
+                        return Mono.just(new SearchContext(plan.route(), docs, shown(plan.catalogQuery())));
+                    }
+                    // 按路由需要补全：list 只需菜名，不读取 MinIO
+                    HydrationLevel level = hydrationOf(plan.route());
+                    Mono<List<Document>> docs = speculativeRetrieval
+                            .resolve(speculation, plan.route(), plan.query(), plan.filters(), level, 5,
+                                    accepted -> trace.retrieved(accepted, true))
+                            // 推测未命中：原查询、改写查询与扩展查询并发检索后融合
+                            .switchIfEmpty(Mono.defer(() -> retrievalOptimization
+                                    .multiQuerySearch(chatRequest.prompt(), plan.query(), userId, plan.filters(), 5)
+                                    .contextWrite(ctx -> ctx.put(RetrievalOptimization.ROUTE_KEY, plan.route()))
+                                    .doOnNext(chunks -> trace.retrieved(chunks, false))
+                                    .map(chunks -> trace.time("hydration", () -> metrics.stage("hydration", plan.route(),
+                                            () -> dataPreparation.hydrate(chunks, level))))));
+                    return trace.time("retrieval", metrics.stage("retrieval", plan.route(), docs))
+                            .doOnNext(trace::hydrated)
+                            .map(relevantDocs -> new SearchContext(plan.route(), relevantDocs, 3));
+                })
                 .flatMapMany(context -> {
-                    List<Document> relevantChunks = context.docs();
+                    List<Document> relevantDocs = context.docs();
                     String routeType = context.route();
-                    if (relevantChunks == null) {
-                        relevantChunks = Collections.emptyList();
+                    if (relevantDocs == null) {
+                        relevantDocs = Collections.emptyList();
                     }
-                    List<Document> relevantDocs = dataPreparation.getParentDocument(relevantChunks);
+                    Flux<String> answer;
                     if (routeType.equals("list")) {
 
-                        return generationIntegration.generateListAnswer(chatRequest.prompt(), relevantDocs);
+                        answer = generationIntegration.generateListAnswer(chatRequest.prompt(), relevantDocs, context.shown());
                     } else if (routeType.equals("detail")) {
-                        return generationIntegration.generateStepByStepAnswer(chatRequest.prompt(), relevantDocs);
+                        answer = generationIntegration.generateStepByStepAnswer(chatRequest.prompt(), relevantDocs);
                     } else {
-                        return generationIntegration.generateBasicAnswer(chatRequest.prompt(), relevantDocs);
+                        answer = generationIntegration.generateBasicAnswer(chatRequest.prompt(), relevantDocs);
                     }
+                    return metrics.stream(routeType, pipelineStart, answer.doOnNext(token -> trace.onToken()));
+                })
+                .doFinally(signal -> {
+                    if (speculation != null) speculation.cancel();
+                    trace.finish(signal);
+                    slowRequestLog.complete(trace);
                 });
     }
 
-    record SearchContext(String route, List<Document> docs) {}
+    private HydrationLevel hydrationOf(String route) {
+        return routeHydration.getOrDefault(route, routeHydration.get("general"));
+    }
+
+    /**
+     * 目录查询结果：指定了数量时只取前 limit 道
+     */
+    private List<Document> catalogDocs(String userId, ListQueryParser.CatalogQuery query) {
+        List<RecipeCatalog.Recipe> recipes = recipeCatalog.find(userId, query);
+        if (query.limit() != null && recipes.size() > query.limit()) recipes = recipes.subList(0, query.limit());
+        return recipes.stream().map(RecipeCatalog::toDocument).toList();
+    }
+
+    private static int shown(ListQueryParser.CatalogQuery query) {
+        return query.limit() != null ? Math.max(1, query.limit()) : 3;
+    }
+
+    private static MetadataFilterExpression toFilterExpression(ListQueryParser.CatalogQuery query) {
+        return new MetadataFilterExpression(List.copyOf(query.difficulties()), List.copyOf(query.categories()));
+    }
+
+    /**
+     * @param catalogQuery 非空表示条件已在本地解析，直接从菜谱目录回答
+     */
+    record QueryPlan(String route, String query, MetadataFilterExpression filters,
+                     ListQueryParser.CatalogQuery catalogQuery) {}
+
+    record SearchContext(String route, List<Document> docs, int shown) {}
 }
@@ -0,0 +1,48 @@
+package com.rag.how_to_cook.service;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 面向中文菜谱的轻量分词
+ * - 连续汉字：输出单字 + 相邻二元组（"红烧肉" -> 红, 烧, 肉, 红烧, 烧肉），无需词典也能精确命中菜名和食材
+ * - 字母 / 数字：按连续串切分并转小写
+ * - 其余字符（标点、空白、emoji）作为分隔符
+ */
+final class RecipeTokenizer {
+
+    // 只过滤单字形式的虚词，二元组保留（"怎么做" 这类由 idf 自然降权）
+    private static final Set<String> STOP_UNIGRAMS = Set.of(
+            "的", "了", "和", "是", "在", "把", "将", "与", "或", "及", "也", "就", "都",
+            "吗", "呢", "啊", "吧", "个", "些", "我", "你", "他", "这", "那"
+    );
+
+    private RecipeTokenizer() {}
+
+    static void tokenize(CharSequence text, Consumer<String> sink) {
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (isHan(c)) {
+                int start = i;
+                while (i < n && isHan(text.charAt(i))) i++;
+                for (int j = start; j < i; j++) {
+                    String unigram = String.valueOf(text.charAt(j));
+                    if (!STOP_UNIGRAMS.contains(unigram)) sink.accept(unigram);
+                    if (j + 1 < i) sink.accept(text.subSequence(j, j + 2).toString());
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < n && Character.isLetterOrDigit(text.charAt(i)) && !isHan(text.charAt(i))) i++;
+                sink.accept(text.subSequence(start, i).toString().toLowerCase());
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static boolean isHan(char c) {
+        return Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+    }
+}
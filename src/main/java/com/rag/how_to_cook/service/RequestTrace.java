@@ -0,0 +1,140 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.MetadataFilterExpression;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个对话请求的执行轨迹：每个请求都会记录（只保存引用和几个时间戳），只有慢请求才会序列化落盘（见 SlowRequestLog）
+ */
+public final class RequestTrace {
+    final Instant startedAt = Instant.now();
+    final long startNanos = System.nanoTime();
+    final String userId;
+    final String query;
+
+    private final Map<String, Long> stageNanos = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile String route;
+    private volatile String rewrite;
+    private volatile MetadataFilterExpression filters;
+    private volatile boolean speculative;
+    private volatile List<Document> chunks = List.of();
+    private volatile List<Document> parents = List.of();
+    private volatile long firstTokenNanos;
+    private volatile long endNanos;
+    private volatile long tokens;
+    private volatile String outcome = "running";
+
+    RequestTrace(String userId, String query) {
+        this.userId = userId;
+        this.query = query;
+    }
+
+    <T, E extends Exception> T time(String stage, PipelineMetrics.CheckedSupplier<T, E> work) throws E {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            stageNanos.merge(stage, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    <T> Mono<T> time(String stage, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doFinally(signal -> stageNanos.merge(stage, System.nanoTime() - start, Long::sum));
+        });
+    }
+
+    void plan(String route, String rewrite, MetadataFilterExpression filters) {
+        this.route = route;
+        this.rewrite = rewrite;
+        this.filters = filters;
+    }
+
+    void retrieved(List<Document> chunks, boolean speculative) {
+        this.chunks = chunks;
+        this.speculative = speculative;
+    }
+
+    void hydrated(List<Document> parents) {
+        this.parents = parents;
+    }
+
+    void onToken() {
+        if (tokens++ == 0) firstTokenNanos = System.nanoTime();
+    }
+
+    void finish(SignalType signal) {
+        endNanos = System.nanoTime();
+        outcome = switch (signal) {
+            case ON_ERROR -> "error";
+            case CANCEL -> "cancelled";
+            default -> "success";
+        };
+    }
+
+    long elapsedNanos() {
+        return (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+    }
+
+    /**
+     * 转成可序列化的快照；token 数只在这里估算，正常请求不付出这部分开销
+     */
+    Captured capture(TokenCountEstimator estimator) {
+        List<ChunkRef> chunkRefs = new ArrayList<>(chunks.size());
+        for (Document chunk : chunks) {
+            chunkRefs.add(new ChunkRef(
+                    Bm25Index.chunkIdOf(chunk),
+                    Objects.toString(chunk.getMetadata().get("parentId"), null),
+                    chunk.getScore(),
+                    Objects.toString(chunk.getMetadata().get("dishName"), null),
+                    chunk.getText() == null ? 0 : chunk.getText().length()));
+        }
+        List<ParentRef> parentRefs = new ArrayList<>(parents.size());
+        int contextTokens = 0;
+        for (Document parent : parents) {
+            String text = parent.getText() == null ? "" : parent.getText();
+            parentRefs.add(new ParentRef(
+                    Objects.toString(parent.getMetadata().get("parentId"), null),
+                    Objects.toString(parent.getMetadata().get("dishName"), null),
+                    text.length()));
+            contextTokens += estimator.estimate(text);
+        }
+
+        Map<String, Long> stageMillis = new LinkedHashMap<>();
+        synchronized (stageNanos) {
+            stageNanos.forEach((stage, nanos) -> stageMillis.put(stage, TimeUnit.NANOSECONDS.toMillis(nanos)));
+        }
+        long ttftMillis = firstTokenNanos == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstTokenNanos - startNanos);
+        long generationMillis = firstTokenNanos == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(endNanos - firstTokenNanos);
+
+        return new Captured(startedAt, userId, query, route, rewrite,
+                filters == null ? null : filters.difficulties(),
+                filters == null ? null : filters.categories(),
+                speculative, chunkRefs, parentRefs,
+                estimator.estimate(query), contextTokens, tokens,
+                stageMillis, ttftMillis, generationMillis,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos()), outcome);
+    }
+
+    /**
+     * 落盘格式，一行一个 JSON
+     */
+    public record Captured(Instant startedAt, String userId, String query, String route, String rewrite,
+                           List<String> difficulties, List<String> categories, boolean speculative,
+                           List<ChunkRef> chunks, List<ParentRef> parents,
+                           int promptTokens, int contextTokens, long outputTokens,
+                           Map<String, Long> stageMillis, long ttftMillis, long generationMillis,
+                           long totalMillis, String outcome) {}
+
+    public record ChunkRef(String chunkId, String parentId, Double score, String dishName, int chars) {}
+
+    public record ParentRef(String parentId, String dishName, int chars) {}
+}
@@ -5,58 +5,141 @@ import com.rag.how_to_cook.domain.MetadataFilterExpression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 @Component
 public class RetrievalOptimization {
     private static final Logger log = LoggerFactory.getLogger(RetrievalOptimization.class);
     private final IndexConstruction indexConstruction;
+    private final FilteredKnnSearch filteredKnnSearch;
+    private final GenerationIntegration generationIntegration;
+    private final PipelineMetrics metrics;
+    private final Scheduler blockingScheduler;
     //private final DataPreparation dataPreparation;
 
-    RetrievalOptimization(IndexConstruction indexConstruction, DataPreparation dataPreparation) {
+    // Reactor Context 中的路由标签，用于指标
+    static final String ROUTE_KEY = "rag.route";
+
+    // 多路召回：每个请求最多并发检索的查询数、是否调用 LLM 扩展查询、同一父文档最多保留的 chunk 数
+    private final int maxQueries;
+    private final boolean llmExpansion;
+    private final int maxChunksPerParent;
+
+    // 规则扩展：去掉疑问词和口语成分，只留下菜名 / 食材等关键词
+    private static final Pattern FILLER = Pattern.compile(
+            "请问|我想|想要|想吃|帮我|给我|推荐|一下|怎么做|怎么|如何|怎样|做法|方法|步骤|需要|什么|哪些|有没有|可以|吗|呢|吧|啊|[？?！!，,。.]");
+
+    RetrievalOptimization(
+            IndexConstruction indexConstruction,
+            DataPreparation dataPreparation,
+            FilteredKnnSearch filteredKnnSearch,
+            GenerationIntegration generationIntegration,
+            PipelineMetrics metrics,
+            Scheduler blockingScheduler,
+            @Value("${rag.multi-query.max-queries:3}") int maxQueries,
+            @Value("${rag.multi-query.llm-expansion:false}") boolean llmExpansion,
+            @Value("${rag.multi-query.max-chunks-per-parent:2}") int maxChunksPerParent) {
         //this.dataPreparation = dataPreparation;
         this.indexConstruction = indexConstruction;
+        this.filteredKnnSearch = filteredKnnSearch;
+        this.generationIntegration = generationIntegration;
+        this.metrics = metrics;
+        this.blockingScheduler = blockingScheduler;
+        this.maxQueries = maxQueries;
+        this.llmExpansion = llmExpansion;
+        this.maxChunksPerParent = maxChunksPerParent;
     }
 
-    public List<Document> hybridSearch(String query, String userId, Integer k) {
-        log.info("启动默认搜索");
-        //稀疏向量方法在 Spring AI 下不可用
-        return indexConstruction.getVectorStore().similaritySearch(SearchRequest.builder()
-                .query(query)
-                .topK(k)
-                .build());
+    /**
+     * 多路召回：原查询、改写后的查询和扩展查询并发检索，再用 RRF 融合，按 chunkId / parentId 去重
+     * filterExpression 为 null 时每一路走 hybridSearch，否则走 metaFilteredSearch
+     */
+    public Mono<List<Document>> multiQuerySearch(String original, String rewrite, String userId,
+                                                 MetadataFilterExpression filterExpression, int k) {
+        return Mono.deferContextual(ctx -> {
+            String route = ctx.getOrDefault(ROUTE_KEY, PipelineMetrics.UNKNOWN_ROUTE);
+            // 查询扩展降级时同样标记本次请求
+            return Mono.fromCallable(() -> LlmGateway.trackDegradation(
+                            ctx.getOrDefault(LlmGateway.DEGRADED_KEY, null), () -> queryVariants(original, rewrite)))
+                    .subscribeOn(blockingScheduler)
+                    .flatMap(variants -> {
+                        log.info("多路召回查询: {}", variants);
+                        return Flux.fromIterable(variants)
+                                .flatMapSequential(variant -> Mono.fromCallable(() -> metrics.stage("vector_search", route,
+                                                () -> filterExpression == null
+                                                        ? hybridSearch(variant, userId, k)
+                                                        : metaFilteredSearch(variant, userId, filterExpression, k)))
+                                        .subscribeOn(blockingScheduler)
+                                        .onErrorResume(e -> {
+                                            // 单路失败不影响其它路
+                                            log.warn("查询 [{}] 检索失败", variant, e);
+                                            return Mono.just(List.of());
+                                        }), variants.size())
+                                .collectList();
+                    })
+                    .map(rankings -> RankFusion.limitPerParent(
+                            RankFusion.reciprocalRank(rankings, Integer.MAX_VALUE), maxChunksPerParent, k));
+        });
     }
 
-    public List<Document> metaFilteredSearch(String query, String userId, MetadataFilterExpression filterExpression, Integer k) {
-        log.info("启动元数据筛选");
+    /**
+     * 去重后的查询列表，数量不超过 maxQueries；原查询与改写查询优先
+     */
+    List<String> queryVariants(String original, String rewrite) {
+        Set<String> variants = new LinkedHashSet<>();
+        addVariant(variants, rewrite);
+        addVariant(variants, original);
+        addVariant(variants, FILLER.matcher(original).replaceAll(" ").trim());
+        if (llmExpansion && variants.size() < maxQueries) {
+            try {
+                generationIntegration.queryExpansion(rewrite, maxQueries - variants.size())
+                        .forEach(q -> addVariant(variants, q));
+            } catch (Exception e) {
+                log.warn("LLM 查询扩展失败，只使用规则扩展", e);
+            }
+        }
+        return new ArrayList<>(variants).subList(0, Math.min(variants.size(), maxQueries));
+    }
 
-        log.info("{}", userId);
+    private static void addVariant(Set<String> variants, String query) {
+        if (query == null) return;
+        String q = query.strip();
+        if (!q.isEmpty()) variants.add(q);
+    }
+
+    public List<Document> hybridSearch(String query, String userId, Integer k) {
+        log.info("启动混合搜索");
+        // 两路各多取一些候选，再用 RRF 融合
+        int candidates = k * 3;
 
-        List<Document> filteredDocs = null;
+        // 稠密通路：只检索该用户所在分区，并按 userId 过滤
+        List<Document> denseDocs = metrics.stage("dense_search", () -> filteredKnnSearch.search(query, userId, candidates));
 
-        FilterExpressionBuilder b1 = new FilterExpressionBuilder();
-        FilterExpressionBuilder b2 = new FilterExpressionBuilder();
+        // 稀疏通路：进程内 BM25，弥补向量检索对精确菜名 / 食材词不敏感的问题
+        List<Document> sparseDocs = metrics.stage("sparse_search",
+                () -> indexConstruction.getBm25Index().search(query, userId, candidates));
+        log.info("稠密召回 {} 条，稀疏召回 {} 条", denseDocs.size(), sparseDocs.size());
 
-        filteredDocs = indexConstruction.getVectorStore().similaritySearch(SearchRequest.builder()
-                .query(query)
-                .topK(k)
-                // Spring AI 解析的问题，对于数组的支持有问题
+        return RankFusion.reciprocalRank(List.of(denseDocs, sparseDocs), k);
+    }
 
-//                .filterExpression(
-//                        b1.and(
-//                                b1.in("category.keyword", filterExpression.categories()),
-//                                b1.in("difficulty.keyword", filterExpression.difficulties())
-//                ).build())
+    public List<Document> metaFilteredSearch(String query, String userId, MetadataFilterExpression filterExpression, Integer k) {
+        log.info("启动元数据筛选");
 
-                .filterExpression(b2.eq("userId.keyword", userId).build())
-                .build()
-        );
+        // category / difficulty / userId 过滤下推到 kNN 查询中（Spring AI 的过滤表达式不支持数组）
+        List<Document> filteredDocs = filteredKnnSearch.search(query, userId, filterExpression, k);
 
-        log.info("{}", filteredDocs.size());
+        log.info("元数据筛选召回 {} 条", filteredDocs.size());
 
         return filteredDocs;
     }
@@ -0,0 +1,128 @@
+package com.rag.how_to_cook.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.*;
+
+/**
+ * 慢请求轨迹日志：超过阈值的请求按采样率写入磁盘上的环形日志
+ * 目录下固定 max-files 个文件（trace-0.jsonl ...），当前文件超过 max-file-bytes 后切到下一个并覆盖，总大小有上限
+ * 序列化和写盘都在单独的线程上进行，队列满时直接丢弃，不影响请求本身
+ */
+@Component
+public class SlowRequestLog {
+    private static final Logger log = LoggerFactory.getLogger(SlowRequestLog.class);
+
+    private final Path directory;
+    private final long thresholdNanos;
+    private final double sampleRate;
+    private final int maxFiles;
+    private final long maxFileBytes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(64), runnable -> {
+                Thread thread = new Thread(runnable, "slow-request-log");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    // 延迟创建：加载 BPE 词表有一定开销，只有出现慢请求时才需要
+    private volatile TokenCountEstimator estimator;
+
+    private int currentFile;
+    private long currentBytes;
+
+    SlowRequestLog(
+            @Value("${rag.trace.directory:./data/traces}") Path directory,
+            @Value("${rag.trace.slow-threshold:8s}") Duration threshold,
+            @Value("${rag.trace.sample-rate:1.0}") double sampleRate,
+            @Value("${rag.trace.max-files:8}") int maxFiles,
+            @Value("${rag.trace.max-file-bytes:4194304}") long maxFileBytes) throws IOException {
+        this.directory = directory;
+        this.thresholdNanos = threshold.toNanos();
+        this.sampleRate = sampleRate;
+        this.maxFiles = maxFiles;
+        this.maxFileBytes = maxFileBytes;
+
+        Files.createDirectories(directory);
+        // 从最近写过的文件继续
+        FileTime latest = FileTime.fromMillis(0);
+        for (int i = 0; i < maxFiles; i++) {
+            Path file = file(i);
+            if (Files.exists(file) && Files.getLastModifiedTime(file).compareTo(latest) > 0) {
+                latest = Files.getLastModifiedTime(file);
+                currentFile = i;
+                currentBytes = Files.size(file);
+            }
+        }
+    }
+
+    /**
+     * 请求结束时调用；未超过阈值的请求只做一次比较
+     */
+    public void complete(RequestTrace trace) {
+        if (trace.elapsedNanos() < thresholdNanos) return;
+        if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+        writer.execute(() -> write(trace));
+    }
+
+    public Path directory() {
+        return directory;
+    }
+
+    Path file(int index) {
+        return directory.resolve("trace-" + index + ".jsonl");
+    }
+
+    private void write(RequestTrace trace) {
+        try {
+            RequestTrace.Captured captured = trace.capture(estimator());
+            byte[] line = (objectMapper.writeValueAsString(captured) + "\n").getBytes(StandardCharsets.UTF_8);
+
+            StandardOpenOption mode = StandardOpenOption.APPEND;
+            if (currentBytes + line.length > maxFileBytes && currentBytes > 0) {
+                currentFile = (currentFile + 1) % maxFiles;
+                currentBytes = 0;
+                mode = StandardOpenOption.TRUNCATE_EXISTING;
+            }
+            try (OutputStream out = Files.newOutputStream(file(currentFile),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+                out.write(line);
+            }
+            currentBytes += line.length;
+            log.info("记录慢请求：{} ms，route={}，query={}", captured.totalMillis(), captured.route(), captured.query());
+        } catch (Exception e) {
+            log.warn("写入慢请求日志失败", e);
+        }
+    }
+
+    private TokenCountEstimator estimator() {
+        if (estimator == null) estimator = new JTokkitTokenCountEstimator();
+        return estimator;
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        writer.shutdown();
+        writer.awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
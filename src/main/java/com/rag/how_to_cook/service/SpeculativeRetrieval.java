@@ -0,0 +1,162 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.MetadataFilterExpression;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 推测执行检索：请求一到就用原始问题检索，与路由 / 改写 / 过滤条件提取并行
+ * 本地预判的路由需要完整父文档（PARENT）时同时预取父文档，其余路由不读取 MinIO
+ * 改写结果与原问题一致时直接采用推测结果（过滤条件在候选上再筛一遍），否则取消推测任务并重新检索
+ */
+@Component
+public class SpeculativeRetrieval {
+    private static final Logger log = LoggerFactory.getLogger(SpeculativeRetrieval.class);
+
+    private final RetrievalOptimization retrievalOptimization;
+    private final DataPreparation dataPreparation;
+    private final PipelineMetrics metrics;
+    private final Scheduler blockingScheduler;
+    private final boolean enabled;
+    private final int candidateFactor;
+    private final boolean prefetchParents;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    SpeculativeRetrieval(
+            RetrievalOptimization retrievalOptimization,
+            DataPreparation dataPreparation,
+            MeterRegistry meterRegistry,
+            PipelineMetrics metrics,
+            Scheduler blockingScheduler,
+            @Value("${rag.speculation.enabled:true}") boolean enabled,
+            @Value("${rag.speculation.candidate-factor:3}") int candidateFactor,
+            @Value("${rag.speculation.prefetch-parents:true}") boolean prefetchParents) {
+        this.retrievalOptimization = retrievalOptimization;
+        this.dataPreparation = dataPreparation;
+        this.metrics = metrics;
+        this.blockingScheduler = blockingScheduler;
+        this.enabled = enabled;
+        this.candidateFactor = candidateFactor;
+        this.prefetchParents = prefetchParents;
+
+        // 命中率 = hit / (hit + miss)
+        this.hitCounter = Counter.builder("rag.speculation").tag("result", "hit").register(meterRegistry);
+        this.missCounter = Counter.builder("rag.speculation").tag("result", "miss").register(meterRegistry);
+    }
+
+    /**
+     * 立即开始推测检索，未开启时返回 null
+     * @param predictedLevel 按本地预判的路由需要的补全级别，只有 PARENT 时预取父文档
+     */
+    public Speculation start(String prompt, String userId, int k, HydrationLevel predictedLevel) {
+        if (!enabled) return null;
+        // 多取一些候选，给后面的过滤条件留余量
+        CompletableFuture<List<Document>> chunks = retrievalOptimization
+                .multiQuerySearch(prompt, prompt, userId, null, k * candidateFactor)
+                // 推测阶段还不知道路由
+                .contextWrite(ctx -> ctx.put(RetrievalOptimization.ROUTE_KEY, "speculative"))
+                .toFuture();
+        CompletableFuture<List<Document>> parents = prefetchParents && predictedLevel == HydrationLevel.PARENT
+                ? Mono.fromFuture(chunks, true)
+                        .publishOn(blockingScheduler)
+                        .map(dataPreparation::getParentDocument)
+                        .toFuture()
+                : null;
+        return new Speculation(prompt, chunks, parents);
+    }
+
+    /**
+     * 改写后的查询与原问题一致时返回补全后的推测结果；不一致或过滤后候选不足时返回 empty，并取消推测任务
+     * 命中时被采用的 chunk 会交给 onAccepted（用于记录请求轨迹）
+     */
+    public Mono<List<Document>> resolve(Speculation speculation, String route, String query,
+                                        MetadataFilterExpression filters, HydrationLevel level, int k,
+                                        Consumer<List<Document>> onAccepted) {
+        if (speculation == null) return Mono.empty();
+        if (!AnswerCache.normalize(query).equals(AnswerCache.normalize(speculation.prompt()))) {
+            log.info("改写后的查询与原问题不同，放弃推测检索结果");
+            return miss(speculation);
+        }
+
+        return Mono.fromFuture(speculation.chunks(), true)
+                .onErrorResume(e -> {
+                    log.warn("推测检索失败", e);
+                    return Mono.just(List.of());
+                })
+                .flatMap(candidates -> {
+                    List<Document> accepted = candidates.stream()
+                            .filter(doc -> filters == null || FilteredKnnSearch.matches(doc, filters))
+                            .limit(k)
+                            .toList();
+                    if (accepted.isEmpty() || accepted.size() < Math.min(k, candidates.size())) {
+                        log.info("推测检索满足过滤条件的结果不足 ({}/{})，重新检索", accepted.size(), k);
+                        return miss(speculation);
+                    }
+                    hitCounter.increment();
+                    onAccepted.accept(accepted);
+                    if (level == HydrationLevel.PARENT && speculation.parents() != null) {
+                        return Mono.fromFuture(speculation.parents(), true)
+                                .map(parents -> selectParents(parents, accepted))
+                                .onErrorResume(e -> {
+                                    log.warn("预取父文档失败，重新读取", e);
+                                    return hydrate(route, accepted, level);
+                                });
+                    }
+                    speculation.cancel();
+                    return hydrate(route, accepted, level);
+                });
+    }
+
+    private Mono<List<Document>> hydrate(String route, List<Document> accepted, HydrationLevel level) {
+        return Mono.fromCallable(() -> metrics.stage("hydration", route,
+                        () -> dataPreparation.hydrate(accepted, level)))
+                .subscribeOn(blockingScheduler);
+    }
+
+    private Mono<List<Document>> miss(Speculation speculation) {
+        missCounter.increment();
+        speculation.cancel();
+        return Mono.empty();
+    }
+
+    /**
+     * 从预取的父文档中挑出被采用的 chunk 对应的那些，排序规则与 getParentDocument 一致
+     */
+    private static List<Document> selectParents(List<Document> prefetched, List<Document> accepted) {
+        Set<String> parentIds = accepted.stream()
+                .map(chunk -> chunk.getMetadata().get("parentId").toString())
+                .collect(Collectors.toSet());
+        List<Document> parents = new ArrayList<>();
+        for (Document parent : prefetched) {
+            if (parentIds.contains(parent.getMetadata().get("parentId").toString())) parents.add(parent);
+        }
+        DataPreparation.sortByChunkFrequency(parents, accepted);
+        return parents;
+    }
+
+    public record Speculation(String prompt,
+                              CompletableFuture<List<Document>> chunks,
+                              CompletableFuture<List<Document>> parents) {
+        /**
+         * 取消尚未完成的推测任务（已完成的不受影响）
+         */
+        public void cancel() {
+            chunks.cancel(true);
+            if (parents != null) parents.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.rag.how_to_cook.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 租户分区策略：决定某个用户的 chunk 写到哪个索引、用什么 routing
+ * - shared：所有用户共用 index-name，只靠 userId 过滤（原有行为）
+ * - routing：仍共用索引，但以 userId 作为 _routing，同一用户的数据落在同一分片，检索只访问该分片
+ * - dedicated-users 中的大租户无论哪种模式都使用独立索引，通过别名 {index-name}-tenant-{userId} 访问
+ */
+@Component
+public class TenantIndexRouter {
+
+    enum Mode { SHARED, ROUTING }
+
+    private final String baseIndex;
+    private final Mode mode;
+    private final Set<String> dedicatedUsers;
+
+    TenantIndexRouter(
+            @Value("${spring.ai.vectorstore.elasticsearch.index-name}") String baseIndex,
+            @Value("${rag.tenancy.mode:shared}") String mode,
+            @Value("${rag.tenancy.dedicated-users:}") Set<String> dedicatedUsers) {
+        this.baseIndex = baseIndex;
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.dedicatedUsers = dedicatedUsers;
+    }
+
+    public String baseIndex() {
+        return baseIndex;
+    }
+
+    /**
+     * 是否需要绕过 Spring AI 的 VectorStore.add 直接写 Elasticsearch（它不支持 routing 与多索引）
+     */
+    public boolean isPartitioned(String userId) {
+        return userId != null && (mode == Mode.ROUTING || isDedicated(userId));
+    }
+
+    public boolean isPartitioningEnabled() {
+        return mode == Mode.ROUTING || !dedicatedUsers.isEmpty();
+    }
+
+    public boolean isDedicated(String userId) {
+        return userId != null && dedicatedUsers.contains(userId);
+    }
+
+    /**
+     * 该用户读写使用的索引（独立租户为别名）
+     */
+    public String indexFor(String userId) {
+        return isDedicated(userId) ? dedicatedAlias(userId) : baseIndex;
+    }
+
+    /**
+     * 该用户读写使用的 routing，null 表示按文档 id 默认分布
+     */
+    public String routingFor(String userId) {
+        return mode == Mode.ROUTING && userId != null && !isDedicated(userId) ? userId : null;
+    }
+
+    public String dedicatedAlias(String userId) {
+        return baseIndex + "-tenant-" + userId.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_-]", "_");
+    }
+
+    /**
+     * 覆盖所有分区的索引表达式，用于按 id 删除和全量扫描
+     */
+    public List<String> allIndices() {
+        return List.of(baseIndex, baseIndex + "-tenant-*");
+    }
+}
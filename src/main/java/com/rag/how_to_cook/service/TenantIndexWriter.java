@@ -0,0 +1,133 @@
+package com.rag.how_to_cook.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分区模式下直接写 Elasticsearch：带 routing 或写入租户独立索引
+ * 文档结构与 Spring AI ElasticsearchVectorStore 一致（id / content / metadata / embedding），两条写入路径可以混用
+ */
+@Component
+public class TenantIndexWriter {
+    private static final Logger log = LoggerFactory.getLogger(TenantIndexWriter.class);
+
+    private final VectorStore vectorStore;
+    private final EmbeddingModel embeddingModel;
+    private final TenantIndexRouter router;
+    private final Set<String> ensuredAliases = ConcurrentHashMap.newKeySet();
+
+    TenantIndexWriter(VectorStore vectorStore, EmbeddingModel embeddingModel, TenantIndexRouter router) {
+        this.vectorStore = vectorStore;
+        this.embeddingModel = embeddingModel;
+        this.router = router;
+    }
+
+    /**
+     * 仅当向量库是 Elasticsearch 且配置了分区时生效
+     */
+    public boolean isActive() {
+        return router.isPartitioningEnabled() && client().isPresent();
+    }
+
+    public void write(String userId, List<Document> chunks) {
+        if (chunks.isEmpty()) return;
+        ElasticsearchClient client = client().orElseThrow();
+        try {
+            if (router.isDedicated(userId)) ensureDedicatedIndex(userId);
+            String index = router.indexFor(userId);
+            String routing = router.routingFor(userId);
+
+            List<float[]> embeddings = embeddingModel.embed(chunks.stream().map(Document::getText).toList());
+            BulkRequest.Builder bulk = new BulkRequest.Builder();
+            for (int i = 0; i < chunks.size(); i++) {
+                Document chunk = chunks.get(i);
+                Map<String, Object> source = new LinkedHashMap<>();
+                source.put("id", chunk.getId());
+                source.put("content", chunk.getText());
+                source.put("metadata", chunk.getMetadata());
+                source.put("embedding", embeddings.get(i));
+                bulk.operations(op -> op.index(idx -> idx
+                        .index(index)
+                        .id(chunk.getId())
+                        .routing(routing)
+                        .document(source)));
+            }
+            checkErrors(client.bulk(bulk.build()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入租户索引失败", e);
+        }
+    }
+
+    /**
+     * 按 id 删除：不知道 chunk 属于哪个分区，对所有分区执行 delete_by_query
+     */
+    public void delete(List<String> chunkIds) {
+        if (chunkIds.isEmpty()) return;
+        try {
+            long deleted = client().orElseThrow().deleteByQuery(d -> d
+                    .index(router.allIndices())
+                    .query(q -> q.ids(ids -> ids.values(chunkIds)))
+                    .ignoreUnavailable(true)
+                    .allowNoIndices(true)
+                    .refresh(true)).deleted();
+            log.info("租户分区中删除 {} 个 chunk", deleted);
+        } catch (IOException e) {
+            throw new UncheckedIOException("删除租户索引中的 chunk 失败", e);
+        }
+    }
+
+    /**
+     * 为独立租户创建 {alias}-v1 索引（复制共享索引的 mapping）并挂上别名，已存在则跳过
+     */
+    public void ensureDedicatedIndex(String userId) throws IOException {
+        String alias = router.dedicatedAlias(userId);
+        if (ensuredAliases.contains(alias)) return;
+
+        ElasticsearchClient client = client().orElseThrow();
+        if (!client.indices().existsAlias(e -> e.name(alias)).value()) {
+            String base = router.baseIndex();
+            TypeMapping mapping = mappingOf(client, base);
+            client.indices().create(c -> c
+                    .index(alias + "-v1")
+                    .mappings(mapping)
+                    .aliases(alias, a -> a.isWriteIndex(true)));
+            log.info("已为用户 {} 创建独立索引 {}-v1，别名 {}", userId, alias, alias);
+        }
+        ensuredAliases.add(alias);
+    }
+
+    Optional<ElasticsearchClient> client() {
+        return vectorStore.<ElasticsearchClient>getNativeClient()
+                .filter(ElasticsearchClient.class::isInstance);
+    }
+
+    /**
+     * 索引或别名当前的 mapping（别名时返回其指向的索引的 mapping）
+     */
+    static TypeMapping mappingOf(ElasticsearchClient client, String index) throws IOException {
+        return client.indices().getMapping(g -> g.index(index)).result().values().iterator().next().mappings();
+    }
+
+    static void checkErrors(BulkResponse response) {
+        if (!response.errors()) return;
+        List<String> reasons = new ArrayList<>();
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() != null) reasons.add(item.id() + ": " + item.error().reason());
+        }
+        throw new IllegalStateException("批量写入租户索引失败: " + reasons);
+    }
+}
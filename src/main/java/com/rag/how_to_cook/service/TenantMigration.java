@@ -0,0 +1,108 @@
+package com.rag.how_to_cook.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.ReindexResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 租户重新分区工具，启动时执行一次：
+ * - rag.tenancy.migrate=dedicated:{userId}  把该用户的 chunk 从共享索引 reindex 到独立索引，再从共享索引删除
+ *   （需同时把该用户加入 rag.tenancy.dedicated-users）
+ * - rag.tenancy.migrate=routing:{targetIndex}  以 metadata.userId 作为 _routing，把共享索引整体 reindex 到新索引，
+ *   完成后将 spring.ai.vectorstore.elasticsearch.index-name 指向新索引并设置 rag.tenancy.mode=routing
+ */
+@Component
+@ConditionalOnProperty(name = "rag.tenancy.migrate")
+public class TenantMigration implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(TenantMigration.class);
+
+    private final TenantIndexRouter router;
+    private final TenantIndexWriter writer;
+    private final String task;
+
+    TenantMigration(TenantIndexRouter router, TenantIndexWriter writer,
+                    @Value("${rag.tenancy.migrate}") String task) {
+        this.router = router;
+        this.writer = writer;
+        this.task = task;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        ElasticsearchClient client = writer.client()
+                .orElseThrow(() -> new IllegalStateException("租户迁移只支持 Elasticsearch 向量库"));
+
+        int sep = task.indexOf(':');
+        if (sep <= 0 || sep == task.length() - 1) {
+            throw new IllegalArgumentException("rag.tenancy.migrate 格式应为 dedicated:{userId} 或 routing:{targetIndex}");
+        }
+        String kind = task.substring(0, sep);
+        String target = task.substring(sep + 1);
+
+        switch (kind) {
+            case "dedicated" -> migrateToDedicated(client, target);
+            case "routing" -> migrateToRouting(client, target);
+            default -> throw new IllegalArgumentException("未知的迁移类型: " + kind);
+        }
+    }
+
+    private void migrateToDedicated(ElasticsearchClient client, String userId) throws IOException {
+        if (!router.isDedicated(userId)) {
+            log.warn("用户 {} 不在 rag.tenancy.dedicated-users 中，迁移后检索不会访问其独立索引", userId);
+        }
+        writer.ensureDedicatedIndex(userId);
+        String alias = router.dedicatedAlias(userId);
+        Query ofUser = Query.of(q -> q.term(t -> t.field("metadata.userId.keyword").value(userId)));
+
+        ReindexResponse response = client.reindex(r -> r
+                .source(s -> s.index(router.baseIndex()).query(ofUser))
+                .dest(d -> d.index(alias))
+                .waitForCompletion(true)
+                .refresh(true));
+        checkFailures(response);
+        log.info("用户 {} 的 {} 个 chunk 已复制到 {}", userId, response.total(), alias);
+
+        long deleted = client.deleteByQuery(d -> d
+                .index(router.baseIndex())
+                .query(ofUser)
+                .refresh(true)).deleted();
+        log.info("已从共享索引删除用户 {} 的 {} 个 chunk", userId, deleted);
+    }
+
+    private void migrateToRouting(ElasticsearchClient client, String targetIndex) throws IOException {
+        String base = router.baseIndex();
+        if (base.equals(targetIndex)) {
+            throw new IllegalArgumentException("目标索引不能与当前索引相同");
+        }
+        if (!client.indices().exists(e -> e.index(targetIndex)).value()) {
+            TypeMapping mapping = TenantIndexWriter.mappingOf(client, base);
+            client.indices().create(c -> c.index(targetIndex).mappings(mapping));
+        }
+
+        ReindexResponse response = client.reindex(r -> r
+                .source(s -> s.index(base))
+                .dest(d -> d.index(targetIndex))
+                .script(s -> s.source("ctx._routing = ctx._source.metadata.userId"))
+                .waitForCompletion(true)
+                .refresh(true));
+        checkFailures(response);
+        log.info("已按 userId routing 将 {} 个 chunk 从 {} 复制到 {}，请切换 index-name 并设置 rag.tenancy.mode=routing",
+                response.total(), base, targetIndex);
+    }
+
+    private static void checkFailures(ReindexResponse response) {
+        if (response.failures() != null && !response.failures().isEmpty()) {
+            throw new IllegalStateException("reindex 失败: " + response.failures().getFirst().cause().reason());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 元数据倒排索引：每个字段取值对应一个 Roaring 压缩位图，位图中存文档（或 chunk）的序号
+ * - 同一字段内多个取值为 OR，不同字段之间为 AND，空取值列表表示不限制该字段
+ * - 用于向量打分前预筛候选，以及按字段统计各取值的文档数（facet counts）
+ * 序号由调用方分配（HNSW 向量库用向量序号，菜谱级别用 RecipeFacets 分配的序号）
+ */
+public class FacetIndex {
+    private final Set<String> fields;
+    private final Map<String, Map<String, RoaringBitmap>> bitmaps = new HashMap<>();
+    private final RoaringBitmap all = new RoaringBitmap();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public FacetIndex(Collection<String> fields) {
+        this.fields = Set.copyOf(fields);
+        for (String field : fields) bitmaps.put(field, new HashMap<>());
+    }
+
+    public Set<String> fields() {
+        return fields;
+    }
+
+    public void add(int ord, Map<String, Object> metadata) {
+        lock.writeLock().lock();
+        try {
+            all.add(ord);
+            for (String field : fields) {
+                Object value = metadata.get(field);
+                if (value == null) continue;
+                bitmaps.get(field).computeIfAbsent(value.toString(), k -> new RoaringBitmap()).add(ord);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按写入时的 metadata 清除序号，取值位图清空后一并移除
+     */
+    public void remove(int ord, Map<String, Object> metadata) {
+        lock.writeLock().lock();
+        try {
+            all.remove(ord);
+            for (String field : fields) {
+                Object value = metadata.get(field);
+                if (value == null) continue;
+                Map<String, RoaringBitmap> values = bitmaps.get(field);
+                RoaringBitmap bitmap = values.get(value.toString());
+                if (bitmap == null) continue;
+                bitmap.remove(ord);
+                if (bitmap.isEmpty()) values.remove(value.toString());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param conditions 字段 -> 允许的取值；字段必须是建索引时声明的字段
+     * @return 满足条件的序号（新位图，调用方可以自由修改）
+     */
+    public RoaringBitmap select(Map<String, ? extends Collection<String>> conditions) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = all.clone();
+            for (Map.Entry<String, ? extends Collection<String>> condition : conditions.entrySet()) {
+                if (condition.getValue() == null || condition.getValue().isEmpty()) continue;
+                Map<String, RoaringBitmap> values = bitmaps.get(condition.getKey());
+                if (values == null) throw new IllegalArgumentException("字段没有建立索引: " + condition.getKey());
+
+                List<RoaringBitmap> matched = new ArrayList<>(condition.getValue().size());
+                for (String value : condition.getValue()) {
+                    RoaringBitmap bitmap = values.get(value);
+                    if (bitmap != null) matched.add(bitmap);
+                }
+                if (matched.isEmpty()) return new RoaringBitmap();
+                result.and(matched.size() == 1 ? matched.getFirst() : FastAggregation.or(matched.iterator()));
+                if (result.isEmpty()) return result;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int count(Map<String, ? extends Collection<String>> conditions) {
+        return select(conditions).getCardinality();
+    }
+
+    /**
+     * 统计 within 中每个字段各取值的数量，数量为 0 的取值不返回；取值按数量从多到少排列
+     */
+    public Map<String, Map<String, Integer>> counts(RoaringBitmap within, Collection<String> countFields) {
+        lock.readLock().lock();
+        try {
+            Map<String, Map<String, Integer>> result = new LinkedHashMap<>();
+            for (String field : countFields) {
+                Map<String, RoaringBitmap> values = bitmaps.get(field);
+                if (values == null) throw new IllegalArgumentException("字段没有建立索引: " + field);
+                List<Map.Entry<String, Integer>> counted = new ArrayList<>();
+                for (Map.Entry<String, RoaringBitmap> value : values.entrySet()) {
+                    int count = RoaringBitmap.andCardinality(value.getValue(), within);
+                    if (count > 0) counted.add(Map.entry(value.getKey(), count));
+                }
+                counted.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+                Map<String, Integer> fieldCounts = new LinkedHashMap<>();
+                counted.forEach(entry -> fieldCounts.put(entry.getKey(), entry.getValue()));
+                result.put(field, fieldCounts);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return all.getCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
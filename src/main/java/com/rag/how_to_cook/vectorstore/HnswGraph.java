@@ -0,0 +1,302 @@
+package com.rag.how_to_cook.vectorstore;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW 图（Malkov & Yashunin）
+ * 节点即向量序号，分数为相似度（越大越近）；邻居表用 int 数组，下标 0 存放邻居个数。
+ * 本类不做同步，由 HnswVectorStore 的读写锁保证：插入互斥，检索可并发。
+ */
+final class HnswGraph {
+
+    /**
+     * 相似度计算，由向量存储实现（float32 或量化编码）
+     */
+    interface Scorer {
+        float score(float[] query, int ord);
+
+        float score(int a, int b);
+    }
+
+    private final Scorer scorer;
+    private final int m;
+    private final int maxConn0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    // graph[ord][level] = {size, n1, n2, ...}
+    private int[][][] graph = new int[1024][][];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int nodeCount = 0;
+
+    HnswGraph(Scorer scorer, int m, int efConstruction) {
+        this.scorer = scorer;
+        this.m = m;
+        this.maxConn0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    int size() {
+        return nodeCount;
+    }
+
+    void insert(int ord, float[] vector) {
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        if (ord >= graph.length) {
+            graph = Arrays.copyOf(graph, Math.max(graph.length * 2, ord + 1));
+        }
+        int[][] levels = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            levels[l] = new int[1 + maxConn(l)];
+        }
+        graph[ord] = levels;
+        nodeCount++;
+
+        if (entryPoint < 0) {
+            entryPoint = ord;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            LongHeap candidates = searchLayer(vector, current, efConstruction, l, null);
+            int[] sorted = candidates.ordsDescending();
+            int[] selected = selectNeighbors(sorted, maxConn(l), vector);
+
+            int[] own = graph[ord][l];
+            for (int neighbor : selected) {
+                own[++own[0]] = neighbor;
+                link(neighbor, ord, l);
+            }
+            current = sorted[0];
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = ord;
+        }
+    }
+
+    /**
+     * 检索 top k。accept 为 null 表示不过滤；不满足 accept 的节点只用于导航，不进入结果
+     */
+    int[] search(float[] query, int k, int ef, IntPredicate accept) {
+        if (entryPoint < 0) return new int[0];
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(query, current, l);
+        }
+        LongHeap results = searchLayer(query, current, Math.max(ef, k), 0, accept);
+        while (results.size() > k) results.poll();
+        return results.ordsDescending();
+    }
+
+    // ==========================================
+    // 内部实现
+    // ==========================================
+
+    private int maxConn(int level) {
+        return level == 0 ? maxConn0 : m;
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = scorer.score(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = neighbors(current, level);
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float s = scorer.score(query, neighbors[i]);
+                if (s > best) {
+                    best = s;
+                    current = neighbors[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private LongHeap searchLayer(float[] query, int entry, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(graph.length);
+        LongHeap candidates = new LongHeap(ef * 2, true);  // 最大堆：下一步扩展谁
+        LongHeap results = new LongHeap(ef + 1, false);    // 最小堆：当前最好的 ef 个
+
+        float entryScore = scorer.score(query, entry);
+        visited.set(entry);
+        candidates.push(LongHeap.pack(entryScore, entry));
+        if (accept == null || accept.test(entry)) {
+            results.push(LongHeap.pack(entryScore, entry));
+        }
+
+        while (candidates.size() > 0) {
+            long top = candidates.poll();
+            float topScore = LongHeap.score(top);
+            if (results.size() >= ef && topScore < LongHeap.score(results.peek())) {
+                break;
+            }
+            int[] neighbors = neighbors(LongHeap.ord(top), level);
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int n = neighbors[i];
+                if (visited.get(n)) continue;
+                visited.set(n);
+                float s = scorer.score(query, n);
+                if (results.size() < ef || s > LongHeap.score(results.peek())) {
+                    candidates.push(LongHeap.pack(s, n));
+                    if (accept == null || accept.test(n)) {
+                        results.push(LongHeap.pack(s, n));
+                        if (results.size() > ef) results.poll();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选邻居：候选只有在比已选邻居更靠近查询点时才保留，使邻居分布更分散，提升图的连通性
+     */
+    private int[] selectNeighbors(int[] candidatesDesc, int max, float[] base) {
+        int[] selected = new int[Math.min(max, candidatesDesc.length)];
+        int count = 0;
+        for (int c : candidatesDesc) {
+            if (count >= max) break;
+            float toBase = scorer.score(base, c);
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (scorer.score(c, selected[j]) > toBase) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) selected[count++] = c;
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void link(int node, int newNeighbor, int level) {
+        int[] list = graph[node][level];
+        int max = maxConn(level);
+        if (list[0] < max) {
+            list[++list[0]] = newNeighbor;
+            return;
+        }
+        // 邻居已满：在原有邻居 + 新节点中按到 node 的相似度重新挑选
+        LongHeap heap = new LongHeap(max + 1, true);
+        for (int i = 1; i <= list[0]; i++) {
+            heap.push(LongHeap.pack(scorer.score(node, list[i]), list[i]));
+        }
+        heap.push(LongHeap.pack(scorer.score(node, newNeighbor), newNeighbor));
+        int[] candidates = new int[heap.size()];
+        for (int i = 0; i < candidates.length; i++) candidates[i] = LongHeap.ord(heap.poll());
+
+        int count = 0;
+        for (int c : candidates) {
+            if (count >= max) break;
+            float toNode = scorer.score(node, c);
+            boolean diverse = true;
+            for (int j = 1; j <= count; j++) {
+                if (scorer.score(c, list[j]) > toNode) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) list[++count] = c;
+        }
+        list[0] = count;
+    }
+
+    private int[] neighbors(int ord, int level) {
+        return graph[ord][level];
+    }
+
+    /**
+     * (分数, 序号) 打包成 long 的二叉堆，避免装箱
+     * 分数转换为保序的 int 放在高 32 位，所以直接比较 long 即按分数排序
+     */
+    static final class LongHeap {
+        private long[] heap;
+        private int size;
+        private final boolean max;
+
+        LongHeap(int capacity, boolean max) {
+            this.heap = new long[Math.max(capacity, 4)];
+            this.max = max;
+        }
+
+        static long pack(float score, int ord) {
+            int bits = Float.floatToIntBits(score);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            return ((long) bits << 32) | (ord & 0xffffffffL);
+        }
+
+        static float score(long packed) {
+            int bits = (int) (packed >> 32);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            return Float.intBitsToFloat(bits);
+        }
+
+        static int ord(long packed) {
+            return (int) packed;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long peek() {
+            return heap[0];
+        }
+
+        void push(long value) {
+            if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+            int i = size++;
+            heap[i] = value;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(heap[i], heap[parent])) break;
+                long tmp = heap[i]; heap[i] = heap[parent]; heap[parent] = tmp;
+                i = parent;
+            }
+        }
+
+        long poll() {
+            long top = heap[0];
+            heap[0] = heap[--size];
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) break;
+                int child = left + 1 < size && before(heap[left + 1], heap[left]) ? left + 1 : left;
+                if (!before(heap[child], heap[i])) break;
+                long tmp = heap[i]; heap[i] = heap[child]; heap[child] = tmp;
+                i = child;
+            }
+            return top;
+        }
+
+        int[] ordsDescending() {
+            long[] copy = Arrays.copyOf(heap, size);
+            Arrays.sort(copy);
+            int[] ords = new int[size];
+            for (int i = 0; i < size; i++) ords[i] = ord(copy[size - 1 - i]);
+            return ords;
+        }
+
+        private boolean before(long a, long b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
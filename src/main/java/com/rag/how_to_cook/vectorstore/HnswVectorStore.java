@@ -0,0 +1,527 @@
+package com.rag.how_to_cook.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * 进程内的 HNSW 向量库，可通过 spring.ai.vectorstore.type=hnsw 替换 Elasticsearch
+ * - 向量：vectors.bin，内存映射，写入前做 L2 归一化，点积即余弦相似度
+ * - 文本与 metadata：docs.jsonl，追加写的日志（add / delete），启动时回放
+ * - 图结构：启动时由存活向量重建，不单独持久化
+ * - 压缩：已删除 / 被覆盖的向量超过总数三分之一（且不少于 COMPACT_MIN_DELETED 个）时，把存活向量与文档重写成新的
+ *   vectors.bin / docs.jsonl 并重建图，回收磁盘与内存；重写完成后先替换日志（提交点）再替换向量文件，启动时按残留文件补完或丢弃
+ * - 分数与 Elasticsearch 的 cosine 一致：(1 + cos) / 2，落在 [0, 1]
+ * - 量化（可选）：int8 编码上建图检索，或 binary 编码全量汉明扫描，得到候选后再用 float32 精排
+ * - 元数据倒排（FacetIndex）：userId / category / difficulty / dishName 的 EQ、IN 过滤先求出候选位图，
+ *   候选较少时直接精确打分，不走图遍历
+ */
+public class HnswVectorStore implements VectorStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStore.class);
+    private static final List<String> FACET_FIELDS = List.of("userId", "category", "difficulty", "dishName");
+    // 候选不超过该数量时逐个精确打分，比带过滤的图遍历更快且召回完整
+    private static final int EXACT_SCAN_LIMIT = 2048;
+    private static final int COMPACT_MIN_DELETED = 1024;
+    private static final String VECTORS_FILE = "vectors.bin";
+    private static final String JOURNAL_FILE = "docs.jsonl";
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private final EmbeddingModel embeddingModel;
+    private final Path directory;
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final String quantization;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final int efSearch;
+    private final int rerankCandidates;
+
+    // 以下字段在压缩时整体替换，读写都在 lock 内
+    private MappedVectorFile vectors;
+    private HnswGraph graph;
+    private QuantizedVectors quantized;
+    private BufferedWriter journal;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Document> docs = new ArrayList<>();
+    private final Map<String, Integer> ordById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private FacetIndex facets = new FacetIndex(FACET_FIELDS);
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, Path directory, int dimensions,
+                           int m, int efConstruction, int efSearch) throws IOException {
+        this(embeddingModel, directory, dimensions, m, efConstruction, efSearch, "none", efSearch);
+    }
+
+    /**
+     * @param quantization     none / int8 / binary
+     * @param rerankCandidates 量化检索第一阶段保留的候选数，再用 float32 精排取 top k
+     */
+    public HnswVectorStore(EmbeddingModel embeddingModel, Path directory, int dimensions,
+                           int m, int efConstruction, int efSearch,
+                           String quantization, int rerankCandidates) throws IOException {
+        this.embeddingModel = embeddingModel;
+        this.directory = directory;
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.quantization = quantization.toLowerCase(Locale.ROOT);
+        this.efSearch = efSearch;
+        this.rerankCandidates = rerankCandidates;
+        if (!List.of("none", "int8", "binary").contains(this.quantization)) {
+            throw new IllegalArgumentException("不支持的量化方式: " + quantization);
+        }
+
+        Files.createDirectories(directory);
+        recoverCompaction();
+        this.vectors = MappedVectorFile.open(directory.resolve(VECTORS_FILE), dimensions);
+
+        Path journalPath = directory.resolve(JOURNAL_FILE);
+        replayJournal(journalPath);
+        this.journal = openJournal();
+
+        long start = System.nanoTime();
+        buildIndexes();
+        log.info("HNSW 向量库加载完成：{} 个向量，量化方式 {}，耗时 {} ms",
+                ordById.size(), quantized == null ? "none" : quantized.encoding(),
+                (System.nanoTime() - start) / 1_000_000);
+        if (needsCompaction()) compact();
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) return;
+        List<float[]> embeddings = embeddingModel.embed(documents.stream().map(Document::getText).toList());
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                addOne(documents.get(i), normalize(embeddings.get(i)));
+            }
+            journal.flush();
+            // 同一 id 重复写入会覆盖旧向量，同样需要回收
+            if (needsCompaction()) compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入 HNSW 向量库失败", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer ord = ordById.remove(id);
+                if (ord == null) continue;
+                markDeleted(ord);
+                writeJournal(Map.of("op", "delete", "id", id));
+            }
+            journal.flush();
+            if (needsCompaction()) compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入 HNSW 删除日志失败", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        Predicate<Map<String, Object>> filter = MetadataFilter.compile(filterExpression);
+        List<String> ids = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int ord = 0; ord < docs.size(); ord++) {
+                if (isLive(ord) && filter.test(docs.get(ord).getMetadata())) ids.add(docs.get(ord).getId());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        delete(ids);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+        if (request.hasFilterExpression()) {
+            Map<String, List<String>> conditions =
+                    MetadataFilter.toFacetConditions(request.getFilterExpression(), facets.fields());
+            if (conditions != null) {
+                return search(query, request.getTopK(), request.getSimilarityThreshold(), conditions);
+            }
+        }
+        Predicate<Map<String, Object>> filter = request.hasFilterExpression()
+                ? MetadataFilter.compile(request.getFilterExpression())
+                : null;
+        return search(query, request.getTopK(), request.getSimilarityThreshold(), filter);
+    }
+
+    /**
+     * 用已归一化的查询向量检索。过滤条件很严格、图检索凑不满 k 个时退化为暴力扫描
+     * 开启量化时分两阶段：在量化编码上取 rerankCandidates 个候选，再用 float32 精排
+     */
+    List<Document> search(float[] query, int k, double threshold, Predicate<Map<String, Object>> filter) {
+        lock.readLock().lock();
+        try {
+            IntPredicate accept = filter == null
+                    ? this::isLive
+                    : ord -> isLive(ord) && filter.test(docs.get(ord).getMetadata());
+
+            int[] ords;
+            if (quantized == null) {
+                ords = graph.search(query, k, efSearch, accept);
+            } else {
+                int candidates = Math.max(k, rerankCandidates);
+                int[] coarse = graph != null
+                        ? graph.search(query, candidates, Math.max(efSearch, candidates), accept)
+                        : quantized.topByHamming(quantized.encodeQuery(query), candidates, accept);
+                ords = rerank(query, coarse, k);
+            }
+            if (ords.length < k && filter != null) {
+                ords = bruteForce(query, k, accept);
+            }
+            return toDocuments(query, ords, threshold);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 先用倒排位图求出满足条件的候选：候选少时只对这些向量精确打分，否则在图遍历中用位图判断
+     */
+    List<Document> search(float[] query, int k, double threshold, Map<String, List<String>> conditions) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap candidates = facets.select(conditions);
+            int[] ords;
+            if (candidates.getCardinality() <= EXACT_SCAN_LIMIT) {
+                HnswGraph.LongHeap heap = new HnswGraph.LongHeap(k + 1, false);
+                for (PeekableIntIterator it = candidates.getIntIterator(); it.hasNext(); ) {
+                    int ord = it.next();
+                    heap.push(HnswGraph.LongHeap.pack(vectors.dot(query, ord), ord));
+                    if (heap.size() > k) heap.poll();
+                }
+                ords = heap.ordsDescending();
+            } else {
+                IntPredicate accept = candidates::contains;
+                if (quantized == null) {
+                    ords = graph.search(query, k, efSearch, accept);
+                } else {
+                    int coarseK = Math.max(k, rerankCandidates);
+                    int[] coarse = graph != null
+                            ? graph.search(query, coarseK, Math.max(efSearch, coarseK), accept)
+                            : quantized.topByHamming(quantized.encodeQuery(query), coarseK, accept);
+                    ords = rerank(query, coarse, k);
+                }
+                if (ords.length < k) ords = bruteForce(query, k, accept);
+            }
+            return toDocuments(query, ords, threshold);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Document> toDocuments(float[] query, int[] ords, double threshold) {
+        List<Document> result = new ArrayList<>(ords.length);
+        for (int ord : ords) {
+            // 与 Elasticsearch cosine 的打分一致，阈值 0 表示不过滤
+            float score = (1 + vectors.dot(query, ord)) / 2;
+            if (score < threshold) continue;
+            Document doc = docs.get(ord);
+            Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+            metadata.put("distance", 1 - score);
+            result.add(doc.mutate().metadata(metadata).score((double) score).build());
+        }
+        return result;
+    }
+
+    /**
+     * 第二阶段：候选按 float32 精确点积重新排序
+     */
+    private int[] rerank(float[] query, int[] candidates, int k) {
+        HnswGraph.LongHeap heap = new HnswGraph.LongHeap(k + 1, false);
+        for (int ord : candidates) {
+            heap.push(HnswGraph.LongHeap.pack(vectors.dot(query, ord), ord));
+            if (heap.size() > k) heap.poll();
+        }
+        return heap.ordsDescending();
+    }
+
+    int[] bruteForce(float[] query, int k, IntPredicate accept) {
+        HnswGraph.LongHeap heap = new HnswGraph.LongHeap(k + 1, false);
+        for (int ord = 0; ord < docs.size(); ord++) {
+            if (!accept.test(ord)) continue;
+            heap.push(HnswGraph.LongHeap.pack(vectors.dot(query, ord), ord));
+            if (heap.size() > k) heap.poll();
+        }
+        return heap.ordsDescending();
+    }
+
+    /**
+     * 存活文档快照，供 BM25 等辅助索引启动时恢复
+     */
+    public List<Document> documents() {
+        lock.readLock().lock();
+        try {
+            List<Document> live = new ArrayList<>(ordById.size());
+            for (int ord = 0; ord < docs.size(); ord++) {
+                if (isLive(ord)) live.add(docs.get(ord));
+            }
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            journal.close();
+            vectors.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ==========================================
+    // 内部实现
+    // ==========================================
+
+    /**
+     * 按当前向量文件与存活文档重建量化编码和图（启动与压缩后）
+     */
+    private void buildIndexes() {
+        quantized = switch (quantization) {
+            case "int8" -> new QuantizedVectors(QuantizedVectors.Encoding.INT8, dimensions, VectorOps.create());
+            case "binary" -> new QuantizedVectors(QuantizedVectors.Encoding.BINARY, dimensions, VectorOps.create());
+            default -> null;
+        };
+        if (quantized == null) {
+            graph = new HnswGraph(new FloatScorer(vectors), m, efConstruction);
+        } else if (quantized.encoding() == QuantizedVectors.Encoding.INT8) {
+            graph = new HnswGraph(new QuantizedVectors.Int8Scorer(quantized), m, efConstruction);
+        } else {
+            // 二值编码直接全量扫描，不建图
+            graph = null;
+        }
+        for (int ord = 0; ord < vectors.size(); ord++) {
+            float[] vector = vectors.get(ord);
+            if (quantized != null) quantized.add(vector);
+            if (graph != null && isLive(ord)) graph.insert(ord, vector);
+        }
+    }
+
+    private boolean needsCompaction() {
+        int dead = vectors.size() - ordById.size();
+        return dead >= COMPACT_MIN_DELETED && dead > vectors.size() / 3;
+    }
+
+    /**
+     * 把存活的向量与文档按新序号重写，替换文件后重建内存结构（调用方持有写锁，或在构造函数中）
+     */
+    void compact() throws IOException {
+        long start = System.nanoTime();
+        int before = vectors.size();
+        Path vectorsPath = directory.resolve(VECTORS_FILE);
+        Path journalPath = directory.resolve(JOURNAL_FILE);
+        Path nextVectors = directory.resolve(VECTORS_FILE + COMPACT_SUFFIX);
+        Path nextJournal = directory.resolve(JOURNAL_FILE + COMPACT_SUFFIX);
+        Files.deleteIfExists(nextVectors);
+        Files.deleteIfExists(nextJournal);
+
+        List<Document> live = new ArrayList<>(ordById.size());
+        try (MappedVectorFile out = MappedVectorFile.open(nextVectors, dimensions);
+             BufferedWriter writer = Files.newBufferedWriter(nextJournal, StandardCharsets.UTF_8)) {
+            for (int ord = 0; ord < docs.size(); ord++) {
+                if (!isLive(ord)) continue;
+                Document doc = docs.get(ord);
+                int newOrd = out.append(vectors.get(ord));
+                writer.write(objectMapper.writeValueAsString(addEntry(newOrd, doc)));
+                writer.newLine();
+                live.add(doc);
+            }
+        } catch (IOException | RuntimeException e) {
+            // 提交前失败：旧文件不受影响，继续使用
+            Files.deleteIfExists(nextVectors);
+            Files.deleteIfExists(nextJournal);
+            log.error("HNSW 向量库压缩失败，继续使用原文件", e);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(nextJournal, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        journal.close();
+        vectors.close();
+        // 日志替换即提交；之后崩溃时启动会补完向量文件的替换
+        Files.move(nextJournal, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(nextVectors, vectorsPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        vectors = MappedVectorFile.open(vectorsPath, dimensions);
+        journal = openJournal();
+        docs.clear();
+        ordById.clear();
+        deleted.clear();
+        facets = new FacetIndex(FACET_FIELDS);
+        for (int ord = 0; ord < live.size(); ord++) {
+            setDoc(ord, live.get(ord));
+            ordById.put(live.get(ord).getId(), ord);
+        }
+        buildIndexes();
+        log.info("HNSW 向量库压缩完成：{} -> {} 个向量，耗时 {} ms",
+                before, vectors.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * 处理上次压缩中断留下的文件：日志已替换（只剩向量文件）则补完替换，否则两者都丢弃
+     */
+    private void recoverCompaction() throws IOException {
+        Path nextVectors = directory.resolve(VECTORS_FILE + COMPACT_SUFFIX);
+        Path nextJournal = directory.resolve(JOURNAL_FILE + COMPACT_SUFFIX);
+        if (Files.exists(nextVectors) && !Files.exists(nextJournal)) {
+            Files.move(nextVectors, directory.resolve(VECTORS_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.warn("已补完上次中断的 HNSW 向量库压缩");
+        } else {
+            Files.deleteIfExists(nextVectors);
+            Files.deleteIfExists(nextJournal);
+        }
+    }
+
+    private BufferedWriter openJournal() throws IOException {
+        return Files.newBufferedWriter(directory.resolve(JOURNAL_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static Map<String, Object> addEntry(int ord, Document doc) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("op", "add");
+        entry.put("ord", ord);
+        entry.put("id", doc.getId());
+        entry.put("text", doc.getText());
+        entry.put("metadata", doc.getMetadata());
+        return entry;
+    }
+
+    private void addOne(Document doc, float[] vector) throws IOException {
+        Integer existing = ordById.get(doc.getId());
+        if (existing != null) {
+            markDeleted(existing);
+        }
+        int ord = vectors.append(vector);
+        if (quantized != null) quantized.add(vector);
+        setDoc(ord, doc);
+        ordById.put(doc.getId(), ord);
+        if (graph != null) graph.insert(ord, vector);
+        writeJournal(addEntry(ord, doc));
+    }
+
+    private void replayJournal(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                Map<String, Object> entry = objectMapper.readValue(line, new TypeReference<>() {});
+                String id = entry.get("id").toString();
+                if ("add".equals(entry.get("op"))) {
+                    int ord = ((Number) entry.get("ord")).intValue();
+                    if (ord >= vectors.size()) {
+                        log.warn("日志中的向量序号 {} 超出向量文件范围，忽略", ord);
+                        continue;
+                    }
+                    Integer previous = ordById.put(id, ord);
+                    if (previous != null) markDeleted(previous);
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> metadata = (Map<String, Object>) entry.getOrDefault("metadata", Map.of());
+                    setDoc(ord, Document.builder()
+                            .id(id)
+                            .text((String) entry.get("text"))
+                            .metadata(metadata)
+                            .build());
+                } else {
+                    Integer ord = ordById.remove(id);
+                    if (ord != null) markDeleted(ord);
+                }
+            }
+        }
+    }
+
+    private void writeJournal(Map<String, Object> entry) throws IOException {
+        journal.write(objectMapper.writeValueAsString(entry));
+        journal.newLine();
+    }
+
+    private void setDoc(int ord, Document doc) {
+        while (docs.size() <= ord) docs.add(null);
+        docs.set(ord, doc);
+        facets.add(ord, doc.getMetadata());
+    }
+
+    private void markDeleted(int ord) {
+        if (deleted.get(ord)) return;
+        deleted.set(ord);
+        if (ord < docs.size() && docs.get(ord) != null) facets.remove(ord, docs.get(ord).getMetadata());
+    }
+
+    private boolean isLive(int ord) {
+        return ord < docs.size() && docs.get(ord) != null && !deleted.get(ord);
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        norm = Math.sqrt(norm);
+        if (norm == 0) return vector;
+        float[] out = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) out[i] = (float) (vector[i] / norm);
+        return out;
+    }
+
+    /**
+     * 直接在映射文件上计算 float32 点积
+     */
+    record FloatScorer(MappedVectorFile vectors) implements HnswGraph.Scorer {
+        @Override
+        public float score(float[] query, int ord) {
+            return vectors.dot(query, ord);
+        }
+
+        @Override
+        public float score(int a, int b) {
+            return vectors.dot(a, b);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.rag.how_to_cook.vectorstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 内存映射的定长 float32 向量文件
+ * 布局：[magic:int][dim:int][count:int][reserved:int] 之后按序号连续存放向量（小端）
+ * 单个映射上限 2GB，512 维下约 100 万个向量，足够单节点的菜谱语料
+ */
+final class MappedVectorFile implements Closeable {
+    private static final int MAGIC = 0x48565346; // "HVSF"
+    private static final int HEADER_BYTES = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final FileChannel channel;
+    private final int dim;
+    private final int vectorBytes;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+
+    private MappedVectorFile(FileChannel channel, int dim, int count, int capacity) throws IOException {
+        this.channel = channel;
+        this.dim = dim;
+        this.vectorBytes = dim * Float.BYTES;
+        this.count = count;
+        remap(capacity);
+    }
+
+    static MappedVectorFile open(Path path, int dim) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int vectorBytes = dim * Float.BYTES;
+
+        if (channel.size() < HEADER_BYTES) {
+            MappedVectorFile file = new MappedVectorFile(channel, dim, 0, INITIAL_CAPACITY);
+            file.buffer.putInt(0, MAGIC);
+            file.buffer.putInt(4, dim);
+            file.buffer.putInt(8, 0);
+            return file;
+        }
+
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("不是向量文件: " + path);
+        }
+        if (header.getInt(4) != dim) {
+            throw new IOException("向量维度不一致: 文件为 " + header.getInt(4) + "，配置为 " + dim);
+        }
+        int count = header.getInt(8);
+        int capacity = (int) Math.max(INITIAL_CAPACITY, (channel.size() - HEADER_BYTES) / vectorBytes);
+        return new MappedVectorFile(channel, dim, count, capacity);
+    }
+
+    int dim() {
+        return dim;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * 追加一个向量，返回它的序号
+     */
+    int append(float[] vector) throws IOException {
+        if (vector.length != dim) {
+            throw new IllegalArgumentException("向量维度应为 " + dim + "，实际为 " + vector.length);
+        }
+        if (count == capacity) {
+            long next = Math.min((long) capacity * 2, (Integer.MAX_VALUE - HEADER_BYTES) / vectorBytes);
+            if (next <= capacity) throw new IOException("向量文件已达到单映射上限");
+            remap((int) next);
+        }
+        int base = offset(count);
+        for (int i = 0; i < dim; i++) {
+            buffer.putFloat(base + i * Float.BYTES, vector[i]);
+        }
+        count++;
+        buffer.putInt(8, count);
+        return count - 1;
+    }
+
+    float[] get(int ord) {
+        float[] v = new float[dim];
+        int base = offset(ord);
+        for (int i = 0; i < dim; i++) {
+            v[i] = buffer.getFloat(base + i * Float.BYTES);
+        }
+        return v;
+    }
+
+    float dot(float[] query, int ord) {
+        int base = offset(ord);
+        float sum = 0f;
+        for (int i = 0; i < dim; i++) {
+            sum += query[i] * buffer.getFloat(base + i * Float.BYTES);
+        }
+        return sum;
+    }
+
+    float dot(int a, int b) {
+        int baseA = offset(a);
+        int baseB = offset(b);
+        float sum = 0f;
+        for (int i = 0; i < dim; i++) {
+            int off = i * Float.BYTES;
+            sum += buffer.getFloat(baseA + off) * buffer.getFloat(baseB + off);
+        }
+        return sum;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private int offset(int ord) {
+        return HEADER_BYTES + ord * vectorBytes;
+    }
+
+    private void remap(int newCapacity) throws IOException {
+        long bytes = HEADER_BYTES + (long) newCapacity * vectorBytes;
+        if (buffer != null) buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        capacity = newCapacity;
+    }
+}
@@ -0,0 +1,126 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * 把 Spring AI 的 Filter.Expression 编译成对 metadata 的判断
+ * 兼容 Elasticsearch 写法的 "xxx.keyword" 字段名，以便与 RetrievalOptimization 中的过滤条件通用
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {}
+
+    static Predicate<Map<String, Object>> compile(Filter.Expression expression) {
+        if (expression == null) return metadata -> true;
+
+        return switch (expression.type()) {
+            case AND -> compile(operand(expression.left())).and(compile(operand(expression.right())));
+            case OR -> compile(operand(expression.left())).or(compile(operand(expression.right())));
+            case NOT -> compile(operand(expression.left())).negate();
+            case EQ -> {
+                String key = key(expression);
+                Object value = value(expression);
+                yield metadata -> matches(metadata.get(key), value);
+            }
+            case NE -> {
+                String key = key(expression);
+                Object value = value(expression);
+                yield metadata -> !matches(metadata.get(key), value);
+            }
+            case IN -> {
+                String key = key(expression);
+                Collection<?> values = values(expression);
+                yield metadata -> values.stream().anyMatch(v -> matches(metadata.get(key), v));
+            }
+            case NIN -> {
+                String key = key(expression);
+                Collection<?> values = values(expression);
+                yield metadata -> values.stream().noneMatch(v -> matches(metadata.get(key), v));
+            }
+            case GT -> comparing(expression, c -> c > 0);
+            case GTE -> comparing(expression, c -> c >= 0);
+            case LT -> comparing(expression, c -> c < 0);
+            case LTE -> comparing(expression, c -> c <= 0);
+        };
+    }
+
+    /**
+     * 只由 AND 连接的 EQ / IN 条件、且字段都建了倒排索引时，转成 FacetIndex 的查询条件；其余情况返回 null
+     */
+    static Map<String, List<String>> toFacetConditions(Filter.Expression expression, Set<String> indexedFields) {
+        Map<String, List<String>> conditions = new HashMap<>();
+        return collectFacetConditions(expression, indexedFields, conditions) ? conditions : null;
+    }
+
+    private static boolean collectFacetConditions(Filter.Expression expression, Set<String> indexedFields,
+                                                  Map<String, List<String>> conditions) {
+        switch (expression.type()) {
+            case AND -> {
+                return collectFacetConditions(operand(expression.left()), indexedFields, conditions)
+                        && collectFacetConditions(operand(expression.right()), indexedFields, conditions);
+            }
+            case EQ, IN -> {
+                String key = key(expression);
+                // 同一字段出现两次需要求交集，交给通用的逐条判断
+                if (!indexedFields.contains(key) || conditions.containsKey(key)) return false;
+                List<String> values = new ArrayList<>();
+                for (Object value : values(expression)) {
+                    if (!(value instanceof String)) return false;
+                    values.add((String) value);
+                }
+                conditions.put(key, values);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) return group.content();
+        if (operand instanceof Filter.Expression expression) return expression;
+        throw new IllegalArgumentException("不支持的过滤操作数: " + operand);
+    }
+
+    private static String key(Filter.Expression expression) {
+        String key = ((Filter.Key) expression.left()).key();
+        if (key.startsWith("metadata.")) key = key.substring("metadata.".length());
+        if (key.endsWith(".keyword")) key = key.substring(0, key.length() - ".keyword".length());
+        return key;
+    }
+
+    private static Object value(Filter.Expression expression) {
+        return ((Filter.Value) expression.right()).value();
+    }
+
+    private static Collection<?> values(Filter.Expression expression) {
+        Object value = value(expression);
+        return value instanceof Collection<?> c ? c : List.of(value);
+    }
+
+    private static boolean matches(Object actual, Object expected) {
+        if (actual == null || expected == null) return actual == expected;
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return Double.compare(a.doubleValue(), e.doubleValue()) == 0;
+        }
+        return Objects.equals(actual.toString(), expected.toString());
+    }
+
+    private static Predicate<Map<String, Object>> comparing(Filter.Expression expression, IntPredicate test) {
+        String key = key(expression);
+        Object value = value(expression);
+        return metadata -> {
+            Object actual = metadata.get(key);
+            if (actual == null) return false;
+            if (actual instanceof Number a && value instanceof Number v) {
+                return test.test(Double.compare(a.doubleValue(), v.doubleValue()));
+            }
+            return test.test(actual.toString().compareTo(value.toString()));
+        };
+    }
+}
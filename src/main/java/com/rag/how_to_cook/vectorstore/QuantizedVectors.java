@@ -0,0 +1,121 @@
+package com.rag.how_to_cook.vectorstore;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 向量的量化副本，常驻堆内，用于第一阶段的候选筛选；最终排序仍回到 MappedVectorFile 的 float32
+ * - INT8：每个向量按自身最大绝对值缩放到 [-127, 127]，512 维占 512 + 4 字节（float32 为 2048）
+ * - BINARY：只保留符号位，512 维占 64 字节，相似度用汉明距离近似
+ * 序号与 MappedVectorFile 一一对应，已删除的向量也占位
+ */
+final class QuantizedVectors {
+
+    enum Encoding { INT8, BINARY }
+
+    private final Encoding encoding;
+    private final int dimensions;
+    private final int words;
+    private final VectorOps ops;
+
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private long[] bits = new long[0];
+    private int count;
+
+    QuantizedVectors(Encoding encoding, int dimensions, VectorOps ops) {
+        this.encoding = encoding;
+        this.dimensions = dimensions;
+        this.words = (dimensions + 63) >>> 6;
+        this.ops = ops;
+    }
+
+    Encoding encoding() {
+        return encoding;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * 每个向量的量化编码字节数
+     */
+    int bytesPerVector() {
+        return encoding == Encoding.INT8 ? dimensions + Float.BYTES : words * Long.BYTES;
+    }
+
+    int add(float[] vector) {
+        int ord = count++;
+        if (encoding == Encoding.INT8) {
+            if ((long) count * dimensions > codes.length) {
+                int capacity = Math.max(count, scales.length * 2);
+                codes = Arrays.copyOf(codes, Math.multiplyExact(capacity, dimensions));
+                scales = Arrays.copyOf(scales, capacity);
+            }
+            float maxAbs = 0f;
+            for (float v : vector) maxAbs = Math.max(maxAbs, Math.abs(v));
+            float scale = maxAbs == 0f ? 0f : maxAbs / 127f;
+            int offset = ord * dimensions;
+            for (int i = 0; i < dimensions; i++) {
+                codes[offset + i] = scale == 0f ? 0 : (byte) Math.round(vector[i] / scale);
+            }
+            scales[ord] = scale;
+        } else {
+            if ((long) count * words > bits.length) {
+                bits = Arrays.copyOf(bits, Math.multiplyExact(Math.max(count, bits.length / words * 2), words));
+            }
+            encodeBits(vector, bits, ord * words);
+        }
+        return ord;
+    }
+
+    /**
+     * 二值化查询向量，配合 topByHamming 使用
+     */
+    long[] encodeQuery(float[] query) {
+        long[] out = new long[words];
+        encodeBits(query, out, 0);
+        return out;
+    }
+
+    /**
+     * 第一阶段全量扫描：按汉明距离取最近的 n 个候选（不保证顺序）
+     */
+    int[] topByHamming(long[] query, int n, IntPredicate accept) {
+        HnswGraph.LongHeap heap = new HnswGraph.LongHeap(n + 1, false);
+        for (int ord = 0; ord < count; ord++) {
+            if (!accept.test(ord)) continue;
+            int offset = ord * words;
+            int distance = 0;
+            for (int w = 0; w < words; w++) distance += Long.bitCount(query[w] ^ bits[offset + w]);
+            // 转成"越大越近"，与其它打分保持一致
+            heap.push(HnswGraph.LongHeap.pack(-distance, ord));
+            if (heap.size() > n) heap.poll();
+        }
+        return heap.ordsDescending();
+    }
+
+    private void encodeBits(float[] vector, long[] out, int offset) {
+        for (int i = 0; i < dimensions; i++) {
+            if (vector[i] > 0) out[offset + (i >>> 6)] |= 1L << (i & 63);
+        }
+    }
+
+    /**
+     * int8 编码上的近似点积，供 HNSW 建图与检索使用
+     */
+    record Int8Scorer(QuantizedVectors quantized) implements HnswGraph.Scorer {
+        @Override
+        public float score(float[] query, int ord) {
+            QuantizedVectors q = quantized;
+            return q.ops.dot(query, q.codes, ord * q.dimensions) * q.scales[ord];
+        }
+
+        @Override
+        public float score(int a, int b) {
+            QuantizedVectors q = quantized;
+            return q.ops.dot(q.codes, a * q.dimensions, b * q.dimensions, q.dimensions) * q.scales[a] * q.scales[b];
+        }
+    }
+}
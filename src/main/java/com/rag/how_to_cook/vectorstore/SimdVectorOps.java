@@ -0,0 +1,72 @@
+package com.rag.how_to_cook.vectorstore;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 基于 Java Vector API 的实现，固定按 256 位处理：8 个 float 或 8 个 int8 一组
+ * 只应通过 VectorOps.create() 加载，避免在缺少 incubator 模块时触发类加载
+ */
+final class SimdVectorOps implements VectorOps {
+    private static final VectorSpecies<Float> FLOAT_256 = FloatVector.SPECIES_256;
+    private static final VectorSpecies<Byte> BYTE_64 = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Short> SHORT_128 = ShortVector.SPECIES_128;
+    private static final VectorSpecies<Integer> INT_256 = IntVector.SPECIES_256;
+
+    private SimdVectorOps() {}
+
+    static VectorOps createIfSupported() {
+        // 128 位硬件上 256 位向量会被拆分模拟，反而比标量慢
+        return FloatVector.SPECIES_PREFERRED.vectorBitSize() >= 256 ? new SimdVectorOps() : null;
+    }
+
+    @Override
+    public float dot(float[] a, float[] b) {
+        FloatVector acc = FloatVector.zero(FLOAT_256);
+        int i = 0;
+        int bound = FLOAT_256.loopBound(a.length);
+        for (; i < bound; i += FLOAT_256.length()) {
+            acc = FloatVector.fromArray(FLOAT_256, a, i).fma(FloatVector.fromArray(FLOAT_256, b, i), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    @Override
+    public float dot(float[] query, byte[] codes, int offset) {
+        FloatVector acc = FloatVector.zero(FLOAT_256);
+        int i = 0;
+        int bound = FLOAT_256.loopBound(query.length);
+        for (; i < bound; i += FLOAT_256.length()) {
+            FloatVector c = (FloatVector) ByteVector.fromArray(BYTE_64, codes, offset + i)
+                    .convertShape(VectorOperators.B2F, FLOAT_256, 0);
+            acc = FloatVector.fromArray(FLOAT_256, query, i).fma(c, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < query.length; i++) sum += query[i] * codes[offset + i];
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] codes, int offsetA, int offsetB, int length) {
+        IntVector acc = IntVector.zero(INT_256);
+        int i = 0;
+        int bound = BYTE_64.loopBound(length);
+        for (; i < bound; i += BYTE_64.length()) {
+            ShortVector a = (ShortVector) ByteVector.fromArray(BYTE_64, codes, offsetA + i)
+                    .convertShape(VectorOperators.B2S, SHORT_128, 0);
+            ShortVector b = (ShortVector) ByteVector.fromArray(BYTE_64, codes, offsetB + i)
+                    .convertShape(VectorOperators.B2S, SHORT_128, 0);
+            // |int8 * int8| <= 16384，short 不会溢出
+            acc = acc.add(a.mul(b).convertShape(VectorOperators.S2I, INT_256, 0));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) sum += codes[offsetA + i] * codes[offsetB + i];
+        return sum;
+    }
+}
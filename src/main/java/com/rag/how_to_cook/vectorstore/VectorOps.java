@@ -0,0 +1,60 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * 向量点积的基础运算
+ * 运行时带有 --add-modules jdk.incubator.vector 且 CPU 支持 256 位以上 SIMD 时使用 Vector API 实现，否则退回标量循环
+ */
+interface VectorOps {
+
+    float dot(float[] a, float[] b);
+
+    /**
+     * float 查询向量与 int8 编码的点积（未乘缩放系数）
+     */
+    float dot(float[] query, byte[] codes, int offset);
+
+    /**
+     * 两个 int8 编码的点积（未乘缩放系数）
+     */
+    int dot(byte[] codes, int offsetA, int offsetB, int length);
+
+    static VectorOps create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                VectorOps simd = SimdVectorOps.createIfSupported();
+                if (simd != null) {
+                    LoggerFactory.getLogger(VectorOps.class).info("向量运算使用 Vector API (SIMD)");
+                    return simd;
+                }
+            } catch (Throwable e) {
+                LoggerFactory.getLogger(VectorOps.class).warn("Vector API 不可用，使用标量实现", e);
+            }
+        }
+        return new ScalarVectorOps();
+    }
+
+    final class ScalarVectorOps implements VectorOps {
+        @Override
+        public float dot(float[] a, float[] b) {
+            float sum = 0f;
+            for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+            return sum;
+        }
+
+        @Override
+        public float dot(float[] query, byte[] codes, int offset) {
+            float sum = 0f;
+            for (int i = 0; i < query.length; i++) sum += query[i] * codes[offset + i];
+            return sum;
+        }
+
+        @Override
+        public int dot(byte[] codes, int offsetA, int offsetB, int length) {
+            int sum = 0;
+            for (int i = 0; i < length; i++) sum += codes[offsetA + i] * codes[offsetB + i];
+            return sum;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.rag.how_to_cook.web;
 
 import com.rag.how_to_cook.domain.ProcessResult;
+import com.rag.how_to_cook.service.BucketNotificationListener;
 import com.rag.how_to_cook.service.DataPreparation;
+import com.rag.how_to_cook.service.IndexConstruction;
+import com.rag.how_to_cook.service.ObjectLocks;
 import io.minio.*;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.buffer.DataBuffer;
@@ -24,7 +26,6 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 import reactor.util.function.Tuples;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
@@ -43,16 +44,22 @@ public class FileHandler {
     private final MinioClient minioClient;
     private final String bucketName;
     private final DataPreparation dataPreparation; // 负责解析文档、版本管理
-    private final VectorStore vectorStore;         // 负责存取向量 (Spring AI的核心)
+    private final IndexConstruction indexConstruction; // 负责写入向量库与稀疏索引
+    private final ObjectLocks objectLocks; // 与 bucket 通知串行处理同一对象
+    private final Scheduler blockingScheduler; // 阻塞的 MinIO / JPA 调用
 
     public FileHandler(MinioClient minioClient,
                                @Value("${minio.bucket}") String bucketName,
                                DataPreparation dataPreparation,
-                               VectorStore vectorStore) {
+                               IndexConstruction indexConstruction,
+                               ObjectLocks objectLocks,
+                               Scheduler blockingScheduler) {
         this.minioClient = minioClient;
         this.bucketName = bucketName;
         this.dataPreparation = dataPreparation;
-        this.vectorStore = vectorStore;
+        this.indexConstruction = indexConstruction;
+        this.objectLocks = objectLocks;
+        this.blockingScheduler = blockingScheduler;
     }
 
     Mono<ServerResponse> listFiles(ServerRequest request) {
@@ -65,7 +72,7 @@ public class FileHandler {
                                         .recursive(true)
                                         .build()
                         ))
-                .subscribeOn(Schedulers.boundedElastic())
+                .subscribeOn(blockingScheduler)
                 .flatMapMany(Flux::fromIterable)
                 .map(item -> {
                     try {
@@ -107,20 +114,21 @@ public class FileHandler {
                     String objectName = tuple.getT1();       // 获取文件名
                     DataBuffer dataBuffer = tuple.getT2(); // 获取数据流
 
-                    return Mono.fromCallable(() -> {
+                    return Mono.fromCallable(() -> objectLocks.withLock(objectName, () -> {
                                 InputStream inputStream = dataBuffer.asInputStream();
                                 long size = dataBuffer.readableByteCount();
                                 String contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
 
                                 // --- 业务逻辑开始 ---
 
-                                // A. 上传 MinIO
+                                // A. 上传 MinIO（带上标记，bucket 通知不再重复处理）
                                 minioClient.putObject(
                                         PutObjectArgs.builder()
                                                 .bucket(bucketName)
                                                 .object(objectName)
                                                 .stream(inputStream, size, -1)
                                                 .contentType(contentType)
+                                                .userMetadata(BucketNotificationListener.APP_UPLOAD_METADATA)
                                                 .build()
                                 );
 
@@ -133,16 +141,14 @@ public class FileHandler {
 
                                 // C. 写入向量数据库
                                 if (!newChunks.isEmpty()) {
-                                    vectorStore.add(newChunks);
+                                    indexConstruction.addChunks(newChunks);
                                     addedCount = newChunks.size();
 
-                                    // D. 处理旧版本清理
+                                    // D. 处理旧版本清理（完成后递增语料版本）
                                     List<String> idsToDelete = processResult.idsToDelete();
-                                    if (!idsToDelete.isEmpty()) {
-                                        vectorStore.delete(new ArrayList<>(idsToDelete));
-                                        deletedCount = idsToDelete.size();
-                                        idsToDelete.clear();
-                                    }
+                                    deletedCount = idsToDelete.size();
+                                    indexConstruction.deleteChunks(new ArrayList<>(idsToDelete), userId);
+                                    idsToDelete.clear();
                                 } else {
                                     return "文件上传成功，但内容未变更，无需更新知识库。";
                                 }
@@ -150,8 +156,8 @@ public class FileHandler {
                                 return String.format("处理完成：文件 '%s' 已更新。新增向量片段: %d, 删除旧片段: %d",
                                         objectName, addedCount, deletedCount);
                                 // --- 业务逻辑结束 ---
-                            })
-                            .subscribeOn(Schedulers.boundedElastic()) // 阻塞操作在独立线程池执行
+                            }))
+                            .subscribeOn(blockingScheduler) // 阻塞操作在独立线程池执行
                             // 关键点：无论处理成功还是失败，都必须释放 Netty 的堆外内存
                             .doOnTerminate(() -> DataBufferUtils.release(dataBuffer));
                 })
@@ -164,7 +170,7 @@ public class FileHandler {
     Mono<ServerResponse> deleteFile(ServerRequest request) {
         return getUserId(request).flatMap(userId -> Mono.justOrEmpty(request.queryParam("fileName"))
                 .switchIfEmpty(Mono.error(new IllegalArgumentException("参数 fileName 缺失")))
-                .flatMap(fileName -> Mono.fromCallable(() -> {
+                .flatMap(fileName -> Mono.fromCallable(() -> objectLocks.withLock(fileName, () -> {
                             try {
                                 // 前端传过来要有用户 id 前缀
                                 if (!fileName.startsWith(userId + "/") && fileName.contains("/")) {
@@ -180,16 +186,14 @@ public class FileHandler {
 
                                 var idsToDelete = dataPreparation.explicitDelete(fileName, userId);
 
-                                if (!idsToDelete.isEmpty()) {
-                                    vectorStore.delete(idsToDelete);
-                                }
+                                indexConstruction.deleteChunks(idsToDelete, userId);
 
                                 return fileName;
                             } catch (Exception e) {
                                 throw new RuntimeException(e);
                             }
-                        })
-                        .subscribeOn(Schedulers.boundedElastic()))
+                        }))
+                        .subscribeOn(blockingScheduler))
                 .flatMap(name -> ServerResponse.ok().bodyValue("删除成功: " + name))
                 .onErrorResume(e -> {
                     if (e instanceof IllegalArgumentException) {
@@ -225,7 +229,7 @@ public class FileHandler {
                                 throw new RuntimeException(e);
                             }
                         })
-                        .subscribeOn(Schedulers.boundedElastic()))
+                        .subscribeOn(blockingScheduler))
                 .flatMap(tuple -> {
                     InputStream stream = tuple.getT1();
                     String encodedFilename = tuple.getT2();
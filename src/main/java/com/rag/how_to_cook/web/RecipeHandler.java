@@ -1,15 +1,16 @@
 package com.rag.how_to_cook.web;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rag.how_to_cook.domain.*;
 import com.rag.how_to_cook.repo.ChatRepository;
 import com.rag.how_to_cook.repo.MessageRepository;
-import com.rag.how_to_cook.repo.UserRepository;
 import com.rag.how_to_cook.security.JwtService;
 import com.rag.how_to_cook.service.GenerationIntegration;
+import com.rag.how_to_cook.service.MessageWriter;
+import com.rag.how_to_cook.service.RecipeFacets;
 import com.rag.how_to_cook.service.RecipeRAGService;
 import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
@@ -17,23 +18,23 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 import java.security.Principal;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 
 @RequiredArgsConstructor
 @Component
 public class RecipeHandler {
+    private static final Logger log = LoggerFactory.getLogger(RecipeHandler.class);
     private final RecipeRAGService recipeRAGService;
     private final GenerationIntegration generationIntegration;
-    private final ObjectMapper objectMapper;
     private final ChatRepository chatRepository;
     private final MessageRepository messageRepository;
-    private final UserRepository userRepository;
+    private final MessageWriter messageWriter;
+    private final SseFrameEncoder sseFrameEncoder;
+    private final RecipeFacets recipeFacets;
+    private final Scheduler blockingScheduler;
 
 //    RecipeHandler(RecipeRAGService recipeRAGService, ObjectMapper objectMapper) {
 //        this.recipeRAGService = recipeRAGService;
@@ -45,61 +46,44 @@ public class RecipeHandler {
 
             // 第一步：获取有效的 chatId（如果是新对话则创建并保存）
             Mono<String> chatIdMono = Mono.justOrEmpty(chatRequest.chatId())
-                    .switchIfEmpty(
-                            Mono.fromCallable(() -> {
-                                User user = userRepository.findByUsername(username)
-                                        .orElseThrow(() -> new RuntimeException("用户不存在"));
-
-                                String title = generationIntegration.summariseTitle(chatRequest.prompt());
-
-                                Chat chat = new Chat();
-                                chat.setUser(user);
-                                chat.setTitle(title);
-                                return chatRepository.save(chat).getId();
-                            }).subscribeOn(Schedulers.boundedElastic())
-
-                    );
+                    .switchIfEmpty(Mono.defer(() -> {
+                        String chatId = UUID.randomUUID().toString();
+                        // 生成标题是同步 LLM 调用，仍放在阻塞 scheduler 上；写库走 R2DBC
+                        return Mono.fromCallable(() -> generationIntegration.summariseTitle(chatRequest.prompt()))
+                                .subscribeOn(blockingScheduler)
+                                .flatMap(title -> chatRepository.insertForUsername(
+                                        chatId, title, username, LocalDateTime.now()))
+                                .flatMap(inserted -> inserted == 0
+                                        ? Mono.<String>error(new RuntimeException("用户不存在"))
+                                        : Mono.just(chatId));
+                    }));
 
             // 第二步：拿到 ID 后，先存用户消息，再开启流式响应
             return chatIdMono.flatMap(chatId -> {
 
-                // 准备 Chat 引用对象（用于外键关联）
-                Chat chatRef = new Chat();
-                chatRef.setId(chatId);
-
-                // 1. 保存用户发送的消息 (阻塞操作包装成 Mono)
-                Mono<Void> saveUserMsgMono = Mono.fromRunnable(() -> {
-                    Message userMsg = new Message();
-                    userMsg.setChatId(chatRef);
-                    userMsg.setContent(chatRequest.prompt());
-                    userMsg.setRole(MessageRole.USER);
-                    userMsg.setCreatedAt(LocalDateTime.now());
-                    messageRepository.save(userMsg);
-                }).subscribeOn(Schedulers.boundedElastic()).then();
+                // 1. 保存用户发送的消息（进入 write-behind 队列，队列满时形成背压）
+                Mono<Void> saveUserMsgMono = messageWriter.enqueue(chatId, MessageRole.USER, chatRequest.prompt());
 
                 // 2. 准备流式响应逻辑
                 StringBuilder fullAnswer = new StringBuilder();
                 Flux<String> responseStream = recipeRAGService.processChatStream(chatRequest, username)
                         .doOnNext(fullAnswer::append) // 累加回答
-                        .doOnComplete(() -> {
-                            // 流结束时，异步保存 AI 的完整回复
-                            saveAssistantMessage(chatRef, fullAnswer.toString());
-                        })
-                        .map(chunk -> {
-                            // 转换为 JSON 格式
-                            Map<String, Object> data = Map.of("content", chunk, "chatId", chatId);
-                            try {
-                                return objectMapper.writeValueAsString(data);
-                            } catch (JsonProcessingException e) {
-                                return "{\"content\":\"\"}";
-                            }
-                        });
-
-                // 3. 确保先完成用户消息保存，再返回流式响应
+                        .concatWith(Mono.defer(() ->
+                                // 流结束时，把 AI 的完整回复交给 write-behind 队列
+                                messageWriter.enqueue(chatId, MessageRole.ASSISTANT, fullAnswer.toString())
+                                        .onErrorResume(e -> {
+                                            log.error("AI 回复入队失败, chatId={}", chatId, e);
+                                            return Mono.empty();
+                                        })
+                                        .then(Mono.<String>empty())));
+
+                // 3. 确保先完成用户消息保存，再返回流式响应（token 合并成帧后直接写入 DataBuffer）
                 return saveUserMsgMono.then(
                         ServerResponse.ok()
                                 .contentType(MediaType.TEXT_EVENT_STREAM)
-                                .body(responseStream, String.class)
+                                .body((message, context) -> message.writeAndFlushWith(
+                                        sseFrameEncoder.encode(responseStream, chatId, message.bufferFactory())
+                                                .map(Mono::just)))
                 );
             });
         }));
@@ -107,18 +91,14 @@ public class RecipeHandler {
 
     public Mono<ServerResponse> getChatList(ServerRequest request) {
         return getUserId(request).flatMap(username ->
-                Mono.fromCallable(() -> {
-                            // 1. 调用你改好的查询方法
-                            List<Chat> chats = chatRepository.findByUser_UsernameOrderByCreatedAtDesc(username);
-
-                            // 2. 转换为只包含必要字段的 Map 列表，避开 user 代理对象
-                            return chats.stream().map(chat -> Map.of(
-                                    "id", chat.getId(),
-                                    "title", chat.getTitle() == null ? "新对话" : chat.getTitle(),
-                                    "createdAt", chat.getCreatedAt() != null ? chat.getCreatedAt().toString() : ""
-                            )).toList();
-                        })
-                        .subscribeOn(Schedulers.boundedElastic())
+                chatRepository.findByUsernameOrderByCreatedAtDesc(username)
+                        // 只返回必要字段
+                        .map(chat -> Map.of(
+                                "id", chat.id(),
+                                "title", chat.title() == null ? "新对话" : chat.title(),
+                                "createdAt", chat.createdAt() != null ? chat.createdAt().toString() : ""
+                        ))
+                        .collectList()
                         .flatMap(data -> ServerResponse.ok().bodyValue(data))
         );
     }
@@ -126,38 +106,39 @@ public class RecipeHandler {
     public Mono<ServerResponse> getChatMessages(ServerRequest request) {
         String chatId = request.pathVariable("chatId");
         return getUserId(request).flatMap(userId ->
-                Mono.fromCallable(() -> {
-                            // 1. 从数据库查询原始 Message 实体列表
-                            List<Message> messages = messageRepository.findByChatId_IdOrderByCreatedAtAsc(chatId);
-
-                            // 2. 手动转换为简单的 Map 列表，只返回前端需要的字段
-                            // 这样 Jackson 就不会去碰 Message 里的 Chat 和 User 对象了
-                            return messages.stream().map(m -> Map.of(
-                                    "id", m.getId(),
-                                    "content", m.getContent(),
-                                    "role", m.getRole().name(), // 返回 USER 或 ASSISTANT
-                                    "createdAt", m.getCreatedAt() != null ? m.getCreatedAt().toString() : ""
-                            )).toList();
-                        })
-                        .subscribeOn(Schedulers.boundedElastic())
+                messageRepository.findByChatIdOrderByCreatedAtAsc(chatId)
+                        // 只返回前端需要的字段
+                        .map(m -> Map.of(
+                                "id", m.id(),
+                                "content", m.content(),
+                                "role", m.role().name(), // 返回 USER 或 ASSISTANT
+                                "createdAt", m.createdAt() != null ? m.createdAt().toString() : ""
+                        ))
+                        .collectList()
                         .flatMap(data -> ServerResponse.ok().bodyValue(data))
         );
     }
 
     /**
-     * 辅助方法：后台异步保存 AI 回复
+     * 筛选面板的数量统计：GET /recipes/facets?category=soup,dessert&difficulty=easy
+     * 在已选条件下返回当前用户菜谱总数，以及 category / difficulty 各取值的数量
      */
-    private void saveAssistantMessage(Chat chatRef, String content) {
-        Mono.fromRunnable(() -> {
-                    Message assistantMsg = new Message();
-                    assistantMsg.setChatId(chatRef);
-                    assistantMsg.setContent(content);
-                    assistantMsg.setRole(MessageRole.ASSISTANT);
-                    assistantMsg.setCreatedAt(LocalDateTime.now());
-                    messageRepository.save(assistantMsg);
-                })
-                .subscribeOn(Schedulers.boundedElastic())
-                .subscribe(); // 独立订阅，不阻塞主流
+    public Mono<ServerResponse> getFacetCounts(ServerRequest request) {
+        return getUserId(request).flatMap(userId -> {
+            Map<String, List<String>> filters = new LinkedHashMap<>();
+            request.queryParams().forEach((field, values) -> filters.put(field, values.stream()
+                    .flatMap(value -> Arrays.stream(value.split(",")))
+                    .map(String::trim)
+                    .filter(value -> !value.isEmpty())
+                    .toList()));
+            try {
+                return ServerResponse.ok().bodyValue(Map.of(
+                        "total", recipeFacets.count(userId, filters),
+                        "facets", recipeFacets.counts(userId, filters)));
+            } catch (IllegalArgumentException e) {
+                return ServerResponse.badRequest().bodyValue(Map.of("error", e.getMessage()));
+            }
+        });
     }
 
     private Mono<String> getUserId(ServerRequest request) {
@@ -22,6 +22,7 @@ public class RecipeRouter {
                 .POST("/chat", handler::handleChat)          // 你的现有接口
                 .GET("/chats", handler::getChatList)         // 侧边栏列表
                 .GET("/chats/{chatId}/messages", handler::getChatMessages) // 历史记录详情
+                .GET("/recipes/facets", handler::getFacetCounts)  // 筛选面板数量统计
                 .build();
     }
 }
@@ -0,0 +1,151 @@
+package com.rag.how_to_cook.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * 聊天流的 SSE 编码器
+ * 把 token 按时间窗口 / 字节数合并成帧，直接写进 DataBuffer（由响应的 bufferFactory 分配，Netty 下为池化内存），
+ * 帧格式与原来保持一致：data:{"content":"...","chatId":"..."}
+ */
+@Component
+public class SseFrameEncoder {
+    private static final byte[] FRAME_PREFIX = "data:{\"content\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final Duration coalesceWindow;
+    private final int maxFrameBytes;
+    private final int maxTokensPerFrame;
+
+    public SseFrameEncoder(
+            @Value("${rag.sse.coalesce-window:30ms}") Duration coalesceWindow,
+            @Value("${rag.sse.max-frame-bytes:4096}") int maxFrameBytes,
+            @Value("${rag.sse.max-tokens-per-frame:64}") int maxTokensPerFrame) {
+        this.coalesceWindow = coalesceWindow;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxTokensPerFrame = Math.max(1, maxTokensPerFrame);
+    }
+
+    public Flux<DataBuffer> encode(Flux<String> tokens, String chatId, DataBufferFactory bufferFactory) {
+        byte[] suffix = frameSuffix(chatId);
+        return coalesce(tokens)
+                .map(frame -> encodeFrame(frame, suffix, bufferFactory))
+                // 下游取消时，已分配但未写出的 buffer 需要归还给池
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    /**
+     * 合并策略：
+     * - coalesceWindow 为 0 时只按字节数 / token 数切帧（maxFrameBytes <= 0 时退化为一个 token 一帧）
+     * - 否则在每个时间窗口内再按字节数切帧，保证单帧大小有上限
+     */
+    Flux<List<String>> coalesce(Flux<String> tokens) {
+        if (coalesceWindow.isZero() || coalesceWindow.isNegative()) {
+            return Flux.defer(() -> tokens.bufferUntil(frameBoundary()));
+        }
+        // fairBackpressure：按下游需求开新窗口，否则窗口到时而 concatMap 还在写上一帧时会 OverflowException
+        return tokens.windowTimeout(maxTokensPerFrame, coalesceWindow, true)
+                .concatMap(window -> Flux.defer(() -> window.bufferUntil(frameBoundary())));
+    }
+
+    // 每次订阅独立的计数状态
+    private Predicate<String> frameBoundary() {
+        int[] state = new int[2]; // [0] 当前帧字节数, [1] 当前帧 token 数
+        return token -> {
+            state[0] += utf8Length(token);
+            state[1]++;
+            if (state[0] >= maxFrameBytes || state[1] >= maxTokensPerFrame) {
+                state[0] = 0;
+                state[1] = 0;
+                return true;
+            }
+            return false;
+        };
+    }
+
+    public DataBuffer encodeFrame(List<String> frameTokens, byte[] suffix, DataBufferFactory bufferFactory) {
+        int contentBytes = 0;
+        for (String token : frameTokens) {
+            contentBytes += utf8Length(token);
+        }
+        // 预留少量转义余量，不够时 DataBuffer 会自动扩容
+        DataBuffer buffer = bufferFactory.allocateBuffer(FRAME_PREFIX.length + contentBytes + contentBytes / 8 + suffix.length);
+        buffer.write(FRAME_PREFIX);
+        for (String token : frameTokens) {
+            writeJsonEscaped(buffer, token);
+        }
+        buffer.write(suffix);
+        return buffer;
+    }
+
+    public byte[] frameSuffix(String chatId) {
+        DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.allocateBuffer(chatId.length() + 16);
+        buffer.write("\",\"chatId\":\"".getBytes(StandardCharsets.UTF_8));
+        writeJsonEscaped(buffer, chatId);
+        buffer.write("\"}\n\n".getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        return bytes;
+    }
+
+    private static void writeJsonEscaped(DataBuffer buffer, String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.write((byte) '\\');
+                buffer.write((byte) c);
+            } else if (c < 0x20) {
+                switch (c) {
+                    case '\n' -> buffer.write((byte) '\\').write((byte) 'n');
+                    case '\r' -> buffer.write((byte) '\\').write((byte) 'r');
+                    case '\t' -> buffer.write((byte) '\\').write((byte) 't');
+                    case '\b' -> buffer.write((byte) '\\').write((byte) 'b');
+                    case '\f' -> buffer.write((byte) '\\').write((byte) 'f');
+                    default -> buffer.write((byte) '\\').write((byte) 'u').write((byte) '0').write((byte) '0')
+                            .write(HEX[c >> 4]).write(HEX[c & 0xF]);
+                }
+            } else if (c < 0x80) {
+                buffer.write((byte) c);
+            } else if (c < 0x800) {
+                buffer.write((byte) (0xC0 | (c >> 6)));
+                buffer.write((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.write((byte) (0xF0 | (cp >> 18)));
+                buffer.write((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.write((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.write((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // 孤立代理项，按 U+FFFD 输出
+                buffer.write((byte) 0xEF).write((byte) 0xBF).write((byte) 0xBD);
+            } else {
+                buffer.write((byte) (0xE0 | (c >> 12)));
+                buffer.write((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.write((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    // 与 writeJsonEscaped 的编码一致（不含转义字符）：孤立代理项按 U+FFFD 计 3 字节
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) { bytes += 4; i++; }
+            else bytes += 3;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,62 @@
+package com.rag.how_to_cook.config;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SchedulerConfigTest {
+
+    @Test
+    void virtualSchedulerRunsBlockingTasksOnNamedVirtualThreads() {
+        Scheduler scheduler = SchedulerConfig.create("virtual");
+        try {
+            Thread thread = Mono.fromCallable(Thread::currentThread).subscribeOn(scheduler).block(Duration.ofSeconds(5));
+
+            assertThat(thread).isNotNull();
+            assertThat(thread.isVirtual()).isTrue();
+            assertThat(thread.getName()).startsWith("rag-blocking-");
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void virtualSchedulerIsNotCappedLikeBoundedElastic() {
+        Scheduler scheduler = SchedulerConfig.create("virtual");
+        try {
+            // 远多于 boundedElastic 的线程上限（10 × CPU 核数）的阻塞任务同时进行，总耗时接近单个任务
+            int tasks = 20 * Runtime.getRuntime().availableProcessors() + 50;
+            long start = System.nanoTime();
+            List<Integer> results = Flux.range(0, tasks)
+                    .flatMap(i -> Mono.fromCallable(() -> {
+                        Thread.sleep(200);
+                        return i;
+                    }).subscribeOn(scheduler), tasks)
+                    .collectList()
+                    .block(Duration.ofSeconds(10));
+
+            assertThat(results).hasSize(tasks);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    void boundedElasticUsesTheSharedReactorScheduler() {
+        assertThat(SchedulerConfig.create("bounded-elastic")).isSameAs(Schedulers.boundedElastic());
+    }
+
+    @Test
+    void unknownTypeIsRejected() {
+        assertThatThrownBy(() -> SchedulerConfig.create("parallel")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,82 @@
+package com.rag.how_to_cook.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RateLimiterTest {
+
+    @Test
+    void allowsABurstUpToCapacityThenRejects() {
+        RateLimiter.Buckets buckets = new RateLimiter.Buckets(3, Duration.ofHours(1));
+
+        for (int i = 0; i < 3; i++) assertThat(buckets.acquire("u1").allowed()).isTrue();
+        RateLimiter.Decision rejected = buckets.acquire("u1");
+
+        assertThat(rejected.allowed()).isFalse();
+        // 下一个令牌约在一个补充间隔之后
+        assertThat(rejected.retryAfter()).isBetween(Duration.ofMinutes(59), Duration.ofHours(1));
+    }
+
+    @Test
+    void tokensRefillOneIntervalAtATime() throws InterruptedException {
+        RateLimiter.Buckets buckets = new RateLimiter.Buckets(2, Duration.ofMillis(100));
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+        assertThat(buckets.acquire("u1").allowed()).isFalse();
+
+        Thread.sleep(120);
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+        assertThat(buckets.acquire("u1").allowed()).isFalse();
+    }
+
+    @Test
+    void idleBucketDoesNotAccumulateBeyondCapacity() throws InterruptedException {
+        RateLimiter.Buckets buckets = new RateLimiter.Buckets(2, Duration.ofMillis(20));
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+
+        // 空闲远超容量所需的时间后，仍然只能连续放行 capacity 个
+        Thread.sleep(200);
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+        assertThat(buckets.acquire("u1").allowed()).isFalse();
+    }
+
+    @Test
+    void usersHaveSeparateBuckets() {
+        RateLimiter.Buckets buckets = new RateLimiter.Buckets(1, Duration.ofHours(1));
+
+        assertThat(buckets.acquire("u1").allowed()).isTrue();
+        assertThat(buckets.acquire("u1").allowed()).isFalse();
+        assertThat(buckets.acquire("u2").allowed()).isTrue();
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThatThrownBy(() -> new RateLimiter.Buckets(0, Duration.ofSeconds(1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void chatAndUploadBudgetsAreIndependentAndCounted() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RateLimiter limiter = new RateLimiter(null, registry, Schedulers.immediate(), "local",
+                1, Duration.ofHours(1), 1, Duration.ofHours(1));
+
+        StepVerifier.create(limiter.acquire("u1", RateLimiter.Budget.CHAT))
+                .assertNext(d -> assertThat(d.allowed()).isTrue()).verifyComplete();
+        StepVerifier.create(limiter.acquire("u1", RateLimiter.Budget.CHAT))
+                .assertNext(d -> assertThat(d.allowed()).isFalse()).verifyComplete();
+        StepVerifier.create(limiter.acquire("u1", RateLimiter.Budget.UPLOAD))
+                .assertNext(d -> assertThat(d.allowed()).isTrue()).verifyComplete();
+
+        assertThat(registry.get("rag.ratelimit").tag("budget", "chat").tag("result", "rejected").counter().count())
+                .isEqualTo(1);
+    }
+}
@@ -0,0 +1,106 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnswerCacheTest {
+
+    private final CorpusVersions corpusVersions = new CorpusVersions();
+
+    private AnswerCache cache(int maxEntries, long maxBytes, Duration ttl) {
+        return new AnswerCache(corpusVersions, maxEntries, maxBytes, ttl);
+    }
+
+    @Test
+    void returnsCachedAnswerForTheSameNormalisedQuestion() {
+        AnswerCache cache = cache(10, 1 << 20, Duration.ofHours(1));
+        cache.put(cache.keyFor("u1", "红烧肉怎么做？"), List.of("先焯水", "再炒糖色"));
+
+        assertThat(cache.get(cache.keyFor("u1", "红烧肉 怎么做"))).containsExactly("先焯水", "再炒糖色");
+        assertThat(cache.get(cache.keyFor("u2", "红烧肉怎么做"))).isNull();
+    }
+
+    @Test
+    void normalisesWidthCaseWhitespaceAndTrailingPunctuation() {
+        assertThat(AnswerCache.normalize("ＡＢＣ 红烧肉怎么做？！")).isEqualTo("abc红烧肉怎么做");
+        assertThat(AnswerCache.normalize("  可乐鸡翅\t要多久。。")).isEqualTo("可乐鸡翅要多久");
+        assertThat(AnswerCache.normalize("1+1=?")).isEqualTo("1+1=");
+        // 句中的标点保留
+        assertThat(AnswerCache.normalize("鸡蛋，番茄")).isEqualTo("鸡蛋,番茄");
+    }
+
+    @Test
+    void entriesExpireAfterTheTtl() throws InterruptedException {
+        AnswerCache cache = cache(10, 1 << 20, Duration.ofMillis(50));
+        AnswerCache.Key key = cache.keyFor("u1", "番茄炒蛋");
+        cache.put(key, List.of("答案"));
+        assertThat(cache.get(key)).containsExactly("答案");
+
+        Thread.sleep(100);
+        assertThat(cache.get(key)).isNull();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverTheEntryLimit() {
+        AnswerCache cache = cache(2, 1 << 20, Duration.ofHours(1));
+        AnswerCache.Key a = cache.keyFor("u1", "a");
+        AnswerCache.Key b = cache.keyFor("u1", "b");
+        AnswerCache.Key c = cache.keyFor("u1", "c");
+        cache.put(a, List.of("A"));
+        cache.put(b, List.of("B"));
+        // 访问 a 后 b 成为最久未使用
+        cache.get(a);
+        cache.put(c, List.of("C"));
+
+        assertThat(cache.get(a)).containsExactly("A");
+        assertThat(cache.get(b)).isNull();
+        assertThat(cache.get(c)).containsExactly("C");
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverTheByteLimit() {
+        // 每条约 320 字节（key 64 + 2 * 4，chunk 48 + 2 * 100），上限只容得下两条
+        AnswerCache cache = cache(100, 700, Duration.ofHours(1));
+        String chunk = "x".repeat(100);
+        AnswerCache.Key a = cache.keyFor("u1", "q1");
+        AnswerCache.Key b = cache.keyFor("u1", "q2");
+        AnswerCache.Key c = cache.keyFor("u1", "q3");
+        cache.put(a, List.of(chunk));
+        cache.put(b, List.of(chunk));
+        cache.put(c, List.of(chunk));
+
+        assertThat(cache.get(a)).isNull();
+        assertThat(cache.get(b)).isNotNull();
+        assertThat(cache.get(c)).isNotNull();
+
+        // 单条超过上限时不写入，也不挤掉已有条目
+        cache.put(cache.keyFor("u1", "big"), List.of("x".repeat(1000)));
+        assertThat(cache.get(cache.keyFor("u1", "big"))).isNull();
+        assertThat(cache.get(b)).isNotNull();
+    }
+
+    @Test
+    void skipsPutWhenTheCorpusChangedDuringGeneration() {
+        AnswerCache cache = cache(10, 1 << 20, Duration.ofHours(1));
+        AnswerCache.Key key = cache.keyFor("u1", "宫保鸡丁");
+        // 生成期间用户上传了新文件
+        corpusVersions.bump("u1");
+        cache.put(key, List.of("旧语料的回答"));
+
+        assertThat(cache.get(key)).isNull();
+        assertThat(cache.get(cache.keyFor("u1", "宫保鸡丁"))).isNull();
+    }
+
+    @Test
+    void corpusChangeInvalidatesExistingEntries() {
+        AnswerCache cache = cache(10, 1 << 20, Duration.ofHours(1));
+        cache.put(cache.keyFor("u1", "宫保鸡丁"), List.of("答案"));
+        corpusVersions.bump("u1");
+
+        assertThat(cache.get(cache.keyFor("u1", "宫保鸡丁"))).isNull();
+    }
+}
@@ -0,0 +1,170 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTest {
+
+    private static Document chunk(String chunkId, String userId, String text) {
+        return Document.builder()
+                .id(chunkId)
+                .text(text)
+                .metadata(Map.of("chunkId", chunkId, "userId", userId, "parentId", "p-" + chunkId))
+                .build();
+    }
+
+    private static List<String> ids(List<Document> docs) {
+        return docs.stream().map(Bm25Index::chunkIdOf).toList();
+    }
+
+    @Test
+    void ranksExactDishNameAboveSharedIngredient() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        index.add(List.of(
+                chunk("a", "u1", "红烧肉：五花肉切块，冰糖炒糖色"),
+                chunk("b", "u1", "青椒炒肉丝：里脊肉切丝"),
+                chunk("c", "u1", "番茄炒蛋：鸡蛋打散")));
+
+        List<Document> result = index.search("红烧肉怎么做", "u1", 10);
+
+        assertThat(ids(result)).first().isEqualTo("a");
+        assertThat(ids(result)).doesNotContain("c");
+        assertThat(result.get(0).getScore()).isGreaterThan(result.get(result.size() - 1).getScore());
+    }
+
+    @Test
+    void longerDocumentScoresLowerForSameTermFrequency() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        index.add(List.of(
+                chunk("short", "u1", "豆腐"),
+                chunk("long", "u1", "豆腐 配料很多很多很多很多很多很多很多很多很多很多")));
+
+        assertThat(ids(index.search("豆腐", "u1", 2))).containsExactly("short", "long");
+    }
+
+    @Test
+    void onlyReturnsChunksOfTheRequestingUser() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        index.add(List.of(chunk("a", "u1", "宫保鸡丁"), chunk("b", "u2", "宫保鸡丁")));
+
+        assertThat(ids(index.search("宫保鸡丁", "u2", 10))).containsExactly("b");
+        assertThat(index.search("宫保鸡丁", "nobody", 10)).isEmpty();
+    }
+
+    @Test
+    void reAddingAChunkReplacesItAndDeleteRemovesIt() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        index.add(List.of(chunk("a", "u1", "麻婆豆腐")));
+        index.add(List.of(chunk("a", "u1", "水煮鱼")));
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.search("豆腐", "u1", 10)).isEmpty();
+        assertThat(ids(index.search("水煮鱼", "u1", 10))).containsExactly("a");
+
+        index.delete(List.of("a"));
+        assertThat(index.size()).isZero();
+        assertThat(index.search("水煮鱼", "u1", 10)).isEmpty();
+    }
+
+    @Test
+    void topKIsRespectedAfterCompaction() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            chunks.add(chunk("c" + i, "u1", i % 2 == 0 ? "土豆烧牛肉 " + i : "凉拌黄瓜 " + i));
+        }
+        index.add(chunks);
+        // 删除超过三分之一触发压缩
+        List<String> deleted = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) deleted.add("c" + i);
+        index.delete(deleted);
+
+        List<Document> result = index.search("土豆牛肉", "u1", 5);
+        assertThat(index.size()).isEqualTo(1500);
+        assertThat(result).hasSize(5);
+        assertThat(ids(result)).allSatisfy(id -> assertThat(Integer.parseInt(id.substring(1))).isGreaterThanOrEqualTo(1500));
+    }
+
+    @Test
+    void tombstonesDoNotCountTowardsDocumentFrequency() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        // 同一 chunk 反复写入留下墓碑，倒排表条目数超过存活文档数
+        for (int i = 0; i < 4; i++) index.add(List.of(chunk("a", "u1", "麻婆豆腐")));
+        index.add(List.of(chunk("b", "u1", "清炒白菜")));
+
+        List<Document> result = index.search("豆腐", "u1", 10);
+
+        assertThat(ids(result)).containsExactly("a");
+        assertThat(result.get(0).getScore()).isPositive();
+    }
+
+    @Test
+    void reAddingManyChunksTriggersCompaction() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) chunks.add(chunk("c" + i, "u1", "土豆烧牛肉 " + i));
+        index.add(chunks);
+        index.add(chunks);
+
+        assertThat(index.size()).isEqualTo(3000);
+        assertThat(index.tombstones()).isZero();
+        assertThat(index.search("土豆牛肉", "u1", 5)).hasSize(5);
+    }
+
+    @Test
+    void sparseScoringMatchesAcrossManyTouchedChunks() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 0; i < 500; i++) chunks.add(chunk("c" + i, i % 2 == 0 ? "u1" : "u2", "鸡蛋" + " 鸡蛋".repeat(i % 5)));
+        chunks.add(chunk("top", "u1", "鸡蛋 番茄 鸡蛋"));
+        index.add(chunks);
+
+        List<Document> result = index.search("番茄鸡蛋", "u1", 3);
+
+        assertThat(ids(result)).first().isEqualTo("top");
+        assertThat(result).hasSize(3);
+        assertThat(result).extracting(Document::getScore).isSortedAccordingTo((x, y) -> Double.compare(y, x));
+    }
+
+    @Test
+    void findsLiveChunksOfASourceObject() {
+        Bm25Index index = new Bm25Index(1.2f, 0.75f);
+        Document a1 = Document.builder().id("a1").text("红烧肉").metadata(Map.of("chunkId", "a1", "source", "minio://b/a.md")).build();
+        Document a2 = Document.builder().id("a2").text("五花肉").metadata(Map.of("chunkId", "a2", "source", "minio://b/a.md")).build();
+        Document b1 = Document.builder().id("b1").text("番茄").metadata(Map.of("chunkId", "b1", "source", "minio://b/b.md")).build();
+        index.add(List.of(a1, a2, b1));
+        index.delete(List.of("a2"));
+
+        assertThat(ids(index.chunksOfSource("minio://b/a.md"))).containsExactly("a1");
+        assertThat(index.chunksOfSource("minio://b/c.md")).isEmpty();
+    }
+
+    @Test
+    void reciprocalRankFusionRewardsAgreementBetweenRankings() {
+        Document a = chunk("a", "u1", "a");
+        Document b = chunk("b", "u1", "b");
+        Document c = chunk("c", "u1", "c");
+
+        List<Document> fused = RankFusion.reciprocalRank(List.of(List.of(a, b, c), List.of(b, c)), 3);
+
+        assertThat(ids(fused)).containsExactly("b", "c", "a");
+        assertThat(fused.get(0).getScore()).isEqualTo(1.0 / 62 + 1.0 / 61);
+    }
+
+    @Test
+    void limitPerParentKeepsAtMostNChunksPerRecipe() {
+        Document a1 = Document.builder().id("a1").text("x").metadata(Map.of("parentId", "a")).build();
+        Document a2 = Document.builder().id("a2").text("x").metadata(Map.of("parentId", "a")).build();
+        Document b1 = Document.builder().id("b1").text("x").metadata(Map.of("parentId", "b")).build();
+
+        List<Document> limited = RankFusion.limitPerParent(List.of(a1, a2, b1), 1, 10);
+
+        assertThat(limited).extracting(Document::getId).containsExactly("a1", "b1");
+    }
+}
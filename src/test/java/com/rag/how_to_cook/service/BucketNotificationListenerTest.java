@@ -0,0 +1,26 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BucketNotificationListenerTest {
+
+    @Test
+    void recognisesObjectsUploadedThroughTheApp() {
+        assertThat(BucketNotificationListener.uploadedByApp(BucketNotificationListener.APP_UPLOAD_METADATA)).isTrue();
+        // MinIO 事件中的键带 X-Amz-Meta- 前缀
+        assertThat(BucketNotificationListener.uploadedByApp(
+                Map.of("content-type", "application/octet-stream", "X-Amz-Meta-Uploaded-By", "rag-upload"))).isTrue();
+    }
+
+    @Test
+    void processesObjectsWrittenDirectlyToTheBucket() {
+        assertThat(BucketNotificationListener.uploadedByApp(null)).isFalse();
+        assertThat(BucketNotificationListener.uploadedByApp(Map.of())).isFalse();
+        assertThat(BucketNotificationListener.uploadedByApp(Map.of("X-Amz-Meta-Uploaded-By", "mc"))).isFalse();
+        assertThat(BucketNotificationListener.uploadedByApp(Map.of("X-Amz-Meta-Other", "rag-upload"))).isFalse();
+    }
+}
@@ -0,0 +1,126 @@
+package com.rag.how_to_cook.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatCoalescerTest {
+
+    private static final AnswerCache.Key KEY = new AnswerCache.Key("u1", "红烧肉怎么做", 1);
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private double coalesced(String role) {
+        return registry.get("rag.chat.coalesce").tag("role", role).counter().count();
+    }
+
+    private double inflight() {
+        return registry.get("rag.chat.coalesce.inflight").gauge().value();
+    }
+
+    @Test
+    void followerSharesThePipelineAndReplaysEarlierChunks() {
+        ChatCoalescer coalescer = new ChatCoalescer(registry, true);
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger executions = new AtomicInteger();
+
+        List<String> leader = new ArrayList<>();
+        coalescer.join(KEY, () -> {
+            executions.incrementAndGet();
+            return upstream.asFlux();
+        }).subscribe(leader::add);
+        upstream.tryEmitNext("第一步");
+
+        List<String> follower = new ArrayList<>();
+        coalescer.join(KEY, () -> {
+            executions.incrementAndGet();
+            return Flux.just("不应执行");
+        }).subscribe(follower::add);
+        upstream.tryEmitNext("第二步");
+        upstream.tryEmitComplete();
+
+        assertThat(executions).hasValue(1);
+        assertThat(leader).containsExactly("第一步", "第二步");
+        assertThat(follower).containsExactly("第一步", "第二步");
+        assertThat(coalesced("leader")).isEqualTo(1);
+        assertThat(coalesced("follower")).isEqualTo(1);
+        assertThat(inflight()).isZero();
+    }
+
+    @Test
+    void leaderDisconnectDoesNotCancelWhileFollowersRemain() {
+        ChatCoalescer coalescer = new ChatCoalescer(registry, true);
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Flux<String> pipeline = upstream.asFlux().doOnCancel(() -> cancelled.set(true));
+
+        Disposable leader = coalescer.join(KEY, () -> pipeline).subscribe();
+        List<String> follower = new ArrayList<>();
+        Disposable followerSubscription = coalescer.join(KEY, () -> Flux.empty()).subscribe(follower::add);
+
+        leader.dispose();
+        upstream.tryEmitNext("继续生成");
+        assertThat(cancelled).isFalse();
+        assertThat(follower).containsExactly("继续生成");
+
+        followerSubscription.dispose();
+        assertThat(cancelled).isTrue();
+        assertThat(inflight()).isZero();
+    }
+
+    @Test
+    void finishedPipelineIsNotReused() {
+        ChatCoalescer coalescer = new ChatCoalescer(registry, true);
+        AtomicInteger executions = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(coalescer.join(KEY, () -> Flux.just("answer-" + executions.incrementAndGet())))
+                    .expectNext("answer-" + (i + 1))
+                    .verifyComplete();
+        }
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void differentKeysRunIndependently() {
+        ChatCoalescer coalescer = new ChatCoalescer(registry, true);
+        Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        coalescer.join(KEY, upstream::asFlux).subscribe();
+
+        StepVerifier.create(coalescer.join(new AnswerCache.Key("u2", KEY.query(), 1), () -> Flux.just("u2 的回答")))
+                .expectNext("u2 的回答")
+                .verifyComplete();
+        assertThat(coalesced("leader")).isEqualTo(2);
+        upstream.tryEmitComplete();
+    }
+
+    @Test
+    void disabledCoalescerRunsEveryRequest() {
+        ChatCoalescer coalescer = new ChatCoalescer(registry, false);
+        AtomicInteger executions = new AtomicInteger();
+        Sinks.Many<String> upstream = Sinks.many().multicast().onBackpressureBuffer();
+
+        coalescer.join(KEY, () -> {
+            executions.incrementAndGet();
+            return upstream.asFlux();
+        }).subscribe();
+        coalescer.join(KEY, () -> {
+            executions.incrementAndGet();
+            return upstream.asFlux();
+        }).subscribe();
+
+        assertThat(executions).hasValue(2);
+        upstream.tryEmitComplete();
+    }
+}
@@ -0,0 +1,84 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.MetadataFilterExpression;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.InstanceOfAssertFactories.LIST;
+
+class FilteredKnnSearchTest {
+
+    private static Document recipe(String category, String difficulty) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("userId", "u1");
+        if (category != null) metadata.put("category", category);
+        if (difficulty != null) metadata.put("difficulty", difficulty);
+        return Document.builder().text("x").metadata(metadata).build();
+    }
+
+    private static MetadataFilterExpression filters(List<String> difficulties, List<String> categories) {
+        return new MetadataFilterExpression(difficulties, categories);
+    }
+
+    @Test
+    void selectedValuesMatchAndOthersAreExcluded() {
+        MetadataFilterExpression filters = filters(List.of("easy", "very easy"), List.of("soup"));
+
+        assertThat(FilteredKnnSearch.matches(recipe("soup", "easy"), filters)).isTrue();
+        assertThat(FilteredKnnSearch.matches(recipe("soup", "medium"), filters)).isFalse();
+        assertThat(FilteredKnnSearch.matches(recipe("meat_dish", "easy"), filters)).isFalse();
+        assertThat(FilteredKnnSearch.matches(recipe("other", "easy"), filters)).isFalse();
+    }
+
+    @Test
+    void documentsWithoutTheFieldAreKept() {
+        MetadataFilterExpression filters = filters(List.of("easy"), List.of("soup"));
+
+        assertThat(FilteredKnnSearch.matches(recipe("soup", null), filters)).isTrue();
+        assertThat(FilteredKnnSearch.matches(recipe(null, "easy"), filters)).isTrue();
+    }
+
+    @Test
+    void otherOrFullVocabularyDropsTheDimension() {
+        MetadataFilterExpression allDifficulties = filters(
+                List.of("very difficult", "difficult", "medium", "easy", "very easy"), List.of());
+        MetadataFilterExpression allCategories = filters(List.of(), List.of(
+                "meat_dish", "vegetable_dish", "soup", "dessert", "breakfast", "staple", "aquatic", "condiment", "drink"));
+        MetadataFilterExpression otherCategory = filters(List.of(), List.of("soup", "other"));
+
+        assertThat(FilteredKnnSearch.excludedDifficulties(allDifficulties)).isEmpty();
+        assertThat(FilteredKnnSearch.excludedCategories(allCategories)).isEmpty();
+        assertThat(FilteredKnnSearch.excludedCategories(otherCategory)).isEmpty();
+        assertThat(FilteredKnnSearch.matches(recipe("other", "medium"), allCategories)).isTrue();
+    }
+
+    @Test
+    void unknownOrMissingValuesDoNotFilter() {
+        assertThat(FilteredKnnSearch.excludedCategories(filters(null, null))).isEmpty();
+        assertThat(FilteredKnnSearch.excludedCategories(filters(List.of(), List.of("spicy")))).isEmpty();
+        assertThat(FilteredKnnSearch.excludedDifficulties(filters(List.of(" medium "), List.of())))
+                .containsExactlyInAnyOrder("very difficult", "difficult", "easy", "very easy");
+    }
+
+    @Test
+    void filterExpressionExcludesUnselectedValues() {
+        Filter.Expression unrestricted = FilteredKnnSearch.toFilterExpression("u1", filters(List.of(), List.of("other")));
+        assertThat(unrestricted.type()).isEqualTo(Filter.ExpressionType.EQ);
+
+        Filter.Expression restricted = FilteredKnnSearch.toFilterExpression(
+                "u1", filters(List.of("easy", "very easy", "medium"), List.of()));
+        assertThat(restricted.type()).isEqualTo(Filter.ExpressionType.AND);
+        Filter.Expression difficulty = (Filter.Expression) restricted.right();
+        assertThat(difficulty.type()).isEqualTo(Filter.ExpressionType.NIN);
+        assertThat(((Filter.Key) difficulty.left()).key()).isEqualTo("difficulty.keyword");
+        assertThat(((Filter.Value) difficulty.right()).value())
+                .asInstanceOf(LIST)
+                .containsExactlyInAnyOrder("very difficult", "difficult");
+    }
+}
@@ -0,0 +1,85 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ListQueryParserTest {
+
+    private static final List<String> INGREDIENTS = List.of("五花肉", "土豆", "鸡蛋");
+
+    @Test
+    void parsesCountDifficultyAndCategory() {
+        ListQueryParser.CatalogQuery query = ListQueryParser.parse("推荐三道简单的素菜", INGREDIENTS);
+
+        assertThat(query.limit()).isEqualTo(3);
+        assertThat(query.difficulties()).containsExactly("easy", "very easy");
+        assertThat(query.categories()).containsExactly("vegetable_dish");
+        assertThat(query.listIntent()).isTrue();
+        assertThat(query.resolved()).isTrue();
+    }
+
+    @Test
+    void longerDifficultyWordsWinOverShorterOnes() {
+        ListQueryParser.CatalogQuery query = ListQueryParser.parse("有什么非常简单的汤", INGREDIENTS);
+
+        assertThat(query.difficulties()).containsExactly("very easy");
+        assertThat(query.categories()).containsExactly("soup");
+    }
+
+    @Test
+    void ingredientsAreMatchedBeforeCategoryWords() {
+        ListQueryParser.CatalogQuery query = ListQueryParser.parse("用五花肉和土豆能做哪些菜", INGREDIENTS);
+
+        assertThat(query.ingredients()).containsExactly("五花肉", "土豆");
+        assertThat(query.categories()).isEmpty();
+        assertThat(query.resolved()).isTrue();
+    }
+
+    @Test
+    void parsesTimeLimits() {
+        assertThat(ListQueryParser.parse("20分钟以内的早餐", INGREDIENTS).maxMinutes()).isEqualTo(20);
+        assertThat(ListQueryParser.parse("一小时内能做的主食", INGREDIENTS).maxMinutes()).isEqualTo(60);
+        assertThat(ListQueryParser.parse("半小时的甜品", INGREDIENTS).maxMinutes()).isEqualTo(30);
+    }
+
+    @Test
+    void unrecognisedContentLeavesQueryUnresolved() {
+        ListQueryParser.CatalogQuery query = ListQueryParser.parse("推荐几道适合夏天的菜", INGREDIENTS);
+
+        assertThat(query.listIntent()).isTrue();
+        assertThat(query.resolved()).isFalse();
+        assertThat(ListQueryParser.parse("红烧肉怎么做", INGREDIENTS).listIntent()).isFalse();
+    }
+
+    @Test
+    void chineseNumbers() {
+        assertThat(ListQueryParser.chineseNumber("5")).isEqualTo(5);
+        assertThat(ListQueryParser.chineseNumber("两")).isEqualTo(2);
+        assertThat(ListQueryParser.chineseNumber("十")).isEqualTo(10);
+        assertThat(ListQueryParser.chineseNumber("十二")).isEqualTo(12);
+        assertThat(ListQueryParser.chineseNumber("二十五")).isEqualTo(25);
+        assertThat(ListQueryParser.chineseNumber("99999999999")).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void oversizedCountIsClampedInsteadOfOverflowing() {
+        ListQueryParser.CatalogQuery query = ListQueryParser.parse("推荐99999999999道菜", INGREDIENTS);
+
+        assertThat(query.limit()).isEqualTo(ListQueryParser.MAX_LIMIT);
+        assertThat(query.resolved()).isTrue();
+        assertThat(ListQueryParser.parse("99999999999小时内的汤", INGREDIENTS).maxMinutes()).isPositive();
+    }
+
+    @Test
+    void zeroCountIsNotALimit() {
+        ListQueryParser.CatalogQuery query = ListQueryParser.parse("推荐0道菜", INGREDIENTS);
+
+        assertThat(query.limit()).isNull();
+        assertThat(query.listIntent()).isTrue();
+        assertThat(query.resolved()).isFalse();
+        assertThat(ListQueryParser.parse("推荐零道菜", INGREDIENTS).resolved()).isFalse();
+    }
+}
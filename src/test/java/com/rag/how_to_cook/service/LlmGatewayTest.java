@@ -0,0 +1,196 @@
+package com.rag.how_to_cook.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LlmGatewayTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private LlmGateway gateway(int limit, Duration hedgeDelay) {
+        return new LlmGateway(registry, Schedulers.boundedElastic(), limit, 1, 64, 0.8,
+                // classify 的截止时间留足余量，保证对冲请求能在截止前返回
+                Duration.ofSeconds(2), Duration.ofMillis(200), Duration.ofMillis(200), Duration.ofMillis(200),
+                hedgeDelay, Duration.ofMillis(10));
+    }
+
+    private double inflight() {
+        return registry.get("rag.llm.concurrency.inflight").gauge().value();
+    }
+
+    private double calls(String operation, String outcome) {
+        return registry.get("rag.llm.call").tag("operation", operation).tag("outcome", outcome).timer().count();
+    }
+
+    /**
+     * 不响应中断的阻塞调用，模拟超时后仍在进行的 HTTP 请求
+     */
+    private static String awaitUninterruptibly(CountDownLatch latch, String result) {
+        while (true) {
+            try {
+                latch.await();
+                return result;
+            } catch (InterruptedException ignored) {
+                // 继续等待
+            }
+        }
+    }
+
+    private void awaitInflight(double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (inflight() != expected && System.nanoTime() < deadline) Thread.sleep(10);
+        assertThat(inflight()).isEqualTo(expected);
+    }
+
+    @Test
+    void successfulCallReturnsResultWithoutMarkingDegraded() throws Exception {
+        LlmGateway gateway = gateway(4, Duration.ofSeconds(10));
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        String result = LlmGateway.trackDegradation(degraded, () -> gateway.call("rewrite", () -> "改写", () -> "原问题"));
+
+        assertThat(result).isEqualTo("改写");
+        assertThat(degraded).isFalse();
+        assertThat(calls("rewrite", "success")).isEqualTo(1);
+        awaitInflight(0);
+    }
+
+    @Test
+    void timeoutFallsBackButKeepsThePermitUntilTheCallReturns() throws Exception {
+        LlmGateway gateway = gateway(4, Duration.ofSeconds(10));
+        CountDownLatch upstream = new CountDownLatch(1);
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        String result = LlmGateway.trackDegradation(degraded,
+                () -> gateway.call("rewrite", () -> awaitUninterruptibly(upstream, "迟到的改写"), () -> "原问题"));
+
+        assertThat(result).isEqualTo("原问题");
+        assertThat(degraded).isTrue();
+        assertThat(calls("rewrite", "timeout")).isEqualTo(1);
+        // 调用仍在进行，额度没有归还
+        assertThat(inflight()).isEqualTo(1);
+
+        upstream.countDown();
+        awaitInflight(0);
+    }
+
+    @Test
+    void failedCallFallsBack() throws Exception {
+        LlmGateway gateway = gateway(4, Duration.ofSeconds(10));
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        String expansion = LlmGateway.trackDegradation(degraded, () -> gateway.call("expansion",
+                () -> { throw new IllegalStateException("503"); }, () -> "不扩展"));
+
+        assertThat(expansion).isEqualTo("不扩展");
+        assertThat(degraded).isTrue();
+        assertThat(calls("expansion", "error")).isEqualTo(1);
+        awaitInflight(0);
+    }
+
+    @Test
+    void callsBeyondTheLimitAreRejectedImmediately() throws Exception {
+        LlmGateway gateway = gateway(1, Duration.ofSeconds(10));
+        CountDownLatch upstream = new CountDownLatch(1);
+        gateway.call("title", () -> awaitUninterruptibly(upstream, "标题"), () -> "fallback");
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        String result = LlmGateway.trackDegradation(degraded, () -> gateway.call("title", () -> "标题", () -> "截取"));
+
+        assertThat(result).isEqualTo("截取");
+        assertThat(degraded).isTrue();
+        assertThat(calls("title", "rejected")).isEqualTo(1);
+        upstream.countDown();
+        awaitInflight(0);
+    }
+
+    @Test
+    void hedgedRequestWinsWhenPrimaryIsSlow() throws Exception {
+        LlmGateway gateway = gateway(4, Duration.ofMillis(20));
+        CountDownLatch primary = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String route = gateway.classify("router",
+                () -> attempts.getAndIncrement() == 0 ? awaitUninterruptibly(primary, "list") : "detail",
+                () -> "general");
+
+        assertThat(route).isEqualTo("detail");
+        assertThat(registry.get("rag.llm.hedge").tag("result", "won").counter().count()).isEqualTo(1);
+        // 被取消的主请求仍占用额度，直到返回
+        assertThat(inflight()).isEqualTo(1);
+        primary.countDown();
+        awaitInflight(0);
+    }
+
+    @Test
+    void streamFallsBackBeforeFirstTokenAndMarksDegraded() throws InterruptedException {
+        LlmGateway gateway = gateway(4, Duration.ofSeconds(10));
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        StepVerifier.create(gateway.stream("answer_basic",
+                                () -> Flux.<String>never(), () -> Flux.just("降级回答"))
+                        .contextWrite(ctx -> ctx.put(LlmGateway.DEGRADED_KEY, degraded)))
+                .expectNext("降级回答")
+                .verifyComplete();
+
+        assertThat(degraded).isTrue();
+        assertThat(calls("answer_basic", "timeout")).isEqualTo(1);
+        awaitInflight(0);
+    }
+
+    @Test
+    void streamStopsWithoutFallbackAfterTokensWereEmitted() throws InterruptedException {
+        LlmGateway gateway = gateway(4, Duration.ofSeconds(10));
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        StepVerifier.create(gateway.stream("answer_steps",
+                                () -> Flux.concat(Flux.just("第一步"), Flux.error(new IllegalStateException("断开"))),
+                                () -> Flux.just("降级回答"))
+                        .contextWrite(ctx -> ctx.put(LlmGateway.DEGRADED_KEY, degraded)))
+                .expectNext("第一步")
+                .verifyComplete();
+
+        // 输出了一半的回答同样不能缓存
+        assertThat(degraded).isTrue();
+        awaitInflight(0);
+    }
+
+    @Test
+    void completedStreamIsNotDegraded() {
+        LlmGateway gateway = gateway(4, Duration.ofSeconds(10));
+        AtomicBoolean degraded = new AtomicBoolean();
+
+        StepVerifier.create(gateway.stream("answer_basic", () -> Flux.just("a", "b"), () -> Flux.just("降级回答"))
+                        .contextWrite(ctx -> ctx.put(LlmGateway.DEGRADED_KEY, degraded)))
+                .expectNext("a", "b")
+                .verifyComplete();
+
+        assertThat(degraded).isFalse();
+    }
+
+    @Test
+    void adaptiveLimiterBacksOffOnCongestionAndGrowsSlowly() {
+        LlmGateway.AdaptiveLimiter limiter = new LlmGateway.AdaptiveLimiter(10, 2, 12, 0.5);
+
+        assertThat(limiter.tryAcquire()).isTrue();
+        limiter.release(true);
+        assertThat(limiter.limit()).isEqualTo(5);
+
+        for (int i = 0; i < 5; i++) assertThat(limiter.tryAcquire()).isTrue();
+        assertThat(limiter.tryAcquire()).isFalse();
+        limiter.release(false);
+        assertThat(limiter.limit()).isEqualTo(5.2);
+        assertThat(limiter.inflight()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,106 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MarkdownSectionSplitterTest {
+
+    private static final String RECIPE = """
+            # 番茄炒蛋的做法
+
+            家常菜，新手也能做 😀。
+
+            预估烹饪难度：★★
+
+            ## 必备原料和工具
+
+            - 番茄
+            - 鸡蛋
+
+            ## 操作
+
+            - 鸡蛋打散。
+            - 番茄切块。
+            """;
+
+    private static Document parent(String text) {
+        return Document.builder().text(text).metadata(Map.of("dishName", "番茄炒蛋", "userId", "u1")).build();
+    }
+
+    private static String sectionOf(String text, Document chunk) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int offset = ((Number) chunk.getMetadata().get("sectionByteOffset")).intValue();
+        int length = ((Number) chunk.getMetadata().get("sectionByteLength")).intValue();
+        return new String(Arrays.copyOfRange(bytes, offset, offset + length), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void splitsBySectionWithTitlePrefixAndParentMetadata() {
+        List<Document> chunks = new MarkdownSectionSplitter(400, 80).split(parent(RECIPE));
+
+        assertThat(chunks).extracting(c -> c.getMetadata().get("section"))
+                .containsExactly("番茄炒蛋的做法", "必备原料和工具", "操作");
+        assertThat(chunks).extracting(c -> c.getMetadata().get("sectionIndex")).containsExactly(0, 1, 2);
+        assertThat(chunks.get(1).getText()).isEqualTo("番茄炒蛋 · 必备原料和工具\n- 番茄\n- 鸡蛋");
+        assertThat(chunks).allSatisfy(c -> assertThat(c.getMetadata()).containsEntry("userId", "u1"));
+    }
+
+    @Test
+    void characterRangesPointIntoTheOriginalText() {
+        List<Document> chunks = new MarkdownSectionSplitter(400, 80).split(parent(RECIPE));
+
+        for (Document chunk : chunks) {
+            int start = (int) chunk.getMetadata().get("start");
+            int end = (int) chunk.getMetadata().get("end");
+            assertThat(chunk.getText()).endsWith(RECIPE.substring(start, end));
+        }
+    }
+
+    @Test
+    void byteRangesCoverWholeSectionsDespiteMultiByteCharacters() {
+        List<Document> chunks = new MarkdownSectionSplitter(400, 80).split(parent(RECIPE));
+
+        assertThat(sectionOf(RECIPE, chunks.get(0))).startsWith("# 番茄炒蛋的做法").contains("😀").endsWith("★★\n\n");
+        assertThat(sectionOf(RECIPE, chunks.get(1))).isEqualTo("## 必备原料和工具\n\n- 番茄\n- 鸡蛋\n\n");
+        assertThat(sectionOf(RECIPE, chunks.get(2))).isEqualTo("## 操作\n\n- 鸡蛋打散。\n- 番茄切块。\n");
+    }
+
+    @Test
+    void longSectionsSplitAtSentenceBoundariesAndMergeShortTail() {
+        String sentence = "把锅烧热后倒油，油温六成热时下入蛋液。";
+        String text = "## 操作\n" + sentence.repeat(10) + "出锅。";
+        List<Document> chunks = new MarkdownSectionSplitter(50, 10).split(parent(text));
+
+        assertThat(chunks).hasSizeGreaterThan(1);
+        for (Document chunk : chunks) {
+            int start = (int) chunk.getMetadata().get("start");
+            int end = (int) chunk.getMetadata().get("end");
+            assertThat(end - start).isLessThanOrEqualTo(50 + 10);
+            assertThat(text.charAt(end - 1)).isEqualTo('。');
+        }
+        // "出锅。" 短于 min-chunk-chars，并入上一块
+        assertThat(chunks.get(chunks.size() - 1).getText()).endsWith(sentence + "出锅。");
+    }
+
+    @Test
+    void textWithoutBoundariesIsCutAtTwiceTheMaximum() {
+        List<Document> chunks = new MarkdownSectionSplitter(10, 1).split(parent("a".repeat(45)));
+
+        assertThat(chunks).extracting(c -> (int) c.getMetadata().get("end") - (int) c.getMetadata().get("start"))
+                .containsExactly(20, 20, 5);
+    }
+
+    @Test
+    void utf8LengthMatchesJdkEncoding() {
+        String text = "番茄 tomato é 😀";
+        assertThat(MarkdownSectionSplitter.utf8Length(text, 0, text.length()))
+                .isEqualTo(text.getBytes(StandardCharsets.UTF_8).length);
+    }
+}
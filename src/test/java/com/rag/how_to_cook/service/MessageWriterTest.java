@@ -0,0 +1,152 @@
+package com.rag.how_to_cook.service;
+
+import com.rag.how_to_cook.domain.MessageRole;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageWriterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate();
+    private MessageWriter writer;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (writer != null) writer.shutdown();
+    }
+
+    private MessageWriter start(int batchSize, Duration flushInterval) {
+        writer = new MessageWriter(jdbc, registry, Schedulers.boundedElastic(),
+                1000, batchSize, flushInterval, Duration.ofSeconds(1), 3);
+        writer.start();
+        return writer;
+    }
+
+    private void enqueue(String chatId, int count) {
+        for (int i = 0; i < count; i++) writer.enqueue(chatId, MessageRole.USER, "消息" + i).block();
+    }
+
+    private double counter(String name) {
+        return registry.get(name).counter().count();
+    }
+
+    @Test
+    void flushesAsSoonAsABatchIsFull() {
+        // 攒批窗口足够长，只有数量达到 batchSize 才会提前写入
+        start(3, Duration.ofSeconds(2));
+        long begin = System.nanoTime();
+        enqueue("c1", 6);
+
+        await(() -> jdbc.written().size() == 6);
+        assertThat(Duration.ofNanos(System.nanoTime() - begin)).isLessThan(Duration.ofSeconds(1));
+        assertThat(jdbc.batchSizes).containsExactly(3, 3);
+    }
+
+    @Test
+    void flushesAPartialBatchAfterTheInterval() {
+        start(100, Duration.ofMillis(50));
+        enqueue("c1", 2);
+
+        await(() -> jdbc.written().size() == 2);
+        assertThat(jdbc.batchSizes).containsExactly(2);
+        assertThat(counter("rag.message.writer.written")).isEqualTo(2);
+    }
+
+    @Test
+    void retriesTransientErrorsWithoutDroppingMessages() {
+        jdbc.transientFailures.set(2);
+        start(10, Duration.ofMillis(20));
+        enqueue("c1", 4);
+
+        await(() -> jdbc.written().size() == 4);
+        assertThat(jdbc.attempts).hasValue(3);
+        assertThat(counter("rag.message.writer.failed")).isZero();
+        // 上一次尝试可能已经提交，重试依赖按 id 幂等的插入
+        assertThat(jdbc.sql).endsWith("ON CONFLICT (id) DO NOTHING");
+    }
+
+    @Test
+    void dropsOnlyTheRowsThatViolateConstraints() {
+        jdbc.missingChatId = "missing";
+        start(10, Duration.ofMillis(200));
+        enqueue("c1", 3);
+        enqueue("missing", 1);
+        enqueue("c2", 4);
+
+        await(() -> counter("rag.message.writer.written") + counter("rag.message.writer.failed") == 8);
+        assertThat(jdbc.written()).hasSize(7).noneMatch(m -> m.chatId().equals("missing"));
+        assertThat(counter("rag.message.writer.failed")).isEqualTo(1);
+    }
+
+    @Test
+    void drainsTheQueueOnShutdown() throws InterruptedException {
+        start(100, Duration.ofMillis(200));
+        enqueue("c1", 5);
+
+        writer.shutdown();
+        assertThat(jdbc.written()).hasSize(5);
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("等待写入超时").isLessThan(deadline);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 记录每次批量写入的行；可以模拟瞬时错误和外键约束冲突（整批失败，与 Postgres 一致）
+     */
+    static class RecordingJdbcTemplate extends JdbcTemplate {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final List<MessageWriter.PendingMessage> rows = new CopyOnWriteArrayList<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger transientFailures = new AtomicInteger();
+        volatile String missingChatId;
+        volatile String sql;
+
+        List<MessageWriter.PendingMessage> written() {
+            return new ArrayList<>(rows);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                       ParameterizedPreparedStatementSetter<T> pss) {
+            this.sql = sql;
+            attempts.incrementAndGet();
+            if (transientFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new TransientDataAccessResourceException("connection reset");
+            }
+            List<MessageWriter.PendingMessage> batch = new ArrayList<>((Collection<MessageWriter.PendingMessage>) batchArgs);
+            if (batch.stream().anyMatch(m -> m.chatId().equals(missingChatId))) {
+                throw new DataIntegrityViolationException("violates foreign key constraint");
+            }
+            batchSizes.add(batch.size());
+            rows.addAll(batch);
+            return new int[][]{new int[batch.size()]};
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectLocksTest {
+
+    @Test
+    void serializesActionsOnTheSameObject() throws Exception {
+        ObjectLocks locks = new ObjectLocks();
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxInside = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(() -> locks.withLock("u1/红烧肉.md", () -> {
+                    maxInside.accumulateAndGet(inside.incrementAndGet(), Math::max);
+                    Thread.sleep(2);
+                    inside.decrementAndGet();
+                    return null;
+                })));
+            }
+            for (Future<?> future : futures) future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(maxInside).hasValue(1);
+        assertThat(locks.size()).isZero();
+    }
+
+    @Test
+    void differentObjectsDoNotBlockEachOther() throws Exception {
+        ObjectLocks locks = new ObjectLocks();
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = Thread.ofPlatform().start(() -> {
+            try {
+                locks.withLock("u1/a.md", () -> {
+                    holding.countDown();
+                    return release.await(10, TimeUnit.SECONDS);
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holding.await();
+
+        assertThat(locks.withLock("u1/b.md", () -> "done")).isEqualTo("done");
+        assertThat(locks.size()).isEqualTo(1);
+
+        release.countDown();
+        holder.join();
+        assertThat(locks.size()).isZero();
+    }
+
+    @Test
+    void releasesTheLockWhenTheActionFails() throws Exception {
+        ObjectLocks locks = new ObjectLocks();
+
+        assertThatThrownBy(() -> locks.withLock("u1/a.md", () -> {
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(locks.size()).isZero();
+        assertThat(locks.withLock("u1/a.md", () -> 1)).isEqualTo(1);
+    }
+}
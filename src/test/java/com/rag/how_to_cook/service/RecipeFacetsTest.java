@@ -0,0 +1,69 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RecipeFacetsTest {
+
+    private static Map<String, Object> recipe(String userId, String category, String difficulty) {
+        return Map.of("userId", userId, "category", category, "difficulty", difficulty, "dishName", category + difficulty);
+    }
+
+    @Test
+    void countsOnlyTheRequestingUsersRecipes() {
+        RecipeFacets facets = new RecipeFacets();
+        facets.add("p1", recipe("u1", "soup", "easy"));
+        facets.add("p2", recipe("u1", "meat_dish", "easy"));
+        facets.add("p3", recipe("u2", "soup", "easy"));
+
+        assertThat(facets.count("u1", Map.of())).isEqualTo(2);
+        assertThat(facets.count("u1", Map.of("category", List.of("soup", "meat_dish"), "difficulty", List.of("easy"))))
+                .isEqualTo(2);
+        // 条件里传入其他用户也只统计自己的
+        assertThat(facets.count("u1", Map.of("userId", List.of("u2")))).isEqualTo(2);
+        assertThat(facets.counts("u1", Map.of("difficulty", List.of("easy"))).get("category"))
+                .containsOnlyKeys("soup", "meat_dish");
+    }
+
+    @Test
+    void rejectsUnknownFilterFields() {
+        RecipeFacets facets = new RecipeFacets();
+
+        assertThatThrownBy(() -> facets.count("u1", Map.of("ingredient", List.of("土豆"))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void removedOrdinalsAreReused() {
+        RecipeFacets facets = new RecipeFacets();
+        facets.add("p1", recipe("u1", "soup", "easy"));
+        facets.add("p2", recipe("u1", "dessert", "easy"));
+        facets.remove("p1");
+        facets.add("p3", recipe("u1", "drink", "medium"));
+
+        assertThat(facets.allocatedOrdinals()).isEqualTo(2);
+        assertThat(facets.contains("p1")).isFalse();
+        // 复用的序号不带上一篇菜谱的取值
+        assertThat(facets.counts("u1", Map.of()).get("category")).containsOnlyKeys("dessert", "drink");
+        assertThat(facets.count("u1", Map.of("category", List.of("soup")))).isZero();
+    }
+
+    @Test
+    void reAddingARecipeReplacesItsFacets() {
+        RecipeFacets facets = new RecipeFacets();
+        facets.add("p1", recipe("u1", "soup", "easy"));
+        facets.add("p1", recipe("u1", "dessert", "medium"));
+
+        assertThat(facets.allocatedOrdinals()).isEqualTo(1);
+        assertThat(facets.count("u1", Map.of())).isEqualTo(1);
+        assertThat(facets.count("u1", Map.of("category", List.of("soup")))).isZero();
+        Map<String, Map<String, Integer>> counts = facets.counts("u1", Map.of());
+        assertThat(counts.get("category")).containsExactly(Map.entry("dessert", 1));
+        assertThat(counts.get("difficulty")).containsExactly(Map.entry("medium", 1));
+    }
+}
@@ -0,0 +1,66 @@
+package com.rag.how_to_cook.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecipeParserTest {
+
+    private static final String RECIPE = """
+            # 红烧肉的做法
+
+            预估烹饪难度：★★★★
+
+            ## 必备原料和工具
+
+            - 五花肉 500g
+            - 冰糖（约 20 颗）
+            - 生抽：10ml
+            - 炒锅
+            - 菜刀
+
+            ## 计算
+
+            - 五花肉 500g
+
+            ## 操作
+
+            - 五花肉切块，冷水下锅焯水 3-5 分钟
+              - 撇去浮沫
+            - 小火炒糖色 30 秒
+            - 加水没过肉，炖 1 小时
+            1. 大火收汁
+            """;
+
+    @Test
+    void separatesIngredientsFromToolsAndCountsTopLevelSteps() {
+        RecipeParser.Parsed parsed = RecipeParser.parse(RECIPE);
+
+        assertThat(parsed.ingredients()).containsExactly("五花肉", "冰糖", "生抽");
+        assertThat(parsed.tools()).containsExactly("炒锅", "菜刀");
+        assertThat(parsed.stepCount()).isEqualTo(4);
+    }
+
+    @Test
+    void sumsDurationsUsingTheUpperBoundOfRanges() {
+        // 5 分钟 + 30 秒 + 60 分钟，向上取整
+        assertThat(RecipeParser.parse(RECIPE).estimatedMinutes()).isEqualTo(66);
+    }
+
+    @Test
+    void recipeWithoutDurationsHasNoEstimate() {
+        RecipeParser.Parsed parsed = RecipeParser.parse("## 操作\n\n- 拌匀\n- 装盘\n");
+
+        assertThat(parsed.stepCount()).isEqualTo(2);
+        assertThat(parsed.estimatedMinutes()).isNull();
+        assertThat(parsed.ingredients()).isEmpty();
+    }
+
+    @Test
+    void cleanNameStripsQuantitiesAndNotes() {
+        assertThat(RecipeParser.cleanName("生抽 10ml（可选）")).isEqualTo("生抽");
+        assertThat(RecipeParser.cleanName("**葱**、姜")).isEqualTo("葱");
+        assertThat(RecipeParser.cleanName("鸡蛋2个")).isEqualTo("鸡蛋");
+        assertThat(RecipeParser.cleanName("盐/糖")).isEqualTo("盐");
+    }
+}
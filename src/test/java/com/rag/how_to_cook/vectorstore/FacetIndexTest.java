@@ -0,0 +1,69 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FacetIndexTest {
+
+    private static FacetIndex index() {
+        FacetIndex index = new FacetIndex(List.of("userId", "category", "difficulty"));
+        index.add(0, Map.of("userId", "u1", "category", "soup", "difficulty", "easy"));
+        index.add(1, Map.of("userId", "u1", "category", "soup", "difficulty", "medium"));
+        index.add(2, Map.of("userId", "u1", "category", "dessert", "difficulty", "easy"));
+        index.add(3, Map.of("userId", "u2", "category", "soup", "difficulty", "easy"));
+        return index;
+    }
+
+    @Test
+    void valuesOfOneFieldAreOredAndFieldsAreAnded() {
+        FacetIndex index = index();
+
+        assertThat(index.select(Map.of("category", List.of("soup", "dessert"))).toArray()).containsExactly(0, 1, 2, 3);
+        assertThat(index.select(Map.of("userId", List.of("u1"), "difficulty", List.of("easy"))).toArray())
+                .containsExactly(0, 2);
+        assertThat(index.select(Map.of(
+                "userId", List.of("u1"),
+                "category", List.of("soup", "dessert"),
+                "difficulty", List.of("medium"))).toArray()).containsExactly(1);
+    }
+
+    @Test
+    void emptyValueListDoesNotRestrictAndUnknownValueMatchesNothing() {
+        FacetIndex index = index();
+
+        assertThat(index.count(Map.of("category", List.of()))).isEqualTo(4);
+        assertThat(index.count(Map.of("category", List.of("drink")))).isZero();
+        assertThatThrownBy(() -> index.count(Map.of("dishName", List.of("红烧肉"))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void countsAreOrderedByFrequencyAndSkipZeroes() {
+        FacetIndex index = index();
+
+        Map<String, Map<String, Integer>> counts =
+                index.counts(index.select(Map.of("userId", List.of("u1"))), List.of("category", "difficulty"));
+
+        assertThat(counts.keySet()).containsExactly("category", "difficulty");
+        assertThat(counts.get("category")).containsExactly(Map.entry("soup", 2), Map.entry("dessert", 1));
+        assertThat(counts.get("difficulty")).containsExactly(Map.entry("easy", 2), Map.entry("medium", 1));
+
+        Map<String, Map<String, Integer>> u2 = index.counts(index.select(Map.of("userId", List.of("u2"))), List.of("difficulty"));
+        assertThat(u2.get("difficulty")).containsOnlyKeys("easy");
+    }
+
+    @Test
+    void removeClearsTheOrdinalFromEveryValue() {
+        FacetIndex index = index();
+        index.remove(2, Map.of("userId", "u1", "category", "dessert", "difficulty", "easy"));
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.count(Map.of("category", List.of("dessert")))).isZero();
+        assertThat(index.counts(index.select(Map.of()), List.of("category")).get("category")).containsOnlyKeys("soup");
+    }
+}
@@ -0,0 +1,109 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswGraphTest {
+    private static final int DIM = 32;
+
+    /**
+     * 内存中的 float32 点积，向量已归一化
+     */
+    private record ArrayScorer(float[][] vectors) implements HnswGraph.Scorer {
+        @Override
+        public float score(float[] query, int ord) {
+            return dot(query, vectors[ord]);
+        }
+
+        @Override
+        public float score(int a, int b) {
+            return dot(vectors[a], vectors[b]);
+        }
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static float[][] randomVectors(int n, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[n][];
+        for (int i = 0; i < n; i++) {
+            float[] v = new float[DIM];
+            for (int d = 0; d < DIM; d++) v[d] = (float) random.nextGaussian();
+            vectors[i] = HnswVectorStore.normalize(v);
+        }
+        return vectors;
+    }
+
+    private static Set<Integer> exactTopK(float[][] vectors, float[] query, int k, java.util.function.IntPredicate accept) {
+        Integer[] ords = new Integer[vectors.length];
+        for (int i = 0; i < ords.length; i++) ords[i] = i;
+        return new HashSet<>(Arrays.stream(ords)
+                .filter(accept::test)
+                .sorted((a, b) -> Float.compare(dot(query, vectors[b]), dot(query, vectors[a])))
+                .limit(k)
+                .toList());
+    }
+
+    private static HnswGraph build(float[][] vectors) {
+        HnswGraph graph = new HnswGraph(new ArrayScorer(vectors), 16, 100);
+        for (int i = 0; i < vectors.length; i++) graph.insert(i, vectors[i]);
+        return graph;
+    }
+
+    @Test
+    void recallAgainstBruteForceIsHigh() {
+        float[][] vectors = randomVectors(2000, 1);
+        HnswGraph graph = build(vectors);
+        float[][] queries = randomVectors(50, 2);
+
+        int k = 10;
+        int hits = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = exactTopK(vectors, query, k, ord -> true);
+            for (int ord : graph.search(query, k, 64, ord -> true)) {
+                if (expected.contains(ord)) hits++;
+            }
+        }
+        assertThat(graph.size()).isEqualTo(2000);
+        assertThat(hits / (double) (k * queries.length)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void resultsAreSortedBySimilarityAndExactMatchComesFirst() {
+        float[][] vectors = randomVectors(500, 3);
+        HnswGraph graph = build(vectors);
+
+        int[] result = graph.search(vectors[42], 5, 64, ord -> true);
+
+        assertThat(result).hasSize(5);
+        assertThat(result[0]).isEqualTo(42);
+        for (int i = 1; i < result.length; i++) {
+            assertThat(dot(vectors[42], vectors[result[i - 1]])).isGreaterThanOrEqualTo(dot(vectors[42], vectors[result[i]]));
+        }
+    }
+
+    @Test
+    void filterIsAppliedDuringTraversal() {
+        float[][] vectors = randomVectors(1000, 4);
+        HnswGraph graph = build(vectors);
+        float[] query = randomVectors(1, 5)[0];
+
+        int[] result = graph.search(query, 10, 128, ord -> ord % 2 == 0);
+
+        assertThat(result).hasSize(10);
+        assertThat(Arrays.stream(result)).allSatisfy(ord -> assertThat(ord % 2).isZero());
+        Set<Integer> expected = exactTopK(vectors, query, 10, ord -> ord % 2 == 0);
+        long hits = Arrays.stream(result).filter(expected::contains).count();
+        assertThat(hits).isGreaterThanOrEqualTo(8);
+    }
+}
@@ -0,0 +1,147 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswVectorStoreTest {
+    private static final int DIM = 8;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * 文本形如 "3,-1,0"：按逗号解析为向量前几维，便于构造确定的相似度
+     */
+    private static final EmbeddingModel EMBEDDING = new EmbeddingModel() {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(embed(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public float[] embed(String text) {
+            float[] vector = new float[DIM];
+            String[] parts = text.split(",");
+            for (int i = 0; i < parts.length; i++) vector[i] = Float.parseFloat(parts[i].trim());
+            return vector;
+        }
+    };
+
+    private HnswVectorStore open() throws IOException {
+        return new HnswVectorStore(EMBEDDING, directory, DIM, 8, 50, 32);
+    }
+
+    private static Document doc(String id, String vector, String userId) {
+        return Document.builder().id(id).text(vector).metadata(Map.of("userId", userId)).build();
+    }
+
+    @Test
+    void scoresUseTheElasticsearchCosineScale() throws IOException {
+        try (HnswVectorStore store = open()) {
+            store.add(List.of(doc("same", "1,0", "u1"), doc("orthogonal", "0,1", "u1"), doc("opposite", "-1,0", "u1")));
+
+            List<Document> result = store.similaritySearch(SearchRequest.builder().query("1,0").topK(3).build());
+
+            // 默认阈值 0 不过滤任何结果，包括余弦为负的
+            assertThat(result).extracting(Document::getId).containsExactly("same", "orthogonal", "opposite");
+            assertThat(result).extracting(Document::getScore).containsExactly(1.0, 0.5, 0.0);
+
+            List<Document> thresholded = store.similaritySearch(
+                    SearchRequest.builder().query("1,0").topK(3).similarityThreshold(0.6).build());
+            assertThat(thresholded).extracting(Document::getId).containsExactly("same");
+        }
+    }
+
+    @Test
+    void metadataFilterRestrictsResults() throws IOException {
+        try (HnswVectorStore store = open()) {
+            store.add(List.of(doc("a", "1,0", "u1"), doc("b", "1,0.1", "u2")));
+
+            List<Document> result = store.similaritySearch(SearchRequest.builder()
+                    .query("1,0").topK(5)
+                    .filterExpression(new FilterExpressionBuilder().eq("userId", "u2").build())
+                    .build());
+
+            assertThat(result).extracting(Document::getId).containsExactly("b");
+        }
+    }
+
+    @Test
+    void journalIsReplayedOnReopen() throws IOException {
+        try (HnswVectorStore store = open()) {
+            store.add(List.of(doc("a", "1,0", "u1"), doc("b", "0,1", "u1")));
+            store.delete(List.of("a"));
+            store.add(List.of(doc("b", "0,0,1", "u1")));
+        }
+        try (HnswVectorStore store = open()) {
+            List<Document> docs = store.documents();
+            assertThat(docs).extracting(Document::getId).containsExactly("b");
+            assertThat(docs.get(0).getText()).isEqualTo("0,0,1");
+            assertThat(store.similaritySearch(SearchRequest.builder().query("0,0,1").topK(1).build()))
+                    .extracting(Document::getScore).containsExactly(1.0);
+        }
+    }
+
+    @Test
+    void deletedVectorsAreReclaimedByCompaction() throws IOException {
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 1600; i++) docs.add(doc("d" + i, (i % 7) + "," + (i % 5 + 1) + "," + (i % 3), "u1"));
+        try (HnswVectorStore store = open()) {
+            store.add(docs);
+            long bytesBefore = Files.size(directory.resolve("docs.jsonl"));
+            store.delete(docs.subList(0, 1200).stream().map(Document::getId).toList());
+
+            // 1200 个删除超过阈值，删除后立即压缩：日志只剩存活文档
+            assertThat(Files.readAllLines(directory.resolve("docs.jsonl"))).hasSize(400);
+            assertThat(Files.size(directory.resolve("docs.jsonl"))).isLessThan(bytesBefore);
+            assertThat(store.documents()).hasSize(400);
+            assertThat(store.similaritySearch(SearchRequest.builder().query("1,1,1").topK(5).build()))
+                    .hasSize(5)
+                    .allSatisfy(d -> assertThat(Integer.parseInt(d.getId().substring(1))).isGreaterThanOrEqualTo(1200));
+        }
+        assertThat(Files.exists(directory.resolve("vectors.bin.compact"))).isFalse();
+        try (HnswVectorStore store = open()) {
+            assertThat(store.documents()).hasSize(400);
+        }
+    }
+
+    @Test
+    void interruptedCompactionAfterCommitIsCompletedOnOpen() throws IOException {
+        try (HnswVectorStore store = open()) {
+            store.add(List.of(doc("a", "1,0", "u1")));
+        }
+        // 模拟日志已替换、向量文件尚未替换时崩溃：残留的 .compact 向量文件与当前日志一致
+        Files.copy(directory.resolve("vectors.bin"), directory.resolve("vectors.bin.compact"));
+        Files.write(directory.resolve("vectors.bin"), new byte[0]);
+
+        try (HnswVectorStore store = open()) {
+            assertThat(store.documents()).extracting(Document::getId).containsExactly("a");
+        }
+        assertThat(Files.exists(directory.resolve("vectors.bin.compact"))).isFalse();
+    }
+}
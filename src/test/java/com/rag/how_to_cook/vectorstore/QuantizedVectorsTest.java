@@ -0,0 +1,140 @@
+package com.rag.how_to_cook.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class QuantizedVectorsTest {
+    private static final int DIM = 100;
+
+    private static float[][] randomVectors(int n, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[n][];
+        for (int i = 0; i < n; i++) {
+            float[] v = new float[DIM];
+            for (int d = 0; d < DIM; d++) v[d] = (float) random.nextGaussian();
+            vectors[i] = HnswVectorStore.normalize(v);
+        }
+        return vectors;
+    }
+
+    @Test
+    void int8ScoresApproximateFloatDotProducts() {
+        VectorOps scalar = new VectorOps.ScalarVectorOps();
+        QuantizedVectors quantized = new QuantizedVectors(QuantizedVectors.Encoding.INT8, DIM, scalar);
+        float[][] vectors = randomVectors(200, 1);
+        for (float[] v : vectors) quantized.add(v);
+        QuantizedVectors.Int8Scorer scorer = new QuantizedVectors.Int8Scorer(quantized);
+
+        assertThat(quantized.size()).isEqualTo(200);
+        assertThat(quantized.bytesPerVector()).isEqualTo(DIM + 4);
+        for (int ord = 0; ord < vectors.length; ord++) {
+            float exact = scalar.dot(vectors[0], vectors[ord]);
+            assertThat(scorer.score(vectors[0], ord)).isCloseTo(exact, within(0.02f));
+            assertThat(scorer.score(0, ord)).isCloseTo(exact, within(0.02f));
+        }
+    }
+
+    @Test
+    void zeroVectorEncodesToZeroScore() {
+        QuantizedVectors quantized = new QuantizedVectors(QuantizedVectors.Encoding.INT8, DIM, new VectorOps.ScalarVectorOps());
+        quantized.add(new float[DIM]);
+
+        assertThat(new QuantizedVectors.Int8Scorer(quantized).score(randomVectors(1, 2)[0], 0)).isZero();
+    }
+
+    @Test
+    void hammingScanFindsSignIdenticalVectorsAndAppliesFilter() {
+        QuantizedVectors quantized = new QuantizedVectors(QuantizedVectors.Encoding.BINARY, DIM, new VectorOps.ScalarVectorOps());
+        float[][] vectors = randomVectors(300, 3);
+        for (float[] v : vectors) quantized.add(v);
+
+        assertThat(quantized.bytesPerVector()).isEqualTo(16);
+        int[] top = quantized.topByHamming(quantized.encodeQuery(vectors[7]), 5, ord -> true);
+        assertThat(top).hasSize(5).contains(7);
+
+        int[] filtered = quantized.topByHamming(quantized.encodeQuery(vectors[7]), 5, ord -> ord != 7);
+        assertThat(filtered).hasSize(5).doesNotContain(7);
+    }
+
+    @Test
+    void simdAndScalarDotProductsAgree() {
+        VectorOps scalar = new VectorOps.ScalarVectorOps();
+        VectorOps ops = VectorOps.create();
+        float[][] vectors = randomVectors(2, 4);
+        byte[] codes = new byte[DIM * 2];
+        new Random(5).nextBytes(codes);
+        // 边界值：int8 乘积的最大值
+        codes[0] = -128;
+        codes[DIM] = -128;
+
+        assertThat(ops.dot(vectors[0], vectors[1])).isCloseTo(scalar.dot(vectors[0], vectors[1]), within(1e-5f));
+        assertThat(ops.dot(vectors[0], codes, DIM)).isCloseTo(scalar.dot(vectors[0], codes, DIM), within(1e-2f));
+        assertThat(ops.dot(codes, 0, DIM, DIM)).isEqualTo(scalar.dot(codes, 0, DIM, DIM));
+    }
+
+    @Test
+    void quantizedStoresRerankWithExactFloatScores(@TempDir Path root) throws Exception {
+        float[][] vectors = randomVectors(500, 6);
+        for (String quantization : new String[]{"int8", "binary"}) {
+            try (HnswVectorStore store = new HnswVectorStore(new VectorEmbeddingModel(vectors), root.resolve(quantization),
+                    DIM, 16, 100, 64, quantization, 100)) {
+                store.add(IntStream.range(0, vectors.length)
+                        .mapToObj(i -> Document.builder()
+                                .id("v" + i).text(String.valueOf(i)).metadata(Map.of("userId", "u1")).build())
+                        .toList());
+
+                var result = store.similaritySearch(SearchRequest.builder()
+                        .query("42").topK(3).build());
+
+                assertThat(result).as(quantization).first().satisfies(doc -> {
+                    assertThat(doc.getId()).isEqualTo("v42");
+                    assertThat(doc.getScore()).isCloseTo(1.0, within(1e-5));
+                });
+                double[] scores = result.stream().mapToDouble(Document::getScore).toArray();
+                double[] sorted = Arrays.stream(scores).boxed().sorted((a, b) -> Double.compare(b, a)).mapToDouble(Double::doubleValue).toArray();
+                assertThat(scores).as(quantization).containsExactly(sorted);
+            }
+        }
+    }
+
+    /**
+     * 文本为向量序号，返回对应的固定向量
+     */
+    private record VectorEmbeddingModel(float[][] vectors) implements EmbeddingModel {
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(embed(request.getInstructions().get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        @Override
+        public float[] embed(String text) {
+            return vectors[Integer.parseInt(text)];
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.rag.how_to_cook.web;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SseFrameEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void utf8LengthMatchesJdkEncoding() {
+        for (String s : List.of("abc", "番茄炒蛋", "é", "😀 emoji", "a😀b")) {
+            assertThat(SseFrameEncoder.utf8Length(s)).as(s).isEqualTo(s.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    @Test
+    void unpairedSurrogatesCountAsReplacementCharacter() {
+        assertThat(SseFrameEncoder.utf8Length("\uD83D")).isEqualTo(3);
+        assertThat(SseFrameEncoder.utf8Length("\uD83Dx")).isEqualTo(4);
+        assertThat(SseFrameEncoder.utf8Length("\uDE00")).isEqualTo(3);
+    }
+
+    @Test
+    void frameIsValidJsonWithEscapedContent() throws Exception {
+        SseFrameEncoder encoder = new SseFrameEncoder(Duration.ZERO, 4096, 64);
+        String content = "第一步\n\"加盐\"\\t\u0001😀\uD83D";
+        DataBuffer buffer = encoder.encodeFrame(List.of(content), encoder.frameSuffix("chat-1"), DefaultDataBufferFactory.sharedInstance);
+        String frame = buffer.toString(StandardCharsets.UTF_8);
+
+        assertThat(frame).startsWith("data:").endsWith("\n\n");
+        JsonNode json = objectMapper.readTree(frame.substring("data:".length()));
+        assertThat(json.get("content").asText()).isEqualTo("第一步\n\"加盐\"\\t\u0001😀\uFFFD");
+        assertThat(json.get("chatId").asText()).isEqualTo("chat-1");
+    }
+
+    @Test
+    void coalescesByTokenCountWithoutTimeWindow() {
+        SseFrameEncoder encoder = new SseFrameEncoder(Duration.ZERO, 4096, 2);
+        StepVerifier.create(encoder.coalesce(Flux.just("a", "b", "c", "d", "e")))
+                .expectNext(List.of("a", "b"), List.of("c", "d"), List.of("e"))
+                .verifyComplete();
+    }
+
+    @Test
+    void coalescesByFrameBytes() {
+        SseFrameEncoder encoder = new SseFrameEncoder(Duration.ZERO, 6, 64);
+        // 每个汉字 3 字节，满 6 字节切帧
+        StepVerifier.create(encoder.coalesce(Flux.just("番", "茄", "炒", "蛋", "!")))
+                .expectNext(List.of("番", "茄"), List.of("炒", "蛋"), List.of("!"))
+                .verifyComplete();
+    }
+}